@@ -12,6 +12,7 @@ import android.util.Log;
 
 import androidx.core.content.ContextCompat;
 
+import com.getcapacitor.JSArray;
 import com.getcapacitor.JSObject;
 import com.getcapacitor.Plugin;
 import com.getcapacitor.PluginCall;
@@ -20,6 +21,8 @@ import com.getcapacitor.annotation.CapacitorPlugin;
 import com.getcapacitor.annotation.Permission;
 import com.getcapacitor.annotation.PermissionCallback;
 
+import java.io.IOException;
+
 /**
  * Capacitor Plugin for Production-Grade Background Location Tracking
  * 
@@ -53,6 +56,48 @@ import com.getcapacitor.annotation.PermissionCallback;
 public class BackgroundLocationPlugin extends Plugin {
     private static final String TAG = "BackgroundLocationPlugin";
     
+    // Batched fixes, activity and sync status from the service (see LocationEventBridge)
+    static final String EVENT_TRACKING_UPDATE = "trackingUpdate";
+    
+    private volatile boolean foreground = true;
+    
+    private final LocationEventBridge.Sink eventSink = new LocationEventBridge.Sink() {
+        @Override
+        public boolean isListening() {
+            return hasListeners(EVENT_TRACKING_UPDATE);
+        }
+        
+        @Override
+        public boolean isForeground() {
+            return foreground;
+        }
+        
+        @Override
+        public void deliver(LocationEventBridge.Batch batch) {
+            notifyListeners(EVENT_TRACKING_UPDATE, trackingUpdate(batch));
+        }
+    };
+    
+    @Override
+    public void load() {
+        LocationBackgroundService.setEventSink(eventSink);
+    }
+    
+    @Override
+    protected void handleOnResume() {
+        foreground = true;
+    }
+    
+    @Override
+    protected void handleOnPause() {
+        foreground = false;
+    }
+    
+    @Override
+    protected void handleOnDestroy() {
+        LocationBackgroundService.clearEventSink(eventSink);
+    }
+    
     @PluginMethod
     public void startTracking(PluginCall call) {
         Log.d(TAG, "startTracking called");
@@ -72,8 +117,36 @@ public class BackgroundLocationPlugin extends Plugin {
             return;
         }
         
+        // Tracking profile: "realtime" (default) or "deferred" chipset batching
+        String mode = call.getString("mode", LocationBackgroundService.TRACKING_MODE_REALTIME);
+        if (!LocationBackgroundService.TRACKING_MODE_REALTIME.equals(mode)
+                && !LocationBackgroundService.TRACKING_MODE_DEFERRED.equals(mode)) {
+            call.reject("Unknown tracking mode: " + mode);
+            return;
+        }
+        Integer maxUpdateDelayMs = call.getInt("maxUpdateDelayMs",
+            (int) LocationBackgroundService.DEFAULT_MAX_UPDATE_DELAY_MS);
+        if (maxUpdateDelayMs == null || maxUpdateDelayMs < 0) {
+            call.reject("maxUpdateDelayMs must be a non-negative number");
+            return;
+        }
+    
+        // Transmit-on-deviation for the latest position: off unless a tolerance is given
+        Double positionToleranceMeters = call.getDouble("positionToleranceMeters", 0.0);
+        if (positionToleranceMeters == null || positionToleranceMeters < 0) {
+            call.reject("positionToleranceMeters must be a non-negative number");
+            return;
+        }
+        Integer maxSilenceMs = call.getInt("maxSilenceMs", (int) DeadReckoningGate.DEFAULT_MAX_SILENCE_MS);
+        if (maxSilenceMs == null || maxSilenceMs <= 0) {
+            call.reject("maxSilenceMs must be a positive number");
+            return;
+        }
+        
         // Save credentials and tracking state
         LocationBackgroundService.saveCredentials(getContext(), authToken, apiUrl);
+        LocationBackgroundService.saveTrackingProfile(getContext(), mode, maxUpdateDelayMs,
+            positionToleranceMeters.floatValue(), maxSilenceMs);
         LocationBackgroundService.setTrackingEnabled(getContext(), true);
         
         // Request battery optimization exemption (opens system dialog)
@@ -93,6 +166,7 @@ public class BackgroundLocationPlugin extends Plugin {
             JSObject ret = new JSObject();
             ret.put("success", true);
             ret.put("message", "Background location tracking started (production mode)");
+            ret.put("mode", mode);
             ret.put("features", getEnabledFeatures());
             call.resolve(ret);
             
@@ -235,6 +309,184 @@ public class BackgroundLocationPlugin extends Plugin {
         call.resolve(ret);
     }
     
+    @PluginMethod
+    public void getDiagnostics(PluginCall call) {
+        JSObject ret = new JSObject();
+        ret.put("isTracking", LocationBackgroundService.isTrackingEnabled(getContext()));
+        
+        WakeLockManager wakeLocks = LocationBackgroundService.wakeLockManager();
+        if (wakeLocks != null) {
+            JSObject wake = new JSObject();
+            wake.put("heldMs", wakeLocks.lockHeldMs());
+            wake.put("sinceMs", wakeLocks.sinceCreatedMs());
+            wake.put("acquisitions", wakeLocks.lockAcquisitions());
+            wake.put("activeHolds", wakeLocks.activeHolds());
+            JSObject reasons = new JSObject();
+            for (WakeLockManager.Reason reason : WakeLockManager.Reason.values()) {
+                JSObject stats = new JSObject();
+                stats.put("holds", wakeLocks.holdCount(reason));
+                stats.put("heldMs", wakeLocks.heldMs(reason));
+                stats.put("maxHoldMs", wakeLocks.maxHoldMs(reason));
+                stats.put("overruns", wakeLocks.overruns(reason));
+                reasons.put(reason.key, stats);
+            }
+            wake.put("reasons", reasons);
+            ret.put("wakeLocks", wake);
+        }
+        
+        LocationUploader uploader = LocationBackgroundService.locationUploader();
+        if (uploader != null) {
+            JSObject uplink = new JSObject();
+            JSObject latest = laneStats(uploader.latestStats());
+            latest.put("enabled", uploader.isLatestLaneSupported());
+            DeadReckoningGate gate = uploader.deadReckoning();
+            if (gate != null && gate.isEnabled()) {
+                JSObject deadReckoning = new JSObject();
+                deadReckoning.put("toleranceMeters", gate.toleranceMeters());
+                deadReckoning.put("maxSilenceMs", gate.maxSilenceMs());
+                deadReckoning.put("passed", gate.passedCount());
+                deadReckoning.put("suppressed", gate.suppressedCount());
+                latest.put("deadReckoning", deadReckoning);
+            }
+            uplink.put("latest", latest);
+            JSObject history = laneStats(uploader.historyStats());
+            BatchSizeController sizer = uploader.batchSizer();
+            history.put("chunkSize", sizer.chunkSize());
+            history.put("timeoutMs", sizer.timeoutMs());
+            history.put("rttMs", sizer.rttMs());
+            history.put("fixesPerSecond", sizer.fixesPerSecond());
+            history.put("parallelRounds", uploader.parallelRounds());
+            history.put("outOfOrderSupported", uploader.isOutOfOrderSupported());
+            uplink.put("history", history);
+            JSObject segments = laneStats(uploader.segmentStats());
+            segments.put("enabled", uploader.isSegmentLaneSupported());
+            uplink.put("segments", segments);
+            ret.put("uplink", uplink);
+        }
+        
+        ret.put("metrics", metrics(LocationBackgroundService.metrics()));
+        call.resolve(ret);
+    }
+    
+    private static JSObject metrics(MetricsRegistry registry) {
+        JSObject counters = new JSObject();
+        for (MetricsRegistry.Counter counter : MetricsRegistry.Counter.values()) {
+            counters.put(counter.key, registry.count(counter));
+        }
+        JSObject histograms = new JSObject();
+        for (MetricsRegistry.Histogram histogram : MetricsRegistry.Histogram.values()) {
+            JSObject h = new JSObject();
+            h.put("count", registry.count(histogram));
+            h.put("sum", registry.sum(histogram));
+            h.put("max", registry.max(histogram));
+            h.put("p50", registry.quantile(histogram, 0.5));
+            h.put("p90", registry.quantile(histogram, 0.9));
+            h.put("p99", registry.quantile(histogram, 0.99));
+            JSArray buckets = new JSArray();
+            for (int i = 0; i < histogram.bucketCount(); i++) {
+                long bound = histogram.upperBound(i);
+                JSObject bucket = new JSObject();
+                // -1 marks the overflow bucket (Long.MAX_VALUE does not survive JS numbers)
+                bucket.put("le", bound == Long.MAX_VALUE ? -1 : bound);
+                bucket.put("count", registry.bucketCount(histogram, i));
+                buckets.put(bucket);
+            }
+            h.put("buckets", buckets);
+            histograms.put(histogram.key, h);
+        }
+        JSObject metrics = new JSObject();
+        metrics.put("counters", counters);
+        metrics.put("histograms", histograms);
+        return metrics;
+    }
+    
+    /**
+     * Fixes recorded on this device between {@code from} and {@code to}
+     * (epoch ms, inclusive; {@code to} defaults to now), oldest first,
+     * downsampled to {@code maxPoints} when given - no network needed.
+     */
+    @PluginMethod
+    public void getHistory(PluginCall call) {
+        Long from = call.getLong("from");
+        Long to = call.getLong("to", System.currentTimeMillis());
+        Integer maxPoints = call.getInt("maxPoints", 0);
+        if (from == null || to == null || from > to) {
+            call.reject("from is required and must not be after to");
+            return;
+        }
+        if (maxPoints == null || maxPoints < 0) {
+            call.reject("maxPoints must be a non-negative number");
+            return;
+        }
+        
+        LocationHistoryStore history = LocationBackgroundService.historyStore(getContext());
+        if (history == null) {
+            call.reject("Location history unavailable");
+            return;
+        }
+        JSArray positions = new JSArray();
+        try {
+            history.query(from, to, maxPoints, fix -> positions.put(position(fix)));
+        } catch (IOException e) {
+            Log.e(TAG, "History query failed", e);
+            call.reject("Failed to read location history: " + e.getMessage());
+            return;
+        }
+        JSObject ret = new JSObject();
+        ret.put("positions", positions);
+        ret.put("oldestAvailable", history.oldestTimestamp());
+        call.resolve(ret);
+    }
+    
+    private static JSObject position(FixRecord fix) {
+        JSObject position = new JSObject();
+        position.put("timestamp", fix.timestamp);
+        position.put("latitude", fix.latitude);
+        position.put("longitude", fix.longitude);
+        position.put("accuracy", fix.accuracy);
+        if (fix.hasSpeed()) {
+            position.put("speed", fix.speed);
+        }
+        if (fix.hasHeading()) {
+            position.put("heading", fix.heading);
+        }
+        position.put("confidence", fix.confidence);
+        position.put("activity", LocationBackgroundService.activityKey(fix.activity));
+        return position;
+    }
+    
+    private static JSObject trackingUpdate(LocationEventBridge.Batch batch) {
+        JSArray positions = new JSArray();
+        for (FixRecord fix : batch.positions) {
+            positions.put(position(fix));
+        }
+        JSObject update = new JSObject();
+        update.put("positions", positions);
+        update.put("droppedPositions", batch.droppedPositions);
+        if (batch.activity != null) {
+            update.put("activity", batch.activity);
+        }
+        if (batch.sync != null) {
+            JSObject sync = new JSObject();
+            sync.put("success", batch.sync.success);
+            sync.put("pending", batch.sync.pending);
+            sync.put("at", batch.sync.at);
+            update.put("sync", sync);
+        }
+        return update;
+    }
+    
+    private static JSObject laneStats(LocationUploader.LaneStats stats) {
+        JSObject lane = new JSObject();
+        lane.put("requests", stats.requests());
+        lane.put("failures", stats.failures());
+        lane.put("fixes", stats.fixes());
+        lane.put("bytes", stats.bytes());
+        lane.put("lastSuccessAt", stats.lastSuccessAt());
+        lane.put("lastFixAgeMs", stats.lastFixAgeMs());
+        return lane;
+    }
+    
     // ==================== Permission Callbacks ====================
     
     @PermissionCallback
@@ -0,0 +1,160 @@
+package com.loctrack.app;
+
+import java.util.Locale;
+
+/**
+ * Sizes history uploads and their read timeout from what the link
+ * actually delivers, instead of a fixed 100 fixes and 15 s.
+ *
+ * - AIMD on the chunk size: doubles from the start (slow start) until the
+ *   first sign of trouble, then grows by {@code ADDITIVE_STEP} per full,
+ *   fast-enough request; a failure or timeout halves it (so the failed
+ *   chunk is split rather than resent whole) and caps slow start there
+ * - A request slower than {@code targetRequestMs} counts as congestion and
+ *   shrinks the chunk even though it succeeded
+ * - Growth is capped at twice what measured goodput moves within the
+ *   target, so one fast request on a slow link cannot jump far ahead
+ * - Read timeout per request: RTT estimate plus four deviations (RFC 6298
+ *   style), and at least twice the time the chunk should take at measured
+ *   goodput, within [{@code minTimeoutMs}, {@code maxTimeoutMs}]
+ *
+ * Pure logic, no clock - fed request outcomes by the uploader. Thread-safe.
+ */
+public final class BatchSizeController {
+
+    public static final int MIN_CHUNK = 10;
+    public static final int INITIAL_CHUNK = 100;
+    public static final int MAX_CHUNK = 2000;
+    public static final int ADDITIVE_STEP = 50;
+
+    public static final long DEFAULT_TARGET_REQUEST_MS = 8_000;
+    public static final int DEFAULT_MIN_TIMEOUT_MS = 5_000;
+    public static final int DEFAULT_MAX_TIMEOUT_MS = 60_000;
+
+    // RFC 6298 gains
+    private static final double RTT_ALPHA = 0.125;
+    private static final double RTT_BETA = 0.25;
+    private static final double GOODPUT_ALPHA = 0.3;
+
+    private final long targetRequestMs;
+    private final int minTimeoutMs;
+    private final int maxTimeoutMs;
+    private final int initialTimeoutMs;
+
+    private int chunk = INITIAL_CHUNK;
+    private int slowStartLimit = MAX_CHUNK;
+    private double srttMs = -1;
+    private double rttVarMs;
+    private double fixesPerSecond = -1;
+
+    private long increases;
+    private long decreases;
+    private long failures;
+
+    public BatchSizeController() {
+        this(DEFAULT_TARGET_REQUEST_MS, DEFAULT_MIN_TIMEOUT_MS, DEFAULT_MAX_TIMEOUT_MS, UplinkClient.DEFAULT_TIMEOUT_MS);
+    }
+
+    public BatchSizeController(long targetRequestMs, int minTimeoutMs, int maxTimeoutMs, int initialTimeoutMs) {
+        this.targetRequestMs = targetRequestMs;
+        this.minTimeoutMs = minTimeoutMs;
+        this.maxTimeoutMs = maxTimeoutMs;
+        this.initialTimeoutMs = initialTimeoutMs;
+    }
+
+    /** Fixes to put in the next request. */
+    public synchronized int chunkSize() {
+        return chunk;
+    }
+
+    /** Read timeout for a request of {@link #chunkSize()} fixes. */
+    public synchronized int timeoutMs() {
+        if (srttMs < 0) {
+            return initialTimeoutMs;
+        }
+        double timeout = srttMs + 4 * rttVarMs;
+        if (fixesPerSecond > 0) {
+            timeout = Math.max(timeout, 2_000.0 * chunk / fixesPerSecond);
+        }
+        return (int) Math.max(minTimeoutMs, Math.min(maxTimeoutMs, timeout));
+    }
+
+    /**
+     * A request of {@code fixes} fixes completed in {@code durationMs};
+     * {@code full} when the queue had at least a chunk to send.
+     */
+    public synchronized void onSuccess(int fixes, long durationMs, boolean full) {
+        if (fixes <= 0) {
+            return;
+        }
+        sampleRtt(durationMs);
+        double sample = fixes * 1000.0 / Math.max(1, durationMs);
+        fixesPerSecond = fixesPerSecond < 0 ? sample : fixesPerSecond + GOODPUT_ALPHA * (sample - fixesPerSecond);
+
+        if (durationMs > targetRequestMs) {
+            decrease();
+        } else if (full && fixes >= chunk) {
+            int next = chunk < slowStartLimit ? chunk * 2 : chunk + ADDITIVE_STEP;
+            int byGoodput = (int) Math.min(MAX_CHUNK, 2 * fixesPerSecond * targetRequestMs / 1000);
+            next = Math.min(Math.min(next, MAX_CHUNK), Math.max(chunk, byGoodput));
+            if (next > chunk) {
+                chunk = next;
+                increases++;
+            }
+        }
+    }
+
+    /** The request failed or timed out; the next one carries half as many fixes. */
+    public synchronized void onFailure() {
+        failures++;
+        decrease();
+    }
+
+    private void decrease() {
+        int next = Math.max(MIN_CHUNK, chunk / 2);
+        slowStartLimit = next;
+        if (next < chunk) {
+            chunk = next;
+            decreases++;
+        }
+    }
+
+    private void sampleRtt(long durationMs) {
+        if (srttMs < 0) {
+            srttMs = durationMs;
+            rttVarMs = durationMs / 2.0;
+        } else {
+            rttVarMs += RTT_BETA * (Math.abs(srttMs - durationMs) - rttVarMs);
+            srttMs += RTT_ALPHA * (durationMs - srttMs);
+        }
+    }
+
+    // ==================== DIAGNOSTICS ====================
+
+    /** Smoothed request duration, -1 before the first success. */
+    public synchronized long rttMs() {
+        return Math.round(srttMs);
+    }
+
+    /** Smoothed fixes delivered per second, -1 before the first success. */
+    public synchronized double fixesPerSecond() {
+        return fixesPerSecond;
+    }
+
+    public synchronized long increases() {
+        return increases;
+    }
+
+    public synchronized long decreases() {
+        return decreases;
+    }
+
+    public synchronized long failures() {
+        return failures;
+    }
+
+    public synchronized String summary() {
+        return String.format(Locale.US, "chunk=%d timeout=%dms rtt=%dms goodput=%.1f fixes/s +%d/-%d",
+            chunk, timeoutMs(), rttMs(), fixesPerSecond, increases, decreases);
+    }
+}
@@ -0,0 +1,114 @@
+package com.loctrack.app;
+
+/**
+ * Transmit-on-deviation for the latest-position lane: a fix is only sent
+ * when the position the server dead-reckons from the last sent fix has
+ * drifted more than {@code toleranceMeters} from it, or after
+ * {@code maxSilenceMs} without sending.
+ *
+ * Both sides run the same predictor ({@link #predict}, ported line for line
+ * to server/deadReckoning.js): straight-line motion from the last sent
+ * position along its heading at its speed, quantized to cm/s and tenths
+ * of a degree, for at most {@code maxSilenceMs}. No speed or heading means
+ * standing still. Stateless and free of clocks, so the dashboard sees what
+ * the device assumed it would see.
+ *
+ * The reference moves on every fix let through, not on delivery - the lane
+ * coalesces to the newest fix anyway, and a send that never lands is
+ * bounded by the silence period. Not thread-safe; pipeline thread only.
+ */
+public final class DeadReckoningGate {
+
+    public static final long DEFAULT_MAX_SILENCE_MS = 2 * 60_000;
+
+    private static final double METRES_PER_DEG_LAT = 111_320.0;
+    private static final double DEG_TO_RAD = Math.PI / 180.0;
+
+    private final float toleranceMeters;
+    private final long maxSilenceMs;
+
+    private boolean hasReference;
+    private double referenceLatitude;
+    private double referenceLongitude;
+    private float referenceSpeed;
+    private float referenceHeading;
+    private long referenceTime;
+    private final double[] predicted = new double[2];
+
+    private long passed;
+    private long suppressed;
+
+    /** {@code toleranceMeters <= 0} lets every fix through. */
+    public DeadReckoningGate(float toleranceMeters, long maxSilenceMs) {
+        this.toleranceMeters = toleranceMeters;
+        this.maxSilenceMs = maxSilenceMs;
+    }
+
+    public boolean isEnabled() {
+        return toleranceMeters > 0;
+    }
+
+    public float toleranceMeters() {
+        return toleranceMeters;
+    }
+
+    public long maxSilenceMs() {
+        return maxSilenceMs;
+    }
+
+    /**
+     * True when {@code fix} should go out on the latest lane; it then becomes
+     * the reference the server predicts from.
+     */
+    public boolean offer(FixRecord fix) {
+        if (isEnabled() && hasReference && fix.timestamp >= referenceTime
+                && fix.timestamp - referenceTime < maxSilenceMs) {
+            predict(referenceLatitude, referenceLongitude, referenceSpeed, referenceHeading,
+                referenceTime, fix.timestamp, maxSilenceMs, predicted);
+            if (StayTripSegmenter.distanceMeters(predicted[0], predicted[1], fix.latitude, fix.longitude)
+                    <= toleranceMeters) {
+                suppressed++;
+                return false;
+            }
+        }
+        hasReference = true;
+        referenceLatitude = fix.latitude;
+        referenceLongitude = fix.longitude;
+        referenceSpeed = fix.speed;
+        referenceHeading = fix.heading;
+        referenceTime = fix.timestamp;
+        passed++;
+        return true;
+    }
+
+    /** Fixes let through to the lane. */
+    public long passedCount() {
+        return passed;
+    }
+
+    /** Fixes held back because the prediction was close enough. */
+    public long suppressedCount() {
+        return suppressed;
+    }
+
+    /**
+     * Dead-reckoned position at {@code atMs} from a fix at {@code fromMs},
+     * into {@code out} (latitude, longitude). Keep in step with
+     * predictPosition() in server/deadReckoning.js.
+     */
+    public static void predict(double latitude, double longitude, float speed, float heading,
+                               long fromMs, long atMs, long horizonMs, double[] out) {
+        out[0] = latitude;
+        out[1] = longitude;
+        if (!(speed > 0) || Float.isNaN(heading)) {
+            return;
+        }
+        double metresPerSecond = Math.round(speed * 100f) / 100.0;
+        double bearing = Math.round(heading * 10f) / 10.0 * DEG_TO_RAD;
+        double seconds = Math.min(Math.max(atMs - fromMs, 0), horizonMs) / 1000.0;
+        double metres = metresPerSecond * seconds;
+        out[0] = latitude + metres * StrictMath.cos(bearing) / METRES_PER_DEG_LAT;
+        out[1] = longitude + metres * StrictMath.sin(bearing)
+            / (METRES_PER_DEG_LAT * StrictMath.cos(latitude * DEG_TO_RAD));
+    }
+}
@@ -0,0 +1,115 @@
+package com.loctrack.app;
+
+/**
+ * Immutable snapshot of the device conditions tracking decisions depend on:
+ * battery, charging, network type / metered, power-save and doze.
+ *
+ * Published by {@link DeviceContextSampler} through a volatile reference,
+ * so readers on any thread get a consistent snapshot without locking.
+ */
+public final class DeviceContext {
+    public static final int NETWORK_UNKNOWN = 0;
+    public static final int NETWORK_NONE = 1;
+    public static final int NETWORK_WIFI = 2;
+    public static final int NETWORK_CELLULAR = 3;
+    public static final int NETWORK_ETHERNET = 4;
+    public static final int NETWORK_OTHER = 5;
+
+    /** Nothing sampled yet. */
+    public static final DeviceContext UNKNOWN =
+        new DeviceContext(-1, false, NETWORK_UNKNOWN, false, false, false);
+
+    /** Battery percentage 0-100, or -1 if unknown. */
+    public final int batteryLevel;
+    public final boolean charging;
+    public final int networkType;
+    public final boolean metered;
+    public final boolean powerSaveMode;
+    public final boolean deviceIdle;
+
+    public DeviceContext(int batteryLevel, boolean charging, int networkType,
+                         boolean metered, boolean powerSaveMode, boolean deviceIdle) {
+        this.batteryLevel = batteryLevel;
+        this.charging = charging;
+        this.networkType = networkType;
+        this.metered = metered;
+        this.powerSaveMode = powerSaveMode;
+        this.deviceIdle = deviceIdle;
+    }
+
+    public DeviceContext withBattery(int level, boolean isCharging) {
+        return new DeviceContext(level, isCharging, networkType, metered, powerSaveMode, deviceIdle);
+    }
+
+    public DeviceContext withNetwork(int type, boolean isMetered) {
+        return new DeviceContext(batteryLevel, charging, type, isMetered, powerSaveMode, deviceIdle);
+    }
+
+    public DeviceContext withPower(boolean powerSave, boolean idle) {
+        return new DeviceContext(batteryLevel, charging, networkType, metered, powerSave, idle);
+    }
+
+    public boolean isOnline() {
+        return networkType != NETWORK_NONE && networkType != NETWORK_UNKNOWN;
+    }
+
+    /** Known to have no network (as opposed to not sampled yet). */
+    public boolean isOffline() {
+        return networkType == NETWORK_NONE;
+    }
+
+    /** Battery below {@code threshold} percent and not charging. */
+    public boolean isBatteryLow(int threshold) {
+        return batteryLevel >= 0 && batteryLevel < threshold && !charging;
+    }
+
+    /** Network status code for {@link FixRecord#networkStatus}. */
+    public byte networkStatus() {
+        switch (networkType) {
+            case NETWORK_UNKNOWN: return FixRecord.NETWORK_UNKNOWN;
+            case NETWORK_NONE: return FixRecord.NETWORK_OFFLINE;
+            default: return FixRecord.NETWORK_ONLINE;
+        }
+    }
+
+    public static String networkTypeName(int type) {
+        switch (type) {
+            case NETWORK_NONE: return "none";
+            case NETWORK_WIFI: return "wifi";
+            case NETWORK_CELLULAR: return "cellular";
+            case NETWORK_ETHERNET: return "ethernet";
+            case NETWORK_OTHER: return "other";
+            default: return "unknown";
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof DeviceContext)) return false;
+        DeviceContext other = (DeviceContext) o;
+        return batteryLevel == other.batteryLevel
+            && charging == other.charging
+            && networkType == other.networkType
+            && metered == other.metered
+            && powerSaveMode == other.powerSaveMode
+            && deviceIdle == other.deviceIdle;
+    }
+
+    @Override
+    public int hashCode() {
+        int h = batteryLevel;
+        h = 31 * h + (charging ? 1 : 0);
+        h = 31 * h + networkType;
+        h = 31 * h + (metered ? 1 : 0);
+        h = 31 * h + (powerSaveMode ? 1 : 0);
+        return 31 * h + (deviceIdle ? 1 : 0);
+    }
+
+    @Override
+    public String toString() {
+        return "battery=" + batteryLevel + "%" + (charging ? " charging" : "")
+            + " network=" + networkTypeName(networkType) + (metered ? " metered" : "")
+            + (powerSaveMode ? " power-save" : "") + (deviceIdle ? " doze" : "");
+    }
+}
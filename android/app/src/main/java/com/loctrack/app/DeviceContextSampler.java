@@ -0,0 +1,194 @@
+package com.loctrack.app;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.PowerManager;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Keeps a cached {@link DeviceContext} up to date from system callbacks
+ * instead of querying on every fix:
+ * - ACTION_BATTERY_CHANGED for level and charging state
+ * - a default-network callback for network type and metered flag
+ * - power-save and device-idle (doze) broadcasts
+ *
+ * All updates are applied on the given handler's thread (single writer) and
+ * published through a volatile field, so {@link #current()} is a plain read.
+ * Listeners are called on that thread when the snapshot changes.
+ */
+public class DeviceContextSampler {
+    private static final String TAG = "DeviceContextSampler";
+
+    public interface Listener {
+        void onDeviceContextChanged(DeviceContext previous, DeviceContext current);
+    }
+
+    private final Context context;
+    private final Handler handler;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    private volatile DeviceContext current = DeviceContext.UNKNOWN;
+
+    private BroadcastReceiver batteryReceiver;
+    private BroadcastReceiver powerReceiver;
+    private ConnectivityManager.NetworkCallback networkCallback;
+
+    public DeviceContextSampler(Context context, Handler handler) {
+        this.context = context;
+        this.handler = handler;
+    }
+
+    /** Latest snapshot; never null. Safe to call from any thread. */
+    public DeviceContext current() {
+        return current;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    // ==================== LIFECYCLE ====================
+
+    public void start() {
+        batteryReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context c, Intent intent) {
+                onBatteryIntent(intent);
+            }
+        };
+        // Sticky broadcast - the current state is delivered right away
+        context.registerReceiver(batteryReceiver,
+            new IntentFilter(Intent.ACTION_BATTERY_CHANGED), null, handler);
+
+        powerReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context c, Intent intent) {
+                samplePowerState();
+            }
+        };
+        IntentFilter powerFilter = new IntentFilter();
+        powerFilter.addAction(PowerManager.ACTION_POWER_SAVE_MODE_CHANGED);
+        powerFilter.addAction(PowerManager.ACTION_DEVICE_IDLE_MODE_CHANGED);
+        context.registerReceiver(powerReceiver, powerFilter, null, handler);
+        handler.post(this::samplePowerState);
+
+        ConnectivityManager connectivity =
+            (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (connectivity != null) {
+            networkCallback = new ConnectivityManager.NetworkCallback() {
+                @Override
+                public void onCapabilitiesChanged(@NonNull Network network, @NonNull NetworkCapabilities caps) {
+                    postNetwork(networkType(caps), !caps.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED));
+                }
+
+                @Override
+                public void onLost(@NonNull Network network) {
+                    postNetwork(DeviceContext.NETWORK_NONE, false);
+                }
+            };
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                connectivity.registerDefaultNetworkCallback(networkCallback, handler);
+            } else {
+                connectivity.registerDefaultNetworkCallback(networkCallback);
+            }
+            // No callback fires when there is no default network at all
+            if (connectivity.getActiveNetwork() == null) {
+                postNetwork(DeviceContext.NETWORK_NONE, false);
+            }
+        }
+    }
+
+    public void stop() {
+        if (batteryReceiver != null) {
+            unregisterQuietly(batteryReceiver);
+            batteryReceiver = null;
+        }
+        if (powerReceiver != null) {
+            unregisterQuietly(powerReceiver);
+            powerReceiver = null;
+        }
+        if (networkCallback != null) {
+            ConnectivityManager connectivity =
+                (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+            if (connectivity != null) {
+                try {
+                    connectivity.unregisterNetworkCallback(networkCallback);
+                } catch (IllegalArgumentException e) {
+                    // Already unregistered
+                }
+            }
+            networkCallback = null;
+        }
+    }
+
+    private void unregisterQuietly(BroadcastReceiver receiver) {
+        try {
+            context.unregisterReceiver(receiver);
+        } catch (Exception e) {
+            // Already unregistered
+        }
+    }
+
+    // ==================== SAMPLING ====================
+
+    private void onBatteryIntent(Intent intent) {
+        int level = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+        int scale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+        int status = intent.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
+        int pct = level >= 0 && scale > 0 ? level * 100 / scale : -1;
+        boolean charging = status == BatteryManager.BATTERY_STATUS_CHARGING
+            || status == BatteryManager.BATTERY_STATUS_FULL;
+        publish(current.withBattery(pct, charging));
+    }
+
+    private void samplePowerState() {
+        PowerManager pm = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        if (pm != null) {
+            publish(current.withPower(pm.isPowerSaveMode(), pm.isDeviceIdleMode()));
+        }
+    }
+
+    private void postNetwork(int type, boolean metered) {
+        // Callbacks arrive on the handler from API 26; before that, hop over to it
+        handler.post(() -> publish(current.withNetwork(type, metered)));
+    }
+
+    private static int networkType(NetworkCapabilities caps) {
+        if (caps.hasTransport(NetworkCapabilities.TRANSPORT_WIFI)) return DeviceContext.NETWORK_WIFI;
+        if (caps.hasTransport(NetworkCapabilities.TRANSPORT_CELLULAR)) return DeviceContext.NETWORK_CELLULAR;
+        if (caps.hasTransport(NetworkCapabilities.TRANSPORT_ETHERNET)) return DeviceContext.NETWORK_ETHERNET;
+        return DeviceContext.NETWORK_OTHER;
+    }
+
+    /** Called on the handler thread only. */
+    private void publish(DeviceContext next) {
+        DeviceContext previous = current;
+        if (next.equals(previous)) {
+            return;
+        }
+        current = next;
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Device context: " + next);
+        }
+        for (Listener listener : listeners) {
+            listener.onDeviceContextChanged(previous, next);
+        }
+    }
+}
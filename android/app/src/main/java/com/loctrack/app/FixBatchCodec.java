@@ -0,0 +1,258 @@
+package com.loctrack.app;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Compact binary encoding for a batch of location fixes (/location/update).
+ *
+ * Wire format (version 2):
+ * - Header: magic "LB", version byte, record count (varint)
+ * - Per record, every numeric field is a zig-zag varint delta against the
+ *   previous record (the first record is relative to zero):
+ *     seq, timestamp (ms), latitude/longitude (1e-7 degree fixed point),
+ *     battery level
+ *   followed by
+ *     flags byte (bit 0: has speed, bit 1: has heading),
+ *     activity (low nibble) / network status (high nibble) byte,
+ *     confidence (percent, one byte; absent in version 1),
+ *     accuracy (decimetres, unsigned varint),
+ *     speed (cm/s, unsigned varint) if present,
+ *     heading (tenths of a degree, unsigned varint) if present
+ *
+ * On 2-second driving intervals a fix costs ~12-16 bytes instead of ~230
+ * bytes of JSON. The encoder reuses its buffer, so steady-state encoding
+ * does not allocate.
+ */
+public final class FixBatchCodec implements FixBatchEncoder {
+    public static final String CONTENT_TYPE = "application/x-loctrack-batch";
+    public static final int VERSION = 2;
+
+    private static final byte MAGIC_0 = 'L';
+    private static final byte MAGIC_1 = 'B';
+    private static final int FLAG_SPEED = 1;
+    private static final int FLAG_HEADING = 2;
+
+    private static final double COORD_SCALE = 1e7;
+
+    private byte[] body;
+    private int length;
+    private int count;
+
+    // Previous-record state for delta encoding
+    private long prevSeq;
+    private long prevTimestamp;
+    private long prevLat;
+    private long prevLon;
+    private int prevBattery;
+
+    public FixBatchCodec() {
+        this(4096);
+    }
+
+    public FixBatchCodec(int initialCapacity) {
+        body = new byte[Math.max(64, initialCapacity)];
+        reset();
+    }
+
+    @Override
+    public String contentType() {
+        return CONTENT_TYPE;
+    }
+
+    /** Starts a new batch, keeping the underlying buffer. */
+    @Override
+    public void reset() {
+        length = 0;
+        count = 0;
+        prevSeq = 0;
+        prevTimestamp = 0;
+        prevLat = 0;
+        prevLon = 0;
+        prevBattery = 0;
+    }
+
+    @Override
+    public int count() {
+        return count;
+    }
+
+    /** Encoded size of the batch including its header. */
+    @Override
+    public int encodedSize() {
+        return 3 + varintSize(count) + length;
+    }
+
+    @Override
+    public void add(FixRecord record) {
+        ensureCapacity(96);
+
+        long lat = Math.round(record.latitude * COORD_SCALE);
+        long lon = Math.round(record.longitude * COORD_SCALE);
+        writeSigned(record.seq - prevSeq);
+        writeSigned(record.timestamp - prevTimestamp);
+        writeSigned(lat - prevLat);
+        writeSigned(lon - prevLon);
+        writeSigned(record.batteryLevel - prevBattery);
+
+        int flags = 0;
+        if (record.hasSpeed()) flags |= FLAG_SPEED;
+        if (record.hasHeading()) flags |= FLAG_HEADING;
+        body[length++] = (byte) flags;
+        body[length++] = (byte) ((record.activity & 0x0F) | ((record.networkStatus & 0x0F) << 4));
+        body[length++] = LocationQueue.confidencePercent(record.confidence);
+
+        writeUnsigned(Math.round(Math.max(0f, record.accuracy) * 10f));
+        if (record.hasSpeed()) {
+            writeUnsigned(Math.round(Math.max(0f, record.speed) * 100f));
+        }
+        if (record.hasHeading()) {
+            float heading = record.heading % 360f;
+            if (heading < 0) heading += 360f;
+            writeUnsigned(Math.round(heading * 10f) % 3600);
+        }
+
+        prevSeq = record.seq;
+        prevTimestamp = record.timestamp;
+        prevLat = lat;
+        prevLon = lon;
+        prevBattery = record.batteryLevel;
+        count++;
+    }
+
+    /** Writes header and records straight to the stream, without an intermediate array. */
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(MAGIC_0);
+        out.write(MAGIC_1);
+        out.write(VERSION);
+        long v = count;
+        while ((v & ~0x7FL) != 0) {
+            out.write((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.write((int) v);
+        out.write(body, 0, length);
+    }
+
+    /** Returns a standalone copy of the encoded batch (tests, diagnostics). */
+    public byte[] toByteArray() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(encodedSize());
+        try {
+            writeTo(out);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toByteArray();
+    }
+
+    // ==================== DECODING ====================
+
+    /**
+     * Decodes a batch produced by {@link #writeTo}. The visitor receives a
+     * reused record instance. Returns the number of records decoded.
+     */
+    public static int decode(byte[] data, int offset, int len, LocationQueue.RecordVisitor visitor)
+            throws IOException {
+        Reader in = new Reader(data, offset, offset + len);
+        if (in.readByte() != MAGIC_0 || in.readByte() != MAGIC_1) {
+            throw new IOException("Not a location batch");
+        }
+        int version = in.readByte() & 0xFF;
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Unsupported batch version " + version);
+        }
+        long count = in.readUnsigned();
+
+        FixRecord record = new FixRecord();
+        long seq = 0, timestamp = 0, lat = 0, lon = 0, battery = 0;
+        for (long i = 0; i < count; i++) {
+            seq += in.readSigned();
+            timestamp += in.readSigned();
+            lat += in.readSigned();
+            lon += in.readSigned();
+            battery += in.readSigned();
+            int flags = in.readByte();
+            int codes = in.readByte() & 0xFF;
+            int confidence = version >= 2 ? in.readByte() & 0xFF : 100;
+
+            record.seq = seq;
+            record.timestamp = timestamp;
+            record.latitude = lat / COORD_SCALE;
+            record.longitude = lon / COORD_SCALE;
+            record.batteryLevel = (byte) battery;
+            record.activity = (byte) (codes & 0x0F);
+            record.networkStatus = (byte) (codes >>> 4);
+            record.confidence = confidence / 100f;
+            record.accuracy = in.readUnsigned() / 10f;
+            record.speed = (flags & FLAG_SPEED) != 0 ? in.readUnsigned() / 100f : Float.NaN;
+            record.heading = (flags & FLAG_HEADING) != 0 ? in.readUnsigned() / 10f : Float.NaN;
+            visitor.visit(record);
+        }
+        return (int) count;
+    }
+
+    private static final class Reader {
+        private final byte[] data;
+        private final int end;
+        private int pos;
+
+        Reader(byte[] data, int pos, int end) {
+            this.data = data;
+            this.pos = pos;
+            this.end = end;
+        }
+
+        byte readByte() throws IOException {
+            if (pos >= end) throw new IOException("Truncated location batch");
+            return data[pos++];
+        }
+
+        long readUnsigned() throws IOException {
+            long result = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = readByte();
+                result |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return result;
+            }
+            throw new IOException("Malformed varint");
+        }
+
+        long readSigned() throws IOException {
+            long n = readUnsigned();
+            return (n >>> 1) ^ -(n & 1);
+        }
+    }
+
+    // ==================== VARINT HELPERS ====================
+
+    private void writeSigned(long value) {
+        writeUnsigned((value << 1) ^ (value >> 63));
+    }
+
+    private void writeUnsigned(long value) {
+        while ((value & ~0x7FL) != 0) {
+            body[length++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        body[length++] = (byte) value;
+    }
+
+    private static int varintSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            size++;
+            value >>>= 7;
+        }
+        return size;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length + extra > body.length) {
+            byte[] grown = new byte[Math.max(body.length * 2, length + extra)];
+            System.arraycopy(body, 0, grown, 0, length);
+            body = grown;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.loctrack.app;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Encodes a batch of fixes into an upload body. Implementations reuse their
+ * buffers between batches: {@link #reset()}, {@link #add} each fix, then
+ * {@link #writeTo} the request stream.
+ */
+public interface FixBatchEncoder {
+    String contentType();
+
+    void reset();
+
+    void add(FixRecord record);
+
+    int count();
+
+    /** Size in bytes of what {@link #writeTo} will produce. */
+    int encodedSize();
+
+    void writeTo(OutputStream out) throws IOException;
+}
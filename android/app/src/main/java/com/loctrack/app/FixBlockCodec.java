@@ -0,0 +1,407 @@
+package com.loctrack.app;
+
+import java.util.Arrays;
+
+/**
+ * Gorilla-style columnar encoding of a block of fixes, for on-device storage.
+ *
+ * - One bit stream per field, so each field is compressed against its own
+ *   history rather than interleaved with the others
+ * - Timestamps and latitude / longitude (1e-7 degree fixed point) are
+ *   delta-of-delta coded: a steady interval or steady motion costs one bit
+ * - Accuracy (dm), speed (cm/s), heading (0.1 degree, 0-360) and
+ *   confidence (%) are delta coded against the previous fix
+ * - Battery level, activity and network status are run-length coded
+ * - Signed values use Gorilla's control prefixes: '0' for zero, then
+ *   '10', '110', '1110', '1111' followed by 7, 12, 20 or 64 bits of
+ *   zig-zag value
+ *
+ * Appending is streaming and bounded: {@link #append} refuses a fix that
+ * might not fit the block capacity, so a block can be filled to its fixed
+ * size without re-encoding. Decoding is sequential ({@link Reader}).
+ * Quantization matches FixBatchCodec; sequence numbers are not stored.
+ *
+ * Block layout: record count (u16), byte length of each column (u16),
+ * then the columns, each padded to a byte. Not thread-safe.
+ */
+public final class FixBlockCodec {
+
+    // Numeric columns, in block order
+    private static final int TIMESTAMP = 0;
+    private static final int LATITUDE = 1;
+    private static final int LONGITUDE = 2;
+    private static final int ACCURACY = 3;
+    private static final int SPEED = 4;
+    private static final int HEADING = 5;
+    private static final int CONFIDENCE = 6;
+    private static final int NUMERIC_COLUMNS = 7;
+    // Delta-of-delta for the first three, plain delta for the rest
+    private static final int DOD_COLUMNS = 3;
+
+    // Run-length columns follow the numeric ones
+    private static final int BATTERY = 0;
+    private static final int ACTIVITY = 1;
+    private static final int NETWORK = 2;
+    private static final int RUN_COLUMNS = 3;
+
+    static final int COLUMNS = NUMERIC_COLUMNS + RUN_COLUMNS;
+    static final int HEADER_BYTES = 2 + 2 * COLUMNS;
+    // Worst case one fix can add: every numeric column a 68-bit value, every
+    // run column a closed run plus a new one, each rounded up to a byte
+    static final int MAX_RECORD_BYTES = NUMERIC_COLUMNS * 9 + RUN_COLUMNS * 20;
+
+    private static final double COORD_SCALE = 1e7;
+
+    private final int capacity;
+    private final BitWriter[] columns = new BitWriter[COLUMNS];
+    private final long[] values = new long[NUMERIC_COLUMNS];
+    private final long[] prev = new long[NUMERIC_COLUMNS];
+    private final long[] prevDelta = new long[NUMERIC_COLUMNS];
+    private final int[] runValue = new int[RUN_COLUMNS];
+    private final int[] runLength = new int[RUN_COLUMNS];
+    private final BitWriter output = new BitWriter(null, 0);
+    private int count;
+
+    /** {@code capacity}: most bytes {@link #writeTo} may produce. */
+    public FixBlockCodec(int capacity) {
+        if (capacity < HEADER_BYTES + MAX_RECORD_BYTES) {
+            throw new IllegalArgumentException("capacity too small for one fix: " + capacity);
+        }
+        this.capacity = capacity;
+        for (int i = 0; i < COLUMNS; i++) {
+            columns[i] = new BitWriter(new byte[capacity], 0);
+        }
+    }
+
+    /** Starts a new block, keeping the buffers. */
+    public void reset() {
+        for (BitWriter column : columns) {
+            column.clear();
+        }
+        Arrays.fill(prev, 0);
+        Arrays.fill(prevDelta, 0);
+        Arrays.fill(runLength, 0);
+        count = 0;
+    }
+
+    public int count() {
+        return count;
+    }
+
+    /**
+     * Adds a fix. Returns false, and adds nothing, when the block might
+     * overflow its capacity (or holds 65535 fixes) - start a new block.
+     */
+    public boolean append(FixRecord record) {
+        if (count == 0xFFFF || encodedSize() + MAX_RECORD_BYTES > capacity) {
+            return false;
+        }
+        values[TIMESTAMP] = record.timestamp;
+        values[LATITUDE] = Math.round(record.latitude * COORD_SCALE);
+        values[LONGITUDE] = Math.round(record.longitude * COORD_SCALE);
+        values[ACCURACY] = Math.round(Math.max(0f, record.accuracy) * 10f);
+        // 0 marks a missing speed / heading
+        values[SPEED] = record.hasSpeed() ? Math.round(Math.max(0f, record.speed) * 100f) + 1 : 0;
+        values[HEADING] = record.hasHeading() ? headingTenths(record.heading) + 1 : 0;
+        values[CONFIDENCE] = LocationQueue.confidencePercent(record.confidence);
+
+        for (int i = 0; i < NUMERIC_COLUMNS; i++) {
+            long delta = values[i] - prev[i];
+            if (i < DOD_COLUMNS) {
+                // The first delta is stored as is: the first fix has no predecessor interval
+                writeSigned(columns[i], count == 0 ? values[i] : delta - prevDelta[i]);
+                prevDelta[i] = count == 0 ? 0 : delta;
+            } else {
+                writeSigned(columns[i], delta);
+            }
+            prev[i] = values[i];
+        }
+        appendRun(BATTERY, record.batteryLevel & 0xFF);
+        appendRun(ACTIVITY, record.activity & 0xFF);
+        appendRun(NETWORK, record.networkStatus & 0xFF);
+        count++;
+        return true;
+    }
+
+    private static int headingTenths(float heading) {
+        heading %= 360f;
+        if (heading < 0) heading += 360f;
+        return Math.round(heading * 10f) % 3600;
+    }
+
+    private void appendRun(int run, int value) {
+        if (runLength[run] > 0 && runValue[run] == value) {
+            runLength[run]++;
+            return;
+        }
+        if (runLength[run] > 0) {
+            writeRun(columns[NUMERIC_COLUMNS + run], runValue[run], runLength[run]);
+        }
+        runValue[run] = value;
+        runLength[run] = 1;
+    }
+
+    private static void writeRun(BitWriter column, int value, int length) {
+        column.write(value, 8);
+        writeUnsigned(column, length - 1);
+    }
+
+    /** Bytes {@link #writeTo} would produce now. */
+    public int encodedSize() {
+        long size = HEADER_BYTES;
+        for (int i = 0; i < NUMERIC_COLUMNS; i++) {
+            size += columns[i].byteLength();
+        }
+        for (int run = 0; run < RUN_COLUMNS; run++) {
+            long bits = columns[NUMERIC_COLUMNS + run].bits;
+            if (runLength[run] > 0) {
+                bits += 8 + unsignedBits(runLength[run] - 1);
+            }
+            size += (bits + 7) >>> 3;
+        }
+        return (int) size;
+    }
+
+    /**
+     * Writes the block to {@code out} at {@code offset} and returns its
+     * length. The codec keeps its state, so appending can continue.
+     */
+    public int writeTo(byte[] out, int offset) {
+        int position = offset + HEADER_BYTES;
+        putShort(out, offset, count);
+        for (int i = 0; i < COLUMNS; i++) {
+            BitWriter column = columns[i];
+            int length = column.byteLength();
+            System.arraycopy(column.buf, 0, out, position, length);
+            if (i >= NUMERIC_COLUMNS && runLength[i - NUMERIC_COLUMNS] > 0) {
+                // Close the open run in the copy only
+                int run = i - NUMERIC_COLUMNS;
+                int extra = (8 + unsignedBits(runLength[run] - 1) + 7) >>> 3;
+                Arrays.fill(out, position + length, position + length + extra, (byte) 0);
+                output.wrap(out, position, column.bits);
+                writeRun(output, runValue[run], runLength[run]);
+                length = output.byteLength();
+            }
+            putShort(out, offset + 2 + 2 * i, length);
+            position += length;
+        }
+        return position - offset;
+    }
+
+    private static void putShort(byte[] out, int offset, int value) {
+        out[offset] = (byte) (value >>> 8);
+        out[offset + 1] = (byte) value;
+    }
+
+    private static int getShort(byte[] in, int offset) {
+        return (in[offset] & 0xFF) << 8 | (in[offset + 1] & 0xFF);
+    }
+
+    // ==================== VALUE CODING ====================
+
+    static void writeSigned(BitWriter out, long value) {
+        if (value == 0) {
+            out.write(0, 1);
+        } else {
+            writeBucketed(out, (value << 1) ^ (value >> 63));
+        }
+    }
+
+    static void writeUnsigned(BitWriter out, long value) {
+        if (value == 0) {
+            out.write(0, 1);
+        } else {
+            writeBucketed(out, value);
+        }
+    }
+
+    private static void writeBucketed(BitWriter out, long value) {
+        if (value >>> 7 == 0) {
+            out.write(0b10, 2);
+            out.write(value, 7);
+        } else if (value >>> 12 == 0) {
+            out.write(0b110, 3);
+            out.write(value, 12);
+        } else if (value >>> 20 == 0) {
+            out.write(0b1110, 4);
+            out.write(value, 20);
+        } else {
+            out.write(0b1111, 4);
+            out.write(value, 64);
+        }
+    }
+
+    private static int unsignedBits(long value) {
+        if (value == 0) return 1;
+        if (value >>> 7 == 0) return 9;
+        if (value >>> 12 == 0) return 15;
+        if (value >>> 20 == 0) return 24;
+        return 68;
+    }
+
+    static long readSigned(BitReader in) {
+        long value = readUnsigned(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static long readUnsigned(BitReader in) {
+        if (in.read(1) == 0) return 0;
+        if (in.read(1) == 0) return in.read(7);
+        if (in.read(1) == 0) return in.read(12);
+        if (in.read(1) == 0) return in.read(20);
+        return in.read(64);
+    }
+
+    // ==================== DECODING ====================
+
+    /** Sequential decoder for one block; reusable. */
+    public static final class Reader {
+        private final BitReader[] columns = new BitReader[COLUMNS];
+        private final long[] prev = new long[NUMERIC_COLUMNS];
+        private final long[] prevDelta = new long[NUMERIC_COLUMNS];
+        private final int[] runValue = new int[RUN_COLUMNS];
+        private final int[] runLeft = new int[RUN_COLUMNS];
+        private int index;
+        private int count;
+
+        public Reader() {
+            for (int i = 0; i < COLUMNS; i++) {
+                columns[i] = new BitReader();
+            }
+        }
+
+        /** Starts reading the block in {@code length} bytes at {@code offset}; returns its fix count. */
+        public int reset(byte[] block, int offset, int length) {
+            if (length < HEADER_BYTES) {
+                throw new IllegalArgumentException("Block too short: " + length);
+            }
+            count = getShort(block, offset);
+            int position = offset + HEADER_BYTES;
+            for (int i = 0; i < COLUMNS; i++) {
+                int columnLength = getShort(block, offset + 2 + 2 * i);
+                if (position + columnLength > offset + length) {
+                    throw new IllegalArgumentException("Column " + i + " overruns the block");
+                }
+                columns[i].wrap(block, position, columnLength);
+                position += columnLength;
+            }
+            Arrays.fill(prev, 0);
+            Arrays.fill(prevDelta, 0);
+            Arrays.fill(runLeft, 0);
+            index = 0;
+            return count;
+        }
+
+        /** Decodes the next fix into {@code out}; false at the end of the block. */
+        public boolean next(FixRecord out) {
+            if (index == count) {
+                return false;
+            }
+            for (int i = 0; i < NUMERIC_COLUMNS; i++) {
+                long coded = readSigned(columns[i]);
+                if (i < DOD_COLUMNS) {
+                    long delta = index == 0 ? 0 : prevDelta[i] + coded;
+                    prev[i] = index == 0 ? coded : prev[i] + delta;
+                    prevDelta[i] = delta;
+                } else {
+                    prev[i] += coded;
+                }
+            }
+            out.seq = 0;
+            out.timestamp = prev[TIMESTAMP];
+            out.latitude = prev[LATITUDE] / COORD_SCALE;
+            out.longitude = prev[LONGITUDE] / COORD_SCALE;
+            out.accuracy = prev[ACCURACY] / 10f;
+            out.speed = prev[SPEED] == 0 ? Float.NaN : (prev[SPEED] - 1) / 100f;
+            out.heading = prev[HEADING] == 0 ? Float.NaN : (prev[HEADING] - 1) / 10f;
+            out.confidence = prev[CONFIDENCE] / 100f;
+            out.batteryLevel = (byte) nextRun(BATTERY);
+            out.activity = (byte) nextRun(ACTIVITY);
+            out.networkStatus = (byte) nextRun(NETWORK);
+            index++;
+            return true;
+        }
+
+        private int nextRun(int run) {
+            if (runLeft[run] == 0) {
+                BitReader column = columns[NUMERIC_COLUMNS + run];
+                runValue[run] = (int) column.read(8);
+                runLeft[run] = (int) readUnsigned(column) + 1;
+            }
+            runLeft[run]--;
+            return runValue[run];
+        }
+    }
+
+    // ==================== BIT STREAMS ====================
+
+    /** Most-significant-bit-first writer; the buffer must be zeroed ahead of the write position. */
+    static final class BitWriter {
+        byte[] buf;
+        int offset;
+        long bits;
+
+        BitWriter(byte[] buf, int offset) {
+            this.buf = buf;
+            this.offset = offset;
+        }
+
+        void wrap(byte[] buf, int offset, long bits) {
+            this.buf = buf;
+            this.offset = offset;
+            this.bits = bits;
+        }
+
+        void clear() {
+            Arrays.fill(buf, offset, offset + byteLength(), (byte) 0);
+            bits = 0;
+        }
+
+        int byteLength() {
+            return (int) ((bits + 7) >>> 3);
+        }
+
+        void write(long value, int n) {
+            while (n > 0) {
+                int index = offset + (int) (bits >>> 3);
+                int free = 8 - (int) (bits & 7);
+                int take = Math.min(free, n);
+                int chunk = (int) (value >>> (n - take)) & ((1 << take) - 1);
+                buf[index] |= (byte) (chunk << (free - take));
+                bits += take;
+                n -= take;
+            }
+        }
+    }
+
+    static final class BitReader {
+        private byte[] buf;
+        private int offset;
+        private long limit;
+        private long bits;
+
+        void wrap(byte[] buf, int offset, int length) {
+            this.buf = buf;
+            this.offset = offset;
+            this.limit = (long) length * 8;
+            this.bits = 0;
+        }
+
+        long read(int n) {
+            if (bits + n > limit) {
+                throw new IllegalArgumentException("Read past the end of a column");
+            }
+            long value = 0;
+            while (n > 0) {
+                int index = offset + (int) (bits >>> 3);
+                int available = 8 - (int) (bits & 7);
+                int take = Math.min(available, n);
+                int chunk = ((buf[index] & 0xFF) >>> (available - take)) & ((1 << take) - 1);
+                value = value << take | chunk;
+                bits += take;
+                n -= take;
+            }
+            return value;
+        }
+    }
+}
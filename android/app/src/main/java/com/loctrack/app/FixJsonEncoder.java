@@ -0,0 +1,126 @@
+package com.loctrack.app;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * JSON body for /location/update ({"locations":[...]}), written straight
+ * into a reusable UTF-8 byte buffer instead of building a JSONObject per
+ * fix and a String for the whole batch. Used when the server does not
+ * accept the binary format.
+ */
+public final class FixJsonEncoder implements FixBatchEncoder {
+    private static final byte[] PREFIX = ascii("{\"locations\":[");
+    private static final byte[] SUFFIX = ascii("]}");
+
+    // UTF-8 activity names, indexed by activity code
+    private final byte[][] activityNames = new byte[16][];
+
+    private byte[] body = new byte[16 * 1024];
+    private int length;
+    private int count;
+
+    @Override
+    public String contentType() {
+        return "application/json";
+    }
+
+    @Override
+    public void reset() {
+        length = 0;
+        count = 0;
+    }
+
+    @Override
+    public int count() {
+        return count;
+    }
+
+    @Override
+    public int encodedSize() {
+        return PREFIX.length + length + SUFFIX.length;
+    }
+
+    @Override
+    public void add(FixRecord r) {
+        if (count > 0) append(',');
+        append("{\"seq\":").append(r.seq)
+            .append(",\"latitude\":").append(r.latitude)
+            .append(",\"longitude\":").append(r.longitude)
+            .append(",\"accuracy\":").append(r.accuracy)
+            .append(",\"speed\":");
+        if (r.hasSpeed()) append(r.speed); else append("null");
+        append(",\"heading\":");
+        if (r.hasHeading()) append(r.heading); else append("null");
+        append(",\"timestamp\":").append(r.timestamp)
+            .append(",\"batteryLevel\":").append(r.batteryLevel)
+            .append(",\"networkStatus\":\"").append(FixRecord.networkName(r.networkStatus))
+            .append("\",\"activity\":\"").append(activityName(r.activity))
+            .append("\",\"confidence\":").append(r.confidence)
+            .append('}');
+        count++;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(PREFIX);
+        out.write(body, 0, length);
+        out.write(SUFFIX);
+    }
+
+    private byte[] activityName(byte code) {
+        int i = code & 0x0F;
+        if (activityNames[i] == null) {
+            activityNames[i] = LocationBackgroundService.getActivityName(code).getBytes(StandardCharsets.UTF_8);
+        }
+        return activityNames[i];
+    }
+
+    // ==================== BUFFER HELPERS ====================
+
+    private FixJsonEncoder append(char c) {
+        ensureCapacity(1);
+        body[length++] = (byte) c;
+        return this;
+    }
+
+    private FixJsonEncoder append(String ascii) {
+        ensureCapacity(ascii.length());
+        for (int i = 0; i < ascii.length(); i++) {
+            body[length++] = (byte) ascii.charAt(i);
+        }
+        return this;
+    }
+
+    private FixJsonEncoder append(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, body, length, bytes.length);
+        length += bytes.length;
+        return this;
+    }
+
+    private FixJsonEncoder append(double value) {
+        return append(Double.isNaN(value) || Double.isInfinite(value) ? "null" : String.valueOf(value));
+    }
+
+    private FixJsonEncoder append(float value) {
+        return append(Float.isNaN(value) || Float.isInfinite(value) ? "null" : String.valueOf(value));
+    }
+
+    private FixJsonEncoder append(long value) {
+        return append(String.valueOf(value));
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length + extra > body.length) {
+            byte[] grown = new byte[Math.max(body.length * 2, length + extra)];
+            System.arraycopy(body, 0, grown, 0, length);
+            body = grown;
+        }
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
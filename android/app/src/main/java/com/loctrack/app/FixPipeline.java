@@ -0,0 +1,46 @@
+package com.loctrack.app;
+
+/**
+ * Ordered chain of {@link FixStage}s applied to every fix before it is queued.
+ */
+public final class FixPipeline {
+    private final FixStage[] stages;
+
+    public FixPipeline(FixStage... stages) {
+        this.stages = stages.clone();
+    }
+
+    /** Runs the fix through every stage; returns false as soon as a stage drops it. */
+    public boolean process(FixRecord fix) {
+        for (FixStage stage : stages) {
+            if (!stage.process(fix)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Releases one fix held back by a stage, passed through the stages after
+     * it. Call repeatedly until it returns false.
+     */
+    public boolean flush(FixRecord out) {
+        for (int i = 0; i < stages.length; i++) {
+            if (stages[i].flush(out)) {
+                for (int j = i + 1; j < stages.length; j++) {
+                    if (!stages[j].process(out)) {
+                        return flush(out);
+                    }
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void reset() {
+        for (FixStage stage : stages) {
+            stage.reset();
+        }
+    }
+}
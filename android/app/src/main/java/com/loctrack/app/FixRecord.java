@@ -0,0 +1,58 @@
+package com.loctrack.app;
+
+/**
+ * Mutable, reusable holder for a single location fix.
+ *
+ * One instance is filled per fix and handed to the queue / codecs, so the
+ * hot path never allocates. Optional values (speed, heading) are stored as
+ * NaN when the provider did not report them.
+ */
+public final class FixRecord {
+    // Network status codes (stored as a single byte)
+    public static final byte NETWORK_UNKNOWN = 0;
+    public static final byte NETWORK_ONLINE = 1;
+    public static final byte NETWORK_OFFLINE = 2;
+
+    public long seq;
+    public long timestamp;
+    public double latitude;
+    public double longitude;
+    public float accuracy;
+    public float speed = Float.NaN;
+    public float heading = Float.NaN;
+    public byte batteryLevel = -1;
+    public byte activity;
+    public byte networkStatus = NETWORK_UNKNOWN;
+    // 0..1, set by the filter pipeline (1 when unfiltered)
+    public float confidence = 1f;
+
+    public boolean hasSpeed() {
+        return !Float.isNaN(speed);
+    }
+
+    public boolean hasHeading() {
+        return !Float.isNaN(heading);
+    }
+
+    public void copyFrom(FixRecord other) {
+        seq = other.seq;
+        timestamp = other.timestamp;
+        latitude = other.latitude;
+        longitude = other.longitude;
+        accuracy = other.accuracy;
+        speed = other.speed;
+        heading = other.heading;
+        batteryLevel = other.batteryLevel;
+        activity = other.activity;
+        networkStatus = other.networkStatus;
+        confidence = other.confidence;
+    }
+
+    public static String networkName(byte code) {
+        switch (code) {
+            case NETWORK_ONLINE: return "online";
+            case NETWORK_OFFLINE: return "offline";
+            default: return "unknown";
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.loctrack.app;
+
+/**
+ * Fixed-capacity, allocation-free ring buffer of pending fixes.
+ *
+ * Fields are stored column-wise in parallel primitive arrays (struct of
+ * arrays), so offering a fix copies a handful of primitives and never
+ * allocates. The buffer keeps two cursors:
+ * - tail: oldest fix not yet acknowledged
+ * - read: next fix to hand to an upload
+ *
+ * An upload reads forward from the read cursor; on success the caller
+ * discards through the acknowledged sequence, on failure it simply calls
+ * {@link #rewind()} - no copying or re-insertion.
+ */
+public final class FixRingBuffer {
+
+    /** What to do when a fix is offered to a full buffer. */
+    public enum OverflowPolicy {
+        /** Overwrite the oldest pending fix (the disk queue still has it). */
+        DROP_OLDEST,
+        /** Reject the new fix. */
+        DROP_NEWEST
+    }
+
+    private final int capacity;
+    private final int mask;
+    private final OverflowPolicy overflowPolicy;
+
+    private final long[] seq;
+    private final long[] timestamp;
+    private final double[] latitude;
+    private final double[] longitude;
+    private final float[] accuracy;
+    private final float[] speed;
+    private final float[] heading;
+    private final byte[] batteryLevel;
+    private final byte[] activity;
+    private final byte[] networkStatus;
+    private final float[] confidence;
+
+    private final FixRecord readScratch = new FixRecord();
+
+    // Monotonic positions; index into the arrays with (position & mask)
+    private long head;
+    private long tail;
+    private long read;
+    private long dropped;
+
+    public FixRingBuffer(int capacity, OverflowPolicy overflowPolicy) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of two");
+        }
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.overflowPolicy = overflowPolicy;
+        seq = new long[capacity];
+        timestamp = new long[capacity];
+        latitude = new double[capacity];
+        longitude = new double[capacity];
+        accuracy = new float[capacity];
+        speed = new float[capacity];
+        heading = new float[capacity];
+        batteryLevel = new byte[capacity];
+        activity = new byte[capacity];
+        networkStatus = new byte[capacity];
+        confidence = new float[capacity];
+    }
+
+    /**
+     * Copies the fix into the buffer. Returns false if it was rejected
+     * because the buffer is full and the policy is DROP_NEWEST.
+     */
+    public synchronized boolean offer(FixRecord record) {
+        if (head - tail == capacity) {
+            dropped++;
+            if (overflowPolicy == OverflowPolicy.DROP_NEWEST) {
+                return false;
+            }
+            tail++;
+            if (read < tail) {
+                read = tail;
+            }
+        }
+        int i = (int) (head & mask);
+        seq[i] = record.seq;
+        timestamp[i] = record.timestamp;
+        latitude[i] = record.latitude;
+        longitude[i] = record.longitude;
+        accuracy[i] = record.accuracy;
+        speed[i] = record.speed;
+        heading[i] = record.heading;
+        batteryLevel[i] = record.batteryLevel;
+        activity[i] = record.activity;
+        networkStatus[i] = record.networkStatus;
+        confidence[i] = record.confidence;
+        head++;
+        return true;
+    }
+
+    /**
+     * Hands up to {@code max} fixes from the read cursor to the visitor and
+     * advances the cursor past them. The visitor receives a reused record.
+     */
+    public synchronized int read(int max, LocationQueue.RecordVisitor visitor) {
+        int n = 0;
+        while (n < max && read < head) {
+            int i = (int) (read & mask);
+            FixRecord r = readScratch;
+            r.seq = seq[i];
+            r.timestamp = timestamp[i];
+            r.latitude = latitude[i];
+            r.longitude = longitude[i];
+            r.accuracy = accuracy[i];
+            r.speed = speed[i];
+            r.heading = heading[i];
+            r.batteryLevel = batteryLevel[i];
+            r.activity = activity[i];
+            r.networkStatus = networkStatus[i];
+            r.confidence = confidence[i];
+            visitor.visit(r);
+            read++;
+            n++;
+        }
+        return n;
+    }
+
+    /** Moves the read cursor back to the oldest unacknowledged fix. */
+    public synchronized void rewind() {
+        read = tail;
+    }
+
+    /** Releases every fix with a sequence number up to and including {@code ackSeq}. */
+    public synchronized void discardThrough(long ackSeq) {
+        while (tail < head && seq[(int) (tail & mask)] <= ackSeq) {
+            tail++;
+        }
+        if (read < tail) {
+            read = tail;
+        }
+    }
+
+    /** Sequence of the oldest pending fix, or -1 when empty. */
+    public synchronized long oldestSeq() {
+        return tail < head ? seq[(int) (tail & mask)] : -1;
+    }
+
+    public synchronized int size() {
+        return (int) (head - tail);
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /** Fixes overwritten or rejected because the buffer was full. */
+    public synchronized long droppedCount() {
+        return dropped;
+    }
+
+    public synchronized void clear() {
+        tail = head;
+        read = head;
+    }
+}
@@ -0,0 +1,23 @@
+package com.loctrack.app;
+
+/**
+ * One stage of the per-fix processing pipeline (see {@link FixPipeline}).
+ *
+ * Stages run on the thread that delivers fixes and must not allocate per
+ * call. A stage may rewrite the fix in place (e.g. smoothing) and returns
+ * false to stop the fix from reaching later stages and the queue.
+ */
+public interface FixStage {
+    boolean process(FixRecord fix);
+
+    /**
+     * Releases a fix the stage is still holding back (e.g. before shutdown)
+     * into {@code out}. Returns false when nothing is held.
+     */
+    default boolean flush(FixRecord out) {
+        return false;
+    }
+
+    /** Drops any accumulated state, e.g. after tracking restarts. */
+    void reset();
+}
@@ -0,0 +1,36 @@
+package com.loctrack.app;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+
+import com.google.android.gms.location.Geofence;
+import com.google.android.gms.location.GeofencingEvent;
+
+/**
+ * Receives geofence transitions from Google Play Services
+ * Used to wake tracking when the device leaves its stationary geofence
+ */
+public class GeofenceExitReceiver extends BroadcastReceiver {
+    private static final String TAG = "GeofenceExit";
+
+    static final String ACTION_GEOFENCE_EXIT = "com.loctrack.GEOFENCE_EXIT";
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        GeofencingEvent event = GeofencingEvent.fromIntent(intent);
+        if (event == null || event.hasError()) {
+            Log.w(TAG, "Geofence event error: " + (event != null ? event.getErrorCode() : "no event"));
+            return;
+        }
+
+        if (event.getGeofenceTransition() == Geofence.GEOFENCE_TRANSITION_EXIT) {
+            Log.d(TAG, "Stationary geofence exited");
+            // Forward to the main service via broadcast
+            Intent broadcastIntent = new Intent(ACTION_GEOFENCE_EXIT);
+            broadcastIntent.setPackage(context.getPackageName());
+            context.sendBroadcast(broadcastIntent);
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package com.loctrack.app;
+
+import java.util.Locale;
+import java.util.function.LongSupplier;
+
+/**
+ * Picks the location update interval from observed speed, aiming for a
+ * fixed distance between samples, with the activity type as a prior.
+ *
+ * - Desired interval = target meters / smoothed speed, blended in log space
+ *   with the activity prior; the prior's weight fades as speed samples
+ *   accumulate and comes back when they go stale
+ * - Snapped to a ladder of intervals (2 s .. 2 min) so small speed changes
+ *   don't produce new requests
+ * - Hysteresis: only moves once the desired interval is 1.5x away from the
+ *   current one
+ * - Debounce: the new interval must be wanted continuously for a while
+ *   (shorter when speeding up than when slowing down)
+ * - Minimum dwell between re-registrations, so flapping activity transitions
+ *   can't cause restart storms
+ *
+ * Not thread-safe - driven from the pipeline thread. Times are on the given
+ * monotonic clock.
+ */
+public final class IntervalController {
+
+    public static final long[] LADDER_MS = {2_000, 4_000, 8_000, 15_000, 30_000, 60_000, 120_000};
+
+    public static final float DEFAULT_TARGET_METERS = 15f;
+    public static final long DEFAULT_SPEEDUP_DEBOUNCE_MS = 5_000;
+    public static final long DEFAULT_SLOWDOWN_DEBOUNCE_MS = 20_000;
+    public static final long DEFAULT_MIN_DWELL_MS = 30_000;
+
+    static final double HYSTERESIS_RATIO = 1.5;
+    static final int SPEED_SAMPLES_FOR_FULL_WEIGHT = 5;
+    static final double SPEED_EWMA_ALPHA = 0.3;
+    static final long SPEED_STALE_MS = 120_000;
+    static final long LOW_POWER_FLOOR_MS = 30_000;
+    private static final double MIN_SPEED_MPS = 0.1;
+
+    private final LongSupplier clock;
+    private final float targetMeters;
+    private final long speedupDebounceMs;
+    private final long slowdownDebounceMs;
+    private final long minDwellMs;
+
+    private long priorMs;
+    private boolean lowPower;
+    private double speedEwma = Double.NaN;
+    private int speedSamples;
+    private long lastSpeedAt;
+
+    private long currentMs;
+    private long lastRegisteredAt = Long.MIN_VALUE / 2;
+    private long pendingMs;
+    private long pendingSince;
+    private boolean pendingDeferred;
+
+    private long registrations;
+    private long intervalChanges;
+    private long flapsSuppressed;
+    private long dwellDeferrals;
+
+    public IntervalController(LongSupplier clock, long initialIntervalMs) {
+        this(clock, initialIntervalMs, DEFAULT_TARGET_METERS, DEFAULT_SPEEDUP_DEBOUNCE_MS,
+            DEFAULT_SLOWDOWN_DEBOUNCE_MS, DEFAULT_MIN_DWELL_MS);
+    }
+
+    public IntervalController(LongSupplier clock, long initialIntervalMs, float targetMeters,
+                              long speedupDebounceMs, long slowdownDebounceMs, long minDwellMs) {
+        this.clock = clock;
+        this.targetMeters = targetMeters;
+        this.speedupDebounceMs = speedupDebounceMs;
+        this.slowdownDebounceMs = slowdownDebounceMs;
+        this.minDwellMs = minDwellMs;
+        this.priorMs = initialIntervalMs;
+        this.currentMs = initialIntervalMs;
+    }
+
+    // ==================== INPUTS ====================
+
+    /**
+     * Interval suggested by the current activity type. A different prior
+     * means a new activity, so speed evidence is rebuilt from scratch - at a
+     * long interval it could otherwise take minutes to notice the change.
+     */
+    public void setActivityPrior(long intervalMs) {
+        if (intervalMs != priorMs) {
+            priorMs = intervalMs;
+            speedSamples = 0;
+        }
+    }
+
+    public void setLowPower(boolean lowPower) {
+        this.lowPower = lowPower;
+    }
+
+    /** Reported ground speed of a fix; NaN or negative is ignored. */
+    public void onSpeed(float speedMps) {
+        if (Float.isNaN(speedMps) || speedMps < 0) {
+            return;
+        }
+        long now = clock.getAsLong();
+        if (speedSamples == 0 || now - lastSpeedAt > SPEED_STALE_MS) {
+            speedEwma = speedMps;
+            speedSamples = 1;
+        } else {
+            speedEwma += SPEED_EWMA_ALPHA * (speedMps - speedEwma);
+            speedSamples++;
+        }
+        lastSpeedAt = now;
+    }
+
+    /** Location updates were (re-)registered with {@link #currentIntervalMs()}. */
+    public void onRegistered() {
+        lastRegisteredAt = clock.getAsLong();
+        registrations++;
+    }
+
+    // ==================== DECISION ====================
+
+    /** Blended interval before snapping, hysteresis and debounce. */
+    public long desiredIntervalMs() {
+        long now = clock.getAsLong();
+        double weight = 0;
+        if (speedSamples > 0 && now - lastSpeedAt <= SPEED_STALE_MS) {
+            weight = Math.min(1.0, (double) speedSamples / SPEED_SAMPLES_FOR_FULL_WEIGHT);
+        }
+        double fromSpeed = weight > 0
+            ? targetMeters * 1000.0 / Math.max(speedEwma, MIN_SPEED_MPS)
+            : priorMs;
+        double blended = Math.exp(weight * Math.log(fromSpeed) + (1 - weight) * Math.log(priorMs));
+        if (lowPower) {
+            blended = Math.max(blended * 2, LOW_POWER_FLOOR_MS);
+        }
+        long min = LADDER_MS[0];
+        long max = LADDER_MS[LADDER_MS.length - 1];
+        return Math.max(min, Math.min(max, Math.round(blended)));
+    }
+
+    /**
+     * Re-evaluates the interval. Returns true when it changed and updates
+     * should be re-registered with {@link #currentIntervalMs()}.
+     */
+    public boolean evaluate() {
+        long now = clock.getAsLong();
+        long desired = desiredIntervalMs();
+        long target = nearestRung(desired);
+        boolean outsideBand = desired < currentMs / HYSTERESIS_RATIO || desired > currentMs * HYSTERESIS_RATIO;
+
+        if (!outsideBand || target == currentMs) {
+            clearPending();
+            return false;
+        }
+        if (target != pendingMs) {
+            clearPending();
+            pendingMs = target;
+            pendingSince = now;
+        }
+        if (now - pendingSince < debounceFor(target)) {
+            return false;
+        }
+        if (now - lastRegisteredAt < minDwellMs) {
+            if (!pendingDeferred) {
+                pendingDeferred = true;
+                dwellDeferrals++;
+            }
+            return false;
+        }
+
+        currentMs = target;
+        pendingMs = 0;
+        pendingDeferred = false;
+        intervalChanges++;
+        return true;
+    }
+
+    /**
+     * Delay until a pending change could be applied, so callers can
+     * re-evaluate without waiting for the next fix; -1 if nothing is pending.
+     */
+    public long nextEvaluationDelayMs() {
+        if (pendingMs == 0) {
+            return -1;
+        }
+        long now = clock.getAsLong();
+        long debounceLeft = pendingSince + debounceFor(pendingMs) - now;
+        long dwellLeft = lastRegisteredAt + minDwellMs - now;
+        return Math.max(0, Math.max(debounceLeft, dwellLeft));
+    }
+
+    private void clearPending() {
+        if (pendingMs != 0) {
+            flapsSuppressed++;
+            pendingMs = 0;
+            pendingDeferred = false;
+        }
+    }
+
+    private long debounceFor(long target) {
+        return target < currentMs ? speedupDebounceMs : slowdownDebounceMs;
+    }
+
+    /** Closest ladder rung in log space. */
+    static long nearestRung(long intervalMs) {
+        long best = LADDER_MS[0];
+        double bestDistance = Double.MAX_VALUE;
+        for (long rung : LADDER_MS) {
+            double distance = Math.abs(Math.log((double) intervalMs / rung));
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = rung;
+            }
+        }
+        return best;
+    }
+
+    // ==================== STATE & COUNTERS ====================
+
+    public long currentIntervalMs() {
+        return currentMs;
+    }
+
+    /** Smoothed speed in m/s, NaN until the first sample. */
+    public double speedMps() {
+        return speedEwma;
+    }
+
+    /** Times location updates were registered, including the first. */
+    public long registrations() {
+        return registrations;
+    }
+
+    /** Interval changes applied, each costing a stop/start cycle. */
+    public long intervalChanges() {
+        return intervalChanges;
+    }
+
+    /** Candidate intervals dropped because the demand did not hold through the debounce window. */
+    public long flapsSuppressed() {
+        return flapsSuppressed;
+    }
+
+    /** Changes held back by the minimum dwell between re-registrations. */
+    public long dwellDeferrals() {
+        return dwellDeferrals;
+    }
+
+    public String summary() {
+        return "interval=" + currentMs / 1000 + "s"
+            + " speed=" + (Double.isNaN(speedEwma) ? "-" : String.format(Locale.US, "%.1fm/s", speedEwma))
+            + " registrations=" + registrations
+            + " changes=" + intervalChanges
+            + " flapsSuppressed=" + flapsSuppressed
+            + " dwellDeferrals=" + dwellDeferrals;
+    }
+}
@@ -0,0 +1,206 @@
+package com.loctrack.app;
+
+/**
+ * Constant-velocity Kalman filter over local ENU metres.
+ *
+ * State per axis is [position, velocity]; east and north share the same
+ * motion model and isotropic measurement noise, so one 2x2 covariance
+ * serves both axes and a step is a few dozen multiplications with no
+ * allocation.
+ *
+ * - Each fix is weighted by its reported accuracy (variance = accuracy^2)
+ * - Speed + bearing, when present, are applied as a velocity measurement
+ * - Fixes whose innovation falls outside the 99% gate are down-weighted
+ *   rather than discarded
+ * - The fix is rewritten with the smoothed position and a confidence in
+ *   [0, 1] derived from the posterior position uncertainty
+ *
+ * The local origin is the first fix and is re-anchored when the filter has
+ * moved more than {@link #REANCHOR_DISTANCE_M} away from it.
+ */
+public final class KalmanFilterStage implements FixStage {
+    private static final double EARTH_RADIUS_M = 6_371_000.0;
+    private static final double DEG_TO_RAD = Math.PI / 180.0;
+
+    // Acceleration noise (m/s^2)^2/s - tuned for vehicle stop-and-go
+    private static final double DEFAULT_ACCEL_NOISE = 2.0;
+    // Used when the provider omits accuracy / speed accuracy
+    private static final double DEFAULT_ACCURACY_M = 30.0;
+    private static final double SPEED_SIGMA_MS = 1.0;
+    // Chi-square, 2 degrees of freedom, 99%
+    private static final double INNOVATION_GATE = 9.21;
+    // Posterior sigma at which confidence drops to 1/e
+    private static final double CONFIDENCE_SCALE_M = 25.0;
+    // Gaps longer than this restart the filter from the next fix
+    private static final long MAX_GAP_MS = 60_000;
+    private static final double REANCHOR_DISTANCE_M = 50_000.0;
+
+    private final double accelNoise;
+
+    private boolean initialized;
+    private double originLat;
+    private double originLon;
+    private double metresPerDegLon;
+    private double metresPerDegLat;
+    private long lastTimestamp;
+
+    // State: east/north position and velocity
+    private double east;
+    private double north;
+    private double velEast;
+    private double velNorth;
+
+    // Shared per-axis covariance [[p00, p01], [p01, p11]]
+    private double p00;
+    private double p01;
+    private double p11;
+
+    private double lastConfidence;
+
+    public KalmanFilterStage() {
+        this(DEFAULT_ACCEL_NOISE);
+    }
+
+    public KalmanFilterStage(double accelNoise) {
+        this.accelNoise = accelNoise;
+    }
+
+    @Override
+    public boolean process(FixRecord fix) {
+        double accuracy = fix.accuracy > 0 ? fix.accuracy : DEFAULT_ACCURACY_M;
+        double variance = accuracy * accuracy;
+
+        long dtMs = fix.timestamp - lastTimestamp;
+        if (!initialized || dtMs < 0 || dtMs > MAX_GAP_MS) {
+            initialize(fix, variance);
+        } else {
+            predict(dtMs / 1000.0);
+
+            double zEast = (fix.longitude - originLon) * metresPerDegLon;
+            double zNorth = (fix.latitude - originLat) * metresPerDegLat;
+            double innovEast = zEast - east;
+            double innovNorth = zNorth - north;
+
+            // Soft outlier handling: inflate noise instead of dropping the fix
+            double s = p00 + variance;
+            double mahalanobis = (innovEast * innovEast + innovNorth * innovNorth) / s;
+            if (mahalanobis > INNOVATION_GATE) {
+                variance *= mahalanobis / INNOVATION_GATE;
+            }
+            updatePosition(innovEast, innovNorth, variance);
+
+            if (fix.hasSpeed() && fix.hasHeading()) {
+                double bearing = fix.heading * DEG_TO_RAD;
+                updateVelocity(fix.speed * Math.sin(bearing), fix.speed * Math.cos(bearing));
+            }
+            lastTimestamp = fix.timestamp;
+        }
+
+        if (Math.abs(east) > REANCHOR_DISTANCE_M || Math.abs(north) > REANCHOR_DISTANCE_M) {
+            reanchor();
+        }
+
+        fix.latitude = originLat + north / metresPerDegLat;
+        fix.longitude = originLon + east / metresPerDegLon;
+        lastConfidence = Math.exp(-Math.sqrt(p00) / CONFIDENCE_SCALE_M);
+        fix.confidence = (float) lastConfidence;
+        return true;
+    }
+
+    private void initialize(FixRecord fix, double variance) {
+        originLat = fix.latitude;
+        originLon = fix.longitude;
+        metresPerDegLat = EARTH_RADIUS_M * DEG_TO_RAD;
+        metresPerDegLon = metresPerDegLat * Math.cos(originLat * DEG_TO_RAD);
+        east = 0;
+        north = 0;
+        if (fix.hasSpeed() && fix.hasHeading()) {
+            double bearing = fix.heading * DEG_TO_RAD;
+            velEast = fix.speed * Math.sin(bearing);
+            velNorth = fix.speed * Math.cos(bearing);
+            p11 = SPEED_SIGMA_MS * SPEED_SIGMA_MS;
+        } else {
+            velEast = 0;
+            velNorth = 0;
+            p11 = 100.0; // unknown velocity, ~10 m/s sigma
+        }
+        p00 = variance;
+        p01 = 0;
+        lastTimestamp = fix.timestamp;
+        initialized = true;
+    }
+
+    private void predict(double dt) {
+        east += velEast * dt;
+        north += velNorth * dt;
+
+        // P = F P F^T + Q, F = [[1, dt], [0, 1]], Q from white acceleration noise
+        double dt2 = dt * dt;
+        double n00 = p00 + 2 * dt * p01 + dt2 * p11 + accelNoise * dt2 * dt / 3.0;
+        double n01 = p01 + dt * p11 + accelNoise * dt2 / 2.0;
+        double n11 = p11 + accelNoise * dt;
+        p00 = n00;
+        p01 = n01;
+        p11 = n11;
+    }
+
+    private void updatePosition(double innovEast, double innovNorth, double variance) {
+        double s = p00 + variance;
+        double k0 = p00 / s;
+        double k1 = p01 / s;
+        east += k0 * innovEast;
+        north += k0 * innovNorth;
+        velEast += k1 * innovEast;
+        velNorth += k1 * innovNorth;
+
+        double n00 = (1 - k0) * p00;
+        double n01 = (1 - k0) * p01;
+        double n11 = p11 - k1 * p01;
+        p00 = n00;
+        p01 = n01;
+        p11 = n11;
+    }
+
+    private void updateVelocity(double measuredEast, double measuredNorth) {
+        double variance = SPEED_SIGMA_MS * SPEED_SIGMA_MS;
+        double s = p11 + variance;
+        double k0 = p01 / s;
+        double k1 = p11 / s;
+        double innovEast = measuredEast - velEast;
+        double innovNorth = measuredNorth - velNorth;
+        east += k0 * innovEast;
+        north += k0 * innovNorth;
+        velEast += k1 * innovEast;
+        velNorth += k1 * innovNorth;
+
+        double n00 = p00 - k0 * p01;
+        double n01 = (1 - k1) * p01;
+        double n11 = (1 - k1) * p11;
+        p00 = n00;
+        p01 = n01;
+        p11 = n11;
+    }
+
+    private void reanchor() {
+        originLat += north / metresPerDegLat;
+        originLon += east / metresPerDegLon;
+        metresPerDegLon = metresPerDegLat * Math.cos(originLat * DEG_TO_RAD);
+        east = 0;
+        north = 0;
+    }
+
+    /** Smoothed speed over ground in m/s (0 before the first fix). */
+    public double speed() {
+        return initialized ? Math.hypot(velEast, velNorth) : 0;
+    }
+
+    public double confidence() {
+        return lastConfidence;
+    }
+
+    @Override
+    public void reset() {
+        initialized = false;
+        lastConfidence = 0;
+    }
+}
@@ -2,6 +2,7 @@ package com.loctrack.app;
 
 import android.app.Notification;
 import android.app.NotificationChannel;
+import android.app.AlarmManager;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.app.Service;
@@ -11,12 +12,14 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.location.Location;
-import android.os.BatteryManager;
+import android.net.ConnectivityManager;
 import android.os.Build;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
-import android.os.Looper;
-import android.os.PowerManager;
+import android.os.Message;
+import android.os.Process;
+import android.os.SystemClock;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
@@ -31,25 +34,22 @@ import com.google.android.gms.location.ActivityTransitionRequest;
 import com.google.android.gms.location.ActivityTransitionResult;
 import com.google.android.gms.location.DetectedActivity;
 import com.google.android.gms.location.FusedLocationProviderClient;
+import com.google.android.gms.location.Geofence;
+import com.google.android.gms.location.GeofencingClient;
+import com.google.android.gms.location.GeofencingRequest;
 import com.google.android.gms.location.LocationCallback;
 import com.google.android.gms.location.LocationRequest;
 import com.google.android.gms.location.LocationResult;
 import com.google.android.gms.location.LocationServices;
 import com.google.android.gms.location.Priority;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
+import java.io.File;
 import java.io.IOException;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Production-grade Background Location Service
@@ -58,17 +58,28 @@ import java.util.concurrent.Executors;
  * Features:
  * - FusedLocationProviderClient for best accuracy
  * - Activity Recognition for smart tracking (walking, driving, stationary)
- * - Dynamic location intervals based on activity
+ * - Dynamic location intervals based on speed, with activity as a prior
  * - Battery-aware tracking
+ * - GPS fully off while parked, behind an exit geofence around the stay point
+ * - Optional deferred mode: the chipset buffers fixes and delivers them in batches
+ * - Short wakelocks around units of work only, never for the whole shift
  * - Survives app kill and device reboot
- * - Efficient batching and syncing
+ * - Crash-safe on-disk queue with efficient batching and syncing
+ * - Doze-safe, network-aware sync scheduling (latest position soon, backlog in good windows)
+ * - Two-lane uplink: the newest fix goes first on its own, history drains in order behind it
+ * - Parallel backlog drain after long offline periods (unmetered, battery permitting)
+ * - Allocation-free hot-path metrics, read by getDiagnostics and piggybacked on uploads
+ * - Live fixes, activity and sync status pushed to JS listeners, throttled and coalesced
+ * - On-device history of queued fixes, kept after upload for range queries from JS
+ * - Fix processing on a dedicated pipeline thread, off the main looper
  */
 public class LocationBackgroundService extends Service {
     private static final String TAG = "LocationBgService";
     private static final String CHANNEL_ID = "loctrack_location_channel";
     private static final int NOTIFICATION_ID = 12345;
     
-    // Activity-based location intervals (milliseconds) - HIGH ACCURACY MODE
+    // Activity-based location intervals (milliseconds) - HIGH ACCURACY MODE.
+    // Only a prior now: the interval follows observed speed (see IntervalController)
     private static final long INTERVAL_STATIONARY = 30000;   // 30 sec when not moving
     private static final long INTERVAL_WALKING = 4000;       // 4 sec when walking
     private static final long INTERVAL_RUNNING = 2000;       // 2 sec when running
@@ -82,55 +93,192 @@ public class LocationBackgroundService extends Service {
     private static final float DISPLACEMENT_STATIONARY = 15f; // 15m when stationary
     private static final float DISPLACEMENT_MOVING = 0f;      // 0m when moving (capture all updates)
     
+    // Tracking profiles - "deferred" lets the GNSS chipset buffer fixes and hand
+    // them over together, so the CPU wakes once per batch instead of per fix
+    public static final String TRACKING_MODE_REALTIME = "realtime";
+    public static final String TRACKING_MODE_DEFERRED = "deferred";
+    public static final long DEFAULT_MAX_UPDATE_DELAY_MS = 120000; // 2 min batches
+    private static final int DELIVERY_BATCH_INITIAL_CAPACITY = 32;
+    private static final long NO_REBASE = Long.MIN_VALUE;
+    
     // Sync settings
-    private static final long SYNC_INTERVAL_MS = 15000;      // Sync every 15 seconds
-    private static final int MAX_BATCH_SIZE = 100;           // Max locations before force sync
+    private static final long ALARM_RESCHEDULE_SLACK_MS = 1000;
+    private static final String ACTION_SYNC_ALARM = "com.loctrack.SYNC_ALARM";
+    // Backlog drain: several chunks in flight once this much piled up, on
+    // unmetered networks with enough battery only
+    private static final int BACKLOG_DRAIN_MIN_PENDING = 2000;
+    private static final int BACKLOG_DRAIN_PARALLELISM = 2;
+    private static final int BACKLOG_DRAIN_PARALLELISM_CHARGING = 4;
+    private static final long METRICS_PIGGYBACK_INTERVAL_MS = 15 * 60_000;
     
-    // Smart tracking - pause if stationary for too long
+    // Smart tracking - park GPS behind an exit geofence if stationary for too long
     private static final long STATIONARY_PAUSE_THRESHOLD = 300000; // 5 minutes
+    private static final int GEOFENCE_RESPONSIVENESS_MS = 60000;   // let Play Services batch exit checks
+    private static final long GPS_ON_PER_FIX_MS = 2000;            // rough GPS-on cost of one polled fix
+    private static final long WAKE_PER_FIX_MS = 250;               // rough CPU wake to process one fix
+    
+    // Smoothed fixes below this confidence are not queued (~58m posterior sigma)
+    private static final float MIN_CONFIDENCE = 0.1f;
     
     private FusedLocationProviderClient fusedLocationClient;
     private ActivityRecognitionClient activityRecognitionClient;
     private LocationCallback locationCallback;
     private PendingIntent activityTransitionPendingIntent;
-    private PowerManager.WakeLock wakeLock;
-    private Handler syncHandler;
-    private Runnable syncRunnable;
     
-    private List<JSONObject> locationBatch = new ArrayList<>();
-    private ExecutorService executorService;
+    // Short wakelocks around units of work only (see WakeLockManager). Process-wide,
+    // so the plugin can report hold times even after the service has stopped
+    private static volatile WakeLockManager wakeLocks;
+    
+    // Allocation-free counters / histograms (see MetricsRegistry), process-wide like
+    // the wakelocks; a compact summary rides along on an upload every 15 minutes
+    private static final MetricsRegistry metrics = new MetricsRegistry();
+    private long metricsAttachedAt = Long.MIN_VALUE / 2;
+    private long droppedSeen;
+    
+    // Live events to JS (see LocationEventBridge) - the plugin registers the sink,
+    // which may come and go independently of the service
+    private static volatile LocationEventBridge.Sink eventSink;
+    private LocationEventBridge eventBridge;
+    
+    // Time-indexed history of queued fixes (see LocationHistoryStore); opened on first
+    // use and kept open for the process, so the plugin can query it with the service stopped
+    private static volatile LocationHistoryStore historyStore;
+    
+    // Sync scheduling (see SyncScheduler) - decisions on the pipeline thread, woken by
+    // allow-while-idle alarms so uploads still happen in Doze
+    private SyncScheduler syncScheduler;
+    private AlarmManager alarmManager;
+    private PendingIntent syncAlarmIntent;
+    private BroadcastReceiver syncAlarmReceiver;
+    private ConnectivityManager.OnNetworkActiveListener networkActiveListener;
+    private long scheduledAlarmAt = Long.MIN_VALUE;
+    private final AtomicReference<SyncScheduler.Lane> requestedLane = new AtomicReference<>();
+    private final AtomicReference<WakeLockManager.Hold> syncHandoff = new AtomicReference<>();
+    
+    // Tracking pipeline thread - owns all mutable tracking state below (fix
+    // filter, last fix, activity, power mode, interval). Fixes, activity and
+    // battery events arrive as messages, so that state needs no locks and
+    // nothing heavy runs on the main looper alongside the WebView.
+    private static final int MSG_ACTIVITY_CHANGED = 1;
+    private static final int MSG_FLUSH_PIPELINE = 2;
+    private static final int MSG_GEOFENCE_ARMED = 3;
+    private static final int MSG_GEOFENCE_EXIT = 4;
+    private static final long PIPELINE_SHUTDOWN_TIMEOUT_MS = 2000;
+    private HandlerThread pipelineThread;
+    private Handler pipelineHandler;
+    
+    // Cached battery / network / power state, updated on the pipeline thread
+    private static final int LOW_BATTERY_PERCENT = 20;
+    private DeviceContextSampler deviceContext;
+    
+    // Durable queue of unsynced fixes (see LocationQueue), fronted by an
+    // in-memory ring so the producer path and normal uploads never allocate
+    private static final int PENDING_RING_CAPACITY = 4096;
+    private LocationQueue locationQueue;
+    private final FixRingBuffer pendingFixes =
+        new FixRingBuffer(PENDING_RING_CAPACITY, FixRingBuffer.OverflowPolicy.DROP_OLDEST);
+    private final FixRecord pendingRecord = new FixRecord();
+    
+    // Sequenced, idempotent uploads over a keep-alive gzip uplink (see LocationUploader)
+    // Static so diagnostics can read the lane stats without binding to the service
+    private static volatile LocationUploader locationUploader;
+    private final UplinkClient uplinkClient = new UplinkClient();
+    
+    // Backoff / circuit breaker - spaces out retries while the API is failing
+    private final SyncRetryPolicy retryPolicy = new SyncRetryPolicy();
+    
+    // Single-flight sync runner - every trigger goes through it, uploads run on its worker thread.
+    // onDestroy waits on the pipeline and the final sync together, within one deadline
+    private static final long SHUTDOWN_DEADLINE_MS = 5000;
+    private SyncCoordinator syncCoordinator;
     
     private String authToken;
     private String apiUrl;
+    private volatile String trackingMode = TRACKING_MODE_REALTIME;
+    private volatile long maxUpdateDelayMs = DEFAULT_MAX_UPDATE_DELAY_MS;
+    
+    // Transmit-on-deviation for the latest lane; replaced when the settings change, off by default
+    private volatile DeadReckoningGate deadReckoning = new DeadReckoningGate(0f, DeadReckoningGate.DEFAULT_MAX_SILENCE_MS);
+    
+    // Fixes from one batched delivery, appended to the queue together (pipeline thread only)
+    private FixRecord[] deliveryBatch = new FixRecord[0];
+    private int deliveryBatchCount = 0;
+    private boolean collectingDelivery = false;
     
     // Current state tracking
     private int currentActivity = DetectedActivity.UNKNOWN;
-    private long lastMovementTime = 0;
-    private Location lastLocation = null;
+    private boolean hasLastFix = false;
+    private double lastFixLatitude;
+    private double lastFixLongitude;
+    private final float[] distanceResult = new float[1];
+    
+    // Per-fix processing: Kalman smoothing instead of a hard accuracy cutoff - its
+    // output is the live position - then SED-bounded simplification so straight
+    // stretches don't upload every fix
+    private static final double SIMPLIFY_TOLERANCE_M = 10.0;
+    private final KalmanFilterStage smoother = new KalmanFilterStage();
+    private final TrajectorySimplifierStage simplifier = new TrajectorySimplifierStage(
+        SIMPLIFY_TOLERANCE_M,
+        TrajectorySimplifierStage.DEFAULT_MAX_WINDOW_POINTS,
+        TrajectorySimplifierStage.DEFAULT_MAX_WINDOW_MS);
+    private final FixPipeline fixPipeline = new FixPipeline(simplifier);
     private boolean isLowPowerMode = false;
-    private long currentInterval = INTERVAL_DEFAULT;
+    
+    // Speed-driven update interval with hysteresis and a minimum dwell between re-registrations
+    private final IntervalController intervalController =
+        new IntervalController(SystemClock::elapsedRealtime, INTERVAL_DEFAULT);
+    private final Runnable intervalReevaluation = this::applyIntervalChange;
     
     // Activity transition receiver
     private BroadcastReceiver activityTransitionReceiver;
     
+    // Stationary mode - owned by the pipeline thread (see StationaryModeController)
+    private StationaryModeController stationaryMode;
+    private GeofencingClient geofencingClient;
+    private PendingIntent geofencePendingIntent;
+    private BroadcastReceiver geofenceExitReceiver;
+    private int geofenceRequestId = 0;
+    private final Runnable stationaryReevaluation = this::evaluateStationaryMode;
+    
+    // Stays and trips (see StayTripSegmenter), fed on the pipeline thread and uploaded
+    // as compact segments; at a confirmed stay only a heartbeat fix is queued now and then
+    private static final long STAY_HEARTBEAT_MS = 5 * 60_000;
+    private final StayTripSegmenter stayTrips = new StayTripSegmenter(this::onSegment, System::currentTimeMillis);
+    private long lastQueuedFixAt = Long.MIN_VALUE / 2;
+    
     @Override
     public void onCreate() {
         super.onCreate();
         Log.d(TAG, "Service onCreate - Production-grade tracking starting");
         
-        executorService = Executors.newFixedThreadPool(2);
+        pipelineThread = new HandlerThread("location-pipeline", Process.THREAD_PRIORITY_BACKGROUND);
+        pipelineThread.start();
+        pipelineHandler = new Handler(pipelineThread.getLooper(), this::handlePipelineMessage);
+        eventBridge = new LocationEventBridge(() -> eventSink,
+            (task, delayMs) -> pipelineHandler.postDelayed(task, delayMs), SystemClock::elapsedRealtime);
+        
+        syncCoordinator = new SyncCoordinator(this::syncLocationsNow);
         fusedLocationClient = LocationServices.getFusedLocationProviderClient(this);
         activityRecognitionClient = ActivityRecognition.getClient(this);
-        syncHandler = new Handler(Looper.getMainLooper());
-        lastMovementTime = System.currentTimeMillis();
+        geofencingClient = LocationServices.getGeofencingClient(this);
         
         loadCredentials();
+        openLocationQueue();
+        historyStore(this);
         createNotificationChannel();
-        acquireWakeLock();
+        if (wakeLocks == null) {
+            wakeLocks = new WakeLockManager(
+                WakeLockManager.systemLock(this, "LocTrack::LocationWakeLock"), SystemClock::elapsedRealtime);
+            wakeLocks.setHoldObserver(heldMs -> metrics.record(MetricsRegistry.Histogram.WAKELOCK_HOLD_MS, heldMs));
+        }
         setupLocationCallback();
         setupActivityRecognition();
-        setupPeriodicSync();
-        registerBatteryReceiver();
+        setupStationaryMode();
+        setupSyncScheduling();
+        startDeviceContext();
+        
+        // Backlog left over from a previous run
+        pipelineHandler.post(this::scheduleSync);
     }
     
     @Override
@@ -143,8 +291,12 @@ public class LocationBackgroundService extends Service {
         // Start as foreground service immediately
         startForeground(NOTIFICATION_ID, createNotification("Initializing..."));
         
-        // Start location updates with current activity-based interval
-        startLocationUpdates();
+        // Start location updates with current activity-based interval (unless parked)
+        pipelineHandler.post(() -> {
+            if (!stationaryMode.isParked()) {
+                startLocationUpdates();
+            }
+        });
         
         // Start activity recognition
         startActivityRecognition();
@@ -157,28 +309,59 @@ public class LocationBackgroundService extends Service {
     public void onDestroy() {
         Log.d(TAG, "Service onDestroy - performing cleanup and final sync");
         
-        // Final sync before dying
-        syncLocationsNow();
-        
         stopLocationUpdates();
         stopActivityRecognition();
-        unregisterBatteryReceiver();
+        stopStationaryMode();
+        Log.d(TAG, "Update interval: " + intervalController.summary());
+        deviceContext.stop();
+        stopSyncScheduling();
         
-        if (syncHandler != null && syncRunnable != null) {
-            syncHandler.removeCallbacks(syncRunnable);
-        }
+        // Everything below blocks the main thread, so it shares one deadline
+        long deadline = SystemClock.elapsedRealtime() + SHUTDOWN_DEADLINE_MS;
         
-        if (wakeLock != null && wakeLock.isHeld()) {
-            wakeLock.release();
+        // Let the pipeline finish queued fixes and release the one the simplifier
+        // is still holding, so the trail ends where we stopped
+        pipelineHandler.sendEmptyMessage(MSG_FLUSH_PIPELINE);
+        pipelineThread.quitSafely();
+        try {
+            pipelineThread.join(Math.min(PIPELINE_SHUTDOWN_TIMEOUT_MS, remainingMs(deadline)));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
         
-        if (executorService != null) {
-            executorService.shutdown();
+        // Final sync before dying - runs on the sync worker. The queue is closed
+        // by the worker once that upload is done, even if we stop waiting first
+        syncCoordinator.requestUrgentSync("shutdown", remainingMs(deadline));
+        if (!syncCoordinator.shutdown(remainingMs(deadline), this::closeQueueAfterShutdown)) {
+            Log.w(TAG, "Final sync still running, leaving the queue for the sync worker to close");
         }
+        Log.d(TAG, "Wakelocks: " + wakeLocks.summary());
         
         super.onDestroy();
     }
     
+    private static long remainingMs(long deadline) {
+        return Math.max(0, deadline - SystemClock.elapsedRealtime());
+    }
+    
+    /** Runs on the sync worker after its last upload; the pipeline may still be winding down. */
+    private void closeQueueAfterShutdown() {
+        try {
+            pipelineThread.join(PIPELINE_SHUTDOWN_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (pipelineThread.isAlive()) {
+            Log.w(TAG, "Pipeline did not stop, closing the location queue anyway");
+        }
+        // A sync the pipeline decided on last will not run now
+        releaseSyncHandoff();
+        try (WakeLockManager.Hold hold = wakeLocks.acquire(WakeLockManager.Reason.QUEUE_FLUSH)) {
+            closeLocationQueue();
+            flushHistory();
+        }
+    }
+    
     @Nullable
     @Override
     public IBinder onBind(Intent intent) {
@@ -191,7 +374,18 @@ public class LocationBackgroundService extends Service {
         SharedPreferences prefs = getSharedPreferences("LocTrackPrefs", MODE_PRIVATE);
         authToken = prefs.getString("authToken", null);
         apiUrl = prefs.getString("apiUrl", "https://loctrack-api.onrender.com/api");
-        Log.d(TAG, "Credentials loaded, token exists: " + (authToken != null));
+        trackingMode = prefs.getString("trackingMode", TRACKING_MODE_REALTIME);
+        maxUpdateDelayMs = prefs.getLong("maxUpdateDelayMs", DEFAULT_MAX_UPDATE_DELAY_MS);
+        float toleranceMeters = prefs.getFloat("positionToleranceMeters", 0f);
+        long maxSilenceMs = prefs.getLong("maxSilenceMs", DeadReckoningGate.DEFAULT_MAX_SILENCE_MS);
+        DeadReckoningGate gate = deadReckoning;
+        if (gate.toleranceMeters() != toleranceMeters || gate.maxSilenceMs() != maxSilenceMs) {
+            deadReckoning = new DeadReckoningGate(toleranceMeters, maxSilenceMs);
+            if (locationUploader != null) {
+                locationUploader.setDeadReckoning(deadReckoning);
+            }
+        }
+        Log.d(TAG, "Credentials loaded, token exists: " + (authToken != null) + ", mode: " + trackingMode);
     }
     
     public static void saveCredentials(Context context, String token, String apiUrl) {
@@ -203,6 +397,17 @@ public class LocationBackgroundService extends Service {
         Log.d(TAG, "Credentials saved");
     }
     
+    public static void saveTrackingProfile(Context context, String mode, long maxUpdateDelayMs,
+                                           float positionToleranceMeters, long maxSilenceMs) {
+        SharedPreferences prefs = context.getSharedPreferences("LocTrackPrefs", MODE_PRIVATE);
+        prefs.edit()
+            .putString("trackingMode", mode)
+            .putLong("maxUpdateDelayMs", maxUpdateDelayMs)
+            .putFloat("positionToleranceMeters", positionToleranceMeters)
+            .putLong("maxSilenceMs", maxSilenceMs)
+            .apply();
+    }
+    
     public static void setTrackingEnabled(Context context, boolean enabled) {
         SharedPreferences prefs = context.getSharedPreferences("LocTrackPrefs", MODE_PRIVATE);
         prefs.edit().putBoolean("trackingEnabled", enabled).apply();
@@ -243,8 +448,9 @@ public class LocationBackgroundService extends Service {
         );
         
         String activityName = getActivityName(currentActivity);
-        String contentText = status != null ? status : 
-            "Tracking active • " + activityName + " • " + (currentInterval / 1000) + "s interval";
+        String contentText = status != null ? status : stationaryMode.isParked() ?
+            "Parked • " + activityName + " • GPS off until you move" :
+            "Tracking active • " + activityName + " • " + (intervalController.currentIntervalMs() / 1000) + "s interval";
         
         return new NotificationCompat.Builder(this, CHANNEL_ID)
             .setContentTitle("📍 LocTrack Active")
@@ -265,7 +471,7 @@ public class LocationBackgroundService extends Service {
         }
     }
     
-    private String getActivityName(int activity) {
+    static String getActivityName(int activity) {
         switch (activity) {
             case DetectedActivity.IN_VEHICLE: return "🚗 Driving";
             case DetectedActivity.ON_BICYCLE: return "🚴 Cycling";
@@ -276,72 +482,230 @@ public class LocationBackgroundService extends Service {
         }
     }
     
+    /** Stable activity name for JS. */
+    static String activityKey(int activity) {
+        switch (activity) {
+            case DetectedActivity.IN_VEHICLE: return "driving";
+            case DetectedActivity.ON_BICYCLE: return "cycling";
+            case DetectedActivity.RUNNING: return "running";
+            case DetectedActivity.WALKING: return "walking";
+            case DetectedActivity.STILL: return "still";
+            default: return "unknown";
+        }
+    }
+    
     // ==================== WAKE LOCK ====================
     
-    private void acquireWakeLock() {
-        PowerManager powerManager = (PowerManager) getSystemService(POWER_SERVICE);
-        if (powerManager != null) {
-            wakeLock = powerManager.newWakeLock(
-                PowerManager.PARTIAL_WAKE_LOCK,
-                "LocTrack::LocationWakeLock"
-            );
-            // Acquire for 24 hours max, will be released on service destroy
-            wakeLock.acquire(24 * 60 * 60 * 1000L);
-            Log.d(TAG, "WakeLock acquired");
+    /** Process-wide wakelock stats, or null if the service never ran in this process. */
+    static WakeLockManager wakeLockManager() {
+        return wakeLocks;
+    }
+    
+    static LocationUploader locationUploader() {
+        return locationUploader;
+    }
+    
+    /** Process-wide hot-path metrics; counts span service restarts. */
+    static MetricsRegistry metrics() {
+        return metrics;
+    }
+    
+    /** Where live events go; without a sink nothing is buffered. */
+    static void setEventSink(LocationEventBridge.Sink sink) {
+        eventSink = sink;
+    }
+    
+    /** The process-wide history store, opened on first use; null if it cannot be opened. */
+    static synchronized LocationHistoryStore historyStore(Context context) {
+        if (historyStore == null) {
+            try {
+                historyStore = new LocationHistoryStore(
+                    new File(context.getNoBackupFilesDir(), "location-history"), System::currentTimeMillis);
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to open location history", e);
+            }
+        }
+        return historyStore;
+    }
+    
+    /** Unregisters {@code sink} unless another plugin instance has replaced it. */
+    static void clearEventSink(LocationEventBridge.Sink sink) {
+        if (eventSink == sink) {
+            eventSink = null;
+        }
+    }
+    
+    // ==================== TRACKING PIPELINE ====================
+    
+    private boolean handlePipelineMessage(Message msg) {
+        switch (msg.what) {
+            case MSG_ACTIVITY_CHANGED:
+                onActivityChanged(msg.arg1);
+                return true;
+            case MSG_FLUSH_PIPELINE:
+                try (WakeLockManager.Hold hold = wakeLocks.acquire(WakeLockManager.Reason.QUEUE_FLUSH)) {
+                    flushPipeline();
+                }
+                return true;
+            case MSG_GEOFENCE_ARMED:
+                // Ignore results for requests superseded by a resume
+                if (msg.arg2 == geofenceRequestId) {
+                    stationaryMode.onGeofenceArmed(msg.arg1 != 0);
+                    evaluateStationaryMode();
+                }
+                return true;
+            case MSG_GEOFENCE_EXIT:
+                Log.d(TAG, "🚶 Left stationary geofence");
+                stationaryMode.onGeofenceExit();
+                evaluateStationaryMode();
+                return true;
+            default:
+                return false;
+        }
+    }
+    
+    private void flushPipeline() {
+        while (fixPipeline.flush(pendingRecord)) {
+            addLocationToBatch(pendingRecord);
         }
     }
     
     // ==================== LOCATION TRACKING ====================
     
     private void setupLocationCallback() {
+        // Delivered on the pipeline looper (see startLocationUpdates)
         locationCallback = new LocationCallback() {
             @Override
             public void onLocationResult(@NonNull LocationResult locationResult) {
-                for (Location location : locationResult.getLocations()) {
-                    processLocation(location);
+                // Nothing keeps the CPU up once the delivery reaches our looper
+                try (WakeLockManager.Hold hold = wakeLocks.acquire(WakeLockManager.Reason.DELIVERY)) {
+                    List<Location> locations = locationResult.getLocations();
+                    if (locations.size() == 1) {
+                        processLocation(locations.get(0), NO_REBASE);
+                    } else {
+                        processLocationBatch(locations);
+                    }
                 }
             }
         };
     }
     
-    private void processLocation(Location location) {
-        // High Accuracy Filter: discard poor/noisy signals > 25m
-        if (location.hasAccuracy() && location.getAccuracy() > 25) {
-            Log.v(TAG, "Skipping inaccurate location: " + location.getAccuracy() + "m");
+    /**
+     * A deferred delivery: fixes buffered by the chipset, possibly minutes old.
+     * Timestamps are rebased once for the whole batch from elapsed realtime, so
+     * they stay ordered even if the wall clock moved meanwhile, and accepted
+     * fixes are appended to the queue in one write.
+     */
+    private void processLocationBatch(List<Location> locations) {
+        long wallClockOffsetMs = System.currentTimeMillis() - SystemClock.elapsedRealtime();
+        collectingDelivery = true;
+        try {
+            for (Location location : locations) {
+                processLocation(location, wallClockOffsetMs);
+            }
+        } finally {
+            collectingDelivery = false;
+        }
+        appendDeliveryBatch();
+        applyIntervalChange();
+        // One decision for the whole delivery
+        scheduleSync();
+        
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "📦 Batched delivery: " + locations.size() + " fixes");
+        }
+    }
+    
+    private void processLocation(Location location, long wallClockOffsetMs) {
+        metrics.increment(MetricsRegistry.Counter.FIXES_RECEIVED);
+        FixRecord fix = pendingRecord;
+        fix.latitude = location.getLatitude();
+        fix.longitude = location.getLongitude();
+        fix.accuracy = location.hasAccuracy() ? location.getAccuracy() : 0f;
+        fix.speed = location.hasSpeed() ? location.getSpeed() : Float.NaN;
+        fix.heading = location.hasBearing() ? location.getBearing() : Float.NaN;
+        long elapsedMs = location.getElapsedRealtimeNanos() / 1_000_000;
+        if (wallClockOffsetMs != NO_REBASE && elapsedMs > 0) {
+            fix.timestamp = wallClockOffsetMs + elapsedMs;
+        } else {
+            fix.timestamp = location.getTime() > 0 ? location.getTime() : System.currentTimeMillis();
+        }
+        fix.activity = (byte) currentActivity;
+        fix.confidence = 1f;
+        
+        // Raw reported speed drives the update interval, before smoothing can hold the fix back
+        // (a batched delivery re-evaluates once at the end)
+        intervalController.onSpeed(fix.speed);
+        if (!collectingDelivery) {
+            applyIntervalChange();
+        }
+        
+        // Smoothing weights each fix by its accuracy and rewrites it with the
+        // filtered position and a confidence. That is the live position, so it
+        // goes to the in-app map and the latest lane now rather than waiting on
+        // the simplifier
+        smoother.process(fix);
+        if (fix.confidence >= MIN_CONFIDENCE) {
+            eventBridge.offerPosition(fix);
+            offerRealtime(fix);
+        }
+        
+        // Only uploads need simplified fixes: the simplifier may hold the fix
+        // back, or release an earlier one in its place
+        if (!fixPipeline.process(fix)) {
+            metrics.increment(MetricsRegistry.Counter.HELD_BY_SIMPLIFIER);
+            return;
+        }
+        if (fix.confidence < MIN_CONFIDENCE) {
+            metrics.increment(MetricsRegistry.Counter.FILTERED_ACCURACY);
+            if (Log.isLoggable(TAG, Log.VERBOSE)) {
+                Log.v(TAG, "Skipping low-confidence location: " + fix.confidence + " (accuracy " + location.getAccuracy() + "m)");
+            }
             return;
         }
+        stayTrips.onFix(fix);
 
         // Check if this is a significant movement
         boolean isSignificantMovement = true;
         
-        if (lastLocation != null) {
-            float distance = lastLocation.distanceTo(location);
+        if (hasLastFix) {
+            Location.distanceBetween(lastFixLatitude, lastFixLongitude, fix.latitude, fix.longitude, distanceResult);
+            float distance = distanceResult[0];
             float minDistance = (currentActivity == DetectedActivity.STILL) ? 
                 DISPLACEMENT_STATIONARY : DISPLACEMENT_MOVING;
             
             isSignificantMovement = distance >= minDistance;
-            
-            if (isSignificantMovement) {
-                lastMovementTime = System.currentTimeMillis();
-            }
         }
         
         // Always update last location
-        lastLocation = location;
+        hasLastFix = true;
+        lastFixLatitude = fix.latitude;
+        lastFixLongitude = fix.longitude;
         
+        // The stay segment stands in for the fixes at a site, bar a heartbeat
+        boolean heldAtStay = stayTrips.isStaying() && fix.timestamp - lastQueuedFixAt < STAY_HEARTBEAT_MS;
+    
         // Only log if significant or first location
-        if (isSignificantMovement || locationBatch.isEmpty()) {
-            Log.d(TAG, String.format("📍 Location: %.6f, %.6f (accuracy: %.1fm, speed: %.1f m/s)", 
-                location.getLatitude(), 
-                location.getLongitude(),
-                location.getAccuracy(),
-                location.hasSpeed() ? location.getSpeed() : 0));
+        if ((isSignificantMovement || pendingLocationCount() == 0) && !heldAtStay) {
+            // Formatting boxes every argument - only pay for it when debug logging is on
+            if (Log.isLoggable(TAG, Log.DEBUG)) {
+                Log.d(TAG, String.format("📍 Location: %.6f, %.6f (accuracy: %.1fm, confidence: %.2f, speed: %.1f m/s)", 
+                    fix.latitude, 
+                    fix.longitude,
+                    fix.accuracy,
+                    fix.confidence,
+                    fix.hasSpeed() ? fix.speed : 0));
+            }
             
-            addLocationToBatch(location);
+            lastQueuedFixAt = fix.timestamp;
+            addLocationToBatch(fix);
+        } else {
+            metrics.increment(MetricsRegistry.Counter.FILTERED_DISPLACEMENT);
         }
         
-        // Check if we should pause tracking (stationary for too long)
-        checkStationaryPause();
+        // Check if we should park GPS (stationary for too long)
+        stationaryMode.onFix(fix.latitude, fix.longitude, fix.accuracy, isSignificantMovement);
+        evaluateStationaryMode();
     }
     
     private void startLocationUpdates() {
@@ -351,10 +715,11 @@ public class LocationBackgroundService extends Service {
             fusedLocationClient.requestLocationUpdates(
                 locationRequest,
                 locationCallback,
-                Looper.getMainLooper()
+                pipelineThread.getLooper()
             );
             
-            Log.d(TAG, "Location updates started (interval: " + currentInterval + "ms)");
+            intervalController.onRegistered();
+            Log.d(TAG, "Location updates started (interval: " + intervalController.currentIntervalMs() + "ms)");
         } catch (SecurityException e) {
             Log.e(TAG, "Location permission denied", e);
         }
@@ -375,15 +740,22 @@ public class LocationBackgroundService extends Service {
         float displacement = (currentActivity == DetectedActivity.STILL) ? 
             DISPLACEMENT_STATIONARY : DISPLACEMENT_MOVING;
         
-        return new LocationRequest.Builder(priority, currentInterval)
+        long interval = intervalController.currentIntervalMs();
+        LocationRequest.Builder builder = new LocationRequest.Builder(priority, interval)
             .setMinUpdateIntervalMillis(FASTEST_INTERVAL)
             .setMinUpdateDistanceMeters(displacement)
-            .setWaitForAccurateLocation(false)
-            .build();
+            .setWaitForAccurateLocation(false);
+        
+        // Deferred mode: fixes may be held back this long and delivered together.
+        // Less than two intervals would not batch anything
+        if (TRACKING_MODE_DEFERRED.equals(trackingMode)) {
+            builder.setMaxUpdateDelayMillis(Math.max(maxUpdateDelayMs, 2 * interval));
+        }
+        return builder.build();
     }
     
     private void updateLocationInterval() {
-        // Determine new interval based on activity
+        // Activity gives the prior interval; observed speed refines it
         long newInterval;
         switch (currentActivity) {
             case DetectedActivity.IN_VEHICLE:
@@ -403,36 +775,34 @@ public class LocationBackgroundService extends Service {
                 newInterval = INTERVAL_DEFAULT;
         }
         
-        // Apply low power mode adjustment
-        if (isLowPowerMode) {
-            newInterval = Math.max(newInterval * 2, 30000);
-        }
-        
-        // Only restart if interval changed significantly
-        if (Math.abs(newInterval - currentInterval) > 2000) {
-            currentInterval = newInterval;
-            Log.d(TAG, "Updating location interval to: " + currentInterval + "ms");
-            
-            // Restart location updates with new interval
-            stopLocationUpdates();
-            startLocationUpdates();
-            updateNotification();
-        }
+        intervalController.setActivityPrior(newInterval);
+        intervalController.setLowPower(isLowPowerMode);
+        applyIntervalChange();
     }
     
-    private void checkStationaryPause() {
-        long timeSinceMovement = System.currentTimeMillis() - lastMovementTime;
+    private void applyIntervalChange() {
+        pipelineHandler.removeCallbacks(intervalReevaluation);
+        if (!intervalController.evaluate()) {
+            // A change still settling (debounce / dwell) - look again once it could apply,
+            // rather than waiting for a fix that may be minutes away
+            long delay = intervalController.nextEvaluationDelayMs();
+            if (delay >= 0) {
+                pipelineHandler.postDelayed(intervalReevaluation, Math.max(delay, 100));
+            }
+            return;
+        }
+        Log.d(TAG, "Updating location interval to: " + intervalController.currentIntervalMs() + "ms (" + intervalController.summary() + ")");
         
-        if (timeSinceMovement > STATIONARY_PAUSE_THRESHOLD && 
-            currentActivity == DetectedActivity.STILL &&
-            currentInterval < INTERVAL_STATIONARY) {
-            
-            Log.d(TAG, "User stationary for " + (timeSinceMovement / 1000) + "s, reducing update frequency");
-            currentInterval = INTERVAL_STATIONARY;
-            stopLocationUpdates();
-            startLocationUpdates();
-            updateNotification();
+        // Parked - the new interval is picked up when updates resume
+        if (stationaryMode.isParked()) {
+            return;
         }
+        
+        // Restart location updates with new interval
+        metrics.increment(MetricsRegistry.Counter.INTERVAL_REREGISTRATIONS);
+        stopLocationUpdates();
+        startLocationUpdates();
+        updateNotification();
     }
     
     // ==================== ACTIVITY RECOGNITION ====================
@@ -453,7 +823,8 @@ public class LocationBackgroundService extends Service {
                     if (result != null) {
                         for (ActivityTransitionEvent event : result.getTransitionEvents()) {
                             if (event.getTransitionType() == ActivityTransition.ACTIVITY_TRANSITION_ENTER) {
-                                onActivityChanged(event.getActivityType());
+                                pipelineHandler.obtainMessage(MSG_ACTIVITY_CHANGED, event.getActivityType(), 0)
+                                    .sendToTarget();
                             }
                         }
                     }
@@ -522,173 +893,543 @@ public class LocationBackgroundService extends Service {
         if (newActivity != currentActivity) {
             Log.d(TAG, "Activity changed: " + getActivityName(currentActivity) + " → " + getActivityName(newActivity));
             currentActivity = newActivity;
+            eventBridge.offerActivity(activityKey(newActivity));
             
             // Update location tracking interval based on new activity
             updateLocationInterval();
             
-            // If user started moving, reset the stationary timer
-            if (newActivity != DetectedActivity.STILL) {
-                lastMovementTime = System.currentTimeMillis();
-            }
+            // Moving resets the stationary timer, and resumes updates if parked
+            stationaryMode.onActivityChanged(newActivity == DetectedActivity.STILL);
+            evaluateStationaryMode();
+            stayTrips.onActivityChanged(newActivity == DetectedActivity.STILL);
         }
     }
     
-    // ==================== BATTERY AWARENESS ====================
-    
-    private BroadcastReceiver batteryReceiver;
+    // ==================== STATIONARY MODE ====================
     
-    private void registerBatteryReceiver() {
-        batteryReceiver = new BroadcastReceiver() {
+    private void setupStationaryMode() {
+        stationaryMode = new StationaryModeController(new StationaryModeController.Actions() {
+            @Override
+            public void armExitGeofence(double latitude, double longitude, float radiusMeters) {
+                addStationaryGeofence(latitude, longitude, radiusMeters);
+            }
+            
+            @Override
+            public void disarmExitGeofence() {
+                geofenceRequestId++;
+                geofencingClient.removeGeofences(geofencePendingIntent);
+            }
+            
+            @Override
+            public void stopLocationUpdates() {
+                // Release the fix the simplifier is holding so the trail ends at the stay point
+                flushPipeline();
+                LocationBackgroundService.this.stopLocationUpdates();
+                updateNotification();
+                Log.d(TAG, "🅿️ Parked - GPS off until geofence exit or movement (" + stationaryMode.summary() + ")");
+            }
+            
+            @Override
+            public void startLocationUpdates() {
+                LocationBackgroundService.this.startLocationUpdates();
+                updateNotification();
+                Log.d(TAG, "▶️ Resumed tracking (" + stationaryMode.summary() + ")");
+            }
+        }, SystemClock::elapsedRealtime, STATIONARY_PAUSE_THRESHOLD,
+            StationaryModeController.DEFAULT_MIN_RADIUS_M, INTERVAL_STATIONARY, GPS_ON_PER_FIX_MS,
+            WAKE_PER_FIX_MS);
+        
+        Intent intent = new Intent(this, GeofenceExitReceiver.class);
+        geofencePendingIntent = PendingIntent.getBroadcast(
+            this, 0, intent,
+            PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_MUTABLE
+        );
+        
+        geofenceExitReceiver = new BroadcastReceiver() {
             @Override
             public void onReceive(Context context, Intent intent) {
-                int level = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
-                int scale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
-                float batteryPct = level * 100 / (float) scale;
-                
-                boolean wasLowPower = isLowPowerMode;
-                isLowPowerMode = batteryPct < 20;
-                
-                if (isLowPowerMode != wasLowPower) {
-                    Log.d(TAG, "Battery mode changed: " + (isLowPowerMode ? "LOW POWER" : "NORMAL"));
-                    updateLocationInterval();
-                }
+                pipelineHandler.sendEmptyMessage(MSG_GEOFENCE_EXIT);
             }
         };
         
-        IntentFilter filter = new IntentFilter(Intent.ACTION_BATTERY_CHANGED);
-        registerReceiver(batteryReceiver, filter);
+        IntentFilter filter = new IntentFilter(GeofenceExitReceiver.ACTION_GEOFENCE_EXIT);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+            registerReceiver(geofenceExitReceiver, filter, Context.RECEIVER_NOT_EXPORTED);
+        } else {
+            registerReceiver(geofenceExitReceiver, filter);
+        }
+        
+        // A geofence left over from a previous process would fire into a tracking service
+        geofencingClient.removeGeofences(geofencePendingIntent);
+    }
+    
+    /**
+     * Parks once the threshold has passed even when no fix arrives to check
+     * it - while still, the distance filter can hold every fix back.
+     */
+    private void evaluateStationaryMode() {
+        pipelineHandler.removeCallbacks(stationaryReevaluation);
+        stationaryMode.evaluate();
+        long delay = stationaryMode.nextEvaluationDelayMs();
+        if (delay >= 0) {
+            pipelineHandler.postDelayed(stationaryReevaluation, Math.max(delay, 100));
+        }
     }
     
-    private void unregisterBatteryReceiver() {
-        if (batteryReceiver != null) {
+    private void addStationaryGeofence(double latitude, double longitude, float radiusMeters) {
+        int requestId = ++geofenceRequestId;
+        Geofence geofence = new Geofence.Builder()
+            .setRequestId("stationary")
+            .setCircularRegion(latitude, longitude, radiusMeters)
+            .setExpirationDuration(Geofence.NEVER_EXPIRE)
+            .setTransitionTypes(Geofence.GEOFENCE_TRANSITION_EXIT)
+            .setNotificationResponsiveness(GEOFENCE_RESPONSIVENESS_MS)
+            .build();
+        
+        // Exit fires straight away if we already drifted out while the request was in flight
+        GeofencingRequest request = new GeofencingRequest.Builder()
+            .setInitialTrigger(GeofencingRequest.INITIAL_TRIGGER_EXIT)
+            .addGeofence(geofence)
+            .build();
+        
+        Log.d(TAG, "Stationary for " + (STATIONARY_PAUSE_THRESHOLD / 1000) + "s, arming " + (int) radiusMeters + "m exit geofence");
+        try {
+            geofencingClient.addGeofences(request, geofencePendingIntent)
+                .addOnSuccessListener(aVoid ->
+                    pipelineHandler.obtainMessage(MSG_GEOFENCE_ARMED, 1, requestId).sendToTarget())
+                .addOnFailureListener(e -> {
+                    Log.e(TAG, "Stationary geofence failed: " + e.getMessage());
+                    pipelineHandler.obtainMessage(MSG_GEOFENCE_ARMED, 0, requestId).sendToTarget();
+                });
+        } catch (SecurityException e) {
+            Log.e(TAG, "Geofence permission denied", e);
+            pipelineHandler.obtainMessage(MSG_GEOFENCE_ARMED, 0, requestId).sendToTarget();
+        }
+    }
+    
+    private void stopStationaryMode() {
+        if (geofencingClient != null && geofencePendingIntent != null) {
+            geofencingClient.removeGeofences(geofencePendingIntent);
+        }
+        if (geofenceExitReceiver != null) {
             try {
-                unregisterReceiver(batteryReceiver);
+                unregisterReceiver(geofenceExitReceiver);
             } catch (Exception e) {
                 // Already unregistered
             }
         }
+        if (stationaryMode != null) {
+            Log.d(TAG, "Stationary mode: " + stationaryMode.summary());
+        }
     }
     
-    private int getBatteryLevel() {
-        Intent batteryIntent = registerReceiver(null, 
-            new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
-        if (batteryIntent != null) {
-            int level = batteryIntent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
-            int scale = batteryIntent.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
-            if (level >= 0 && scale > 0) {
-                return (int) ((level / (float) scale) * 100);
-            }
+    // ==================== DEVICE CONTEXT ====================
+    
+    private void startDeviceContext() {
+        deviceContext = new DeviceContextSampler(this, pipelineHandler);
+        deviceContext.addListener(this::onDeviceContextChanged);
+        // The sampler's first readings reach the scheduler through the listener,
+        // on the pipeline thread; until then it assumes online, as UNKNOWN does
+        deviceContext.start();
+    }
+    
+    /** Runs on the pipeline thread. */
+    private void onDeviceContextChanged(DeviceContext previous, DeviceContext current) {
+        boolean wasLowPower = isLowPowerMode;
+        isLowPowerMode = current.isBatteryLow(LOW_BATTERY_PERCENT) || current.powerSaveMode;
+        
+        if (isLowPowerMode != wasLowPower) {
+            Log.d(TAG, "Battery mode changed: " + (isLowPowerMode ? "LOW POWER" : "NORMAL") + " (" + current + ")");
+            updateLocationInterval();
+        }
+        
+        // Network type, metered and charging decide when the backlog goes out;
+        // coming back online uploads what piled up while offline
+        syncScheduler.setNetwork(!current.isOffline(), current.metered);
+        syncScheduler.setCharging(current.charging);
+        if (previous.isOffline() != current.isOffline()
+                || previous.metered != current.metered
+                || previous.charging != current.charging) {
+            scheduleSync();
         }
-        return -1;
     }
     
     // ==================== LOCATION BATCHING & SYNC ====================
     
-    private void addLocationToBatch(Location location) {
+    private void openLocationQueue() {
         try {
-            JSONObject locationJson = new JSONObject();
-            locationJson.put("latitude", location.getLatitude());
-            locationJson.put("longitude", location.getLongitude());
-            locationJson.put("accuracy", location.getAccuracy());
-            locationJson.put("speed", location.hasSpeed() ? location.getSpeed() : JSONObject.NULL);
-            locationJson.put("heading", location.hasBearing() ? location.getBearing() : JSONObject.NULL);
-            locationJson.put("timestamp", System.currentTimeMillis());
-            locationJson.put("batteryLevel", getBatteryLevel());
-            locationJson.put("networkStatus", "online");
-            locationJson.put("activity", getActivityName(currentActivity));
-            
-            synchronized (locationBatch) {
-                locationBatch.add(locationJson);
-                
-                // Force sync if batch is getting too large
-                if (locationBatch.size() >= MAX_BATCH_SIZE) {
-                    Log.d(TAG, "Batch full (" + MAX_BATCH_SIZE + "), forcing sync");
-                    syncLocationsAsync();
-                }
+            locationQueue = new LocationQueue(new File(getNoBackupFilesDir(), "location-queue"));
+            locationUploader = new LocationUploader(locationQueue, pendingFixes, uplinkClient, retryPolicy);
+            locationUploader.setDeadReckoning(deadReckoning);
+            Log.d(TAG, "Location queue opened, " + locationQueue.pendingCount() + " fixes pending from previous run");
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to open location queue", e);
+        }
+    }
+    
+    private void closeLocationQueue() {
+        if (locationQueue != null) {
+            try {
+                locationQueue.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to close location queue", e);
+            }
+        }
+    }
+    
+    private long pendingLocationCount() {
+        return locationQueue != null ? locationQueue.pendingCount() : 0;
+    }
+    
+    private void addLocationToBatch(FixRecord record) {
+        if (locationQueue == null) {
+            Log.w(TAG, "Location queue unavailable, dropping fix");
+            metrics.increment(MetricsRegistry.Counter.DROPPED);
+            return;
+        }
+        
+        DeviceContext context = deviceContext.current();
+        record.batteryLevel = (byte) context.batteryLevel;
+        record.networkStatus = context.networkStatus();
+        
+        if (collectingDelivery) {
+            collectDeliveryFix(record);
+            return;
+        }
+        
+        try {
+            locationQueue.append(record);
+        } catch (IOException e) {
+            Log.e(TAG, "Error appending location to queue", e);
+            metrics.increment(MetricsRegistry.Counter.DROPPED);
+            return;
+        }
+        metrics.increment(MetricsRegistry.Counter.BATCHED);
+        recordHistory(record);
+        pendingFixes.offer(record);
+        syncScheduler.onFixQueued();
+        scheduleSync();
+    }
+    
+    private void collectDeliveryFix(FixRecord record) {
+        if (deliveryBatchCount == deliveryBatch.length) {
+            int oldLength = deliveryBatch.length;
+            deliveryBatch = Arrays.copyOf(deliveryBatch, Math.max(DELIVERY_BATCH_INITIAL_CAPACITY, oldLength * 2));
+            for (int i = oldLength; i < deliveryBatch.length; i++) {
+                deliveryBatch[i] = new FixRecord();
+            }
+        }
+        deliveryBatch[deliveryBatchCount++].copyFrom(record);
+    }
+    
+    private void appendDeliveryBatch() {
+        if (deliveryBatchCount == 0) {
+            return;
+        }
+        int count = deliveryBatchCount;
+        deliveryBatchCount = 0;
+        try {
+            locationQueue.appendAll(deliveryBatch, count);
+        } catch (IOException e) {
+            Log.e(TAG, "Error appending " + count + " batched locations to queue", e);
+            metrics.add(MetricsRegistry.Counter.DROPPED, count);
+            return;
+        }
+        metrics.add(MetricsRegistry.Counter.BATCHED, count);
+        for (int i = 0; i < count; i++) {
+            recordHistory(deliveryBatch[i]);
+            pendingFixes.offer(deliveryBatch[i]);
+        }
+        syncScheduler.onFixQueued();
+    }
+    
+    private void recordHistory(FixRecord record) {
+        LocationHistoryStore history = historyStore;
+        if (history == null) {
+            return;
+        }
+        try {
+            history.append(record);
+        } catch (IOException e) {
+            // The queue still has the fix - only the local trail misses it
+            Log.w(TAG, "Failed to record location history: " + e.getMessage());
+        }
+    }
+    
+    private void flushHistory() {
+        LocationHistoryStore history = historyStore;
+        if (history != null) {
+            try {
+                history.flush();
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to flush location history: " + e.getMessage());
             }
-        } catch (JSONException e) {
-            Log.e(TAG, "Error creating location JSON", e);
         }
     }
     
-    private void setupPeriodicSync() {
-        syncRunnable = new Runnable() {
+    private void onSegment(StayTripSegmenter.Segment segment) {
+        Log.d(TAG, "🏁 " + segment);
+        LocationUploader uploader = locationUploader;
+        if (uploader != null) {
+            uploader.offerSegment(segment);
+        }
+    }
+    
+    /**
+     * Hands a smoothed fix to the latest lane unless the server can dead-reckon
+     * it within tolerance. Runs ahead of the simplifier, which only shapes what
+     * the history lane uploads.
+     */
+    private void offerRealtime(FixRecord fix) {
+        LocationUploader uploader = locationUploader;
+        if (uploader == null || !deadReckoning.offer(fix)) {
+            return;
+        }
+        uploader.offerLatest(fix);
+        syncScheduler.onLatestOffered();
+        if (!collectingDelivery) {
+            scheduleSync();
+        }
+    }
+    
+    // ==================== SYNC SCHEDULING ====================
+    
+    private void setupSyncScheduling() {
+        syncScheduler = new SyncScheduler(SystemClock::elapsedRealtime);
+        alarmManager = (AlarmManager) getSystemService(Context.ALARM_SERVICE);
+        
+        Intent intent = new Intent(ACTION_SYNC_ALARM);
+        intent.setPackage(getPackageName());
+        syncAlarmIntent = PendingIntent.getBroadcast(
+            this, 0, intent,
+            PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE
+        );
+        
+        // Delivered straight onto the pipeline thread
+        syncAlarmReceiver = new BroadcastReceiver() {
             @Override
-            public void run() {
-                syncLocationsAsync();
-                // Adjust sync interval based on activity
-                long nextSync = (currentActivity == DetectedActivity.STILL) ? 
-                    SYNC_INTERVAL_MS * 2 : SYNC_INTERVAL_MS;
-                syncHandler.postDelayed(this, nextSync);
+            public void onReceive(Context context, Intent intent) {
+                scheduledAlarmAt = Long.MIN_VALUE;
+                scheduleSync();
             }
         };
-        syncHandler.postDelayed(syncRunnable, SYNC_INTERVAL_MS);
-        Log.d(TAG, "Periodic sync scheduled (interval: " + SYNC_INTERVAL_MS + "ms)");
+        IntentFilter filter = new IntentFilter(ACTION_SYNC_ALARM);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+            registerReceiver(syncAlarmReceiver, filter, null, pipelineHandler, Context.RECEIVER_NOT_EXPORTED);
+        } else {
+            registerReceiver(syncAlarmReceiver, filter, null, pipelineHandler);
+        }
+        
+        // Radio came up for someone else - a cheap moment to piggyback an upload
+        ConnectivityManager connectivity = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (connectivity != null) {
+            networkActiveListener = () -> pipelineHandler.post(() -> {
+                syncScheduler.onRadioActive();
+                scheduleSync();
+            });
+            connectivity.addDefaultNetworkActiveListener(networkActiveListener);
+        }
+    }
+    
+    private void stopSyncScheduling() {
+        if (alarmManager != null && syncAlarmIntent != null) {
+            alarmManager.cancel(syncAlarmIntent);
+        }
+        if (syncAlarmReceiver != null) {
+            try {
+                unregisterReceiver(syncAlarmReceiver);
+            } catch (Exception e) {
+                // Already unregistered
+            }
+        }
+        ConnectivityManager connectivity = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (connectivity != null && networkActiveListener != null) {
+            connectivity.removeDefaultNetworkActiveListener(networkActiveListener);
+        }
+        if (syncScheduler != null) {
+            Log.d(TAG, "Sync scheduling: " + syncScheduler.summary());
+        }
+        if (locationUploader != null) {
+            Log.d(TAG, "History batch sizing: " + locationUploader.batchSizer().summary());
+        }
+    }
+    
+    /** Runs on the pipeline thread: upload now, or set an alarm for when the scheduler wants to look again. */
+    private void scheduleSync() {
+        SyncScheduler.Decision decision =
+            syncScheduler.evaluate(pendingLocationCount(), retryPolicy.delayUntilNextAttemptMs());
+        if (decision.runsNow()) {
+            cancelSyncAlarm();
+            // The alarm's onReceive returns before the worker runs - keep the CPU up until it takes over
+            WakeLockManager.Hold previous = syncHandoff.getAndSet(wakeLocks.acquire(WakeLockManager.Reason.SYNC_HANDOFF));
+            if (previous != null) {
+                previous.close();
+            }
+            requestedLane.set(decision.lane);
+            syncCoordinator.requestSync(decision.lane == SyncScheduler.Lane.LATEST ? "latest position" : "backlog");
+        } else if (decision.delayMs >= 0) {
+            setSyncAlarm(decision.delayMs);
+        } else {
+            cancelSyncAlarm();
+        }
+    }
+    
+    private void setSyncAlarm(long delayMs) {
+        long at = SystemClock.elapsedRealtime() + delayMs;
+        if (alarmManager == null || Math.abs(at - scheduledAlarmAt) < ALARM_RESCHEDULE_SLACK_MS) {
+            return;
+        }
+        scheduledAlarmAt = at;
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.S || alarmManager.canScheduleExactAlarms()) {
+            alarmManager.setExactAndAllowWhileIdle(AlarmManager.ELAPSED_REALTIME_WAKEUP, at, syncAlarmIntent);
+        } else {
+            // No exact-alarm grant - the system may shift this by a few minutes
+            alarmManager.setAndAllowWhileIdle(AlarmManager.ELAPSED_REALTIME_WAKEUP, at, syncAlarmIntent);
+        }
     }
     
-    private void syncLocationsAsync() {
-        executorService.execute(this::syncLocationsNow);
+    private void cancelSyncAlarm() {
+        if (alarmManager != null && scheduledAlarmAt != Long.MIN_VALUE) {
+            alarmManager.cancel(syncAlarmIntent);
+            scheduledAlarmAt = Long.MIN_VALUE;
+        }
     }
     
+    /** Runs on the sync worker. Reports back to the scheduler when it ran one of its lanes. */
     private void syncLocationsNow() {
-        List<JSONObject> locationsToSync;
-        
-        synchronized (locationBatch) {
-            if (locationBatch.isEmpty()) {
-                return;
+        // No lane: an unscheduled trigger (shutdown, memory pressure) - both lanes
+        SyncScheduler.Lane lane = requestedLane.getAndSet(null);
+        boolean success = false;
+        try {
+            success = upload(lane != SyncScheduler.Lane.LATEST);
+        } finally {
+            releaseSyncHandoff();
+            eventBridge.offerSync(new LocationEventBridge.SyncStatus(success, pendingLocationCount(), System.currentTimeMillis()));
+            if (lane != null) {
+                boolean ok = success;
+                long remaining = pendingLocationCount();
+                pipelineHandler.post(() -> {
+                    syncScheduler.onSyncCompleted(lane, ok, remaining);
+                    scheduleSync();
+                });
             }
-            locationsToSync = new ArrayList<>(locationBatch);
-            locationBatch.clear();
+        }
+    }
+    
+    /**
+     * Chunks to keep in flight for the history lane: more than one only for a
+     * large backlog on an unmetered network, with battery not low and power
+     * save off. Re-checked every round, so it shuts off as soon as conditions change.
+     */
+    private int backlogDrainParallelism() {
+        DeviceContext context = deviceContext.current();
+        if (pendingLocationCount() < BACKLOG_DRAIN_MIN_PENDING
+                || !context.isOnline() || context.metered
+                || context.isBatteryLow(LOW_BATTERY_PERCENT) || context.powerSaveMode) {
+            return 1;
+        }
+        return context.charging ? BACKLOG_DRAIN_PARALLELISM_CHARGING : BACKLOG_DRAIN_PARALLELISM;
+    }
+    
+    /** The newest fix first, then (when {@code history}) the next chunk of the backlog. */
+    private boolean upload(boolean history) {
+        if (locationUploader == null) {
+            return false;
+        }
+        if (pendingLocationCount() == 0 && !locationUploader.hasUnsentLatest()
+                && !locationUploader.hasUnsentSegments()) {
+            return true;
         }
         
         if (authToken == null || authToken.isEmpty()) {
-            Log.w(TAG, "No auth token, cannot sync - storing for later");
-            synchronized (locationBatch) {
-                locationBatch.addAll(0, locationsToSync);
-            }
-            return;
+            Log.w(TAG, "No auth token, cannot sync - keeping " + pendingLocationCount() + " queued");
+            return false;
+        }
+        
+        // No point burning a request (and a backoff step) without a network
+        if (deviceContext.current().isOffline()) {
+            Log.d(TAG, "Offline - keeping " + pendingLocationCount() + " queued until the network returns");
+            return false;
         }
         
+        long start = SystemClock.elapsedRealtime();
+        if (start - metricsAttachedAt >= METRICS_PIGGYBACK_INTERVAL_MS) {
+            metricsAttachedAt = start;
+            locationUploader.attachMetrics(metrics.compactSummary());
+        }
+        metrics.record(MetricsRegistry.Histogram.QUEUE_DEPTH, pendingLocationCount());
+        long ackedBefore = locationQueue.ackedSeq();
+        long bytesBefore = uploadedBytes();
         try {
-            JSONObject requestBody = new JSONObject();
-            JSONArray locationsArray = new JSONArray();
-            for (JSONObject loc : locationsToSync) {
-                locationsArray.put(loc);
+            return uploadLanes(history);
+        } finally {
+            long bytes = uploadedBytes() - bytesBefore;
+            if (bytes > 0) {
+                metrics.record(MetricsRegistry.Histogram.SYNC_LATENCY_MS, SystemClock.elapsedRealtime() - start);
+                metrics.record(MetricsRegistry.Histogram.PAYLOAD_BYTES, bytes);
             }
-            requestBody.put("locations", locationsArray);
-            
-            URL url = new URL(apiUrl + "/location/update");
-            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-            conn.setRequestMethod("POST");
-            conn.setRequestProperty("Content-Type", "application/json");
-            conn.setRequestProperty("Authorization", "Bearer " + authToken);
-            conn.setDoOutput(true);
-            conn.setConnectTimeout(15000);
-            conn.setReadTimeout(15000);
-            
-            try (OutputStream os = conn.getOutputStream()) {
-                byte[] input = requestBody.toString().getBytes("utf-8");
-                os.write(input, 0, input.length);
+            metrics.add(MetricsRegistry.Counter.UPLOADED, locationQueue.ackedSeq() - ackedBefore);
+            // The storage budget evicts on append; fold its losses in here
+            long dropped = locationQueue.droppedCount();
+            metrics.add(MetricsRegistry.Counter.DROPPED, Math.max(0, dropped - droppedSeen));
+            droppedSeen = dropped;
+        }
+    }
+    
+    private long uploadedBytes() {
+        return locationUploader.latestStats().bytes() + locationUploader.historyStats().bytes();
+    }
+    
+    /**
+     * Runs each lane under its own UPLOAD hold, so no hold spans more than one
+     * request (or one backlog round) and its timeouts - a drain after a long
+     * offline period is many rounds, each with a fresh hold.
+     */
+    private boolean uploadLanes(boolean history) {
+        try {
+            boolean latestSent = true;
+            if (locationUploader.hasUnsentLatest()) {
+                LocationUploader.Result result;
+                try (WakeLockManager.Hold hold = acquireUploadHold()) {
+                    result = locationUploader.syncLatest(new URL(apiUrl + "/location/latest"), authToken);
+                }
+                latestSent = result == LocationUploader.Result.SYNCED || result == LocationUploader.Result.IDLE;
             }
-            
-            int responseCode = conn.getResponseCode();
-            
-            if (responseCode == HttpURLConnection.HTTP_OK) {
-                Log.d(TAG, "✅ Synced " + locationsToSync.size() + " locations");
-            } else {
-                Log.e(TAG, "❌ Sync failed with code: " + responseCode);
-                synchronized (locationBatch) {
-                    locationBatch.addAll(0, locationsToSync);
+            // Best effort - a failed segments upload is retried with the next sync
+            if (locationUploader.hasUnsentSegments()) {
+                try (WakeLockManager.Hold hold = acquireUploadHold()) {
+                    locationUploader.syncSegments(new URL(apiUrl + "/location/segments"), authToken);
                 }
             }
-            
-            conn.disconnect();
-            
-        } catch (IOException | JSONException e) {
-            Log.e(TAG, "❌ Sync error: " + e.getMessage());
-            synchronized (locationBatch) {
-                locationBatch.addAll(0, locationsToSync);
+            // Without the latest lane on the server, the history lane carries the position
+            if (!history && locationUploader.isLatestLaneSupported()) {
+                return latestSent;
             }
+            int parallelism = backlogDrainParallelism();
+            LocationUploader.Result result;
+            try (WakeLockManager.Hold hold = acquireUploadHold()) {
+                result = parallelism > 1
+                    ? locationUploader.syncBacklog(new URL(apiUrl + "/location/update"), authToken, parallelism)
+                    : locationUploader.syncHistory(new URL(apiUrl + "/location/update"), authToken);
+            }
+            return latestSent && (result == LocationUploader.Result.SYNCED || result == LocationUploader.Result.IDLE);
+        } catch (MalformedURLException e) {
+            Log.e(TAG, "❌ Invalid API URL: " + apiUrl);
+            return false;
+        }
+    }
+    
+    /** An UPLOAD hold; once it is open, the hand-off hold from {@link #scheduleSync} can go. */
+    private WakeLockManager.Hold acquireUploadHold() {
+        WakeLockManager.Hold hold = wakeLocks.acquire(WakeLockManager.Reason.UPLOAD);
+        releaseSyncHandoff();
+        return hold;
+    }
+    
+    private void releaseSyncHandoff() {
+        WakeLockManager.Hold handoff = syncHandoff.getAndSet(null);
+        if (handoff != null) {
+            handoff.close();
         }
     }
     
@@ -718,7 +1459,7 @@ public class LocationBackgroundService extends Service {
     public void onLowMemory() {
         super.onLowMemory();
         Log.w(TAG, "Low memory warning - forcing sync");
-        syncLocationsNow();
+        syncCoordinator.requestSync("low memory");
     }
     
     @Override
@@ -726,7 +1467,7 @@ public class LocationBackgroundService extends Service {
         super.onTrimMemory(level);
         if (level >= TRIM_MEMORY_MODERATE) {
             Log.w(TAG, "Memory trim level " + level + " - syncing and reducing buffers");
-            syncLocationsNow();
+            syncCoordinator.requestSync("trim memory");
         }
     }
 }
@@ -0,0 +1,235 @@
+package com.loctrack.app;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Throttling, coalescing bridge from the tracking service to JS listeners.
+ *
+ * - Smoothed fixes (taken ahead of trail simplification), activity changes
+ *   and sync outcomes are buffered and delivered together as one
+ *   {@link Batch}, at most {@code maxEventsPerSecond} batches per second
+ * - While the app is in the background only the newest position is kept
+ *   (intermediate ones are counted as dropped) and batches go out at most
+ *   every {@link #BACKGROUND_INTERVAL_MS}
+ * - Activity and sync status are state, not history: only the newest is sent
+ * - Nothing is buffered, copied or scheduled while no JS listener is
+ *   registered, so the pipeline pays one volatile read per fix
+ *
+ * Offers come from the pipeline thread and the sync worker; deliveries run
+ * on whatever thread the {@link Timer} runs tasks on. Thread-safe.
+ */
+public final class LocationEventBridge {
+
+    public static final int DEFAULT_MAX_EVENTS_PER_SECOND = 4;
+    public static final long BACKGROUND_INTERVAL_MS = 5_000;
+    public static final int MAX_BATCH_POSITIONS = 64;
+
+    /** The receiving end - the plugin. */
+    public interface Sink {
+        /** Whether any JS listener is registered. */
+        boolean isListening();
+
+        /** Whether the WebView is visible. */
+        boolean isForeground();
+
+        void deliver(Batch batch);
+    }
+
+    public interface Timer {
+        void schedule(Runnable task, long delayMs);
+    }
+
+    /** Outcome of one sync run. */
+    public static final class SyncStatus {
+        public final boolean success;
+        public final long pending;
+        /** Wall time the run finished. */
+        public final long at;
+
+        public SyncStatus(boolean success, long pending, long at) {
+            this.success = success;
+            this.pending = pending;
+            this.at = at;
+        }
+    }
+
+    /** Everything that happened since the previous delivery. */
+    public static final class Batch {
+        /** Oldest first. */
+        public final List<FixRecord> positions;
+        /** Positions coalesced away (backgrounded) or pushed out of a full batch. */
+        public final int droppedPositions;
+        /** Newest activity, null if unchanged. */
+        public final String activity;
+        /** Newest sync outcome, null if no sync finished. */
+        public final SyncStatus sync;
+
+        Batch(List<FixRecord> positions, int droppedPositions, String activity, SyncStatus sync) {
+            this.positions = positions;
+            this.droppedPositions = droppedPositions;
+            this.activity = activity;
+            this.sync = sync;
+        }
+    }
+
+    private final Supplier<Sink> sinks;
+    private final Timer timer;
+    private final LongSupplier clock;
+    private final long minIntervalMs;
+    private final Runnable flushTask = this::flush;
+
+    // Ring of pending positions, preallocated so offering never allocates
+    private final FixRecord[] pending = new FixRecord[MAX_BATCH_POSITIONS];
+    private int pendingStart;
+    private int pendingCount;
+    private int droppedPositions;
+    private String pendingActivity;
+    private SyncStatus pendingSync;
+
+    private boolean flushScheduled;
+    private long lastDeliveredAt = Long.MIN_VALUE / 2;
+
+    // Diagnostics
+    private long deliveries;
+    private long totalDropped;
+
+    public LocationEventBridge(Supplier<Sink> sinks, Timer timer, LongSupplier clock) {
+        this(sinks, timer, clock, DEFAULT_MAX_EVENTS_PER_SECOND);
+    }
+
+    public LocationEventBridge(Supplier<Sink> sinks, Timer timer, LongSupplier clock, int maxEventsPerSecond) {
+        this.sinks = sinks;
+        this.timer = timer;
+        this.clock = clock;
+        this.minIntervalMs = 1000L / Math.max(1, maxEventsPerSecond);
+        for (int i = 0; i < pending.length; i++) {
+            pending[i] = new FixRecord();
+        }
+    }
+
+    // ==================== OFFERS ====================
+
+    /** A fix that passed the pipeline; copied, so the caller may reuse it. */
+    public void offerPosition(FixRecord fix) {
+        Sink sink = listeningSink();
+        if (sink == null) {
+            return;
+        }
+        long delay;
+        synchronized (this) {
+            if (!sink.isForeground()) {
+                // Backgrounded: only the newest position matters
+                dropPending(pendingCount);
+            } else if (pendingCount == pending.length) {
+                dropPending(1);
+            }
+            pending[(pendingStart + pendingCount++) % pending.length].copyFrom(fix);
+            delay = scheduleLocked(sink);
+        }
+        startTimer(delay);
+    }
+
+    public void offerActivity(String activity) {
+        Sink sink = listeningSink();
+        if (sink == null) {
+            return;
+        }
+        long delay;
+        synchronized (this) {
+            pendingActivity = activity;
+            delay = scheduleLocked(sink);
+        }
+        startTimer(delay);
+    }
+
+    public void offerSync(SyncStatus status) {
+        Sink sink = listeningSink();
+        if (sink == null) {
+            return;
+        }
+        long delay;
+        synchronized (this) {
+            pendingSync = status;
+            delay = scheduleLocked(sink);
+        }
+        startTimer(delay);
+    }
+
+    private Sink listeningSink() {
+        Sink sink = sinks.get();
+        return sink != null && sink.isListening() ? sink : null;
+    }
+
+    private void dropPending(int count) {
+        pendingStart = (pendingStart + count) % pending.length;
+        pendingCount -= count;
+        droppedPositions += count;
+    }
+
+    /** Delay for a new flush, or -1 when one is already scheduled. */
+    private long scheduleLocked(Sink sink) {
+        if (flushScheduled) {
+            return -1;
+        }
+        flushScheduled = true;
+        long interval = sink.isForeground() ? minIntervalMs : BACKGROUND_INTERVAL_MS;
+        return Math.max(0, lastDeliveredAt + interval - clock.getAsLong());
+    }
+
+    private void startTimer(long delay) {
+        if (delay >= 0) {
+            timer.schedule(flushTask, delay);
+        }
+    }
+
+    // ==================== DELIVERY ====================
+
+    private void flush() {
+        Sink sink = sinks.get();
+        Batch batch;
+        synchronized (this) {
+            flushScheduled = false;
+            if (sink == null || !sink.isListening()) {
+                clearLocked();
+                return;
+            }
+            if (pendingCount == 0 && pendingActivity == null && pendingSync == null) {
+                return;
+            }
+            List<FixRecord> positions = new ArrayList<>(pendingCount);
+            for (int i = 0; i < pendingCount; i++) {
+                FixRecord copy = new FixRecord();
+                copy.copyFrom(pending[(pendingStart + i) % pending.length]);
+                positions.add(copy);
+            }
+            batch = new Batch(positions, droppedPositions, pendingActivity, pendingSync);
+            totalDropped += droppedPositions;
+            deliveries++;
+            lastDeliveredAt = clock.getAsLong();
+            clearLocked();
+        }
+        sink.deliver(batch);
+    }
+
+    private void clearLocked() {
+        pendingStart = 0;
+        pendingCount = 0;
+        droppedPositions = 0;
+        pendingActivity = null;
+        pendingSync = null;
+    }
+
+    // ==================== DIAGNOSTICS ====================
+
+    public synchronized long deliveries() {
+        return deliveries;
+    }
+
+    /** Positions never delivered because they were coalesced or pushed out. */
+    public synchronized long droppedPositions() {
+        return totalDropped;
+    }
+}
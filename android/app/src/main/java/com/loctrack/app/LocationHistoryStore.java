@@ -0,0 +1,521 @@
+package com.loctrack.app;
+
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.zip.CRC32;
+
+/**
+ * On-device, time-indexed history of queued fixes, kept after upload so the
+ * app can draw the trail without going back to the API.
+ *
+ * Layout:
+ * - Segment files of {@code segmentBlocks} fixed-size blocks, named by a
+ *   running segment number ("00..007.hist")
+ * - Each block: 32-byte header (magic, record count, first and last
+ *   timestamp, CRC32 and length of the payload) followed by the fixes,
+ *   compressed column by column (FixBlockCodec) - a block holds as many
+ *   as fit, typically several hundred for a steady trace
+ * - A sparse index in memory, one entry per block (time span, count),
+ *   rebuilt from block headers on open - a range query binary-searches it
+ *   and reads only the blocks that overlap
+ *
+ * Timestamps only move forward: a fix older than the newest stored one is
+ * not stored. The open block is buffered and written back every few
+ * appends without fsync - the queue is the durable copy, this is a view.
+ * Whole segments are dropped once older than the retention period
+ * (checked on open and whenever a segment fills up), and the oldest ones
+ * go first when the storage budget is exceeded.
+ */
+public class LocationHistoryStore implements Closeable {
+    private static final String TAG = "LocationHistoryStore";
+
+    // "LTH2"; blocks of the uncompressed LTH1 layout read as corrupt and age out
+    private static final int BLOCK_MAGIC = 0x4C544832;
+    static final int BLOCK_SIZE = 4096;
+    static final int BLOCK_HEADER_SIZE = 32;
+
+    private static final String SEGMENT_SUFFIX = ".hist";
+
+    // Defaults: 1 MB segments, a week of history, 32 MB at most
+    public static final int DEFAULT_SEGMENT_BLOCKS = 256;
+    public static final long DEFAULT_RETENTION_MS = TimeUnit.DAYS.toMillis(7);
+    public static final long DEFAULT_MAX_BYTES = 32L * 1024 * 1024;
+    static final int WRITE_EVERY_RECORDS = 16;
+
+    private static final class Segment {
+        final long id;
+        final File file;
+        FileChannel channel;
+        int blocks;
+
+        Segment(long id, File file) {
+            this.id = id;
+            this.file = file;
+        }
+    }
+
+    private final File dir;
+    private final int segmentBlocks;
+    private final long retentionMs;
+    private final long maxBytes;
+    private final LongSupplier clock;
+
+    private final List<Segment> segments = new ArrayList<>();
+
+    // Sparse index, one entry per block in time order
+    private int blocks;
+    private long[] blockFirstTs = new long[64];
+    private long[] blockLastTs = new long[64];
+    private int[] blockCount = new int[64];
+    private Segment[] blockSegment = new Segment[64];
+    private int[] blockSlot = new int[64];
+
+    // The newest block, if it still has room; written back every few appends
+    private final byte[] activeBytes = new byte[BLOCK_SIZE];
+    private final ByteBuffer activeBlock = ByteBuffer.wrap(activeBytes);
+    private final FixBlockCodec encoder = new FixBlockCodec(BLOCK_SIZE - BLOCK_HEADER_SIZE);
+    private boolean hasActive;
+    private int unwritten;
+
+    private final byte[] readBytes = new byte[BLOCK_SIZE];
+    private final ByteBuffer readBlock = ByteBuffer.wrap(readBytes);
+    private final ByteBuffer headerBuffer = ByteBuffer.allocate(BLOCK_HEADER_SIZE);
+    private final FixBlockCodec.Reader reader = new FixBlockCodec.Reader();
+    private final CRC32 crc = new CRC32();
+    private final FixRecord readScratch = new FixRecord();
+    private final FixRecord heldScratch = new FixRecord();
+
+    private long lastTimestamp = Long.MIN_VALUE;
+    private long outOfOrder;
+    private long corruptBlocks;
+
+    public LocationHistoryStore(File dir, LongSupplier clock) throws IOException {
+        this(dir, DEFAULT_SEGMENT_BLOCKS, DEFAULT_RETENTION_MS, DEFAULT_MAX_BYTES, clock);
+    }
+
+    public LocationHistoryStore(File dir, int segmentBlocks, long retentionMs, long maxBytes,
+                                LongSupplier clock) throws IOException {
+        if (segmentBlocks <= 0 || maxBytes < 2L * segmentBlocks * BLOCK_SIZE) {
+            throw new IllegalArgumentException("segmentBlocks must be > 0 and maxBytes hold at least two segments");
+        }
+        this.dir = dir;
+        this.segmentBlocks = segmentBlocks;
+        this.retentionMs = retentionMs;
+        this.maxBytes = maxBytes;
+        this.clock = clock;
+
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create history directory " + dir);
+        }
+        recover();
+    }
+
+    // ==================== RECOVERY ====================
+
+    private void recover() throws IOException {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(SEGMENT_SUFFIX));
+        if (files == null) files = new File[0];
+        Arrays.sort(files, (a, b) -> a.getName().compareTo(b.getName()));
+
+        for (File file : files) {
+            long id;
+            try {
+                id = Long.parseLong(file.getName().substring(0, file.getName().length() - SEGMENT_SUFFIX.length()));
+            } catch (NumberFormatException e) {
+                Log.w(TAG, "Ignoring unexpected file in history dir: " + file.getName());
+                continue;
+            }
+            Segment segment = new Segment(id, file);
+            segment.channel = openChannel(file);
+            segment.blocks = (int) Math.min(segmentBlocks, (file.length() + BLOCK_SIZE - 1) / BLOCK_SIZE);
+            segments.add(segment);
+            for (int slot = 0; slot < segment.blocks; slot++) {
+                if (!readHeader(segment, slot)) {
+                    corruptBlocks++;
+                    continue;
+                }
+                int count = headerBuffer.getInt(4);
+                long firstTs = headerBuffer.getLong(8);
+                long lastTs = headerBuffer.getLong(16);
+                // Out of order would break the binary search - treat as corrupt
+                if (firstTs < lastTimestamp) {
+                    corruptBlocks++;
+                    continue;
+                }
+                addIndexEntry(segment, slot, firstTs, lastTs, count);
+                lastTimestamp = lastTs;
+            }
+        }
+
+        // Keep appending to the newest block if it reads back intact; the
+        // encoder is rebuilt from its fixes and starts a new block if it is full
+        if (blocks > 0) {
+            int last = blocks - 1;
+            Segment segment = blockSegment[last];
+            if (segment == segments.get(segments.size() - 1) && blockSlot[last] == segment.blocks - 1) {
+                if (readBlock(last, readBlock)) {
+                    reader.reset(readBytes, BLOCK_HEADER_SIZE, readBlock.getInt(28));
+                    encoder.reset();
+                    while (reader.next(readScratch)) {
+                        encoder.append(readScratch);
+                    }
+                    hasActive = true;
+                } else {
+                    // Written back without fsync - the next block reuses the slot
+                    Log.w(TAG, "Torn tail block in " + segment.file.getName() + ", discarding it");
+                    segment.blocks = blockSlot[last];
+                    blocks--;
+                    lastTimestamp = blocks > 0 ? blockLastTs[blocks - 1] : Long.MIN_VALUE;
+                }
+            }
+        }
+
+        dropExpired();
+        Log.d(TAG, "History recovered: " + blocks + " block(s), " + size() + " fixes");
+    }
+
+    private boolean readHeader(Segment segment, int slot) throws IOException {
+        headerBuffer.clear();
+        long position = (long) slot * BLOCK_SIZE;
+        while (headerBuffer.hasRemaining()) {
+            if (segment.channel.read(headerBuffer, position + headerBuffer.position()) < 0) {
+                return false;
+            }
+        }
+        int count = headerBuffer.getInt(4);
+        int length = headerBuffer.getInt(28);
+        return headerBuffer.getInt(0) == BLOCK_MAGIC && count > 0
+            && length >= FixBlockCodec.HEADER_BYTES && length <= BLOCK_SIZE - BLOCK_HEADER_SIZE
+            && headerBuffer.getLong(8) <= headerBuffer.getLong(16);
+    }
+
+    private void addIndexEntry(Segment segment, int slot, long firstTs, long lastTs, int count) {
+        if (blocks == blockFirstTs.length) {
+            int capacity = blocks * 2;
+            blockFirstTs = Arrays.copyOf(blockFirstTs, capacity);
+            blockLastTs = Arrays.copyOf(blockLastTs, capacity);
+            blockCount = Arrays.copyOf(blockCount, capacity);
+            blockSegment = Arrays.copyOf(blockSegment, capacity);
+            blockSlot = Arrays.copyOf(blockSlot, capacity);
+        }
+        blockFirstTs[blocks] = firstTs;
+        blockLastTs[blocks] = lastTs;
+        blockCount[blocks] = count;
+        blockSegment[blocks] = segment;
+        blockSlot[blocks] = slot;
+        blocks++;
+    }
+
+    // ==================== APPEND ====================
+
+    /**
+     * Stores a fix. Returns false (and stores nothing) when it is older
+     * than the newest fix already stored.
+     */
+    public synchronized boolean append(FixRecord record) throws IOException {
+        if (record.timestamp < lastTimestamp) {
+            outOfOrder++;
+            return false;
+        }
+        if (!hasActive || !encoder.append(record)) {
+            startBlock();
+            encoder.append(record);
+        }
+        int block = blocks - 1;
+        if (encoder.count() == 1) {
+            blockFirstTs[block] = record.timestamp;
+        }
+        blockLastTs[block] = record.timestamp;
+        blockCount[block] = encoder.count();
+        lastTimestamp = record.timestamp;
+
+        if (++unwritten >= WRITE_EVERY_RECORDS) {
+            writeActive();
+        }
+        return true;
+    }
+
+    private void startBlock() throws IOException {
+        if (hasActive && unwritten > 0) {
+            writeActive();
+        }
+        Segment segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (segment == null || segment.blocks == segmentBlocks) {
+            long id = segment == null ? 1 : segment.id + 1;
+            segment = new Segment(id, new File(dir, segmentName(id)));
+            segment.channel = openChannel(segment.file);
+            segment.channel.truncate(0);
+            segments.add(segment);
+            dropExpired();
+            enforceStorageBudget();
+        }
+        int slot = segment.blocks++;
+        addIndexEntry(segment, slot, lastTimestamp, lastTimestamp, 0);
+        encoder.reset();
+        hasActive = true;
+        unwritten = 0;
+    }
+
+    private void writeActive() throws IOException {
+        int block = blocks - 1;
+        int length = encoder.writeTo(activeBytes, BLOCK_HEADER_SIZE);
+        crc.reset();
+        crc.update(activeBytes, BLOCK_HEADER_SIZE, length);
+        activeBlock.clear();
+        activeBlock.putInt(BLOCK_MAGIC).putInt(blockCount[block])
+            .putLong(blockFirstTs[block]).putLong(blockLastTs[block])
+            .putInt((int) crc.getValue()).putInt(length);
+        activeBlock.position(0).limit(BLOCK_HEADER_SIZE + length);
+        long position = (long) blockSlot[block] * BLOCK_SIZE;
+        FileChannel channel = blockSegment[block].channel;
+        while (activeBlock.hasRemaining()) {
+            channel.write(activeBlock, position + activeBlock.position());
+        }
+        unwritten = 0;
+    }
+
+    /** Writes back the open block (without fsync). */
+    public synchronized void flush() throws IOException {
+        if (hasActive && unwritten > 0) {
+            writeActive();
+        }
+    }
+
+    // ==================== QUERY ====================
+
+    /**
+     * Visits fixes with {@code from <= timestamp <= to}, oldest first.
+     *
+     * With {@code maxPoints > 0} the range is cut into {@code maxPoints - 1}
+     * equal time buckets and only the first fix of each is visited, plus the
+     * last fix of the range - the way a server would bin a trail for display.
+     * The visitor's record is reused between calls. Returns the number visited.
+     */
+    public synchronized int query(long from, long to, int maxPoints, LocationQueue.RecordVisitor visitor)
+            throws IOException {
+        int first = firstBlockEndingAtOrAfter(from);
+        if (from > to || first >= blocks || blockFirstTs[first] > to) {
+            return 0;
+        }
+
+        long bucketMs = 0;
+        long origin = Math.max(from, blockFirstTs[first]);
+        if (maxPoints > 0) {
+            long end = Math.min(to, lastTimestamp);
+            long buckets = Math.max(1, maxPoints - 1);
+            bucketMs = Math.max(1, (end - origin) / buckets + 1);
+        }
+        long lastBucket = -1;
+        boolean held = false;
+
+        int visited = 0;
+        for (int block = first; block < blocks && blockFirstTs[block] <= to; block++) {
+            int length;
+            if (block == blocks - 1 && hasActive) {
+                length = encoder.writeTo(readBytes, BLOCK_HEADER_SIZE);
+            } else if (readBlock(block, readBlock)) {
+                length = readBlock.getInt(28);
+            } else {
+                corruptBlocks++;
+                Log.w(TAG, "Skipping corrupt history block " + block);
+                continue;
+            }
+            reader.reset(readBytes, BLOCK_HEADER_SIZE, length);
+            while (reader.next(readScratch)) {
+                long ts = readScratch.timestamp;
+                if (ts < from) {
+                    continue;
+                }
+                if (ts > to) {
+                    break;
+                }
+                if (bucketMs > 0) {
+                    long bucket = (ts - origin) / bucketMs;
+                    if (bucket == lastBucket) {
+                        heldScratch.copyFrom(readScratch);
+                        held = true;
+                        continue;
+                    }
+                    lastBucket = bucket;
+                    held = false;
+                }
+                visitor.visit(readScratch);
+                visited++;
+            }
+        }
+        // The range's last fix, even if its bucket was already represented
+        if (held && visited < maxPoints) {
+            visitor.visit(heldScratch);
+            visited++;
+        }
+        return visited;
+    }
+
+    /** Index of the first block whose last fix is at or after {@code ts}; timestamps never go back. */
+    private int firstBlockEndingAtOrAfter(long ts) {
+        int lo = 0;
+        int hi = blocks;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (blockLastTs[mid] < ts) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Reads a block and checks it; the payload length is then at offset 28. */
+    private boolean readBlock(int block, ByteBuffer out) throws IOException {
+        out.clear();
+        FileChannel channel = blockSegment[block].channel;
+        long position = (long) blockSlot[block] * BLOCK_SIZE;
+        // The newest block may end short of BLOCK_SIZE
+        while (out.hasRemaining()) {
+            if (channel.read(out, position + out.position()) < 0) {
+                break;
+            }
+        }
+        int read = out.position();
+        out.clear();
+        if (read < BLOCK_HEADER_SIZE || out.getInt(0) != BLOCK_MAGIC || out.getInt(4) != blockCount[block]) {
+            return false;
+        }
+        int length = out.getInt(28);
+        if (length < FixBlockCodec.HEADER_BYTES || length > read - BLOCK_HEADER_SIZE) {
+            return false;
+        }
+        crc.reset();
+        crc.update(out.array(), BLOCK_HEADER_SIZE, length);
+        return out.getInt(24) == (int) crc.getValue();
+    }
+
+    // ==================== RETENTION & BUDGET ====================
+
+    private void dropExpired() {
+        long cutoff = clock.getAsLong() - retentionMs;
+        // Never the newest segment - it is still being appended to
+        while (segments.size() > 1 && lastTimestampOf(segments.get(0)) < cutoff) {
+            dropOldestSegment();
+        }
+    }
+
+    private void enforceStorageBudget() {
+        while (segments.size() > 1 && (long) segments.size() * segmentBlocks * BLOCK_SIZE > maxBytes) {
+            Log.w(TAG, "History over budget, dropping " + segments.get(0).file.getName());
+            dropOldestSegment();
+        }
+    }
+
+    private long lastTimestampOf(Segment segment) {
+        long last = Long.MIN_VALUE;
+        for (int block = 0; block < blocks && blockSegment[block] == segment; block++) {
+            last = blockLastTs[block];
+        }
+        return last;
+    }
+
+    private void dropOldestSegment() {
+        Segment oldest = segments.remove(0);
+        int dropped = 0;
+        while (dropped < blocks && blockSegment[dropped] == oldest) {
+            dropped++;
+        }
+        int remaining = blocks - dropped;
+        System.arraycopy(blockFirstTs, dropped, blockFirstTs, 0, remaining);
+        System.arraycopy(blockLastTs, dropped, blockLastTs, 0, remaining);
+        System.arraycopy(blockCount, dropped, blockCount, 0, remaining);
+        System.arraycopy(blockSegment, dropped, blockSegment, 0, remaining);
+        System.arraycopy(blockSlot, dropped, blockSlot, 0, remaining);
+        Arrays.fill(blockSegment, remaining, blocks, null);
+        blocks = remaining;
+        closeQuietly(oldest);
+        if (!oldest.file.delete() && oldest.file.exists()) {
+            Log.w(TAG, "Failed to delete history segment " + oldest.file.getName());
+        }
+    }
+
+    // ==================== DIAGNOSTICS ====================
+
+    /** Number of stored fixes. */
+    public synchronized long size() {
+        long size = 0;
+        for (int block = 0; block < blocks; block++) {
+            size += blockCount[block];
+        }
+        return size;
+    }
+
+    /** Timestamp of the oldest stored fix, -1 if empty. */
+    public synchronized long oldestTimestamp() {
+        for (int block = 0; block < blocks; block++) {
+            if (blockCount[block] > 0) {
+                return blockFirstTs[block];
+            }
+        }
+        return -1;
+    }
+
+    public synchronized int blockCount() {
+        return blocks;
+    }
+
+    public synchronized long bytesOnDisk() {
+        long bytes = 0;
+        for (Segment segment : segments) {
+            bytes += segment.file.length();
+        }
+        return bytes;
+    }
+
+    /** Fixes not stored because they were older than the newest one. */
+    public synchronized long outOfOrderCount() {
+        return outOfOrder;
+    }
+
+    public synchronized long corruptBlockCount() {
+        return corruptBlocks;
+    }
+
+    // ==================== FILE HELPERS ====================
+
+    private static String segmentName(long id) {
+        return String.format(Locale.US, "%020d%s", id, SEGMENT_SUFFIX);
+    }
+
+    private static FileChannel openChannel(File file) throws IOException {
+        return new RandomAccessFile(file, "rw").getChannel();
+    }
+
+    private static void closeQuietly(Segment segment) {
+        if (segment.channel != null) {
+            try {
+                segment.channel.close();
+            } catch (IOException e) {
+                // Ignore - segment is being discarded
+            }
+            segment.channel = null;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        flush();
+        for (Segment segment : segments) {
+            closeQuietly(segment);
+        }
+    }
+}
@@ -0,0 +1,572 @@
+package com.loctrack.app;
+
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * Crash-safe, segment-based append-only queue of location fixes.
+ *
+ * Every fix is written to disk before it is considered queued, so a process
+ * kill, OOM or START_STICKY restart no longer loses unsynced trail.
+ *
+ * Layout:
+ * - Segment files named by their first sequence number ("00..042.seg")
+ * - 16-byte segment header (magic, version, base sequence)
+ * - Fixed-size records: CRC32 followed by the payload, so any sequence
+ *   number maps to a file offset without an index
+ * - An "ack" file holding the highest sequence confirmed by the server
+ * - A "stream" file holding a random id for this sequence space; the server
+ *   keys its committed-sequence cursor by it, so a reinstall (which restarts
+ *   numbering at 1) shows up as a new stream rather than as duplicates
+ *
+ * Appends are fsync'ed in batches (every N records or T ms). On open, the
+ * tail of the newest segment is scanned and truncated at the first torn or
+ * corrupt record. Acknowledging a sequence deletes segments that are fully
+ * acknowledged; a storage budget drops the oldest segments when exceeded.
+ */
+public class LocationQueue implements Closeable {
+    private static final String TAG = "LocationQueue";
+
+    private static final int SEGMENT_MAGIC = 0x4C545131;     // "LTQ1"
+    private static final int SEGMENT_VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final int PAYLOAD_SIZE = 48;
+    static final int RECORD_SIZE = 4 + PAYLOAD_SIZE;
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String ACK_FILE = "ack";
+    private static final String STREAM_FILE = "stream";
+
+    // Defaults: ~850 KB segments, fsync every 16 fixes or 2 s, 32 segments max
+    public static final int DEFAULT_SEGMENT_RECORDS = 16384;
+    public static final int DEFAULT_SYNC_EVERY_RECORDS = 16;
+    public static final long DEFAULT_SYNC_INTERVAL_MS = 2000;
+    public static final int DEFAULT_MAX_SEGMENTS = 32;
+
+    /** Receives records read from the queue. The record instance is reused between calls. */
+    public interface RecordVisitor {
+        void visit(FixRecord record);
+    }
+
+    private static final class Segment {
+        final long baseSeq;
+        final File file;
+        FileChannel channel;
+        int count;
+
+        Segment(long baseSeq, File file) {
+            this.baseSeq = baseSeq;
+            this.file = file;
+        }
+
+        long lastSeq() {
+            return baseSeq + count - 1;
+        }
+    }
+
+    private final File dir;
+    private final int segmentRecords;
+    private final int syncEveryRecords;
+    private final long syncIntervalNanos;
+    private final int maxSegments;
+
+    private final List<Segment> segments = new ArrayList<>();
+    private final byte[] recordBytes = new byte[RECORD_SIZE];
+    private final ByteBuffer recordBuffer = ByteBuffer.wrap(recordBytes);
+    private ByteBuffer batchBuffer;
+    private final CRC32 crc = new CRC32();
+    private final FixRecord readScratch = new FixRecord();
+
+    private String streamId;
+    private long nextSeq = 1;
+    private long ackedSeq = 0;
+    private int unsyncedAppends = 0;
+    private long lastSyncNanos = System.nanoTime();
+    private long droppedRecords = 0;
+    private long corruptRecords = 0;
+
+    public LocationQueue(File dir) throws IOException {
+        this(dir, DEFAULT_SEGMENT_RECORDS, DEFAULT_SYNC_EVERY_RECORDS,
+            DEFAULT_SYNC_INTERVAL_MS, DEFAULT_MAX_SEGMENTS);
+    }
+
+    public LocationQueue(File dir, int segmentRecords, int syncEveryRecords,
+                         long syncIntervalMs, int maxSegments) throws IOException {
+        if (segmentRecords <= 0 || maxSegments < 2) {
+            throw new IllegalArgumentException("segmentRecords must be > 0 and maxSegments >= 2");
+        }
+        this.dir = dir;
+        this.segmentRecords = segmentRecords;
+        this.syncEveryRecords = Math.max(1, syncEveryRecords);
+        this.syncIntervalNanos = syncIntervalMs * 1_000_000L;
+        this.maxSegments = maxSegments;
+
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create queue directory " + dir);
+        }
+        recover();
+    }
+
+    // ==================== RECOVERY ====================
+
+    private void recover() throws IOException {
+        streamId = readOrCreateStreamId();
+        ackedSeq = readAckFile();
+
+        File[] files = dir.listFiles((d, name) -> name.endsWith(SEGMENT_SUFFIX));
+        if (files == null) files = new File[0];
+        Arrays.sort(files, (a, b) -> a.getName().compareTo(b.getName()));
+
+        for (File file : files) {
+            long base;
+            try {
+                base = Long.parseLong(file.getName().substring(0, file.getName().length() - SEGMENT_SUFFIX.length()));
+            } catch (NumberFormatException e) {
+                Log.w(TAG, "Ignoring unexpected file in queue dir: " + file.getName());
+                continue;
+            }
+            Segment segment = new Segment(base, file);
+            long records = (file.length() - HEADER_SIZE) / RECORD_SIZE;
+            segment.count = (int) Math.max(0, Math.min(records, segmentRecords));
+            segments.add(segment);
+        }
+
+        // Only the newest segment can have a torn tail - validate it record by record
+        if (!segments.isEmpty()) {
+            Segment tail = segments.get(segments.size() - 1);
+            tail.channel = openChannel(tail.file);
+            if (!hasValidHeader(tail)) {
+                Log.w(TAG, "Corrupt header in " + tail.file.getName() + ", discarding segment");
+                closeQuietly(tail);
+                deleteSegmentFile(tail);
+                segments.remove(segments.size() - 1);
+            } else {
+                int valid = 0;
+                while (valid < tail.count && readRecord(tail, valid, readScratch)
+                        && readScratch.seq == tail.baseSeq + valid) {
+                    valid++;
+                }
+                if (valid < tail.count) {
+                    Log.w(TAG, "Truncating torn tail of " + tail.file.getName() + ": "
+                        + (tail.count - valid) + " record(s)");
+                }
+                tail.count = valid;
+                tail.channel.truncate(HEADER_SIZE + (long) valid * RECORD_SIZE);
+                tail.channel.force(true);
+            }
+        }
+
+        if (!segments.isEmpty()) {
+            Segment tail = segments.get(segments.size() - 1);
+            nextSeq = tail.baseSeq + tail.count;
+        } else {
+            nextSeq = ackedSeq + 1;
+        }
+        if (ackedSeq >= nextSeq) {
+            // Ack file ahead of the data (e.g. data lost) - never reuse acknowledged numbers
+            nextSeq = ackedSeq + 1;
+        }
+
+        compact();
+        Log.d(TAG, "Queue recovered: " + pendingCount() + " pending, next seq " + nextSeq);
+    }
+
+    private boolean hasValidHeader(Segment segment) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        if (segment.channel.read(header, 0) < HEADER_SIZE) {
+            return false;
+        }
+        header.flip();
+        return header.getInt() == SEGMENT_MAGIC
+            && header.getInt() == SEGMENT_VERSION
+            && header.getLong() == segment.baseSeq;
+    }
+
+    // ==================== APPEND ====================
+
+    /**
+     * Appends a fix and assigns its sequence number (also stored in {@code record.seq}).
+     */
+    public synchronized long append(FixRecord record) throws IOException {
+        Segment active = activeSegment();
+        record.seq = nextSeq;
+        encode(record);
+        long position = HEADER_SIZE + (long) active.count * RECORD_SIZE;
+        recordBuffer.clear();
+        while (recordBuffer.hasRemaining()) {
+            active.channel.write(recordBuffer, position + recordBuffer.position());
+        }
+        active.count++;
+        nextSeq++;
+
+        unsyncedAppends++;
+        long now = System.nanoTime();
+        if (unsyncedAppends >= syncEveryRecords || now - lastSyncNanos >= syncIntervalNanos) {
+            active.channel.force(false);
+            unsyncedAppends = 0;
+            lastSyncNanos = now;
+        }
+        return record.seq;
+    }
+
+    /**
+     * Appends the first {@code count} fixes as one batch: a single write per
+     * segment touched and one fsync at the end, for chipset-batched
+     * deliveries. Sequence numbers are assigned in order as in
+     * {@link #append}. Returns the sequence of the last record, or
+     * {@code nextSeq() - 1} if {@code count} is 0.
+     */
+    public synchronized long appendAll(FixRecord[] records, int count) throws IOException {
+        int i = 0;
+        while (i < count) {
+            Segment active = activeSegment();
+            int run = Math.min(count - i, segmentRecords - active.count);
+            ByteBuffer batch = batchBuffer(run);
+            for (int k = 0; k < run; k++) {
+                FixRecord record = records[i + k];
+                record.seq = nextSeq + k;
+                encode(record);
+                batch.put(recordBytes);
+            }
+            batch.flip();
+            long position = HEADER_SIZE + (long) active.count * RECORD_SIZE;
+            while (batch.hasRemaining()) {
+                active.channel.write(batch, position + batch.position());
+            }
+            active.count += run;
+            nextSeq += run;
+            i += run;
+        }
+
+        if (count > 0) {
+            segments.get(segments.size() - 1).channel.force(false);
+            unsyncedAppends = 0;
+            lastSyncNanos = System.nanoTime();
+        }
+        return nextSeq - 1;
+    }
+
+    private ByteBuffer batchBuffer(int records) {
+        int bytes = records * RECORD_SIZE;
+        if (batchBuffer == null || batchBuffer.capacity() < bytes) {
+            batchBuffer = ByteBuffer.allocate(Math.max(bytes, 64 * RECORD_SIZE));
+        }
+        batchBuffer.clear();
+        batchBuffer.limit(bytes);
+        return batchBuffer;
+    }
+
+    private Segment activeSegment() throws IOException {
+        Segment active = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (active != null && active.count < segmentRecords && active.lastSeq() + 1 == nextSeq) {
+            if (active.channel == null) {
+                active.channel = openChannel(active.file);
+            }
+            return active;
+        }
+
+        // Roll over: seal the current segment and start a new one at nextSeq
+        if (active != null && active.channel != null) {
+            active.channel.force(false);
+        }
+        Segment segment = new Segment(nextSeq, new File(dir, segmentName(nextSeq)));
+        segment.channel = openChannel(segment.file);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(SEGMENT_MAGIC).putInt(SEGMENT_VERSION).putLong(nextSeq).flip();
+        segment.channel.truncate(0);
+        segment.channel.write(header, 0);
+        segment.channel.force(true);
+        segments.add(segment);
+        enforceStorageBudget();
+        return segment;
+    }
+
+    /** Forces any batched appends to disk. */
+    public synchronized void flush() throws IOException {
+        if (unsyncedAppends > 0 && !segments.isEmpty()) {
+            Segment active = segments.get(segments.size() - 1);
+            if (active.channel != null) {
+                active.channel.force(false);
+            }
+        }
+        unsyncedAppends = 0;
+        lastSyncNanos = System.nanoTime();
+    }
+
+    // ==================== READ ====================
+
+    /** First sequence number that has not been acknowledged yet. */
+    public synchronized long firstPendingSeq() {
+        long first = segments.isEmpty() ? nextSeq : segments.get(0).baseSeq;
+        return Math.max(first, ackedSeq + 1);
+    }
+
+    public synchronized long nextSeq() {
+        return nextSeq;
+    }
+
+    public synchronized long pendingCount() {
+        return nextSeq - firstPendingSeq();
+    }
+
+    /**
+     * Reads up to {@code max} records starting at {@code fromSeq}.
+     * Corrupt records are skipped. Returns the number of records visited.
+     */
+    public synchronized int read(long fromSeq, int max, RecordVisitor visitor) throws IOException {
+        long seq = Math.max(fromSeq, firstPendingSeq());
+        int visited = 0;
+        int index = segmentIndexFor(seq);
+        while (visited < max && index >= 0 && index < segments.size() && seq < nextSeq) {
+            Segment segment = segments.get(index);
+            if (seq > segment.lastSeq()) {
+                index++;
+                continue;
+            }
+            if (seq < segment.baseSeq) {
+                // Gap left by a budget drop or a recovered ack cursor
+                seq = segment.baseSeq;
+                continue;
+            }
+            if (segment.channel == null) {
+                segment.channel = openChannel(segment.file);
+            }
+            if (readRecord(segment, (int) (seq - segment.baseSeq), readScratch) && readScratch.seq == seq) {
+                visitor.visit(readScratch);
+                visited++;
+            } else {
+                corruptRecords++;
+                Log.w(TAG, "Skipping corrupt record " + seq);
+            }
+            seq++;
+        }
+        return visited;
+    }
+
+    private int segmentIndexFor(long seq) {
+        for (int i = segments.size() - 1; i >= 0; i--) {
+            if (segments.get(i).baseSeq <= seq) {
+                return i;
+            }
+        }
+        return segments.isEmpty() ? -1 : 0;
+    }
+
+    private boolean readRecord(Segment segment, int index, FixRecord out) throws IOException {
+        long position = HEADER_SIZE + (long) index * RECORD_SIZE;
+        recordBuffer.clear();
+        while (recordBuffer.hasRemaining()) {
+            int n = segment.channel.read(recordBuffer, position + recordBuffer.position());
+            if (n < 0) return false;
+        }
+        recordBuffer.clear();
+        int storedCrc = recordBuffer.getInt();
+        crc.reset();
+        crc.update(recordBytes, 4, PAYLOAD_SIZE);
+        if ((int) crc.getValue() != storedCrc) {
+            return false;
+        }
+        out.seq = recordBuffer.getLong();
+        out.timestamp = recordBuffer.getLong();
+        out.latitude = recordBuffer.getDouble();
+        out.longitude = recordBuffer.getDouble();
+        out.accuracy = recordBuffer.getFloat();
+        out.speed = recordBuffer.getFloat();
+        out.heading = recordBuffer.getFloat();
+        out.batteryLevel = recordBuffer.get();
+        out.activity = recordBuffer.get();
+        out.networkStatus = recordBuffer.get();
+        out.confidence = (recordBuffer.get() & 0xFF) / 100f;
+        return true;
+    }
+
+    private void encode(FixRecord record) {
+        recordBuffer.clear();
+        recordBuffer.position(4);
+        recordBuffer.putLong(record.seq);
+        recordBuffer.putLong(record.timestamp);
+        recordBuffer.putDouble(record.latitude);
+        recordBuffer.putDouble(record.longitude);
+        recordBuffer.putFloat(record.accuracy);
+        recordBuffer.putFloat(record.speed);
+        recordBuffer.putFloat(record.heading);
+        recordBuffer.put(record.batteryLevel);
+        recordBuffer.put(record.activity);
+        recordBuffer.put(record.networkStatus);
+        recordBuffer.put(confidencePercent(record.confidence));
+        crc.reset();
+        crc.update(recordBytes, 4, PAYLOAD_SIZE);
+        recordBuffer.putInt(0, (int) crc.getValue());
+    }
+
+    static byte confidencePercent(float confidence) {
+        return (byte) Math.round(Math.max(0f, Math.min(1f, confidence)) * 100f);
+    }
+
+    // ==================== ACKNOWLEDGE & COMPACTION ====================
+
+    /**
+     * Marks every record up to and including {@code seq} as delivered and
+     * deletes segments that no longer hold pending records.
+     */
+    public synchronized void acknowledge(long seq) throws IOException {
+        if (seq <= ackedSeq) {
+            return;
+        }
+        ackedSeq = Math.min(seq, nextSeq - 1);
+        writeAckFile(ackedSeq);
+        compact();
+    }
+
+    public synchronized long ackedSeq() {
+        return ackedSeq;
+    }
+
+    /** Number of unacknowledged records discarded by the storage budget. */
+    public synchronized long droppedCount() {
+        return droppedRecords;
+    }
+
+    public synchronized long corruptCount() {
+        return corruptRecords;
+    }
+
+    private void compact() {
+        // Never delete the active segment - it is still being appended to
+        while (segments.size() > 1 && segments.get(0).lastSeq() <= ackedSeq) {
+            Segment segment = segments.remove(0);
+            closeQuietly(segment);
+            deleteSegmentFile(segment);
+        }
+    }
+
+    private void enforceStorageBudget() throws IOException {
+        while (segments.size() > maxSegments) {
+            Segment oldest = segments.remove(0);
+            long lost = oldest.lastSeq() - Math.max(ackedSeq, oldest.baseSeq - 1);
+            if (lost > 0) {
+                droppedRecords += lost;
+                Log.w(TAG, "Queue over budget, dropping " + lost + " unsynced record(s)");
+            }
+            closeQuietly(oldest);
+            deleteSegmentFile(oldest);
+            if (oldest.lastSeq() > ackedSeq) {
+                ackedSeq = oldest.lastSeq();
+                writeAckFile(ackedSeq);
+            }
+        }
+    }
+
+    /** Identifies this queue's sequence space (stable for the life of the queue directory). */
+    public String streamId() {
+        return streamId;
+    }
+
+    private String readOrCreateStreamId() throws IOException {
+        File file = new File(dir, STREAM_FILE);
+        if (file.exists()) {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                String id = raf.readUTF();
+                if (!id.isEmpty()) {
+                    return id;
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to read stream id, starting a new stream: " + e.getMessage());
+            }
+        }
+        String id = UUID.randomUUID().toString();
+        File tmp = new File(dir, STREAM_FILE + ".tmp");
+        try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw")) {
+            raf.setLength(0);
+            raf.writeUTF(id);
+            raf.getFD().sync();
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Failed to commit stream file");
+        }
+        return id;
+    }
+
+    private long readAckFile() {
+        File file = new File(dir, ACK_FILE);
+        if (!file.exists()) {
+            return 0;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            long seq = raf.readLong();
+            int storedCrc = raf.readInt();
+            crc.reset();
+            crc.update(ByteBuffer.allocate(8).putLong(seq).array(), 0, 8);
+            if ((int) crc.getValue() == storedCrc) {
+                return seq;
+            }
+            Log.w(TAG, "Ack file checksum mismatch, resending from start");
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read ack file: " + e.getMessage());
+        }
+        return 0;
+    }
+
+    private void writeAckFile(long seq) throws IOException {
+        File tmp = new File(dir, ACK_FILE + ".tmp");
+        byte[] seqBytes = ByteBuffer.allocate(8).putLong(seq).array();
+        crc.reset();
+        crc.update(seqBytes, 0, 8);
+        try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw")) {
+            raf.setLength(0);
+            raf.write(seqBytes);
+            raf.writeInt((int) crc.getValue());
+            raf.getFD().sync();
+        }
+        if (!tmp.renameTo(new File(dir, ACK_FILE))) {
+            throw new IOException("Failed to commit ack file");
+        }
+    }
+
+    // ==================== FILE HELPERS ====================
+
+    private static String segmentName(long baseSeq) {
+        return String.format(Locale.US, "%020d%s", baseSeq, SEGMENT_SUFFIX);
+    }
+
+    private static FileChannel openChannel(File file) throws IOException {
+        return new RandomAccessFile(file, "rw").getChannel();
+    }
+
+    private static void closeQuietly(Segment segment) {
+        if (segment.channel != null) {
+            try {
+                segment.channel.close();
+            } catch (IOException e) {
+                // Ignore - segment is being discarded
+            }
+            segment.channel = null;
+        }
+    }
+
+    private static void deleteSegmentFile(Segment segment) {
+        if (!segment.file.delete() && segment.file.exists()) {
+            Log.w(TAG, "Failed to delete segment " + segment.file.getName());
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        flush();
+        for (Segment segment : segments) {
+            closeQuietly(segment);
+        }
+    }
+}
@@ -0,0 +1,810 @@
+package com.loctrack.app;
+
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Uploads pending fixes from the queue, in two lanes:
+ * - latest: the newest smoothed fix alone, to /location/latest, so the live
+ *   position stays fresh while a backlog is still draining - offered before
+ *   the simplifier, so it need not be queued yet ({@link #syncLatest})
+ * - history: the backlog in sequence order to /location/update, in chunks
+ *   and with read timeouts sized from measured RTT and goodput
+ *   ({@link #syncHistory}, see BatchSizeController); after a long offline
+ *   period, several consecutive chunks in flight at once ({@link #syncBacklog})
+ *
+ * Uploads are idempotent: every fix carries its queue sequence number and
+ * each request names the queue's stream (X-Location-Stream). The server
+ * skips sequences it has already committed for that stream and answers with
+ * its highest committed sequence ("committedSeq"). The queue is trimmed by
+ * that cursor, not by what the client thinks it sent, so:
+ * - a timeout after the server committed just resends, and the resend is
+ *   deduplicated
+ * - a partial commit acknowledges only the committed prefix
+ *
+ * Uploads are serialised on this object, so batches reach the server in
+ * sequence order - except inside one backlog round, whose chunks may commit
+ * in any order on a server that advertises out-of-order range commits
+ * (X-Location-Out-Of-Order). Its cursor only advances over contiguous
+ * commits, so the queue is still trimmed contiguously.
+ *
+ * A server without /location/latest (404) turns the latest lane off; the
+ * history lane then carries the position as before.
+ *
+ * Stays and trips from StayTripSegmenter go out separately to
+ * /location/segments ({@link #syncSegments}), kept in memory only - the
+ * server can still derive them from the history.
+ */
+public class LocationUploader {
+    private static final String TAG = "LocationUploader";
+
+    public static final String STREAM_HEADER = "X-Location-Stream";
+    /** First sequence a chunk covers (the gap before its first fix included). */
+    public static final String RANGE_START_HEADER = "X-Location-Range-Start";
+    /** Response header from servers that commit chunks out of order. */
+    public static final String OUT_OF_ORDER_HEADER = "X-Location-Out-Of-Order";
+    /** Compact client metrics, piggybacked on a history upload now and then. */
+    public static final String METRICS_HEADER = "X-Client-Metrics";
+    /** "toleranceMeters,maxSilenceMs" on latest-lane requests gated by DeadReckoningGate. */
+    public static final String DEAD_RECKONING_HEADER = "X-Dead-Reckoning";
+
+    public static final int MAX_PARALLELISM = 4;
+    public static final int MAX_PENDING_SEGMENTS = 256;
+
+    public enum Result {
+        /** Nothing pending. */
+        IDLE,
+        /** Backoff or an open circuit kept the upload from starting. */
+        DEFERRED,
+        /** The server committed at least part of the batch. */
+        SYNCED,
+        FAILED
+    }
+
+    /** Request counters for one lane. */
+    public static final class LaneStats {
+        private long requests;
+        private long failures;
+        private long fixes;
+        private long bytes;
+        private long lastSuccessAt;
+        private long lastFixAgeMs = -1;
+
+        synchronized void record(boolean success, int fixCount, long bodyBytes, long newestFixTime, long now) {
+            requests++;
+            bytes += bodyBytes;
+            if (success) {
+                fixes += fixCount;
+                lastSuccessAt = now;
+                lastFixAgeMs = Math.max(0, now - newestFixTime);
+            } else {
+                failures++;
+            }
+        }
+
+        public synchronized long requests() {
+            return requests;
+        }
+
+        public synchronized long failures() {
+            return failures;
+        }
+
+        public synchronized long fixes() {
+            return fixes;
+        }
+
+        public synchronized long bytes() {
+            return bytes;
+        }
+
+        /** Wall time of the last successful upload, 0 if none. */
+        public synchronized long lastSuccessAt() {
+            return lastSuccessAt;
+        }
+
+        /** How old the newest fix of the last successful upload was when it landed, -1 if none. */
+        public synchronized long lastFixAgeMs() {
+            return lastFixAgeMs;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return requests + " req/" + failures + " failed/" + fixes + " fixes, age " + lastFixAgeMs + "ms";
+        }
+    }
+
+    private final LocationQueue queue;
+    private final FixRingBuffer ring;
+    private final UplinkClient client;
+    private final SyncRetryPolicy retryPolicy;
+
+    // Binary batch encoding - used once the server advertises it via Accept-Post,
+    // dropped again if the server answers 415
+    private final FixBatchCodec batchCodec = new FixBatchCodec();
+    private final FixJsonEncoder jsonEncoder = new FixJsonEncoder();
+    private volatile boolean binaryUploadSupported = false;
+
+    private final Map<String, String> streamHeaders;
+    private volatile String pendingMetrics;
+    private long lastSeq;
+    private long lastTimestamp;
+    private int lastCount;
+    // Outcome of the last request: its duration (-1 without a response), and
+    // whether it failed in a way a smaller chunk could help with
+    private long lastRequestMs;
+    private boolean lastLinkFailure;
+    // Time of the newest fix the last request got committed, or Long.MIN_VALUE
+    private long deliveredTimestamp;
+    private final LocationQueue.RecordVisitor collector = this::collect;
+    private FixBatchEncoder encoder;
+
+    // History lane: chunk size and read timeout from measured RTT and goodput
+    private final BatchSizeController batchSizer;
+    private final LaneStats historyStats = new LaneStats();
+
+    // Backlog drain: one reusable chunk per slot, pool threads only while draining
+    private volatile boolean outOfOrderSupported;
+    private final Chunk[] chunks = new Chunk[MAX_PARALLELISM];
+    private final Future<?>[] inFlight = new Future<?>[MAX_PARALLELISM];
+    private ThreadPoolExecutor drainPool;
+    private volatile long parallelRounds;
+
+    // Latest lane - written by the pipeline thread, so guarded separately from uploads
+    private final Object latestLock = new Object();
+    private final FixRecord latest = new FixRecord();
+    private final FixRecord latestSending = new FixRecord();
+    private boolean hasLatest;
+    private long latestSentAt = Long.MIN_VALUE;
+    private volatile boolean latestLaneSupported = true;
+    private final LaneStats latestStats = new LaneStats();
+    private volatile Map<String, String> latestHeaders;
+    private volatile DeadReckoningGate deadReckoning;
+
+    // Stays and trips waiting for upload, also offered from the pipeline thread
+    private final Object segmentLock = new Object();
+    private final ArrayDeque<StayTripSegmenter.Segment> pendingSegments = new ArrayDeque<>();
+    private final List<StayTripSegmenter.Segment> segmentsSending = new ArrayList<>();
+    private volatile boolean segmentLaneSupported = true;
+    private final LaneStats segmentStats = new LaneStats();
+
+    public LocationUploader(LocationQueue queue, FixRingBuffer ring,
+                            UplinkClient client, SyncRetryPolicy retryPolicy) {
+        this(queue, ring, client, retryPolicy, new BatchSizeController());
+    }
+
+    public LocationUploader(LocationQueue queue, FixRingBuffer ring, UplinkClient client,
+                            SyncRetryPolicy retryPolicy, BatchSizeController batchSizer) {
+        this.queue = queue;
+        this.ring = ring;
+        this.client = client;
+        this.retryPolicy = retryPolicy;
+        this.batchSizer = batchSizer;
+        this.streamHeaders = Collections.singletonMap(STREAM_HEADER, queue.streamId());
+        this.latestHeaders = streamHeaders;
+    }
+
+    private void collect(FixRecord record) {
+        lastSeq = record.seq;
+        lastTimestamp = record.timestamp;
+        encoder.add(record);
+    }
+
+    // ==================== LATEST LANE ====================
+
+    /**
+     * Remembers {@code record} as the live position if it is the newest yet.
+     * Cheap; call for every smoothed fix.
+     */
+    public void offerLatest(FixRecord record) {
+        synchronized (latestLock) {
+            if (!hasLatest || record.timestamp > latest.timestamp) {
+                latest.copyFrom(record);
+                hasLatest = true;
+            }
+        }
+    }
+
+    /**
+     * Tells the server the latest lane only sends on deviation, so it can
+     * dead-reckon the position in between; null turns that off.
+     */
+    public void setDeadReckoning(DeadReckoningGate gate) {
+        deadReckoning = gate;
+        if (gate == null || !gate.isEnabled()) {
+            latestHeaders = streamHeaders;
+            return;
+        }
+        Map<String, String> headers = new HashMap<>(streamHeaders);
+        headers.put(DEAD_RECKONING_HEADER, Math.round(gate.toleranceMeters()) + "," + gate.maxSilenceMs());
+        latestHeaders = headers;
+    }
+
+    /** The gate in front of the latest lane, or null. */
+    public DeadReckoningGate deadReckoning() {
+        return deadReckoning;
+    }
+
+    /** True when a fix newer than the last one sent on the latest lane is waiting. */
+    public boolean hasUnsentLatest() {
+        synchronized (latestLock) {
+            return latestLaneSupported && hasLatest && latest.timestamp > latestSentAt;
+        }
+    }
+
+    /**
+     * Sends the newest offered fix alone. Does not acknowledge anything in the
+     * queue - the history goes out in order separately.
+     */
+    public synchronized Result syncLatest(URL endpoint, String authToken) {
+        synchronized (latestLock) {
+            if (!latestLaneSupported || !hasLatest || latest.timestamp <= latestSentAt) {
+                return Result.IDLE;
+            }
+            latestSending.copyFrom(latest);
+        }
+        if (!retryPolicy.tryAcquire()) {
+            return Result.DEFERRED;
+        }
+
+        jsonEncoder.reset();
+        jsonEncoder.add(latestSending);
+        try {
+            UplinkClient.Response response = client.post(endpoint, jsonEncoder.contentType(), authToken,
+                latestHeaders, jsonEncoder.encodedSize(), jsonEncoder::writeTo);
+            boolean ok = response.code == HttpURLConnection.HTTP_OK;
+            latestStats.record(ok, 1, jsonEncoder.encodedSize(), latestSending.timestamp, System.currentTimeMillis());
+            if (ok) {
+                retryPolicy.onSuccess();
+                synchronized (latestLock) {
+                    latestSentAt = Math.max(latestSentAt, latestSending.timestamp);
+                }
+                Log.d(TAG, "📍 Sent latest position @" + latestSending.timestamp + " (" + response.timings + ")");
+                return Result.SYNCED;
+            } else if (response.code == HttpURLConnection.HTTP_NOT_FOUND) {
+                // Older API - the history lane carries the position instead
+                Log.w(TAG, "Server has no latest-position endpoint, disabling the latest lane");
+                latestLaneSupported = false;
+                // Says nothing about the history lane - leave the breaker as it is
+                retryPolicy.onAbandoned();
+                return Result.FAILED;
+            } else {
+                retryPolicy.onFailure(response.code, SyncRetryPolicy.parseRetryAfter(
+                    response.header("Retry-After"), System.currentTimeMillis()));
+                Log.e(TAG, "❌ Latest position failed with code: " + response.code);
+                return Result.FAILED;
+            }
+        } catch (IOException e) {
+            latestStats.record(false, 1, jsonEncoder.encodedSize(), latestSending.timestamp, System.currentTimeMillis());
+            retryPolicy.onFailure(-1, -1);
+            Log.e(TAG, "❌ Latest position error: " + e.getMessage());
+            return Result.FAILED;
+        }
+    }
+
+    public LaneStats latestStats() {
+        return latestStats;
+    }
+
+    public boolean isLatestLaneSupported() {
+        return latestLaneSupported;
+    }
+
+    // ==================== SEGMENTS ====================
+
+    /** Queues a stay or trip for upload; the oldest goes once MAX_PENDING_SEGMENTS are waiting. */
+    public void offerSegment(StayTripSegmenter.Segment segment) {
+        synchronized (segmentLock) {
+            if (pendingSegments.size() == MAX_PENDING_SEGMENTS) {
+                pendingSegments.pollFirst();
+            }
+            pendingSegments.addLast(segment);
+        }
+    }
+
+    public boolean hasUnsentSegments() {
+        synchronized (segmentLock) {
+            return segmentLaneSupported && !pendingSegments.isEmpty();
+        }
+    }
+
+    /**
+     * Sends every waiting stay and trip in one request. The server upserts
+     * them by kind and start time, so a resend, or a closed stay following
+     * its open one, just overwrites.
+     */
+    public synchronized Result syncSegments(URL endpoint, String authToken) {
+        synchronized (segmentLock) {
+            if (!segmentLaneSupported || pendingSegments.isEmpty()) {
+                return Result.IDLE;
+            }
+            segmentsSending.clear();
+            segmentsSending.addAll(pendingSegments);
+        }
+        if (!retryPolicy.tryAcquire()) {
+            return Result.DEFERRED;
+        }
+
+        byte[] body = segmentsJson(segmentsSending).getBytes(StandardCharsets.UTF_8);
+        long newest = segmentsSending.get(segmentsSending.size() - 1).startTime;
+        try {
+            UplinkClient.Response response = client.post(endpoint, "application/json", authToken,
+                streamHeaders, body.length, out -> out.write(body));
+            boolean ok = response.code == HttpURLConnection.HTTP_OK;
+            segmentStats.record(ok, segmentsSending.size(), body.length, newest, System.currentTimeMillis());
+            if (ok) {
+                retryPolicy.onSuccess();
+                synchronized (segmentLock) {
+                    // Offered meanwhile (or dropped for space) - only what went out leaves
+                    for (StayTripSegmenter.Segment sent : segmentsSending) {
+                        pendingSegments.remove(sent);
+                    }
+                }
+                Log.d(TAG, "🏁 Sent " + segmentsSending.size() + " stay/trip segment(s) (" + response.timings + ")");
+                return Result.SYNCED;
+            } else if (response.code == HttpURLConnection.HTTP_NOT_FOUND) {
+                Log.w(TAG, "Server has no segments endpoint, disabling stay/trip uploads");
+                segmentLaneSupported = false;
+                synchronized (segmentLock) {
+                    pendingSegments.clear();
+                }
+                retryPolicy.onAbandoned();
+                return Result.FAILED;
+            } else {
+                retryPolicy.onFailure(response.code, SyncRetryPolicy.parseRetryAfter(
+                    response.header("Retry-After"), System.currentTimeMillis()));
+                Log.e(TAG, "❌ Segments upload failed with code: " + response.code);
+                return Result.FAILED;
+            }
+        } catch (IOException e) {
+            segmentStats.record(false, segmentsSending.size(), body.length, newest, System.currentTimeMillis());
+            retryPolicy.onFailure(-1, -1);
+            Log.e(TAG, "❌ Segments upload error: " + e.getMessage());
+            return Result.FAILED;
+        }
+    }
+
+    /** {"segments":[...]} - stays and trips, oldest first. */
+    static String segmentsJson(List<StayTripSegmenter.Segment> segments) {
+        JSONArray array = new JSONArray();
+        try {
+            for (StayTripSegmenter.Segment s : segments) {
+                JSONObject o = new JSONObject();
+                o.put("type", s.kind == StayTripSegmenter.Kind.STAY ? "stay" : "trip");
+                o.put("startTime", s.startTime);
+                o.put("endTime", s.isOpen() ? JSONObject.NULL : s.endTime);
+                o.put("latitude", s.latitude);
+                o.put("longitude", s.longitude);
+                o.put("fixes", s.fixCount);
+                if (s.kind == StayTripSegmenter.Kind.TRIP) {
+                    o.put("endLatitude", s.endLatitude);
+                    o.put("endLongitude", s.endLongitude);
+                    o.put("distance", Math.round(s.distanceMeters));
+                    o.put("maxSpeed", Float.isNaN(s.maxSpeed) ? JSONObject.NULL : (double) s.maxSpeed);
+                    o.put("activity", LocationBackgroundService.activityKey(s.activity));
+                }
+                array.put(o);
+            }
+            return new JSONObject().put("segments", array).toString();
+        } catch (JSONException e) {
+            // Only thrown for non-finite numbers, which the segmenter never produces
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public LaneStats segmentStats() {
+        return segmentStats;
+    }
+
+    public boolean isSegmentLaneSupported() {
+        return segmentLaneSupported;
+    }
+
+    // ==================== HISTORY LANE ====================
+
+    /**
+     * Uploads the oldest pending fixes in a chunk, and with a read timeout,
+     * sized by the batch sizer; a failed chunk is split for the next attempt.
+     */
+    public synchronized Result syncHistory(URL endpoint, String authToken) {
+        int chunk = batchSizer.chunkSize();
+        Result result = send(endpoint, authToken, chunk, batchSizer.timeoutMs());
+        if (result == Result.SYNCED) {
+            batchSizer.onSuccess(lastCount, lastRequestMs, lastCount == chunk);
+        } else if (result == Result.FAILED && lastLinkFailure) {
+            batchSizer.onFailure();
+        }
+        if (deliveredTimestamp != Long.MIN_VALUE) {
+            synchronized (latestLock) {
+                // A position the history already delivered need not go out on the latest lane
+                latestSentAt = Math.max(latestSentAt, deliveredTimestamp);
+            }
+        }
+        return result;
+    }
+
+    public BatchSizeController batchSizer() {
+        return batchSizer;
+    }
+
+    public LaneStats historyStats() {
+        return historyStats;
+    }
+
+    /** Uploads up to {@code maxBatch} of the oldest pending fixes. */
+    public synchronized Result sync(URL endpoint, String authToken, int maxBatch) {
+        return send(endpoint, authToken, maxBatch, client.timeoutMs());
+    }
+
+    private Result send(URL endpoint, String authToken, int maxBatch, int readTimeoutMs) {
+        lastCount = 0;
+        lastRequestMs = -1;
+        lastLinkFailure = false;
+        deliveredTimestamp = Long.MIN_VALUE;
+        if (queue.pendingCount() == 0) {
+            return Result.IDLE;
+        }
+
+        boolean attempted = false;
+        try {
+            queue.flush();
+
+            boolean binary = binaryUploadSupported;
+            encoder = binary ? batchCodec : jsonEncoder;
+            encoder.reset();
+
+            // Serve from memory when the ring holds the oldest pending fix;
+            // backlog from a previous run or a ring overflow is read from disk
+            long firstPending = queue.firstPendingSeq();
+            ring.discardThrough(firstPending - 1);
+            ring.rewind();
+            int count = ring.oldestSeq() == firstPending
+                ? ring.read(maxBatch, collector)
+                : queue.read(firstPending, maxBatch, collector);
+            lastCount = count;
+            if (count == 0) {
+                return Result.IDLE;
+            }
+
+            if (!retryPolicy.tryAcquire()) {
+                ring.rewind();
+                Log.d(TAG, "Sync deferred (" + retryPolicy.state() + "), next attempt in "
+                    + retryPolicy.delayUntilNextAttemptMs() + "ms");
+                return Result.DEFERRED;
+            }
+            attempted = true;
+
+            Map<String, String> headers = historyHeaders(streamHeaders);
+            UplinkClient.Response response = client.post(endpoint, encoder.contentType(), authToken,
+                headers, encoder.encodedSize(), encoder::writeTo, readTimeoutMs);
+            if (headers != streamHeaders) {
+                pendingMetrics = null;
+            }
+            int responseCode = response.code;
+            lastRequestMs = response.timings.totalMs;
+            historyStats.record(responseCode == HttpURLConnection.HTTP_OK, count, encoder.encodedSize(),
+                lastTimestamp, System.currentTimeMillis());
+            learnCapabilities(response, binary);
+
+            // Trim by the server's cursor - on success and on failures that report one
+            long committed = committedSeq(response.body);
+            if (committed < 0 && responseCode == HttpURLConnection.HTTP_OK) {
+                // Server without a cursor: a 200 means the whole batch was stored
+                committed = lastSeq;
+            }
+            if (committed >= queue.firstPendingSeq()) {
+                queue.acknowledge(committed);
+                ring.discardThrough(committed);
+            }
+            if (committed >= lastSeq) {
+                deliveredTimestamp = lastTimestamp;
+            }
+            ring.rewind();
+
+            if (responseCode == HttpURLConnection.HTTP_OK) {
+                retryPolicy.onSuccess();
+                if (committed < lastSeq) {
+                    Log.w(TAG, "Server committed through " + committed + " of " + lastSeq + ", resending the rest");
+                }
+                Log.d(TAG, "✅ Synced " + count + " locations (" + encoder.contentType() + ", " + response.timings + ")");
+                return Result.SYNCED;
+            } else if (binary && responseCode == HttpURLConnection.HTTP_UNSUPPORTED_TYPE) {
+                // Older API without binary support - switch to JSON, next sync resends
+                Log.w(TAG, "Server does not accept " + FixBatchCodec.CONTENT_TYPE + ", falling back to JSON");
+                binaryUploadSupported = false;
+                retryPolicy.onSuccess();
+                return Result.FAILED;
+            } else {
+                // Nothing to requeue - unacknowledged fixes stay on disk
+                lastLinkFailure = true;
+                retryPolicy.onFailure(responseCode, SyncRetryPolicy.parseRetryAfter(
+                    response.header("Retry-After"), System.currentTimeMillis()));
+                Log.e(TAG, "❌ Sync failed with code: " + responseCode + " (" + response.timings + "), retry in "
+                    + retryPolicy.delayUntilNextAttemptMs() + "ms");
+                return Result.FAILED;
+            }
+
+        } catch (IOException e) {
+            ring.rewind();
+            if (attempted) {
+                lastLinkFailure = true;
+                historyStats.record(false, lastCount, encoder.encodedSize(), lastTimestamp, System.currentTimeMillis());
+                // Possibly committed before the connection dropped - the resend is deduplicated
+                retryPolicy.onFailure(-1, -1);
+            }
+            Log.e(TAG, "❌ Sync error: " + e.getMessage() + ", retry in " + retryPolicy.delayUntilNextAttemptMs() + "ms");
+            return Result.FAILED;
+        } finally {
+            encoder = null;
+        }
+    }
+
+    private void learnCapabilities(UplinkClient.Response response, boolean binary) {
+        String acceptPost = response.header("Accept-Post");
+        if (!binary && acceptPost != null && acceptPost.contains(FixBatchCodec.CONTENT_TYPE)) {
+            Log.d(TAG, "Server accepts binary batches, switching upload format");
+            binaryUploadSupported = true;
+        }
+        outOfOrderSupported = "1".equals(response.header(OUT_OF_ORDER_HEADER));
+    }
+
+    /** Sends {@code summary} with the next history request that gets a response. */
+    public void attachMetrics(String summary) {
+        pendingMetrics = summary;
+    }
+
+    /** Stream headers, plus the metrics header when a summary is waiting. */
+    private Map<String, String> historyHeaders(Map<String, String> base) {
+        String metrics = pendingMetrics;
+        if (metrics == null) {
+            return base;
+        }
+        Map<String, String> headers = new HashMap<>(base);
+        headers.put(METRICS_HEADER, metrics);
+        return headers;
+    }
+
+    public boolean isBinaryUploadSupported() {
+        return binaryUploadSupported;
+    }
+
+    // ==================== BACKLOG DRAIN ====================
+
+    /** One in-flight chunk of a backlog round, with its own encoders and connection. */
+    private final class Chunk implements LocationQueue.RecordVisitor {
+        final UplinkClient client = LocationUploader.this.client.sibling();
+        final FixBatchCodec binaryEncoder = new FixBatchCodec();
+        final FixJsonEncoder jsonEncoder = new FixJsonEncoder();
+        final Map<String, String> headers = new HashMap<>(streamHeaders);
+        FixBatchEncoder encoder;
+        long lastSeq;
+        long lastTimestamp;
+        UplinkClient.Response response;
+        IOException error;
+
+        void reset(boolean binary, long startSeq) {
+            encoder = binary ? binaryEncoder : jsonEncoder;
+            encoder.reset();
+            headers.put(RANGE_START_HEADER, Long.toString(startSeq));
+            response = null;
+            error = null;
+        }
+
+        @Override
+        public void visit(FixRecord record) {
+            lastSeq = record.seq;
+            lastTimestamp = record.timestamp;
+            encoder.add(record);
+        }
+
+        void post(URL endpoint, String authToken, int readTimeoutMs, Map<String, String> requestHeaders) {
+            try {
+                response = client.post(endpoint, encoder.contentType(), authToken, requestHeaders,
+                    encoder.encodedSize(), encoder::writeTo, readTimeoutMs);
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+    }
+
+    /**
+     * Drains the backlog with up to {@code parallelism} consecutive chunks in
+     * flight over pooled connections. Falls back to {@link #syncHistory}
+     * until the server has advertised out-of-order commits. Acknowledges
+     * only the server's contiguous cursor; a failed chunk is resent (split)
+     * in a later round, and chunks after it that did land are skipped as
+     * duplicates.
+     */
+    public synchronized Result syncBacklog(URL endpoint, String authToken, int parallelism) {
+        parallelism = Math.min(parallelism, MAX_PARALLELISM);
+        if (parallelism <= 1 || !outOfOrderSupported) {
+            return syncHistory(endpoint, authToken);
+        }
+
+        boolean attempted = false;
+        try {
+            queue.flush();
+            boolean binary = binaryUploadSupported;
+            int chunkSize = batchSizer.chunkSize();
+            int readTimeoutMs = batchSizer.timeoutMs();
+
+            long firstPending = queue.firstPendingSeq();
+            long next = firstPending;
+            int used = 0;
+            while (used < parallelism) {
+                if (chunks[used] == null) {
+                    chunks[used] = new Chunk();
+                }
+                Chunk chunk = chunks[used];
+                chunk.reset(binary, next);
+                if (queue.read(next, chunkSize, chunk) == 0) {
+                    break;
+                }
+                next = chunk.lastSeq + 1;
+                used++;
+            }
+            if (used == 0) {
+                return Result.IDLE;
+            }
+            if (!retryPolicy.tryAcquire()) {
+                return Result.DEFERRED;
+            }
+            attempted = true;
+
+            ThreadPoolExecutor pool = drainPool();
+            Map<String, String> firstHeaders = historyHeaders(chunks[0].headers);
+            for (int i = 0; i < used; i++) {
+                Chunk chunk = chunks[i];
+                Map<String, String> requestHeaders = i == 0 ? firstHeaders : chunk.headers;
+                inFlight[i] = pool.submit(() -> chunk.post(endpoint, authToken, readTimeoutMs, requestHeaders));
+            }
+            for (int i = 0; i < used; i++) {
+                awaitQuietly(inFlight[i]);
+                inFlight[i] = null;
+            }
+            parallelRounds++;
+            if (firstHeaders != chunks[0].headers && chunks[0].response != null) {
+                pendingMetrics = null;
+            }
+
+            // Outcomes in sequence order; the cursor in any response is contiguous
+            long committed = -1;
+            int failed = 0;
+            boolean linkFailed = false;
+            UplinkClient.Response failure = null;
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < used; i++) {
+                Chunk chunk = chunks[i];
+                int count = chunk.encoder.count();
+                if (chunk.error != null) {
+                    failed++;
+                    linkFailed = true;
+                    historyStats.record(false, count, chunk.encoder.encodedSize(), chunk.lastTimestamp, now);
+                    batchSizer.onFailure();
+                    continue;
+                }
+                UplinkClient.Response response = chunk.response;
+                learnCapabilities(response, binary);
+                committed = Math.max(committed, committedSeq(response.body));
+                boolean ok = response.code == HttpURLConnection.HTTP_OK;
+                historyStats.record(ok, count, chunk.encoder.encodedSize(), chunk.lastTimestamp, now);
+                if (ok) {
+                    batchSizer.onSuccess(count, response.timings.totalMs, count == chunkSize);
+                } else {
+                    failed++;
+                    if (binary && response.code == HttpURLConnection.HTTP_UNSUPPORTED_TYPE) {
+                        binaryUploadSupported = false;
+                    } else {
+                        failure = response;
+                        batchSizer.onFailure();
+                    }
+                }
+            }
+
+            if (committed >= firstPending) {
+                queue.acknowledge(committed);
+                ring.discardThrough(committed);
+            }
+            ring.rewind();
+
+            if (failed == 0) {
+                retryPolicy.onSuccess();
+                Log.d(TAG, "✅ Drained " + used + " chunks in parallel, committed through " + committed);
+                return Result.SYNCED;
+            }
+            if (failure != null) {
+                retryPolicy.onFailure(failure.code, SyncRetryPolicy.parseRetryAfter(
+                    failure.header("Retry-After"), System.currentTimeMillis()));
+            } else if (linkFailed) {
+                retryPolicy.onFailure(-1, -1);
+            } else {
+                // Only the format fallback - the next round resends as JSON
+                retryPolicy.onSuccess();
+            }
+            Log.w(TAG, "Backlog round: " + failed + " of " + used + " chunks failed, committed through " + committed);
+            return Result.FAILED;
+        } catch (IOException e) {
+            ring.rewind();
+            if (attempted) {
+                // The round may have committed - the resend is deduplicated. Either
+                // way the policy must hear an outcome, or a half-open probe never ends
+                retryPolicy.onFailure(-1, -1);
+            }
+            Log.e(TAG, "❌ Backlog drain error: " + e.getMessage());
+            return Result.FAILED;
+        }
+    }
+
+    private ThreadPoolExecutor drainPool() {
+        if (drainPool == null) {
+            // Threads exist only while a drain is running
+            drainPool = new ThreadPoolExecutor(MAX_PARALLELISM, MAX_PARALLELISM, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread t = new Thread(r, "location-drain");
+                    t.setPriority(Thread.NORM_PRIORITY - 1);
+                    t.setDaemon(true);
+                    return t;
+                });
+            drainPool.allowCoreThreadTimeOut(true);
+        }
+        return drainPool;
+    }
+
+    private static void awaitQuietly(Future<?> future) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                future.get();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            } catch (ExecutionException e) {
+                // Chunk.post records its own errors
+                break;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public boolean isOutOfOrderSupported() {
+        return outOfOrderSupported;
+    }
+
+    /** Backlog rounds that ran with more than one chunk in flight. */
+    public long parallelRounds() {
+        return parallelRounds;
+    }
+
+    /** The server's "committedSeq" from a JSON response body, or -1. */
+    static long committedSeq(String body) {
+        if (body == null || body.isEmpty() || body.charAt(0) != '{') {
+            return -1;
+        }
+        try {
+            return new JSONObject(body).optLong("committedSeq", -1);
+        } catch (JSONException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.loctrack.app;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Hot-path counters and latency / size histograms for the tracking service.
+ *
+ * - Counters are striped: each thread adds into its own padded cell
+ *   (chosen by thread id), so the pipeline thread, sync worker and drain
+ *   threads don't contend on one cache line; reads sum the stripes
+ * - Histograms have fixed bucket bounds per metric (upper bounds, plus an
+ *   overflow bucket) and keep count, sum and max
+ * - Recording never allocates: everything is preallocated in the
+ *   constructor, and names / bounds live in the enums
+ *
+ * Reads are not atomic across metrics - a snapshot taken while recording
+ * may be off by the in-flight updates. Thread-safe.
+ */
+public final class MetricsRegistry {
+
+    public enum Counter {
+        FIXES_RECEIVED("fixesReceived"),
+        FILTERED_ACCURACY("filteredAccuracy"),
+        FILTERED_DISPLACEMENT("filteredDisplacement"),
+        HELD_BY_SIMPLIFIER("heldBySimplifier"),
+        BATCHED("batched"),
+        UPLOADED("uploaded"),
+        DROPPED("dropped"),
+        INTERVAL_REREGISTRATIONS("intervalReregistrations");
+
+        public final String key;
+
+        Counter(String key) {
+            this.key = key;
+        }
+    }
+
+    public enum Histogram {
+        SYNC_LATENCY_MS("syncLatencyMs", 50, 100, 250, 500, 1_000, 2_500, 5_000, 10_000, 30_000, 60_000),
+        PAYLOAD_BYTES("payloadBytes", 256, 1_024, 4_096, 16_384, 65_536, 262_144, 1_048_576),
+        QUEUE_DEPTH("queueDepth", 0, 10, 100, 1_000, 10_000, 100_000),
+        WAKELOCK_HOLD_MS("wakeLockHoldMs", 10, 50, 100, 500, 1_000, 5_000, 10_000, 60_000);
+
+        public final String key;
+        /** Inclusive upper bounds; values above the last land in an overflow bucket. */
+        final long[] bounds;
+
+        Histogram(String key, long... bounds) {
+            this.key = key;
+            this.bounds = bounds;
+        }
+
+        public int bucketCount() {
+            return bounds.length + 1;
+        }
+
+        /** Upper bound of {@code bucket}, Long.MAX_VALUE for the overflow bucket. */
+        public long upperBound(int bucket) {
+            return bucket < bounds.length ? bounds[bucket] : Long.MAX_VALUE;
+        }
+
+        int bucketOf(long value) {
+            // At most ten bounds - a linear scan beats a binary search here
+            for (int i = 0; i < bounds.length; i++) {
+                if (value <= bounds[i]) {
+                    return i;
+                }
+            }
+            return bounds.length;
+        }
+    }
+
+    // Power of two; cells 8 longs (64 bytes) apart so stripes don't share a cache line
+    private static final int STRIPES = 8;
+    private static final int PAD = 8;
+
+    private static final int COUNTERS = Counter.values().length;
+    private static final Histogram[] HISTOGRAMS = Histogram.values();
+
+    private final AtomicLongArray counterCells = new AtomicLongArray(COUNTERS * STRIPES * PAD);
+
+    // Per histogram: buckets..., count, sum, max
+    private final AtomicLongArray[] histogramCells = new AtomicLongArray[HISTOGRAMS.length];
+
+    public MetricsRegistry() {
+        for (Histogram h : HISTOGRAMS) {
+            histogramCells[h.ordinal()] = new AtomicLongArray(h.bucketCount() + 3);
+        }
+    }
+
+    // ==================== RECORDING ====================
+
+    public void increment(Counter counter) {
+        add(counter, 1);
+    }
+
+    public void add(Counter counter, long delta) {
+        int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+        counterCells.addAndGet((counter.ordinal() * STRIPES + stripe) * PAD, delta);
+    }
+
+    public void record(Histogram histogram, long value) {
+        AtomicLongArray cells = histogramCells[histogram.ordinal()];
+        int buckets = histogram.bucketCount();
+        cells.incrementAndGet(histogram.bucketOf(value));
+        cells.incrementAndGet(buckets);
+        cells.addAndGet(buckets + 1, value);
+        long max;
+        do {
+            max = cells.get(buckets + 2);
+        } while (value > max && !cells.compareAndSet(buckets + 2, max, value));
+    }
+
+    // ==================== READING ====================
+
+    public long count(Counter counter) {
+        long total = 0;
+        int base = counter.ordinal() * STRIPES;
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            total += counterCells.get((base + stripe) * PAD);
+        }
+        return total;
+    }
+
+    public long bucketCount(Histogram histogram, int bucket) {
+        return histogramCells[histogram.ordinal()].get(bucket);
+    }
+
+    public long count(Histogram histogram) {
+        return histogramCells[histogram.ordinal()].get(histogram.bucketCount());
+    }
+
+    public long sum(Histogram histogram) {
+        return histogramCells[histogram.ordinal()].get(histogram.bucketCount() + 1);
+    }
+
+    public long max(Histogram histogram) {
+        return histogramCells[histogram.ordinal()].get(histogram.bucketCount() + 2);
+    }
+
+    /**
+     * Upper bound of the bucket holding the {@code quantile} (0..1) value,
+     * capped at the recorded max; 0 when nothing was recorded.
+     */
+    public long quantile(Histogram histogram, double quantile) {
+        AtomicLongArray cells = histogramCells[histogram.ordinal()];
+        int buckets = histogram.bucketCount();
+        long total = cells.get(buckets);
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int i = 0; i < buckets; i++) {
+            seen += cells.get(i);
+            if (seen >= rank) {
+                return Math.min(histogram.upperBound(i), cells.get(buckets + 2));
+            }
+        }
+        return cells.get(buckets + 2);
+    }
+
+    /**
+     * Compact JSON for upload piggybacking: counters, then per histogram
+     * count / p50 / p90 / max. Allocates - call at most every few minutes.
+     */
+    public String compactSummary() {
+        StringBuilder sb = new StringBuilder(256).append('{');
+        for (Counter counter : Counter.values()) {
+            sb.append('"').append(counter.key).append("\":").append(count(counter)).append(',');
+        }
+        for (Histogram h : HISTOGRAMS) {
+            sb.append('"').append(h.key).append("\":[")
+                .append(count(h)).append(',')
+                .append(quantile(h, 0.5)).append(',')
+                .append(quantile(h, 0.9)).append(',')
+                .append(max(h)).append("],");
+        }
+        sb.setCharAt(sb.length() - 1, '}');
+        return sb.toString();
+    }
+}
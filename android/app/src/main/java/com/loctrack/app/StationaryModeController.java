@@ -0,0 +1,233 @@
+package com.loctrack.app;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Stationary-mode state machine: parks GPS behind an exit geofence while the
+ * device stays put.
+ *
+ * States:
+ * - TRACKING: location updates running
+ * - ARMING: stationary long enough; exit geofence requested around the stay
+ *   point, updates still running until it is confirmed
+ * - PARKED: geofence armed, location updates removed
+ *
+ * Leaving PARKED (or ARMING): geofence exit, or an activity transition to
+ * anything other than STILL. A failed geofence request falls back to
+ * TRACKING and waits another full threshold before trying again.
+ *
+ * Also keeps time spent per state and estimates what parking saved compared
+ * with polling at the stationary interval.
+ */
+public final class StationaryModeController {
+
+    public enum State { TRACKING, ARMING, PARKED }
+
+    /** Side effects, implemented by the service. Called on the caller's thread. */
+    public interface Actions {
+        void armExitGeofence(double latitude, double longitude, float radiusMeters);
+
+        void disarmExitGeofence();
+
+        void stopLocationUpdates();
+
+        void startLocationUpdates();
+    }
+
+    public static final long DEFAULT_STILL_THRESHOLD_MS = 5 * 60_000;
+    public static final float DEFAULT_MIN_RADIUS_M = 150f;
+
+    private final Actions actions;
+    private final LongSupplier clock;
+    private final long stillThresholdMs;
+    private final float minRadiusMeters;
+    private final long baselineIntervalMs;
+    private final long gpsOnPerFixMs;
+    private final long wakePerFixMs;
+
+    private State state = State.TRACKING;
+    private long stateSince;
+    private long lastMovementAt;
+    private boolean still;
+    private boolean hasAnchor;
+    private double anchorLatitude;
+    private double anchorLongitude;
+    private float anchorAccuracy;
+
+    private final long[] timeInState = new long[State.values().length];
+    private int parkCount;
+    private int armFailures;
+
+    /**
+     * @param baselineIntervalMs fix interval that would be used while still if not parked
+     * @param gpsOnPerFixMs      estimated GPS-on time per polled fix
+     * @param wakePerFixMs       estimated CPU wake time to process one fix
+     */
+    public StationaryModeController(Actions actions, LongSupplier clock, long stillThresholdMs,
+                                    float minRadiusMeters, long baselineIntervalMs, long gpsOnPerFixMs,
+                                    long wakePerFixMs) {
+        this.actions = actions;
+        this.clock = clock;
+        this.stillThresholdMs = stillThresholdMs;
+        this.minRadiusMeters = minRadiusMeters;
+        this.baselineIntervalMs = baselineIntervalMs;
+        this.gpsOnPerFixMs = gpsOnPerFixMs;
+        this.wakePerFixMs = wakePerFixMs;
+        long now = clock.getAsLong();
+        stateSince = now;
+        lastMovementAt = now;
+    }
+
+    // ==================== EVENTS ====================
+
+    /**
+     * A fix passed the filters. {@code significantMovement} is the caller's
+     * displacement check against the previous fix.
+     */
+    public void onFix(double latitude, double longitude, float accuracy, boolean significantMovement) {
+        long now = clock.getAsLong();
+        if (significantMovement || !hasAnchor) {
+            lastMovementAt = now;
+        }
+        hasAnchor = true;
+        anchorLatitude = latitude;
+        anchorLongitude = longitude;
+        anchorAccuracy = accuracy;
+        evaluate();
+    }
+
+    /**
+     * Arms the exit geofence once the device has been still for the
+     * threshold. Runs on every fix, and should also run after
+     * {@link #nextEvaluationDelayMs()}: once still, the provider's distance
+     * filter may stop delivering fixes altogether.
+     */
+    public void evaluate() {
+        long now = clock.getAsLong();
+        if (state == State.TRACKING && still && hasAnchor && now - lastMovementAt >= stillThresholdMs) {
+            transition(State.ARMING, now);
+            actions.armExitGeofence(anchorLatitude, anchorLongitude, radiusFor(anchorAccuracy));
+        }
+    }
+
+    /**
+     * Delay until {@link #evaluate()} could arm the geofence, so callers can
+     * check without waiting for a fix; -1 if it cannot until something changes.
+     */
+    public long nextEvaluationDelayMs() {
+        if (state != State.TRACKING || !still || !hasAnchor) {
+            return -1;
+        }
+        return Math.max(0, lastMovementAt + stillThresholdMs - clock.getAsLong());
+    }
+
+    /** Activity recognition transition. Anything but STILL counts as moving. */
+    public void onActivityChanged(boolean isStill) {
+        long now = clock.getAsLong();
+        still = isStill;
+        if (!isStill) {
+            lastMovementAt = now;
+            if (state != State.TRACKING) {
+                resume(now);
+            }
+        }
+    }
+
+    /** Result of the geofence request made in {@link Actions#armExitGeofence}. */
+    public void onGeofenceArmed(boolean success) {
+        if (state != State.ARMING) {
+            // Resumed while the request was in flight - resume() already removed it
+            return;
+        }
+        long now = clock.getAsLong();
+        if (success) {
+            transition(State.PARKED, now);
+            parkCount++;
+            actions.stopLocationUpdates();
+        } else {
+            armFailures++;
+            lastMovementAt = now;
+            transition(State.TRACKING, now);
+        }
+    }
+
+    public void onGeofenceExit() {
+        if (state != State.TRACKING) {
+            long now = clock.getAsLong();
+            lastMovementAt = now;
+            resume(now);
+        }
+    }
+
+    private void resume(long now) {
+        boolean wasParked = state == State.PARKED;
+        transition(State.TRACKING, now);
+        actions.disarmExitGeofence();
+        if (wasParked) {
+            actions.startLocationUpdates();
+        }
+    }
+
+    private void transition(State next, long now) {
+        timeInState[state.ordinal()] += now - stateSince;
+        state = next;
+        stateSince = now;
+    }
+
+    float radiusFor(float accuracy) {
+        return Math.max(minRadiusMeters, accuracy * 2f);
+    }
+
+    // ==================== STATE & SAVINGS ====================
+
+    public State state() {
+        return state;
+    }
+
+    /** Location updates are removed; callers must not restart them. */
+    public boolean isParked() {
+        return state == State.PARKED;
+    }
+
+    public long timeInStateMs(State s) {
+        long total = timeInState[s.ordinal()];
+        if (s == state) {
+            total += clock.getAsLong() - stateSince;
+        }
+        return total;
+    }
+
+    public int parkCount() {
+        return parkCount;
+    }
+
+    public int armFailures() {
+        return armFailures;
+    }
+
+    /** Fixes not requested while parked, against polling at the baseline interval. */
+    public long estimatedSavedFixes() {
+        return baselineIntervalMs > 0 ? timeInStateMs(State.PARKED) / baselineIntervalMs : 0;
+    }
+
+    /** GPS-on time those fixes would have cost. */
+    public long estimatedGpsOnSavedMs() {
+        return estimatedSavedFixes() * gpsOnPerFixMs;
+    }
+
+    /** CPU wake time those fixes would have cost. */
+    public long estimatedWakeSavedMs() {
+        return estimatedSavedFixes() * wakePerFixMs;
+    }
+
+    public String summary() {
+        return "state=" + state
+            + " tracking=" + timeInStateMs(State.TRACKING) / 1000 + "s"
+            + " arming=" + timeInStateMs(State.ARMING) / 1000 + "s"
+            + " parked=" + timeInStateMs(State.PARKED) / 1000 + "s"
+            + " parks=" + parkCount
+            + " savedFixes=" + estimatedSavedFixes()
+            + " gpsSaved=" + estimatedGpsOnSavedMs() / 1000 + "s"
+            + " wakeSaved=" + estimatedWakeSavedMs() / 1000 + "s";
+    }
+}
@@ -0,0 +1,315 @@
+package com.loctrack.app;
+
+import java.util.Arrays;
+import java.util.function.LongSupplier;
+
+/**
+ * Incremental stay-point detection and trip segmentation over the accepted
+ * fixes: when the technician arrived at a site, how long they stayed, and
+ * the trip between two sites.
+ *
+ * - Stay: fixes keep within {@code stayRadiusMeters} of the first fix of a
+ *   candidate cluster for at least {@code minStayMs} (or
+ *   {@code minStillStayMs} while activity recognition reports STILL).
+ *   Arrival is the cluster's first fix. A fix outside the radius ends the
+ *   stay at the last fix inside it - or later, when the activity turned to
+ *   moving after that (GPS may have been parked for the whole stay)
+ * - Trip: everything between two stays, with distance, duration, max speed
+ *   and the activity it spent most time in. A trip shorter than the stay
+ *   radius is just jitter before the first stay and is not reported
+ *
+ * Constant memory: one candidate cluster (anchor, running centroid, time
+ * span) and running trip totals; fixes are never buffered. Totals are
+ * snapshotted when a candidate starts, so a confirmed stay rolls the trip
+ * back to its arrival. Fixes vaguer than the stay radius are ignored.
+ *
+ * Segments go to the Listener as they happen: a stay as soon as it is
+ * confirmed (open, endTime -1) and again when it ends, a trip when the next
+ * stay is confirmed. Not thread-safe - the service calls it on the pipeline
+ * thread.
+ */
+public final class StayTripSegmenter {
+
+    public enum Kind { STAY, TRIP }
+
+    /** A stay or a trip. Immutable once handed to the listener. */
+    public static final class Segment {
+        public final Kind kind;
+        public final long startTime;
+        /** -1 while a stay is still going on. */
+        public final long endTime;
+        /** Stay centroid, or where the trip started. */
+        public final double latitude;
+        public final double longitude;
+        /** Where the trip ended; the centroid again for a stay. */
+        public final double endLatitude;
+        public final double endLongitude;
+        public final double distanceMeters;
+        /** NaN when no fix reported a speed. */
+        public final float maxSpeed;
+        /** Most frequent activity code (DetectedActivity), -1 if unknown. */
+        public final int activity;
+        public final int fixCount;
+
+        Segment(Kind kind, long startTime, long endTime, double latitude, double longitude,
+                double endLatitude, double endLongitude, double distanceMeters, float maxSpeed,
+                int activity, int fixCount) {
+            this.kind = kind;
+            this.startTime = startTime;
+            this.endTime = endTime;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.endLatitude = endLatitude;
+            this.endLongitude = endLongitude;
+            this.distanceMeters = distanceMeters;
+            this.maxSpeed = maxSpeed;
+            this.activity = activity;
+            this.fixCount = fixCount;
+        }
+
+        public boolean isOpen() {
+            return endTime < 0;
+        }
+
+        /** Duration so far for an open stay is not known here - 0. */
+        public long durationMs() {
+            return isOpen() ? 0 : endTime - startTime;
+        }
+
+        @Override
+        public String toString() {
+            return kind + " " + startTime + ".." + endTime + " (" + fixCount + " fixes, "
+                + Math.round(distanceMeters) + "m)";
+        }
+    }
+
+    /** Called on the caller's thread. */
+    public interface Listener {
+        void onSegment(Segment segment);
+    }
+
+    public static final float DEFAULT_STAY_RADIUS_M = 100f;
+    public static final long DEFAULT_MIN_STAY_MS = 5 * 60_000;
+    public static final long DEFAULT_MIN_STILL_STAY_MS = 2 * 60_000;
+
+    private static final double EARTH_RADIUS_M = 6_371_000.0;
+    private static final double DEG_TO_RAD = Math.PI / 180.0;
+    // DetectedActivity codes go up to RUNNING (8); UNKNOWN and TILTING say nothing about the mode
+    private static final int ACTIVITY_CODES = 9;
+    private static final int ACTIVITY_UNKNOWN = 4;
+    private static final int ACTIVITY_TILTING = 5;
+
+    private final Listener listener;
+    private final LongSupplier clock;
+    private final float stayRadiusMeters;
+    private final long minStayMs;
+    private final long minStillStayMs;
+
+    private boolean still;
+    // Wall time activity last turned from STILL to moving
+    private long movingSince = Long.MIN_VALUE;
+
+    private boolean hasPrevious;
+    private double previousLatitude;
+    private double previousLongitude;
+    private long previousTime;
+    private int previousActivity;
+
+    // Candidate cluster - a stay once it lasts long enough
+    private boolean hasCandidate;
+    private boolean staying;
+    private double anchorLatitude;
+    private double anchorLongitude;
+    private double sumLatitude;
+    private double sumLongitude;
+    private int candidateFixes;
+    private long candidateStart;
+    private long candidateEnd;
+
+    // Trip in progress, and its totals when the candidate started
+    private boolean inTrip;
+    private long tripStart;
+    private double tripStartLatitude;
+    private double tripStartLongitude;
+    private double tripDistance;
+    private float tripMaxSpeed;
+    private int tripFixes;
+    private final long[] tripActivityMs = new long[ACTIVITY_CODES];
+    private double distanceAtCandidate;
+    private float maxSpeedAtCandidate;
+    private int fixesAtCandidate;
+    private final long[] activityMsAtCandidate = new long[ACTIVITY_CODES];
+
+    private int stays;
+    private int trips;
+
+    public StayTripSegmenter(Listener listener, LongSupplier clock) {
+        this(listener, clock, DEFAULT_STAY_RADIUS_M, DEFAULT_MIN_STAY_MS, DEFAULT_MIN_STILL_STAY_MS);
+    }
+
+    public StayTripSegmenter(Listener listener, LongSupplier clock, float stayRadiusMeters,
+                             long minStayMs, long minStillStayMs) {
+        this.listener = listener;
+        this.clock = clock;
+        this.stayRadiusMeters = stayRadiusMeters;
+        this.minStayMs = minStayMs;
+        this.minStillStayMs = minStillStayMs;
+    }
+
+    // ==================== EVENTS ====================
+
+    /** An accepted fix, in timestamp order. */
+    public void onFix(FixRecord fix) {
+        if (fix.accuracy > stayRadiusMeters || (hasPrevious && fix.timestamp < previousTime)) {
+            return;
+        }
+        boolean inside = hasCandidate
+            && distanceMeters(anchorLatitude, anchorLongitude, fix.latitude, fix.longitude) <= stayRadiusMeters;
+        if (!inside && staying) {
+            endStay(fix.timestamp);
+        }
+        if (!staying) {
+            if (!inTrip) {
+                startTrip(fix.timestamp, fix.latitude, fix.longitude);
+            } else if (hasPrevious) {
+                tripDistance += distanceMeters(previousLatitude, previousLongitude, fix.latitude, fix.longitude);
+                addActivityTime(previousActivity, fix.timestamp - previousTime);
+            }
+            if (fix.hasSpeed() && !(fix.speed <= tripMaxSpeed)) {
+                tripMaxSpeed = fix.speed;
+            }
+            tripFixes++;
+        }
+
+        if (inside) {
+            sumLatitude += fix.latitude;
+            sumLongitude += fix.longitude;
+            candidateFixes++;
+            candidateEnd = fix.timestamp;
+            if (!staying && candidateEnd - candidateStart >= (still ? minStillStayMs : minStayMs)) {
+                confirmStay();
+            }
+        } else {
+            startCandidate(fix);
+        }
+
+        hasPrevious = true;
+        previousLatitude = fix.latitude;
+        previousLongitude = fix.longitude;
+        previousTime = fix.timestamp;
+        previousActivity = fix.activity;
+    }
+
+    /** Activity recognition transition. */
+    public void onActivityChanged(boolean isStill) {
+        if (still && !isStill) {
+            movingSince = clock.getAsLong();
+        }
+        still = isStill;
+    }
+
+    private void startCandidate(FixRecord fix) {
+        hasCandidate = true;
+        anchorLatitude = fix.latitude;
+        anchorLongitude = fix.longitude;
+        sumLatitude = fix.latitude;
+        sumLongitude = fix.longitude;
+        candidateFixes = 1;
+        candidateStart = fix.timestamp;
+        candidateEnd = fix.timestamp;
+        distanceAtCandidate = tripDistance;
+        maxSpeedAtCandidate = tripMaxSpeed;
+        fixesAtCandidate = tripFixes;
+        System.arraycopy(tripActivityMs, 0, activityMsAtCandidate, 0, ACTIVITY_CODES);
+    }
+
+    private void confirmStay() {
+        staying = true;
+        stays++;
+        if (inTrip) {
+            // The trip ends where the stay began
+            inTrip = false;
+            if (distanceAtCandidate >= stayRadiusMeters) {
+                trips++;
+                listener.onSegment(new Segment(Kind.TRIP, tripStart, candidateStart,
+                    tripStartLatitude, tripStartLongitude, anchorLatitude, anchorLongitude,
+                    distanceAtCandidate, maxSpeedAtCandidate, dominantActivity(activityMsAtCandidate),
+                    fixesAtCandidate));
+            }
+        }
+        listener.onSegment(stay(-1));
+    }
+
+    private void endStay(long departureFixTime) {
+        staying = false;
+        long end = candidateEnd;
+        // Moving again after the last fix inside - GPS was likely parked meanwhile
+        if (movingSince > end && movingSince <= departureFixTime) {
+            end = movingSince;
+        }
+        listener.onSegment(stay(end));
+        startTrip(end, sumLatitude / candidateFixes, sumLongitude / candidateFixes);
+        // The trip's first step runs from the stay's centroid, not its last jittery fix
+        previousLatitude = tripStartLatitude;
+        previousLongitude = tripStartLongitude;
+        previousTime = end;
+    }
+
+    private Segment stay(long endTime) {
+        double latitude = sumLatitude / candidateFixes;
+        double longitude = sumLongitude / candidateFixes;
+        return new Segment(Kind.STAY, candidateStart, endTime, latitude, longitude, latitude, longitude,
+            0, Float.NaN, -1, candidateFixes);
+    }
+
+    private void startTrip(long time, double latitude, double longitude) {
+        inTrip = true;
+        tripStart = time;
+        tripStartLatitude = latitude;
+        tripStartLongitude = longitude;
+        tripDistance = 0;
+        tripMaxSpeed = Float.NaN;
+        tripFixes = 0;
+        Arrays.fill(tripActivityMs, 0);
+    }
+
+    private void addActivityTime(int activity, long ms) {
+        if (activity >= 0 && activity < ACTIVITY_CODES && activity != ACTIVITY_UNKNOWN
+                && activity != ACTIVITY_TILTING && ms > 0) {
+            tripActivityMs[activity] += ms;
+        }
+    }
+
+    private static int dominantActivity(long[] activityMs) {
+        int best = -1;
+        for (int i = 0; i < ACTIVITY_CODES; i++) {
+            if (activityMs[i] > 0 && (best < 0 || activityMs[i] > activityMs[best])) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /** Equirectangular approximation - plenty for steps between fixes and a stay radius. */
+    static double distanceMeters(double lat1, double lon1, double lat2, double lon2) {
+        double x = (lon2 - lon1) * DEG_TO_RAD * Math.cos((lat1 + lat2) * 0.5 * DEG_TO_RAD);
+        double y = (lat2 - lat1) * DEG_TO_RAD;
+        return Math.sqrt(x * x + y * y) * EARTH_RADIUS_M;
+    }
+
+    // ==================== STATE ====================
+
+    public boolean isStaying() {
+        return staying;
+    }
+
+    /** Stays confirmed so far. */
+    public int stayCount() {
+        return stays;
+    }
+
+    /** Trips reported so far. */
+    public int tripCount() {
+        return trips;
+    }
+}
@@ -0,0 +1,186 @@
+package com.loctrack.app;
+
+import android.util.Log;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-flight, coalescing runner for uploads.
+ *
+ * Every sync trigger (periodic tick, batch full, memory pressure, shutdown)
+ * goes through {@link #requestSync}. At most one upload runs at a time, on
+ * the coordinator's own worker thread - never on the caller's thread, so
+ * the main looper never does network I/O. Triggers that arrive while an
+ * upload is in flight collapse into a single follow-up run.
+ *
+ * Urgent triggers ({@link #requestUrgentSync}) do the same, then wait up to
+ * a deadline for a run that started after the request to finish. Fixes are
+ * durable in the queue, so a missed deadline loses nothing.
+ */
+public final class SyncCoordinator {
+    private static final String TAG = "SyncCoordinator";
+
+    private final Runnable upload;
+    private final ExecutorService worker;
+
+    // Generations: every request bumps requested; a run covers everything
+    // requested before it started
+    private long requestedGen;
+    private long completedGen;
+    private boolean running;
+    private boolean shutdown;
+
+    // Diagnostics
+    private long requests;
+    private long runs;
+
+    public SyncCoordinator(Runnable upload) {
+        this(upload, Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "location-sync");
+            t.setPriority(Thread.NORM_PRIORITY - 1);
+            return t;
+        }));
+    }
+
+    SyncCoordinator(Runnable upload, ExecutorService worker) {
+        this.upload = upload;
+        this.worker = worker;
+    }
+
+    /** Asks for an upload soon. Never blocks and never runs the upload inline. */
+    public void requestSync(String reason) {
+        long gen = request();
+        if (gen > 0 && Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Sync requested (" + reason + ")");
+        }
+    }
+
+    /**
+     * Asks for an upload and waits up to {@code deadlineMs} for it to finish.
+     * Returns true if a run that started after this call has completed.
+     */
+    public boolean requestUrgentSync(String reason, long deadlineMs) {
+        long gen = request();
+        if (gen <= 0) {
+            return false;
+        }
+        Log.d(TAG, "Urgent sync requested (" + reason + "), waiting up to " + deadlineMs + "ms");
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMs);
+        synchronized (this) {
+            while (completedGen < gen) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0 || shutdown) {
+                    Log.w(TAG, "Urgent sync (" + reason + ") missed its deadline, fixes stay queued");
+                    return false;
+                }
+                try {
+                    wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /** Returns the generation the caller waits for, or 0 if shut down. */
+    private long request() {
+        boolean start;
+        long gen;
+        synchronized (this) {
+            if (shutdown) {
+                return 0;
+            }
+            requests++;
+            gen = ++requestedGen;
+            start = !running;
+            running = true;
+        }
+        if (start) {
+            worker.execute(this::drain);
+        }
+        return gen;
+    }
+
+    private void drain() {
+        while (true) {
+            long target;
+            synchronized (this) {
+                if (completedGen >= requestedGen || shutdown) {
+                    running = false;
+                    notifyAll();
+                    return;
+                }
+                target = requestedGen;
+                runs++;
+            }
+            try {
+                upload.run();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Sync run failed", e);
+            }
+            synchronized (this) {
+                completedGen = target;
+                notifyAll();
+            }
+        }
+    }
+
+    public synchronized boolean isRunning() {
+        return running;
+    }
+
+    public synchronized long requestCount() {
+        return requests;
+    }
+
+    public synchronized long runCount() {
+        return runs;
+    }
+
+    /** Requests that were folded into a run already in flight or queued. */
+    public synchronized long coalescedCount() {
+        return requests - runs;
+    }
+
+    /**
+     * Stops accepting requests and waits up to {@code awaitMs} for the
+     * in-flight upload to finish. Returns true if the worker has stopped.
+     */
+    public boolean shutdown(long awaitMs) {
+        return shutdown(awaitMs, null);
+    }
+
+    /**
+     * Like {@link #shutdown(long)}, and runs {@code onStopped} on the worker
+     * once the in-flight upload has finished - also when that is after the
+     * wait gave up, so teardown never races an upload still using the queue.
+     */
+    public boolean shutdown(long awaitMs, Runnable onStopped) {
+        boolean first;
+        synchronized (this) {
+            first = !shutdown;
+            shutdown = true;
+            notifyAll();
+        }
+        if (first && onStopped != null) {
+            worker.execute(() -> {
+                try {
+                    onStopped.run();
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Shutdown task failed", e);
+                }
+            });
+        }
+        worker.shutdown();
+        try {
+            return worker.awaitTermination(awaitMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package com.loctrack.app;
+
+import android.os.SystemClock;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.function.LongSupplier;
+
+/**
+ * Decides when the next upload may be attempted after failures.
+ *
+ * - Decorrelated jitter backoff: each delay is drawn uniformly from
+ *   [base, previous * 3] (previous starts at base) and capped, so devices
+ *   that failed together spread out instead of retrying in lockstep
+ * - Retry-After (delta-seconds or HTTP date) on 429 / 503 is honoured as a
+ *   lower bound on the delay
+ * - Circuit breaker: after {@code failureThreshold} consecutive failures
+ *   the circuit opens and no upload is attempted until the open period
+ *   ends; then a single probe is let through (half-open). A failed probe
+ *   re-opens the circuit for twice as long, up to the cap.
+ *
+ * Times are on a monotonic clock (elapsedRealtime by default) so wall-clock
+ * changes don't stall or release the breaker.
+ */
+public final class SyncRetryPolicy {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    public static final long DEFAULT_BASE_DELAY_MS = 5_000;
+    public static final long DEFAULT_MAX_DELAY_MS = 15 * 60_000;
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    public static final long DEFAULT_OPEN_DURATION_MS = 60_000;
+
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+    private static final int HTTP_UNAVAILABLE = 503;
+
+    private final long baseDelayMs;
+    private final long maxDelayMs;
+    private final int failureThreshold;
+    private final long initialOpenDurationMs;
+    private final LongSupplier clock;
+    private final Random random;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long lastDelayMs;
+    private long nextAttemptAt;
+    private long openDurationMs;
+    private boolean probeInFlight;
+
+    // Diagnostics
+    private long totalFailures;
+    private long circuitOpens;
+    private long rejectedAttempts;
+
+    public SyncRetryPolicy() {
+        this(DEFAULT_BASE_DELAY_MS, DEFAULT_MAX_DELAY_MS, DEFAULT_FAILURE_THRESHOLD,
+            DEFAULT_OPEN_DURATION_MS, SystemClock::elapsedRealtime, new Random());
+    }
+
+    public SyncRetryPolicy(long baseDelayMs, long maxDelayMs, int failureThreshold,
+                           long openDurationMs, LongSupplier clock, Random random) {
+        if (baseDelayMs <= 0 || maxDelayMs < baseDelayMs || failureThreshold < 1) {
+            throw new IllegalArgumentException("invalid retry policy bounds");
+        }
+        this.baseDelayMs = baseDelayMs;
+        this.maxDelayMs = maxDelayMs;
+        this.failureThreshold = failureThreshold;
+        this.initialOpenDurationMs = openDurationMs;
+        this.openDurationMs = openDurationMs;
+        this.clock = clock;
+        this.random = random;
+    }
+
+    /**
+     * Returns true if an upload may start now. When the circuit is open and
+     * the open period has elapsed, this admits exactly one probe.
+     */
+    public synchronized boolean tryAcquire() {
+        long now = clock.getAsLong();
+        if (now < nextAttemptAt) {
+            rejectedAttempts++;
+            return false;
+        }
+        if (state == State.OPEN) {
+            state = State.HALF_OPEN;
+        }
+        if (state == State.HALF_OPEN) {
+            if (probeInFlight) {
+                rejectedAttempts++;
+                return false;
+            }
+            probeInFlight = true;
+        }
+        return true;
+    }
+
+    public synchronized void onSuccess() {
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        lastDelayMs = 0;
+        nextAttemptAt = 0;
+        openDurationMs = initialOpenDurationMs;
+        probeInFlight = false;
+    }
+
+    /**
+     * Ends an attempt whose outcome says nothing about the server's health
+     * (e.g. it has no such endpoint): a half-open probe slot is freed, but
+     * the circuit is neither closed nor re-opened.
+     */
+    public synchronized void onAbandoned() {
+        probeInFlight = false;
+    }
+
+    /**
+     * Records a failed upload.
+     *
+     * @param httpCode     response code, or -1 for a network error
+     * @param retryAfterMs server-requested delay, or -1 if none was given
+     */
+    public synchronized void onFailure(int httpCode, long retryAfterMs) {
+        long now = clock.getAsLong();
+        totalFailures++;
+        consecutiveFailures++;
+
+        long previous = lastDelayMs == 0 ? baseDelayMs : lastDelayMs;
+        long upper = Math.min(maxDelayMs, previous * 3);
+        long delay = baseDelayMs + (long) (random.nextDouble() * (upper - baseDelayMs));
+        lastDelayMs = delay;
+        if (retryAfterMs >= 0 && (httpCode == HTTP_TOO_MANY_REQUESTS || httpCode == HTTP_UNAVAILABLE)) {
+            delay = Math.max(delay, Math.min(retryAfterMs, maxDelayMs));
+        }
+
+        if (state == State.HALF_OPEN) {
+            // Probe failed - stay away longer this time
+            openDurationMs = Math.min(maxDelayMs, openDurationMs * 2);
+            open(now, delay);
+        } else if (consecutiveFailures >= failureThreshold) {
+            open(now, delay);
+        } else {
+            nextAttemptAt = now + delay;
+        }
+        probeInFlight = false;
+    }
+
+    private void open(long now, long delay) {
+        if (state != State.OPEN) {
+            circuitOpens++;
+        }
+        state = State.OPEN;
+        nextAttemptAt = now + Math.max(delay, openDurationMs);
+    }
+
+    /** Milliseconds until {@link #tryAcquire()} can succeed (0 if it can now). */
+    public synchronized long delayUntilNextAttemptMs() {
+        return Math.max(0, nextAttemptAt - clock.getAsLong());
+    }
+
+    public synchronized State state() {
+        return state;
+    }
+
+    public synchronized int consecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    public synchronized long totalFailures() {
+        return totalFailures;
+    }
+
+    public synchronized long circuitOpens() {
+        return circuitOpens;
+    }
+
+    /** Attempts refused because of backoff or an open circuit. */
+    public synchronized long rejectedAttempts() {
+        return rejectedAttempts;
+    }
+
+    // ==================== RETRY-AFTER ====================
+
+    /**
+     * Parses a Retry-After header into a delay in milliseconds. Accepts
+     * delta-seconds or an IMF-fixdate; returns -1 if absent or malformed.
+     */
+    public static long parseRetryAfter(String value, long nowWallMs) {
+        if (value == null) {
+            return -1;
+        }
+        String trimmed = value.trim();
+        if (trimmed.isEmpty()) {
+            return -1;
+        }
+        if (Character.isDigit(trimmed.charAt(0))) {
+            try {
+                return Math.max(0, Long.parseLong(trimmed) * 1000L);
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            return Math.max(0, format.parse(trimmed).getTime() - nowWallMs);
+        } catch (ParseException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package com.loctrack.app;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Decides when to upload and how much, instead of a fixed 15 s tick.
+ *
+ * Two lanes:
+ * - LATEST: the newest smoothed fix alone (the latest-position lane), so
+ *   the live position reaches the server within a few seconds of the fix,
+ *   whether or not anything is queued yet
+ * - BULK: drains the backlog, deferred to good windows - unmetered network,
+ *   charging, or the radio already being active for someone else
+ *   (piggybacking costs no extra radio wake-up). On a metered network the
+ *   backlog still goes out at least every {@code bulkMaxDeferMs}, and at
+ *   once when it grows past {@code forceBulkPending}
+ *
+ * Uploads are spaced at least {@code minSpacingMs} apart, one at a time
+ * (the next decision waits for {@link #onSyncCompleted}), and never run
+ * inside the retry backoff. Offline, nothing is scheduled until the
+ * network returns.
+ *
+ * Pure logic with an injected monotonic clock: the caller feeds events,
+ * asks {@link #evaluate} what to do, and either runs the lane or sets a
+ * Doze-safe alarm for the returned delay. Not thread-safe - driven from
+ * the pipeline thread.
+ */
+public final class SyncScheduler {
+
+    public enum Lane { LATEST, BULK }
+
+    /** Run {@code lane} now, or (lane null) check again after {@code delayMs}; -1 means only on an event. */
+    public static final class Decision {
+        public final Lane lane;
+        public final long delayMs;
+
+        Decision(Lane lane, long delayMs) {
+            this.lane = lane;
+            this.delayMs = delayMs;
+        }
+
+        public boolean runsNow() {
+            return lane != null;
+        }
+
+        @Override
+        public String toString() {
+            return lane != null ? "run " + lane : delayMs < 0 ? "idle" : "wait " + delayMs + "ms";
+        }
+    }
+
+    public static final long DEFAULT_LATEST_DEADLINE_MS = 5_000;
+    public static final long DEFAULT_BULK_MAX_DEFER_MS = 30 * 60_000;
+    public static final long DEFAULT_MIN_SPACING_MS = 15_000;
+    public static final long DEFAULT_PIGGYBACK_WINDOW_MS = 10_000;
+    public static final long DEFAULT_FORCE_BULK_PENDING = 1_000;
+
+    // A run that never reports back (killed worker) stops blocking after this
+    static final long IN_FLIGHT_TIMEOUT_MS = 5 * 60_000;
+
+    private static final long NONE = Long.MAX_VALUE;
+    private static final Decision IDLE = new Decision(null, -1);
+
+    private final LongSupplier clock;
+    private final long latestDeadlineMs;
+    private final long bulkMaxDeferMs;
+    private final long minSpacingMs;
+    private final long piggybackWindowMs;
+    private final long forceBulkPending;
+
+    private boolean online = true;
+    private boolean metered;
+    private boolean charging;
+    private long radioActiveAt = Long.MIN_VALUE / 2;
+    private long lastSyncAt = Long.MIN_VALUE / 2;
+    private long latestDueAt = NONE;
+    private long latestOfferedAt = Long.MIN_VALUE;
+    private long backlogSince = NONE;
+    private long inFlightSince = NONE;
+
+    private long latestRuns;
+    private long bulkRuns;
+    private long piggybackRuns;
+
+    public SyncScheduler(LongSupplier clock) {
+        this(clock, DEFAULT_LATEST_DEADLINE_MS, DEFAULT_BULK_MAX_DEFER_MS, DEFAULT_MIN_SPACING_MS,
+            DEFAULT_PIGGYBACK_WINDOW_MS, DEFAULT_FORCE_BULK_PENDING);
+    }
+
+    public SyncScheduler(LongSupplier clock, long latestDeadlineMs, long bulkMaxDeferMs,
+                         long minSpacingMs, long piggybackWindowMs, long forceBulkPending) {
+        this.clock = clock;
+        this.latestDeadlineMs = latestDeadlineMs;
+        this.bulkMaxDeferMs = bulkMaxDeferMs;
+        this.minSpacingMs = minSpacingMs;
+        this.piggybackWindowMs = piggybackWindowMs;
+        this.forceBulkPending = forceBulkPending;
+    }
+
+    // ==================== EVENTS ====================
+
+    public void setNetwork(boolean isOnline, boolean isMetered) {
+        online = isOnline;
+        metered = isMetered;
+    }
+
+    public void setCharging(boolean isCharging) {
+        charging = isCharging;
+    }
+
+    /** The default network's radio just went active (someone else is using it). */
+    public void onRadioActive() {
+        radioActiveAt = clock.getAsLong();
+    }
+
+    /** A fix was queued; it joins the backlog. */
+    public void onFixQueued() {
+        if (backlogSince == NONE) {
+            backlogSince = clock.getAsLong();
+        }
+    }
+
+    /**
+     * A fix was handed to the latest lane; starts the latest-position deadline
+     * if none is running.
+     */
+    public void onLatestOffered() {
+        latestOfferedAt = clock.getAsLong();
+        if (latestDueAt == NONE) {
+            latestDueAt = latestOfferedAt + latestDeadlineMs;
+        }
+    }
+
+    /**
+     * An upload finished. On success the latest position is on the server,
+     * unless a newer fix was offered while the run was in flight - that one
+     * gets its own deadline. A bulk drain that made progress and left more
+     * behind may continue right away instead of waiting out the spacing.
+     */
+    public void onSyncCompleted(Lane lane, boolean success, long remainingPending) {
+        long now = clock.getAsLong();
+        boolean offeredInFlight = inFlightSince != NONE && latestOfferedAt >= inFlightSince;
+        inFlightSince = NONE;
+        if (success) {
+            latestDueAt = offeredInFlight ? latestOfferedAt + latestDeadlineMs : NONE;
+            if (remainingPending == 0) {
+                backlogSince = NONE;
+            }
+        }
+        boolean keepDraining = success && lane == Lane.BULK && remainingPending > 0;
+        if (!keepDraining) {
+            lastSyncAt = now;
+        }
+    }
+
+    // ==================== DECISION ====================
+
+    public Decision evaluate(long pendingCount, long retryDelayMs) {
+        long now = clock.getAsLong();
+        boolean backlog = pendingCount > 0;
+        if (!backlog) {
+            backlogSince = NONE;
+            if (latestDueAt == NONE) {
+                return IDLE;
+            }
+        }
+        if (!online) {
+            return IDLE;
+        }
+        // The completion of the run in flight evaluates again
+        if (inFlightSince != NONE && now - inFlightSince < IN_FLIGHT_TIMEOUT_MS) {
+            return IDLE;
+        }
+        if (backlog && backlogSince == NONE) {
+            // Left over from a previous run
+            backlogSince = now;
+        }
+
+        boolean piggyback = now - radioActiveAt <= piggybackWindowMs;
+        boolean goodWindow = !metered || charging || piggyback || pendingCount >= forceBulkPending;
+        long bulkAt = !backlog ? NONE : goodWindow ? now : saturatedAdd(backlogSince, bulkMaxDeferMs);
+
+        // A bulk run sends the latest position first too
+        Lane lane = bulkAt <= latestDueAt ? Lane.BULK : Lane.LATEST;
+        long at = Math.min(bulkAt, latestDueAt);
+        long earliest = Math.max(now + Math.max(0, retryDelayMs), lastSyncAt + minSpacingMs);
+        at = Math.max(at, earliest);
+
+        if (at > now) {
+            return new Decision(null, at - now);
+        }
+        inFlightSince = now;
+        if (lane == Lane.BULK) {
+            bulkRuns++;
+            if (piggyback && metered && !charging) {
+                piggybackRuns++;
+            }
+        } else {
+            latestRuns++;
+        }
+        return new Decision(lane, 0);
+    }
+
+    private static long saturatedAdd(long a, long b) {
+        return a > NONE - b ? NONE : a + b;
+    }
+
+    // ==================== DIAGNOSTICS ====================
+
+    public long latestRuns() {
+        return latestRuns;
+    }
+
+    public long bulkRuns() {
+        return bulkRuns;
+    }
+
+    /** Bulk runs started only because the radio was already up on a metered network. */
+    public long piggybackRuns() {
+        return piggybackRuns;
+    }
+
+    public String summary() {
+        return "latest=" + latestRuns + " bulk=" + bulkRuns + " piggyback=" + piggybackRuns
+            + (online ? metered ? " metered" : " unmetered" : " offline")
+            + (charging ? " charging" : "");
+    }
+}
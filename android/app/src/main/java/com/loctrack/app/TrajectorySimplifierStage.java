@@ -0,0 +1,185 @@
+package com.loctrack.app;
+
+/**
+ * Streaming trajectory simplification (opening-window with a synchronized
+ * Euclidean distance bound).
+ *
+ * Fixes are held in a window that starts at the last emitted point (the
+ * anchor). When a new fix arrives, every held fix is compared with the
+ * position linearly interpolated *at its own timestamp* between the anchor
+ * and the new fix. As long as all of them stay within the tolerance, the
+ * new fix just extends the window. Otherwise the previous fix is emitted
+ * and becomes the new anchor. Because the error is time-synchronized,
+ * stops and speed changes are preserved as well as the route shape.
+ *
+ * Memory is bounded: the window holds at most {@code maxWindowPoints}
+ * fixes and {@code maxWindowMs} of time, which also bounds how stale the
+ * newest queued fix can be.
+ *
+ * A held fix is passed on by rewriting the incoming record, so the stage
+ * never allocates per fix.
+ */
+public final class TrajectorySimplifierStage implements FixStage {
+    public static final double DEFAULT_TOLERANCE_M = 10.0;
+    public static final int DEFAULT_MAX_WINDOW_POINTS = 64;
+    public static final long DEFAULT_MAX_WINDOW_MS = 60_000;
+
+    private static final double METRES_PER_DEG_LAT = 111_320.0;
+
+    private final double toleranceM;
+    private final int maxWindowPoints;
+    private final long maxWindowMs;
+
+    // Window of held fixes since the anchor, as time + local metres
+    private final long[] windowTime;
+    private final double[] windowEast;
+    private final double[] windowNorth;
+    private int windowSize;
+
+    private boolean hasAnchor;
+    private double anchorLat;
+    private double anchorLon;
+    private long anchorTime;
+    private double metresPerDegLon;
+
+    // Most recent fix, held until we know whether it is needed
+    private final FixRecord previous = new FixRecord();
+    private boolean hasPrevious;
+
+    private long received;
+    private long emitted;
+
+    public TrajectorySimplifierStage() {
+        this(DEFAULT_TOLERANCE_M, DEFAULT_MAX_WINDOW_POINTS, DEFAULT_MAX_WINDOW_MS);
+    }
+
+    public TrajectorySimplifierStage(double toleranceM, int maxWindowPoints, long maxWindowMs) {
+        if (maxWindowPoints < 2) {
+            throw new IllegalArgumentException("maxWindowPoints must be >= 2");
+        }
+        this.toleranceM = toleranceM;
+        this.maxWindowPoints = maxWindowPoints;
+        this.maxWindowMs = maxWindowMs;
+        windowTime = new long[maxWindowPoints];
+        windowEast = new double[maxWindowPoints];
+        windowNorth = new double[maxWindowPoints];
+    }
+
+    @Override
+    public boolean process(FixRecord fix) {
+        received++;
+        if (!hasAnchor) {
+            setAnchor(fix);
+            emitted++;
+            return true;
+        }
+
+        double east = (fix.longitude - anchorLon) * metresPerDegLon;
+        double north = (fix.latitude - anchorLat) * METRES_PER_DEG_LAT;
+
+        boolean breakWindow = windowSize >= maxWindowPoints
+            || fix.timestamp - anchorTime > maxWindowMs
+            || exceedsTolerance(fix.timestamp, east, north);
+
+        if (breakWindow && hasPrevious) {
+            // Emit the previous fix as the new anchor; the incoming fix is held
+            swapWithPrevious(fix);
+            setAnchor(fix);
+            addToWindow(previous.timestamp,
+                (previous.longitude - anchorLon) * metresPerDegLon,
+                (previous.latitude - anchorLat) * METRES_PER_DEG_LAT);
+            emitted++;
+            return true;
+        }
+
+        addToWindow(fix.timestamp, east, north);
+        previous.copyFrom(fix);
+        hasPrevious = true;
+        return false;
+    }
+
+    /** True if any held fix drifts too far from the anchor -> candidate segment. */
+    private boolean exceedsTolerance(long time, double east, double north) {
+        long span = time - anchorTime;
+        if (span <= 0) {
+            return false;
+        }
+        double toleranceSq = toleranceM * toleranceM;
+        for (int i = 0; i < windowSize; i++) {
+            double ratio = (windowTime[i] - anchorTime) / (double) span;
+            double dEast = windowEast[i] - east * ratio;
+            double dNorth = windowNorth[i] - north * ratio;
+            if (dEast * dEast + dNorth * dNorth > toleranceSq) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Puts the held fix into {@code fix} and keeps the incoming one as held. */
+    private void swapWithPrevious(FixRecord fix) {
+        // Field-by-field swap, so no temporary record is needed
+        long seq = fix.seq, timestamp = fix.timestamp;
+        double lat = fix.latitude, lon = fix.longitude;
+        float accuracy = fix.accuracy, speed = fix.speed, heading = fix.heading, confidence = fix.confidence;
+        byte battery = fix.batteryLevel, activity = fix.activity, network = fix.networkStatus;
+
+        fix.copyFrom(previous);
+
+        previous.seq = seq;
+        previous.timestamp = timestamp;
+        previous.latitude = lat;
+        previous.longitude = lon;
+        previous.accuracy = accuracy;
+        previous.speed = speed;
+        previous.heading = heading;
+        previous.confidence = confidence;
+        previous.batteryLevel = battery;
+        previous.activity = activity;
+        previous.networkStatus = network;
+    }
+
+    private void setAnchor(FixRecord fix) {
+        hasAnchor = true;
+        anchorLat = fix.latitude;
+        anchorLon = fix.longitude;
+        anchorTime = fix.timestamp;
+        metresPerDegLon = METRES_PER_DEG_LAT * Math.cos(Math.toRadians(anchorLat));
+        windowSize = 0;
+    }
+
+    private void addToWindow(long time, double east, double north) {
+        windowTime[windowSize] = time;
+        windowEast[windowSize] = east;
+        windowNorth[windowSize] = north;
+        windowSize++;
+    }
+
+    /**
+     * Hands out the held fix, if any (e.g. before shutdown), so the end of
+     * the trail is not lost. Returns false when nothing is held.
+     */
+    @Override
+    public boolean flush(FixRecord out) {
+        if (!hasPrevious) {
+            return false;
+        }
+        out.copyFrom(previous);
+        hasPrevious = false;
+        setAnchor(out);
+        emitted++;
+        return true;
+    }
+
+    @Override
+    public void reset() {
+        hasAnchor = false;
+        hasPrevious = false;
+        windowSize = 0;
+    }
+
+    /** Input fixes per emitted fix so far. */
+    public double compressionRatio() {
+        return emitted == 0 ? 1.0 : received / (double) emitted;
+    }
+}
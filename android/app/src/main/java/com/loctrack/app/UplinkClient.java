@@ -0,0 +1,244 @@
+package com.loctrack.app;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * HTTP uplink for location uploads, built to reuse one warm connection.
+ *
+ * - Keep-alive: connections are never disconnect()'ed; the response (or
+ *   error) body is always drained and closed, which hands the socket back to
+ *   the platform connection pool so the next upload skips DNS/TCP/TLS setup
+ * - Gzip: bodies above a threshold are compressed on the fly
+ *   (Content-Encoding: gzip) and streamed in chunked mode, without buffering
+ *   the compressed bytes
+ * - Timing phases per request (connect, write, server wait, read) so slow
+ *   uploads can be attributed to the network or the server
+ *
+ * Not thread-safe; callers serialise uploads (see LocationUploader).
+ */
+public final class UplinkClient {
+    public static final int DEFAULT_TIMEOUT_MS = 15000;
+    public static final int DEFAULT_GZIP_MIN_BYTES = 1024;
+
+    private static final int MAX_RESPONSE_BYTES = 64 * 1024;
+
+    /** Writes the request body. Called once per request. */
+    public interface BodyWriter {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    /** Wall-clock phases of one request, in milliseconds. */
+    public static final class Timings {
+        public long connectMs;
+        public long writeMs;
+        public long waitMs;
+        public long readMs;
+        public long totalMs;
+        public long bodyBytes;
+        public long wireBytes;
+        public boolean gzipped;
+
+        @Override
+        public String toString() {
+            return "connect=" + connectMs + "ms write=" + writeMs + "ms wait=" + waitMs
+                + "ms read=" + readMs + "ms total=" + totalMs + "ms body=" + bodyBytes
+                + "B wire=" + wireBytes + "B" + (gzipped ? " gzip" : "");
+        }
+    }
+
+    public static final class Response {
+        public final int code;
+        public final String body;
+        public final Map<String, List<String>> headers;
+        public final Timings timings;
+
+        Response(int code, String body, Map<String, List<String>> headers, Timings timings) {
+            this.code = code;
+            this.body = body;
+            this.headers = headers;
+            this.timings = timings;
+        }
+
+        /** First value of the header (case-insensitive), or null. */
+        public String header(String name) {
+            for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+                if (entry.getKey() != null && entry.getKey().equalsIgnoreCase(name)
+                        && !entry.getValue().isEmpty()) {
+                    return entry.getValue().get(0);
+                }
+            }
+            return null;
+        }
+
+        public boolean isSuccessful() {
+            return code >= 200 && code < 300;
+        }
+    }
+
+    private final int timeoutMs;
+    private final int gzipMinBytes;
+    private final byte[] readBuffer = new byte[8192];
+
+    public UplinkClient() {
+        this(DEFAULT_TIMEOUT_MS, DEFAULT_GZIP_MIN_BYTES);
+    }
+
+    /**
+     * @param gzipMinBytes bodies of at least this many bytes are gzipped;
+     *                     {@code Integer.MAX_VALUE} disables compression
+     */
+    public UplinkClient(int timeoutMs, int gzipMinBytes) {
+        this.timeoutMs = timeoutMs;
+        this.gzipMinBytes = gzipMinBytes;
+    }
+
+    /** A client with the same settings, for requests that run concurrently with this one's. */
+    public UplinkClient sibling() {
+        return new UplinkClient(timeoutMs, gzipMinBytes);
+    }
+
+    /** Connect timeout, and the read timeout unless a request names its own. */
+    public int timeoutMs() {
+        return timeoutMs;
+    }
+
+    public Response post(URL url, String contentType, String authToken,
+                         int contentLength, BodyWriter body) throws IOException {
+        return post(url, contentType, authToken, null, contentLength, body);
+    }
+
+    public Response post(URL url, String contentType, String authToken, Map<String, String> headers,
+                         int contentLength, BodyWriter body) throws IOException {
+        return post(url, contentType, authToken, headers, contentLength, body, timeoutMs);
+    }
+
+    /**
+     * POSTs a body of {@code contentLength} bytes produced by {@code body},
+     * with optional extra request headers, waiting at most
+     * {@code readTimeoutMs} for the response. Non-2xx responses are returned,
+     * not thrown; IOException means the request did not complete.
+     */
+    public Response post(URL url, String contentType, String authToken, Map<String, String> headers,
+                         int contentLength, BodyWriter body, int readTimeoutMs) throws IOException {
+        Timings timings = new Timings();
+        timings.bodyBytes = contentLength;
+        timings.gzipped = contentLength >= gzipMinBytes;
+
+        long start = System.nanoTime();
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        boolean completed = false;
+        try {
+            conn.setRequestMethod("POST");
+            conn.setConnectTimeout(timeoutMs);
+            conn.setReadTimeout(readTimeoutMs);
+            conn.setDoOutput(true);
+            conn.setUseCaches(false);
+            conn.setRequestProperty("Connection", "keep-alive");
+            conn.setRequestProperty("Content-Type", contentType);
+            if (authToken != null) {
+                conn.setRequestProperty("Authorization", "Bearer " + authToken);
+            }
+            if (headers != null) {
+                for (Map.Entry<String, String> header : headers.entrySet()) {
+                    conn.setRequestProperty(header.getKey(), header.getValue());
+                }
+            }
+            if (timings.gzipped) {
+                conn.setRequestProperty("Content-Encoding", "gzip");
+                conn.setChunkedStreamingMode(0);
+            } else {
+                conn.setFixedLengthStreamingMode(contentLength);
+            }
+
+            conn.connect();
+            long connected = System.nanoTime();
+            timings.connectMs = millisBetween(start, connected);
+
+            CountingOutputStream wire = new CountingOutputStream(conn.getOutputStream());
+            if (timings.gzipped) {
+                try (GZIPOutputStream gzip = new GZIPOutputStream(wire, 8192)) {
+                    body.writeTo(gzip);
+                }
+            } else {
+                try (OutputStream out = wire) {
+                    body.writeTo(out);
+                }
+            }
+            timings.wireBytes = wire.count;
+            long written = System.nanoTime();
+            timings.writeMs = millisBetween(connected, written);
+
+            int code = conn.getResponseCode();
+            long firstByte = System.nanoTime();
+            timings.waitMs = millisBetween(written, firstByte);
+
+            String responseBody = drain(code >= 400 ? conn.getErrorStream() : conn.getInputStream());
+            long end = System.nanoTime();
+            timings.readMs = millisBetween(firstByte, end);
+            timings.totalMs = millisBetween(start, end);
+
+            Map<String, List<String>> responseHeaders = conn.getHeaderFields();
+            completed = true;
+            return new Response(code, responseBody, responseHeaders != null
+                ? responseHeaders : Collections.<String, List<String>>emptyMap(), timings);
+        } finally {
+            if (!completed) {
+                // The connection is in an unknown state - don't return it to the pool
+                conn.disconnect();
+            }
+        }
+    }
+
+    /** Reads the stream to the end and closes it so the connection can be reused. */
+    private String drain(InputStream in) throws IOException {
+        if (in == null) {
+            return "";
+        }
+        ByteArrayOutputStream kept = new ByteArrayOutputStream();
+        try (InputStream stream = in) {
+            int n;
+            while ((n = stream.read(readBuffer)) != -1) {
+                int keep = Math.min(n, MAX_RESPONSE_BYTES - kept.size());
+                if (keep > 0) {
+                    kept.write(readBuffer, 0, keep);
+                }
+            }
+        }
+        return new String(kept.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static long millisBetween(long fromNanos, long toNanos) {
+        return (toNanos - fromNanos) / 1_000_000L;
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package com.loctrack.app;
+
+import android.content.Context;
+import android.os.PowerManager;
+
+import java.util.function.LongConsumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Short, reference-counted, timeout-bounded wakelocks around units of work,
+ * instead of one partial wakelock held for the whole shift.
+ *
+ * - Each unit of work takes a {@link Hold} for a {@link Reason} and closes it
+ *   when done (try-with-resources); the CPU may sleep as soon as no hold is open
+ * - One underlying non-reference-counted PARTIAL_WAKE_LOCK is acquired on the
+ *   first hold and released with the last; its timeout is extended to the
+ *   latest hold deadline, so a leaked hold costs at most its reason's timeout
+ * - Per reason: holds taken, cumulative and longest hold time, and overruns
+ *   (holds closed after their timeout - the OS had already let go)
+ * - Total time the underlying lock was held, against time since creation,
+ *   for diagnostics; each closed hold's duration can also be observed
+ *
+ * Thread-safe: the pipeline thread and the sync worker both take holds.
+ */
+public final class WakeLockManager {
+
+    public enum Reason {
+        /** Processing a delivered location batch. */
+        DELIVERY("delivery", 10_000),
+        /**
+         * One upload request, or one backlog round - taken afresh for each.
+         * Outlasts the slowest request the uplink allows: connect timeout plus
+         * the sizer's longest read timeout, with room to write the body.
+         */
+        UPLOAD("upload", UplinkClient.DEFAULT_TIMEOUT_MS + BatchSizeController.DEFAULT_MAX_TIMEOUT_MS + 15_000),
+        /** From a decision to sync (often a wake-up alarm) until the sync worker holds UPLOAD. */
+        SYNC_HANDOFF("syncHandoff", 5_000),
+        /** Flushing the pipeline and on-disk queue. */
+        QUEUE_FLUSH("queueFlush", 5_000);
+
+        public final String key;
+        public final long timeoutMs;
+
+        Reason(String key, long timeoutMs) {
+            this.key = key;
+            this.timeoutMs = timeoutMs;
+        }
+    }
+
+    /** The underlying wakelock. */
+    public interface Lock {
+        void acquire(long timeoutMs);
+
+        void release();
+    }
+
+    /** An open hold; closing it more than once is harmless. */
+    public final class Hold implements AutoCloseable {
+        final Reason reason;
+        final long acquiredAt;
+        final long deadline;
+        boolean closed;
+
+        Hold(Reason reason, long acquiredAt) {
+            this.reason = reason;
+            this.acquiredAt = acquiredAt;
+            this.deadline = acquiredAt + reason.timeoutMs;
+        }
+
+        @Override
+        public void close() {
+            release(this);
+        }
+    }
+
+    private final Lock lock;
+    private final LongSupplier clock;
+    private final long createdAt;
+    private volatile LongConsumer holdObserver;
+
+    private int activeHolds;
+    private boolean lockHeld;
+    private long lockAcquiredAt;
+    private long lockDeadline;
+
+    private long lockAcquisitions;
+    private long lockHeldMs;
+    private final long[] holdCount = new long[Reason.values().length];
+    private final long[] heldMs = new long[Reason.values().length];
+    private final long[] maxHoldMs = new long[Reason.values().length];
+    private final long[] overruns = new long[Reason.values().length];
+
+    public WakeLockManager(Lock lock, LongSupplier clock) {
+        this.lock = lock;
+        this.clock = clock;
+        this.createdAt = clock.getAsLong();
+    }
+
+    /** Backed by a non-reference-counted PARTIAL_WAKE_LOCK; a no-op lock if PowerManager is unavailable. */
+    public static Lock systemLock(Context context, String tag) {
+        PowerManager powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        if (powerManager == null) {
+            return new Lock() {
+                @Override
+                public void acquire(long timeoutMs) {
+                }
+
+                @Override
+                public void release() {
+                }
+            };
+        }
+        PowerManager.WakeLock wakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, tag);
+        // Counting is done here; the system lock is only ever on or off
+        wakeLock.setReferenceCounted(false);
+        return new Lock() {
+            @Override
+            public void acquire(long timeoutMs) {
+                wakeLock.acquire(timeoutMs);
+            }
+
+            @Override
+            public void release() {
+                if (wakeLock.isHeld()) {
+                    wakeLock.release();
+                }
+            }
+        };
+    }
+
+    /** Receives the duration of every closed hold (capped at its timeout). */
+    public void setHoldObserver(LongConsumer observer) {
+        holdObserver = observer;
+    }
+
+    // ==================== HOLDS ====================
+
+    public synchronized Hold acquire(Reason reason) {
+        long now = clock.getAsLong();
+        Hold hold = new Hold(reason, now);
+
+        // The OS dropped the lock at its timeout even though holds were still open
+        if (lockHeld && now >= lockDeadline) {
+            lockHeldMs += lockDeadline - lockAcquiredAt;
+            lockHeld = false;
+        }
+        if (!lockHeld) {
+            lockHeld = true;
+            lockAcquiredAt = now;
+            lockDeadline = hold.deadline;
+            lockAcquisitions++;
+            lock.acquire(reason.timeoutMs);
+        } else if (hold.deadline > lockDeadline) {
+            // Re-acquiring a non-counted lock replaces its timeout
+            lockDeadline = hold.deadline;
+            lock.acquire(reason.timeoutMs);
+        }
+
+        activeHolds++;
+        holdCount[reason.ordinal()]++;
+        return hold;
+    }
+
+    synchronized void release(Hold hold) {
+        if (hold.closed) {
+            return;
+        }
+        hold.closed = true;
+        long now = clock.getAsLong();
+        int i = hold.reason.ordinal();
+        long held = Math.min(now, hold.deadline) - hold.acquiredAt;
+        heldMs[i] += held;
+        maxHoldMs[i] = Math.max(maxHoldMs[i], held);
+        if (now > hold.deadline) {
+            overruns[i]++;
+        }
+        LongConsumer observer = holdObserver;
+        if (observer != null) {
+            observer.accept(held);
+        }
+
+        if (--activeHolds == 0 && lockHeld) {
+            lockHeldMs += Math.min(now, lockDeadline) - lockAcquiredAt;
+            lockHeld = false;
+            lock.release();
+        }
+    }
+
+    // ==================== DIAGNOSTICS ====================
+
+    public synchronized int activeHolds() {
+        return activeHolds;
+    }
+
+    public synchronized boolean isHeld() {
+        return lockHeld && clock.getAsLong() < lockDeadline;
+    }
+
+    /** Times the underlying wakelock went from released to held. */
+    public synchronized long lockAcquisitions() {
+        return lockAcquisitions;
+    }
+
+    /** Wall time the underlying wakelock was held, overlapping holds counted once. */
+    public synchronized long lockHeldMs() {
+        long total = lockHeldMs;
+        if (lockHeld) {
+            total += Math.min(clock.getAsLong(), lockDeadline) - lockAcquiredAt;
+        }
+        return total;
+    }
+
+    /** Time since this manager was created - what a permanent wakelock would have held. */
+    public long sinceCreatedMs() {
+        return clock.getAsLong() - createdAt;
+    }
+
+    public synchronized long holdCount(Reason reason) {
+        return holdCount[reason.ordinal()];
+    }
+
+    /** Cumulative time holds for this reason were open (capped at each hold's timeout). */
+    public synchronized long heldMs(Reason reason) {
+        return heldMs[reason.ordinal()];
+    }
+
+    public synchronized long maxHoldMs(Reason reason) {
+        return maxHoldMs[reason.ordinal()];
+    }
+
+    public synchronized long overruns(Reason reason) {
+        return overruns[reason.ordinal()];
+    }
+
+    public synchronized String summary() {
+        StringBuilder sb = new StringBuilder()
+            .append("held=").append(lockHeldMs() / 1000).append('s')
+            .append(" of ").append(sinceCreatedMs() / 1000).append('s')
+            .append(" acquisitions=").append(lockAcquisitions);
+        for (Reason reason : Reason.values()) {
+            sb.append(' ').append(reason.key).append('=')
+                .append(holdCount(reason)).append('/').append(heldMs(reason)).append("ms");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,82 @@
+package com.loctrack.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class BatchSizeControllerTest {
+    private final BatchSizeController controller = new BatchSizeController();
+
+    /** One full, successful request of the current chunk taking {@code durationMs}. */
+    private void send(long durationMs) {
+        controller.onSuccess(controller.chunkSize(), durationMs, true);
+    }
+
+    @Test
+    public void slowStartThenAdditiveIncrease() {
+        assertEquals(BatchSizeController.INITIAL_CHUNK, controller.chunkSize());
+        send(200);
+        assertEquals(200, controller.chunkSize());
+        send(300);
+        send(500);
+        send(900);
+        assertEquals(1600, controller.chunkSize());
+        send(1500);
+        assertEquals(BatchSizeController.MAX_CHUNK, controller.chunkSize());
+
+        // After a failure growth is linear from half the chunk
+        controller.onFailure();
+        assertEquals(1000, controller.chunkSize());
+        send(1000);
+        assertEquals(1000 + BatchSizeController.ADDITIVE_STEP, controller.chunkSize());
+    }
+
+    @Test
+    public void failuresSplitDownToFloor() {
+        int[] expected = {50, 25, 12, BatchSizeController.MIN_CHUNK, BatchSizeController.MIN_CHUNK};
+        for (int chunk : expected) {
+            controller.onFailure();
+            assertEquals(chunk, controller.chunkSize());
+        }
+        assertEquals(5, controller.failures());
+        assertEquals(4, controller.decreases());
+    }
+
+    @Test
+    public void partialOrSlowRequestsDoNotGrow() {
+        // Fewer fixes than a chunk were pending - says nothing about the link
+        controller.onSuccess(30, 100, false);
+        assertEquals(BatchSizeController.INITIAL_CHUNK, controller.chunkSize());
+
+        // Succeeded, but slower than the target: treated as congestion
+        send(BatchSizeController.DEFAULT_TARGET_REQUEST_MS + 1);
+        assertEquals(50, controller.chunkSize());
+    }
+
+    @Test
+    public void goodputCapsGrowthOnSlowLinks() {
+        // ~14 fixes/s: the chunk that fits the target is ~114 fixes, growth stops at twice that
+        send(7_000);
+        assertEquals(200, controller.chunkSize());
+        send(7_000);
+        int chunk = controller.chunkSize();
+        assertTrue("chunk " + chunk, chunk > 200 && chunk < 400);
+    }
+
+    @Test
+    public void timeoutTracksMeasuredDuration() {
+        assertEquals(UplinkClient.DEFAULT_TIMEOUT_MS, controller.timeoutMs());
+        for (int i = 0; i < 20; i++) {
+            controller.onSuccess(controller.chunkSize(), 300, false);
+        }
+        assertEquals("fast link uses the floor", BatchSizeController.DEFAULT_MIN_TIMEOUT_MS, controller.timeoutMs());
+
+        BatchSizeController slow = new BatchSizeController();
+        for (int i = 0; i < 20; i++) {
+            slow.onSuccess(slow.chunkSize(), 6_000 + (i % 2) * 2_000, false);
+        }
+        int timeout = slow.timeoutMs();
+        assertTrue("timeout " + timeout, timeout > 8_000 && timeout <= BatchSizeController.DEFAULT_MAX_TIMEOUT_MS);
+        assertEquals(7_000, slow.rttMs(), 500);
+    }
+}
@@ -0,0 +1,104 @@
+package com.loctrack.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.List;
+
+public class DeadReckoningGateTest {
+    private static final long SILENCE_MS = DeadReckoningGate.DEFAULT_MAX_SILENCE_MS;
+    private static final long FIX_INTERVAL_MS = 2100;
+
+    /** Replays {@code trace} through a gate, checking every fix held back; returns the fraction sent. */
+    private static double replay(List<FixRecord> trace, float toleranceMeters) {
+        DeadReckoningGate gate = new DeadReckoningGate(toleranceMeters, SILENCE_MS);
+        double[] predicted = new double[2];
+        FixRecord reference = null;
+        for (FixRecord fix : trace) {
+            if (gate.offer(fix)) {
+                if (reference != null) {
+                    // The first fix once the silence period is up goes out
+                    assertTrue("silence period", fix.timestamp - reference.timestamp < SILENCE_MS + FIX_INTERVAL_MS);
+                }
+                reference = fix;
+                continue;
+            }
+            // What the server shows meanwhile is within tolerance of the real fix
+            DeadReckoningGate.predict(reference.latitude, reference.longitude, reference.speed,
+                reference.heading, reference.timestamp, fix.timestamp, SILENCE_MS, predicted);
+            assertTrue(TestTraces.distance(predicted[0], predicted[1], fix.latitude, fix.longitude)
+                <= toleranceMeters + 0.5);
+            assertTrue(fix.timestamp - reference.timestamp < SILENCE_MS);
+        }
+        assertEquals(trace.size(), gate.passedCount() + gate.suppressedCount());
+        return gate.passedCount() / (double) trace.size();
+    }
+
+    @Test
+    public void shiftSendsAFractionOfTheFixes() {
+        List<FixRecord> trace = TestTraces.shift(42);
+        double at10 = replay(trace, 10f);
+        double at25 = replay(trace, 25f);
+        double at50 = replay(trace, 50f);
+        assertTrue("sent at 25 m: " + at25, at25 < 0.1);
+        assertTrue("looser tolerance sends less: " + at10 + " " + at25 + " " + at50,
+            at10 > at25 && at25 > at50);
+    }
+
+    @Test
+    public void steadyDriveIsAlmostSilent() {
+        double sent = replay(TestTraces.drive(1800, 25, 9), 25f);
+        assertTrue("sent: " + sent, sent < 0.05);
+    }
+
+    @Test
+    public void sendsAfterTheSilencePeriodWhenStandingStill() {
+        DeadReckoningGate gate = new DeadReckoningGate(25f, 60_000);
+        FixRecord fix = new FixRecord();
+        fix.timestamp = 1_700_000_000_000L;
+        fix.latitude = TestTraces.ORIGIN_LAT;
+        fix.longitude = TestTraces.ORIGIN_LON;
+        fix.speed = 0f;
+        fix.heading = Float.NaN;
+        assertTrue(gate.offer(fix));
+        for (int i = 1; i < 30; i++) {
+            fix.timestamp += 2000;
+            assertFalse(gate.offer(fix));
+        }
+        fix.timestamp += 2000;
+        assertTrue("a minute without sending", gate.offer(fix));
+        assertEquals(2, gate.passedCount());
+        assertEquals(29, gate.suppressedCount());
+    }
+
+    @Test
+    public void disabledGatePassesEverything() {
+        DeadReckoningGate gate = new DeadReckoningGate(0f, SILENCE_MS);
+        assertFalse(gate.isEnabled());
+        List<FixRecord> trace = TestTraces.drive(200, 15, 3);
+        for (FixRecord fix : trace) {
+            assertTrue(gate.offer(fix));
+        }
+        assertEquals(0, gate.suppressedCount());
+    }
+
+    @Test
+    public void predictionIsQuantizedAndBounded() {
+        double[] out = new double[2];
+        long t = 1_700_000_000_000L;
+        DeadReckoningGate.predict(19.0760, 72.8777, 12.345f, 45.04f, t, t + 37_123, SILENCE_MS, out);
+        // 12.35 m/s for 37.123 s at 45.0 degrees - the same doubles server/deadReckoning.js produces
+        assertEquals(19.078912204224032, out[0], 1e-12);
+        assertEquals(72.88078141751203, out[1], 1e-12);
+        DeadReckoningGate.predict(19.0760, 72.8777, 27.77f, 181.25f, t, t + 37_123, SILENCE_MS, out);
+        assertEquals(19.0667416424319, out[0], 1e-12);
+        assertEquals(72.87747769055068, out[1], 1e-12);
+        double[] capped = new double[2];
+        DeadReckoningGate.predict(19.0760, 72.8777, 12.345f, 45.04f, t, t + 10 * SILENCE_MS, SILENCE_MS, capped);
+        DeadReckoningGate.predict(19.0760, 72.8777, 12.345f, 45.04f, t, t + SILENCE_MS, SILENCE_MS, out);
+        assertArrayEquals(out, capped, 0);
+        DeadReckoningGate.predict(19.0760, 72.8777, 12.345f, Float.NaN, t, t + 10_000, SILENCE_MS, out);
+        assertArrayEquals(new double[] {19.0760, 72.8777}, out, 0);
+    }
+}
@@ -0,0 +1,55 @@
+package com.loctrack.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class DeviceContextTest {
+
+    @Test
+    public void unknownUntilSampled() {
+        DeviceContext c = DeviceContext.UNKNOWN;
+        assertEquals(-1, c.batteryLevel);
+        assertFalse(c.isOnline());
+        assertFalse("unknown is not the same as offline", c.isOffline());
+        assertEquals(FixRecord.NETWORK_UNKNOWN, c.networkStatus());
+        assertFalse(c.isBatteryLow(20));
+    }
+
+    @Test
+    public void networkStatusFollowsNetworkType() {
+        DeviceContext c = DeviceContext.UNKNOWN.withNetwork(DeviceContext.NETWORK_CELLULAR, true);
+        assertTrue(c.isOnline());
+        assertTrue(c.metered);
+        assertEquals(FixRecord.NETWORK_ONLINE, c.networkStatus());
+
+        DeviceContext lost = c.withNetwork(DeviceContext.NETWORK_NONE, false);
+        assertTrue(lost.isOffline());
+        assertEquals(FixRecord.NETWORK_OFFLINE, lost.networkStatus());
+        assertEquals("offline", FixRecord.networkName(lost.networkStatus()));
+    }
+
+    @Test
+    public void withersCopyAndLeaveOriginalUntouched() {
+        DeviceContext a = DeviceContext.UNKNOWN.withBattery(15, false);
+        DeviceContext b = a.withPower(true, false);
+        DeviceContext c = b.withBattery(15, true);
+
+        assertTrue(a.isBatteryLow(20));
+        assertFalse(a.powerSaveMode);
+        assertTrue(b.powerSaveMode);
+        assertEquals(15, b.batteryLevel);
+        assertFalse("charging is never low", c.isBatteryLow(20));
+        assertTrue(c.powerSaveMode);
+    }
+
+    @Test
+    public void equalityDetectsChanges() {
+        DeviceContext a = DeviceContext.UNKNOWN.withBattery(50, false).withNetwork(DeviceContext.NETWORK_WIFI, false);
+        DeviceContext same = DeviceContext.UNKNOWN.withNetwork(DeviceContext.NETWORK_WIFI, false).withBattery(50, false);
+        assertEquals(a, same);
+        assertEquals(a.hashCode(), same.hashCode());
+        assertNotEquals(a, a.withPower(false, true));
+        assertNotEquals(a, a.withNetwork(DeviceContext.NETWORK_WIFI, true));
+    }
+}
@@ -0,0 +1,68 @@
+package com.loctrack.app;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Size and throughput of the binary batch codec versus the JSON upload path
+ * (JSONObject per fix, JSONArray, toString().getBytes()). Plain main, run from the IDE.
+ */
+public class FixBatchCodecBenchmark {
+    private static final int BATCH = 100;
+    private static final int ROUNDS = 300;
+
+    public static void main(String[] args) throws Exception {
+        List<FixRecord> trace = TestTraces.shift(7);
+
+        long jsonBytes = 0, binaryBytes = 0;
+        long jsonNanos = 0, binaryNanos = 0;
+        FixBatchCodec codec = new FixBatchCodec();
+
+        for (int round = 0; round < ROUNDS; round++) {
+            boolean measure = round >= ROUNDS / 3;
+            for (int from = 0; from + BATCH <= trace.size(); from += BATCH) {
+                long start = System.nanoTime();
+                JSONArray array = new JSONArray();
+                for (int i = from; i < from + BATCH; i++) array.put(toJson(trace.get(i)));
+                JSONObject body = new JSONObject();
+                body.put("locations", array);
+                byte[] json = body.toString().getBytes(StandardCharsets.UTF_8);
+                long mid = System.nanoTime();
+                codec.reset();
+                for (int i = from; i < from + BATCH; i++) codec.add(trace.get(i));
+                int binary = codec.encodedSize();
+                long end = System.nanoTime();
+
+                if (measure) {
+                    jsonNanos += mid - start;
+                    binaryNanos += end - mid;
+                    jsonBytes += json.length;
+                    binaryBytes += binary;
+                }
+            }
+        }
+
+        long batches = (long) (ROUNDS - ROUNDS / 3) * (trace.size() / BATCH);
+        long fixes = batches * BATCH;
+        System.out.printf("JSON   : %6.1f bytes/fix, %8.0f fixes/ms%n", jsonBytes / (double) fixes, fixes / (jsonNanos / 1e6));
+        System.out.printf("Binary : %6.1f bytes/fix, %8.0f fixes/ms%n", binaryBytes / (double) fixes, fixes / (binaryNanos / 1e6));
+        System.out.printf("Size ratio %.1fx%n", jsonBytes / (double) binaryBytes);
+    }
+
+    private static JSONObject toJson(FixRecord r) {
+        JSONObject o = new JSONObject();
+        o.put("latitude", r.latitude);
+        o.put("longitude", r.longitude);
+        o.put("accuracy", r.accuracy);
+        o.put("speed", r.hasSpeed() ? r.speed : JSONObject.NULL);
+        o.put("heading", r.hasHeading() ? r.heading : JSONObject.NULL);
+        o.put("timestamp", r.timestamp);
+        o.put("batteryLevel", r.batteryLevel);
+        o.put("networkStatus", "online");
+        o.put("activity", "🚗 Driving");
+        return o;
+    }
+}
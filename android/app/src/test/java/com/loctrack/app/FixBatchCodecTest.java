@@ -0,0 +1,103 @@
+package com.loctrack.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class FixBatchCodecTest {
+
+    private static List<FixRecord> decodeAll(byte[] bytes) throws IOException {
+        List<FixRecord> out = new ArrayList<>();
+        FixBatchCodec.decode(bytes, 0, bytes.length, r -> {
+            FixRecord copy = new FixRecord();
+            copy.copyFrom(r);
+            out.add(copy);
+        });
+        return out;
+    }
+
+    private static double angleDiff(float a, float b) {
+        double d = Math.abs(a - b) % 360;
+        return Math.min(d, 360 - d);
+    }
+
+    @Test
+    public void roundTripsShiftTrace() throws IOException {
+        List<FixRecord> trace = TestTraces.shift(42);
+        FixBatchCodec codec = new FixBatchCodec(64);
+        for (FixRecord f : trace) codec.add(f);
+
+        byte[] bytes = codec.toByteArray();
+        assertEquals(codec.encodedSize(), bytes.length);
+        List<FixRecord> decoded = decodeAll(bytes);
+        assertEquals(trace.size(), decoded.size());
+
+        for (int i = 0; i < trace.size(); i++) {
+            FixRecord in = trace.get(i);
+            FixRecord out = decoded.get(i);
+            assertEquals(in.seq, out.seq);
+            assertEquals(in.timestamp, out.timestamp);
+            assertEquals(in.latitude, out.latitude, 1e-7);
+            assertEquals(in.longitude, out.longitude, 1e-7);
+            assertEquals(in.accuracy, out.accuracy, 0.051);
+            assertEquals(in.speed, out.speed, 0.005);
+            assertEquals(in.hasHeading(), out.hasHeading());
+            if (in.hasHeading()) assertEquals(0, angleDiff(in.heading, out.heading), 0.051);
+            assertEquals(in.batteryLevel, out.batteryLevel);
+            assertEquals(in.activity, out.activity);
+            assertEquals(in.networkStatus, out.networkStatus);
+        }
+    }
+
+    @Test
+    public void handlesMissingOptionalFieldsAndNegativeDeltas() throws IOException {
+        FixRecord a = new FixRecord();
+        a.seq = 1000;
+        a.timestamp = 1_700_000_000_000L;
+        a.latitude = -33.8688;
+        a.longitude = 151.2093;
+        a.batteryLevel = -1;
+        FixRecord b = new FixRecord();
+        b.copyFrom(a);
+        b.seq = 1001;
+        b.timestamp -= 500;    // clock step backwards
+        b.latitude += 0.5;
+        b.longitude = -179.9;  // across the antimeridian
+        b.heading = 359.96f;
+
+        FixBatchCodec codec = new FixBatchCodec();
+        codec.add(a);
+        codec.add(b);
+        List<FixRecord> decoded = decodeAll(codec.toByteArray());
+
+        assertFalse(decoded.get(0).hasSpeed());
+        assertFalse(decoded.get(0).hasHeading());
+        assertEquals(-1, decoded.get(0).batteryLevel);
+        assertEquals(b.timestamp, decoded.get(1).timestamp);
+        assertEquals(-179.9, decoded.get(1).longitude, 1e-7);
+        assertEquals(0.0, decoded.get(1).heading, 0.05);
+    }
+
+    @Test
+    public void resetReusesBuffer() throws IOException {
+        FixBatchCodec codec = new FixBatchCodec();
+        for (FixRecord f : TestTraces.drive(50, 10, 1)) codec.add(f);
+        codec.reset();
+        assertEquals(0, codec.count());
+        FixRecord only = TestTraces.drive(1, 10, 2).get(0);
+        codec.add(only);
+        assertEquals(only.latitude, decodeAll(codec.toByteArray()).get(0).latitude, 1e-7);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsTruncatedBatch() throws IOException {
+        FixBatchCodec codec = new FixBatchCodec();
+        for (FixRecord f : TestTraces.drive(10, 10, 3)) codec.add(f);
+        byte[] bytes = codec.toByteArray();
+        FixBatchCodec.decode(bytes, 0, bytes.length - 3, r -> { });
+    }
+}
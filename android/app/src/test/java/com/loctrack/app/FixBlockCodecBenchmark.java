@@ -0,0 +1,72 @@
+package com.loctrack.app;
+
+import java.util.List;
+
+/**
+ * Storage density of the history block codec: bytes per fix and fixes per
+ * 4 KB history block on the synthetic shift and a steady highway drive,
+ * against the old fixed 40-byte history records and the upload batch codec,
+ * plus encode / decode throughput. Plain main, run from the IDE.
+ */
+public class FixBlockCodecBenchmark {
+    private static final int CAPACITY = LocationHistoryStore.BLOCK_SIZE - LocationHistoryStore.BLOCK_HEADER_SIZE;
+    private static final int RAW_RECORD_BYTES = 40;
+    private static final int ROUNDS = 200;
+
+    public static void main(String[] args) {
+        report("shift", TestTraces.shift(7));
+        report("highway", TestTraces.drive(10_000, 30, 7));
+    }
+
+    private static void report(String label, List<FixRecord> trace) {
+        FixBlockCodec codec = new FixBlockCodec(CAPACITY);
+        FixBlockCodec.Reader reader = new FixBlockCodec.Reader();
+        FixBatchCodec batch = new FixBatchCodec();
+        byte[] block = new byte[CAPACITY];
+        FixRecord scratch = new FixRecord();
+
+        long blockBytes = 0, batchBytes = 0, blocks = 0;
+        long encodeNanos = 0, decodeNanos = 0, fixes = 0;
+        double sink = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            boolean measure = round >= ROUNDS / 3;
+            codec.reset();
+            batch.reset();
+            for (int i = 0; i <= trace.size(); i++) {
+                long start = System.nanoTime();
+                boolean full = i == trace.size() || !codec.append(trace.get(i));
+                long mid = System.nanoTime();
+                if (full) {
+                    int length = codec.writeTo(block, 0);
+                    long written = System.nanoTime();
+                    reader.reset(block, 0, length);
+                    while (reader.next(scratch)) sink += scratch.latitude;
+                    long read = System.nanoTime();
+                    if (measure) {
+                        encodeNanos += written - mid;
+                        decodeNanos += read - written;
+                        blockBytes += length;
+                        blocks++;
+                    }
+                    codec.reset();
+                    if (i < trace.size()) codec.append(trace.get(i));
+                }
+                if (measure) encodeNanos += mid - start;
+                if (i < trace.size()) batch.add(trace.get(i));
+            }
+            if (measure) {
+                batchBytes += batch.encodedSize();
+                fixes += trace.size();
+            }
+        }
+
+        System.out.printf("%s (%d fixes, sink %.0f)%n", label, trace.size(), sink % 10);
+        System.out.printf("  raw records : %6.1f bytes/fix, %4d fixes/block%n",
+            (double) RAW_RECORD_BYTES, CAPACITY / RAW_RECORD_BYTES);
+        System.out.printf("  batch codec : %6.1f bytes/fix%n", batchBytes / (double) fixes);
+        System.out.printf("  block codec : %6.1f bytes/fix, %4d fixes/block, %.1fx smaller than raw%n",
+            blockBytes / (double) fixes, fixes / blocks, RAW_RECORD_BYTES * fixes / (double) blockBytes);
+        System.out.printf("  encode %8.0f fixes/ms, decode %8.0f fixes/ms%n",
+            fixes / (encodeNanos / 1e6), fixes / (decodeNanos / 1e6));
+    }
+}
@@ -0,0 +1,155 @@
+package com.loctrack.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class FixBlockCodecTest {
+    private static final int CAPACITY = LocationHistoryStore.BLOCK_SIZE - LocationHistoryStore.BLOCK_HEADER_SIZE;
+
+    private static List<FixRecord> decodeAll(byte[] block, int length) {
+        FixBlockCodec.Reader reader = new FixBlockCodec.Reader();
+        int count = reader.reset(block, 0, length);
+        List<FixRecord> out = new ArrayList<>();
+        FixRecord r = new FixRecord();
+        while (reader.next(r)) {
+            FixRecord copy = new FixRecord();
+            copy.copyFrom(r);
+            out.add(copy);
+        }
+        assertEquals(count, out.size());
+        return out;
+    }
+
+    private static double angleDiff(float a, float b) {
+        double d = Math.abs(a - b) % 360;
+        return Math.min(d, 360 - d);
+    }
+
+    private static void assertFix(FixRecord in, FixRecord out) {
+        assertEquals(in.timestamp, out.timestamp);
+        assertEquals(in.latitude, out.latitude, 1e-7);
+        assertEquals(in.longitude, out.longitude, 1e-7);
+        assertEquals(in.accuracy, out.accuracy, 0.051);
+        assertEquals(in.hasSpeed(), out.hasSpeed());
+        if (in.hasSpeed()) assertEquals(in.speed, out.speed, 0.005);
+        assertEquals(in.hasHeading(), out.hasHeading());
+        if (in.hasHeading()) assertEquals(0, angleDiff(in.heading, out.heading), 0.051);
+        assertEquals(in.confidence, out.confidence, 0.005);
+        assertEquals(in.batteryLevel, out.batteryLevel);
+        assertEquals(in.activity, out.activity);
+        assertEquals(in.networkStatus, out.networkStatus);
+    }
+
+    @Test
+    public void roundTripsShiftTraceAcrossBlocks() {
+        List<FixRecord> trace = TestTraces.shift(42);
+        FixBlockCodec codec = new FixBlockCodec(CAPACITY);
+        byte[] block = new byte[CAPACITY];
+        List<FixRecord> decoded = new ArrayList<>();
+        int blocks = 0;
+        for (int i = 0; i <= trace.size(); i++) {
+            if (i == trace.size() || !codec.append(trace.get(i))) {
+                int length = codec.writeTo(block, 0);
+                assertEquals(codec.encodedSize(), length);
+                assertTrue(length <= CAPACITY);
+                decoded.addAll(decodeAll(block, length));
+                blocks++;
+                codec.reset();
+                if (i < trace.size()) assertTrue(codec.append(trace.get(i)));
+            }
+        }
+        assertEquals(trace.size(), decoded.size());
+        for (int i = 0; i < trace.size(); i++) {
+            assertFix(trace.get(i), decoded.get(i));
+        }
+        assertTrue("several blocks", blocks > 1);
+    }
+
+    @Test
+    public void handlesMissingFieldsAndLargeJumps() {
+        FixRecord a = new FixRecord();
+        a.timestamp = 1_700_000_000_000L;
+        a.latitude = -33.8688;
+        a.longitude = 151.2093;
+        a.accuracy = 12.3f;
+        a.speed = 0f;
+        a.heading = -0.04f;
+        a.confidence = 1f;
+        a.batteryLevel = -1;
+        a.activity = 0;
+        FixRecord b = new FixRecord();
+        b.timestamp = a.timestamp + 40L * 24 * 3600_000;
+        b.latitude = 64.1466;
+        b.longitude = -21.9426;
+        b.accuracy = 1500f;
+        b.speed = Float.NaN;
+        b.heading = Float.NaN;
+        b.confidence = 0f;
+        b.batteryLevel = 100;
+        b.activity = 4;
+        b.networkStatus = FixRecord.NETWORK_OFFLINE;
+        FixRecord c = new FixRecord();
+        c.copyFrom(a);
+        c.timestamp = b.timestamp + 1;
+
+        FixBlockCodec codec = new FixBlockCodec(CAPACITY);
+        assertTrue(codec.append(a));
+        assertTrue(codec.append(b));
+        assertTrue(codec.append(c));
+        byte[] block = new byte[CAPACITY];
+        List<FixRecord> decoded = decodeAll(block, codec.writeTo(block, 0));
+        assertEquals(3, decoded.size());
+        assertFix(a, decoded.get(0));
+        assertFix(b, decoded.get(1));
+        assertFix(c, decoded.get(2));
+    }
+
+    @Test
+    public void writingMidBlockLeavesTheEncoderUsable() {
+        List<FixRecord> trace = TestTraces.drive(300, 15, 3);
+        FixBlockCodec codec = new FixBlockCodec(CAPACITY);
+        byte[] block = new byte[CAPACITY];
+        for (int i = 0; i < 100; i++) codec.append(trace.get(i));
+        assertEquals(100, decodeAll(block, codec.writeTo(block, 0)).size());
+
+        for (int i = 100; i < 200; i++) codec.append(trace.get(i));
+        List<FixRecord> decoded = decodeAll(block, codec.writeTo(block, 0));
+        assertEquals(200, decoded.size());
+        for (int i = 0; i < 200; i++) {
+            assertFix(trace.get(i), decoded.get(i));
+        }
+    }
+
+    @Test
+    public void refusesFixesThatMightNotFit() {
+        FixBlockCodec codec = new FixBlockCodec(FixBlockCodec.HEADER_BYTES + FixBlockCodec.MAX_RECORD_BYTES);
+        FixRecord fix = new FixRecord();
+        fix.timestamp = 1_700_000_000_000L;
+        assertTrue(codec.append(fix));
+        fix.timestamp += 2000;
+        assertFalse(codec.append(fix));
+        assertEquals(1, codec.count());
+    }
+
+    @Test
+    public void steadyDriveCostsAFewBytesPerFix() {
+        List<FixRecord> trace = TestTraces.drive(400, 20, 11);
+        FixBlockCodec codec = new FixBlockCodec(CAPACITY);
+        for (FixRecord f : trace) assertTrue(codec.append(f));
+        double perFix = codec.encodedSize() / (double) trace.size();
+        assertTrue("bytes per fix: " + perFix, perFix < 10);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void truncatedBlockIsRejected() {
+        FixBlockCodec codec = new FixBlockCodec(CAPACITY);
+        for (FixRecord f : TestTraces.drive(50, 10, 5)) codec.append(f);
+        byte[] block = new byte[CAPACITY];
+        int length = codec.writeTo(block, 0);
+        new FixBlockCodec.Reader().reset(block, 0, length - 1);
+    }
+}
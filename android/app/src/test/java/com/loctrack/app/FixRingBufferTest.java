@@ -0,0 +1,67 @@
+package com.loctrack.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class FixRingBufferTest {
+
+    private static FixRecord fix(long seq) {
+        FixRecord r = new FixRecord();
+        r.seq = seq;
+        r.timestamp = seq * 1000;
+        r.latitude = seq;
+        return r;
+    }
+
+    private static List<Long> read(FixRingBuffer ring, int max) {
+        List<Long> seqs = new ArrayList<>();
+        ring.read(max, r -> seqs.add(r.seq));
+        return seqs;
+    }
+
+    @Test
+    public void failedUploadRewindsReadCursor() {
+        FixRingBuffer ring = new FixRingBuffer(8, FixRingBuffer.OverflowPolicy.DROP_OLDEST);
+        for (long s = 1; s <= 5; s++) ring.offer(fix(s));
+
+        assertEquals(3, read(ring, 3).size());
+        ring.rewind();
+        assertEquals(Long.valueOf(1), read(ring, 3).get(0));
+
+        ring.discardThrough(3);
+        assertEquals(4, ring.oldestSeq());
+        assertEquals(2, ring.size());
+        assertEquals(Long.valueOf(4), read(ring, 10).get(0));
+    }
+
+    @Test
+    public void dropOldestOverwritesAndKeepsCursorValid() {
+        FixRingBuffer ring = new FixRingBuffer(4, FixRingBuffer.OverflowPolicy.DROP_OLDEST);
+        for (long s = 1; s <= 6; s++) assertTrue(ring.offer(fix(s)));
+
+        assertEquals(2, ring.droppedCount());
+        assertEquals(3, ring.oldestSeq());
+        List<Long> seqs = read(ring, 10);
+        assertEquals(4, seqs.size());
+        assertEquals(Long.valueOf(6), seqs.get(3));
+    }
+
+    @Test
+    public void dropNewestRejectsWhenFull() {
+        FixRingBuffer ring = new FixRingBuffer(2, FixRingBuffer.OverflowPolicy.DROP_NEWEST);
+        assertTrue(ring.offer(fix(1)));
+        assertTrue(ring.offer(fix(2)));
+        assertFalse(ring.offer(fix(3)));
+        assertEquals(1, ring.oldestSeq());
+        assertEquals(1, ring.droppedCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void capacityMustBePowerOfTwo() {
+        new FixRingBuffer(100, FixRingBuffer.OverflowPolicy.DROP_OLDEST);
+    }
+}
@@ -0,0 +1,144 @@
+package com.loctrack.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class IntervalControllerTest {
+    private static final long WALKING_MS = 4_000;
+    private static final long DRIVING_MS = 2_000;
+    private static final long STILL_MS = 30_000;
+
+    private long now = 1_000_000;
+    private IntervalController controller;
+
+    @Before
+    public void setUp() {
+        controller = new IntervalController(() -> now, WALKING_MS);
+        controller.onRegistered();
+    }
+
+    /** Feeds one fix per current interval at {@code speed} for {@code ms}, re-registering on change. */
+    private void drive(float speed, long ms) {
+        long end = now + ms;
+        while (now < end) {
+            now += controller.currentIntervalMs();
+            controller.onSpeed(speed);
+            if (controller.evaluate()) {
+                controller.onRegistered();
+            }
+        }
+    }
+
+    @Test
+    public void intervalFollowsDistanceTarget() {
+        controller.setActivityPrior(DRIVING_MS);
+        // 10 km/h in traffic: 15 m at 2.8 m/s is ~5 s, not 2 s
+        drive(2.8f, 120_000);
+        assertEquals(4_000, controller.currentIntervalMs());
+
+        // Highway speed goes to the fastest rung
+        drive(30f, 120_000);
+        assertEquals(2_000, controller.currentIntervalMs());
+    }
+
+    @Test
+    public void priorRulesUntilSpeedSamplesArrive() {
+        controller.setActivityPrior(STILL_MS);
+        now += IntervalController.DEFAULT_SLOWDOWN_DEBOUNCE_MS;
+        assertFalse(controller.evaluate());
+        now += IntervalController.DEFAULT_SLOWDOWN_DEBOUNCE_MS;
+        assertTrue(controller.evaluate());
+        assertEquals(STILL_MS, controller.currentIntervalMs());
+    }
+
+    @Test
+    public void hysteresisIgnoresSmallChanges() {
+        // 15 m / 4 s = 3.75 m/s sits on the current rung; +/-20% stays inside the band
+        for (int i = 0; i < 100; i++) {
+            now += 4_000;
+            controller.onSpeed(i % 2 == 0 ? 3.0f : 4.5f);
+            assertFalse(controller.evaluate());
+        }
+        assertEquals(0, controller.intervalChanges());
+    }
+
+    @Test
+    public void flappingActivityDoesNotCauseRestartStorm() {
+        // Activity flips STILL <-> WALKING every 3 s for 10 minutes with no speed data
+        for (int i = 0; i < 200; i++) {
+            now += 3_000;
+            controller.setActivityPrior(i % 2 == 0 ? STILL_MS : WALKING_MS);
+            if (controller.evaluate()) {
+                controller.onRegistered();
+            }
+        }
+        assertEquals(0, controller.intervalChanges());
+        assertTrue(controller.flapsSuppressed() > 50);
+    }
+
+    @Test
+    public void minimumDwellSpacesReRegistrations() {
+        controller.setActivityPrior(DRIVING_MS);
+        long lastChange = now;
+        long minGap = Long.MAX_VALUE;
+        // Speed alternates between crawling and fast every 10 s for 10 minutes
+        for (int i = 0; i < 600; i++) {
+            now += 1_000;
+            controller.onSpeed((i / 10) % 2 == 0 ? 1f : 30f);
+            if (controller.evaluate()) {
+                minGap = Math.min(minGap, now - lastChange);
+                lastChange = now;
+                controller.onRegistered();
+            }
+        }
+        assertTrue(controller.intervalChanges() > 0);
+        assertTrue("gap " + minGap, minGap >= IntervalController.DEFAULT_MIN_DWELL_MS);
+        assertTrue(controller.dwellDeferrals() > 0);
+    }
+
+    @Test
+    public void nextEvaluationDelayCoversDebounceAndDwell() {
+        assertEquals(-1, controller.nextEvaluationDelayMs());
+        controller.setActivityPrior(STILL_MS);
+        assertFalse(controller.evaluate());
+        // Slowdown debounce is 20 s, dwell 30 s from registration - dwell dominates
+        assertEquals(IntervalController.DEFAULT_MIN_DWELL_MS, controller.nextEvaluationDelayMs());
+
+        now += controller.nextEvaluationDelayMs();
+        assertTrue(controller.evaluate());
+        assertEquals(-1, controller.nextEvaluationDelayMs());
+    }
+
+    @Test
+    public void lowPowerStretchesInterval() {
+        controller.setActivityPrior(DRIVING_MS);
+        controller.setLowPower(true);
+        assertEquals(IntervalController.LOW_POWER_FLOOR_MS, controller.desiredIntervalMs());
+    }
+
+    @Test
+    public void newActivityResetsSpeedEvidence() {
+        controller.setActivityPrior(STILL_MS);
+        drive(0f, 10 * 60_000);
+        assertEquals(120_000, controller.currentIntervalMs());
+
+        // Started driving: the prior takes over at once instead of waiting minutes for speed fixes
+        controller.setActivityPrior(DRIVING_MS);
+        assertEquals(DRIVING_MS, controller.desiredIntervalMs());
+        now += IntervalController.DEFAULT_SPEEDUP_DEBOUNCE_MS;
+        controller.evaluate();
+        now += IntervalController.DEFAULT_SPEEDUP_DEBOUNCE_MS;
+        assertTrue(controller.evaluate());
+        assertEquals(DRIVING_MS, controller.currentIntervalMs());
+    }
+
+    @Test
+    public void nearestRungIsLogScale() {
+        assertEquals(2_000, IntervalController.nearestRung(500));
+        assertEquals(4_000, IntervalController.nearestRung(5_000));
+        assertEquals(8_000, IntervalController.nearestRung(10_000));
+        assertEquals(120_000, IntervalController.nearestRung(1_000_000));
+    }
+}
@@ -0,0 +1,61 @@
+package com.loctrack.app;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+/**
+ * Replays synthetic shift traces through KalmanFilterStage and reports
+ * per-step cost, bytes allocated per step and RMS error (raw vs smoothed).
+ * Plain main, run from the IDE.
+ */
+public class KalmanFilterBenchmark {
+    private static final int ROUNDS = 200;
+
+    public static void main(String[] args) {
+        TestTraces.Trace trace = TestTraces.shiftTrace(3);
+        List<FixRecord> fixes = trace.fixes;
+        KalmanFilterStage filter = new KalmanFilterStage();
+        FixRecord fix = new FixRecord();
+
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long steps = 0;
+        long nanos = 0;
+        long allocated = 0;
+        double rawSq = 0, smoothSq = 0;
+
+        for (int round = 0; round < ROUNDS; round++) {
+            boolean measure = round >= ROUNDS / 4;
+            filter.reset();
+            long allocBefore = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            long start = System.nanoTime();
+            for (FixRecord f : fixes) {
+                fix.copyFrom(f);
+                filter.process(fix);
+            }
+            long elapsed = System.nanoTime() - start;
+            long alloc = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - allocBefore;
+            if (measure) {
+                nanos += elapsed;
+                allocated += alloc;
+                steps += fixes.size();
+            }
+        }
+
+        filter.reset();
+        for (int i = 0; i < fixes.size(); i++) {
+            double[] truth = trace.truth.get(i);
+            fix.copyFrom(fixes.get(i));
+            double raw = TestTraces.distance(truth[0], truth[1], fix.latitude, fix.longitude);
+            filter.process(fix);
+            double smooth = TestTraces.distance(truth[0], truth[1], fix.latitude, fix.longitude);
+            rawSq += raw * raw;
+            smoothSq += smooth * smooth;
+        }
+
+        System.out.printf("Kalman step: %.1f ns, %.3f bytes allocated/step over %d steps%n",
+            nanos / (double) steps, allocated / (double) steps, steps);
+        System.out.printf("RMS error: raw %.2f m, smoothed %.2f m%n",
+            Math.sqrt(rawSq / fixes.size()), Math.sqrt(smoothSq / fixes.size()));
+    }
+}
@@ -0,0 +1,88 @@
+package com.loctrack.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.List;
+
+public class KalmanFilterStageTest {
+
+    private static double rmsError(TestTraces.Trace trace, boolean smooth) {
+        KalmanFilterStage filter = new KalmanFilterStage();
+        FixRecord fix = new FixRecord();
+        double sum = 0;
+        for (int i = 0; i < trace.fixes.size(); i++) {
+            fix.copyFrom(trace.fixes.get(i));
+            if (smooth) assertTrue(filter.process(fix));
+            double[] truth = trace.truth.get(i);
+            double e = TestTraces.distance(truth[0], truth[1], fix.latitude, fix.longitude);
+            sum += e * e;
+        }
+        return Math.sqrt(sum / trace.fixes.size());
+    }
+
+    @Test
+    public void smoothingReducesErrorOnShiftTrace() {
+        TestTraces.Trace trace = TestTraces.shiftTrace(11);
+        double raw = rmsError(trace, false);
+        double smoothed = rmsError(trace, true);
+        assertTrue("raw " + raw + " vs smoothed " + smoothed, smoothed < raw * 0.8);
+    }
+
+    @Test
+    public void confidenceFollowsReportedAccuracy() {
+        KalmanFilterStage filter = new KalmanFilterStage();
+        FixRecord fix = new FixRecord();
+        fix.latitude = TestTraces.ORIGIN_LAT;
+        fix.longitude = TestTraces.ORIGIN_LON;
+        fix.timestamp = 1_000_000;
+        fix.accuracy = 5;
+        filter.process(fix);
+        float precise = fix.confidence;
+
+        filter.reset();
+        fix.accuracy = 80;
+        fix.timestamp += 2000;
+        filter.process(fix);
+        assertTrue(precise > 0.7f);
+        assertTrue(fix.confidence < 0.1f);
+    }
+
+    @Test
+    public void outlierIsPulledTowardsTrack() {
+        List<FixRecord> drive = TestTraces.drive(60, 10, 5);
+        KalmanFilterStage filter = new KalmanFilterStage();
+        FixRecord fix = new FixRecord();
+        for (FixRecord f : drive) {
+            fix.copyFrom(f);
+            filter.process(fix);
+        }
+        double lat = fix.latitude;
+        double lon = fix.longitude;
+
+        // 200 m jump that claims 10 m accuracy
+        fix.copyFrom(drive.get(drive.size() - 1));
+        fix.timestamp += 2000;
+        fix.latitude += 200 / 111_320.0;
+        fix.accuracy = 10;
+        filter.process(fix);
+        assertTrue(TestTraces.distance(lat, lon, fix.latitude, fix.longitude) < 100);
+    }
+
+    @Test
+    public void longGapRestartsFilter() {
+        KalmanFilterStage filter = new KalmanFilterStage();
+        FixRecord fix = new FixRecord();
+        fix.latitude = 10;
+        fix.longitude = 10;
+        fix.accuracy = 5;
+        fix.timestamp = 0;
+        filter.process(fix);
+
+        fix.latitude = 10.5;
+        fix.timestamp = 10 * 60_000;
+        filter.process(fix);
+        assertEquals(10.5, fix.latitude, 1e-9);
+    }
+}
@@ -0,0 +1,140 @@
+package com.loctrack.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class LocationEventBridgeTest {
+    private long now = 10_000;
+    private final List<Long> delays = new ArrayList<>();
+    private final List<Runnable> tasks = new ArrayList<>();
+    private final List<LocationEventBridge.Batch> delivered = new ArrayList<>();
+    private boolean listening = true;
+    private boolean foreground = true;
+    private LocationEventBridge bridge;
+
+    @Before
+    public void setUp() {
+        LocationEventBridge.Sink sink = new LocationEventBridge.Sink() {
+            @Override
+            public boolean isListening() {
+                return listening;
+            }
+
+            @Override
+            public boolean isForeground() {
+                return foreground;
+            }
+
+            @Override
+            public void deliver(LocationEventBridge.Batch batch) {
+                delivered.add(batch);
+            }
+        };
+        bridge = new LocationEventBridge(() -> sink, (task, delayMs) -> {
+            tasks.add(task);
+            delays.add(delayMs);
+        }, () -> now, 4);
+    }
+
+    private void offer(long seq) {
+        FixRecord fix = new FixRecord();
+        fix.seq = seq;
+        bridge.offerPosition(fix);
+    }
+
+    /** Advances the clock by the pending delay and runs the scheduled flush. */
+    private void runTimer() {
+        assertEquals("one flush scheduled", 1, tasks.size());
+        now += delays.remove(0);
+        tasks.remove(0).run();
+    }
+
+    private static List<Long> seqs(LocationEventBridge.Batch batch) {
+        List<Long> seqs = new ArrayList<>();
+        for (FixRecord fix : batch.positions) seqs.add(fix.seq);
+        return seqs;
+    }
+
+    @Test
+    public void batchesPositionsAndThrottlesDeliveries() {
+        offer(1);
+        assertEquals(Long.valueOf(0), delays.get(0));
+        offer(2);
+        bridge.offerActivity("walking");
+        runTimer();
+
+        assertEquals(1, delivered.size());
+        assertEquals(List.of(1L, 2L), seqs(delivered.get(0)));
+        assertEquals("walking", delivered.get(0).activity);
+        assertNull(delivered.get(0).sync);
+
+        offer(3);
+        offer(4);
+        assertEquals("at most 4 per second", Long.valueOf(250), delays.get(0));
+        runTimer();
+        assertEquals(List.of(3L, 4L), seqs(delivered.get(1)));
+        assertNull("activity unchanged", delivered.get(1).activity);
+        assertEquals(2, bridge.deliveries());
+    }
+
+    @Test
+    public void backgroundKeepsOnlyNewestPosition() {
+        foreground = false;
+        for (long seq = 1; seq <= 5; seq++) {
+            offer(seq);
+        }
+        bridge.offerSync(new LocationEventBridge.SyncStatus(true, 0, 123));
+        runTimer();
+
+        LocationEventBridge.Batch batch = delivered.get(0);
+        assertEquals(List.of(5L), seqs(batch));
+        assertEquals(4, batch.droppedPositions);
+        assertTrue(batch.sync.success);
+
+        offer(6);
+        assertEquals(Long.valueOf(LocationEventBridge.BACKGROUND_INTERVAL_MS), delays.get(0));
+        assertEquals(4, bridge.droppedPositions());
+    }
+
+    @Test
+    public void fullBatchDropsOldest() {
+        for (long seq = 1; seq <= LocationEventBridge.MAX_BATCH_POSITIONS + 3; seq++) {
+            offer(seq);
+        }
+        runTimer();
+
+        LocationEventBridge.Batch batch = delivered.get(0);
+        assertEquals(LocationEventBridge.MAX_BATCH_POSITIONS, batch.positions.size());
+        assertEquals(4, batch.positions.get(0).seq);
+        assertEquals(3, batch.droppedPositions);
+    }
+
+    @Test
+    public void nothingBufferedWithoutListeners() {
+        listening = false;
+        offer(1);
+        bridge.offerActivity("still");
+        assertTrue(tasks.isEmpty());
+
+        listening = true;
+        offer(2);
+        listening = false;
+        runTimer();
+        assertTrue("listener went away before the flush", delivered.isEmpty());
+    }
+
+    @Test
+    public void offeredFixIsCopied() {
+        FixRecord fix = new FixRecord();
+        fix.latitude = 48.1;
+        bridge.offerPosition(fix);
+        fix.latitude = 0;
+        runTimer();
+        assertEquals(48.1, delivered.get(0).positions.get(0).latitude, 0);
+    }
+}
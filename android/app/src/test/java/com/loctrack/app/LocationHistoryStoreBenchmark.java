@@ -0,0 +1,65 @@
+package com.loctrack.app;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * Range query latency for LocationHistoryStore over a full day of 2-second
+ * fixes, the worst case for drawing today's trail.
+ *
+ * Run from the IDE (plain main, no device needed). Reports the latency of
+ * a whole-day query, raw and downsampled for display, and of a one-hour
+ * window from the middle of the day.
+ */
+public class LocationHistoryStoreBenchmark {
+    private static final int DAY_FIXES = 24 * 3600 / 2;
+    private static final int WARMUP = 20;
+    private static final int RUNS = 100;
+    private static final long T0 = 1_700_000_000_000L;
+
+    public static void main(String[] args) throws Exception {
+        File dir = Files.createTempDirectory("history-bench").toFile();
+        try (LocationHistoryStore store = new LocationHistoryStore(dir, () -> T0 + 24 * 3600_000L)) {
+            FixRecord record = new FixRecord();
+            record.accuracy = 4f;
+            record.speed = 13f;
+            record.heading = 90f;
+            record.batteryLevel = 70;
+            for (int i = 0; i < DAY_FIXES; i++) {
+                record.timestamp = T0 + i * 2000L;
+                record.latitude = 19.07 + i * 1e-5;
+                record.longitude = 72.87 + i * 1e-5;
+                store.append(record);
+            }
+            store.flush();
+            System.out.printf("%d fixes in %d blocks, %d KB on disk%n",
+                store.size(), store.blockCount(), store.bytesOnDisk() / 1024);
+
+            long dayEnd = T0 + DAY_FIXES * 2000L;
+            run(store, "full day, all fixes", T0, dayEnd, 0);
+            run(store, "full day, 2000 points", T0, dayEnd, 2000);
+            run(store, "one hour, all fixes", T0 + 12 * 3600_000L, T0 + 13 * 3600_000L, 0);
+        } finally {
+            File[] files = dir.listFiles();
+            if (files != null) for (File f : files) f.delete();
+            dir.delete();
+        }
+    }
+
+    private static void run(LocationHistoryStore store, String label, long from, long to, int maxPoints)
+            throws Exception {
+        long[] samples = new long[RUNS];
+        double[] sink = new double[1];
+        int visited = 0;
+        for (int i = 0; i < WARMUP + RUNS; i++) {
+            long start = System.nanoTime();
+            visited = store.query(from, to, maxPoints, r -> sink[0] += r.latitude);
+            long elapsed = System.nanoTime() - start;
+            if (i >= WARMUP) samples[i - WARMUP] = elapsed;
+        }
+        Arrays.sort(samples);
+        System.out.printf("%-24s %6d fixes  p50=%6.2fms p99=%6.2fms max=%6.2fms%n", label, visited,
+            samples[RUNS / 2] / 1e6, samples[RUNS * 99 / 100] / 1e6, samples[RUNS - 1] / 1e6);
+    }
+}
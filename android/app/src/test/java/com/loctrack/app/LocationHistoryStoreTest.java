@@ -0,0 +1,228 @@
+package com.loctrack.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+public class LocationHistoryStoreTest {
+    private static final long T0 = TestTraces.START_TIME;
+
+    private File dir;
+    private long now = T0;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("location-history").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) f.delete();
+        }
+        dir.delete();
+    }
+
+    private LocationHistoryStore open(int segmentBlocks, long retentionMs, long maxBytes) throws IOException {
+        return new LocationHistoryStore(dir, segmentBlocks, retentionMs, maxBytes, () -> now);
+    }
+
+    private LocationHistoryStore open() throws IOException {
+        return open(4, LocationHistoryStore.DEFAULT_RETENTION_MS, LocationHistoryStore.DEFAULT_MAX_BYTES);
+    }
+
+    private static void append(LocationHistoryStore store, int from, int to) throws IOException {
+        for (int i = from; i < to; i++) {
+            assertTrue(store.append(TestTraces.lineFix(i)));
+        }
+    }
+
+    /**
+     * Appends fixes from {@code from} until {@code blocks} new blocks have
+     * been started; the fix before the returned index opened the last one.
+     */
+    private static int appendBlocks(LocationHistoryStore store, int from, int blocks) throws IOException {
+        int i = from;
+        for (int started = 0; started < blocks; i++) {
+            int before = store.blockCount();
+            assertTrue(store.append(TestTraces.lineFix(i)));
+            // Dropping segments only happens when a block is started
+            if (store.blockCount() != before) started++;
+        }
+        return i;
+    }
+
+    /** Indexes (as passed to TestTraces.lineFix()) of the fixes a query returns. */
+    private static List<Integer> query(LocationHistoryStore store, long from, long to, int maxPoints)
+            throws IOException {
+        List<Integer> found = new ArrayList<>();
+        store.query(from, to, maxPoints, r -> found.add((int) ((r.timestamp - T0) / 2000)));
+        return found;
+    }
+
+    private static List<Integer> range(int from, int to) {
+        List<Integer> list = new ArrayList<>();
+        for (int i = from; i < to; i++) list.add(i);
+        return list;
+    }
+
+    @Test
+    public void rangeQueryAcrossBlocksAndSegments() throws IOException {
+        try (LocationHistoryStore store = open()) {
+            // Block 5 opens the second segment
+            int segmentStart = appendBlocks(store, 0, 5) - 1;
+            int end = appendBlocks(store, segmentStart + 1, 6) + 6;
+            append(store, end - 6, end);
+            assertEquals(11, store.blockCount());
+            assertEquals(end, store.size());
+
+            assertEquals(range(0, end), query(store, Long.MIN_VALUE, Long.MAX_VALUE, 0));
+            // Inclusive bounds, spanning a block and a segment boundary
+            long from = TestTraces.lineFix(segmentStart - 3).timestamp;
+            long to = TestTraces.lineFix(segmentStart + 2).timestamp;
+            assertEquals(range(segmentStart - 3, segmentStart + 3), query(store, from, to, 0));
+            // Between fixes, and past the end
+            assertEquals(List.of(6), query(store, TestTraces.lineFix(5).timestamp + 1, TestTraces.lineFix(6).timestamp + 1, 0));
+            assertTrue(query(store, TestTraces.lineFix(end).timestamp, Long.MAX_VALUE, 0).isEmpty());
+        }
+    }
+
+    @Test
+    public void fieldsRoundTrip() throws IOException {
+        try (LocationHistoryStore store = open()) {
+            store.append(TestTraces.lineFix(0));
+            store.append(TestTraces.lineFix(1));
+            store.flush();
+        }
+        try (LocationHistoryStore store = open()) {
+            List<FixRecord> read = new ArrayList<>();
+            store.query(T0, T0 + 2000, 0, r -> {
+                FixRecord copy = new FixRecord();
+                copy.copyFrom(r);
+                read.add(copy);
+            });
+            assertEquals(2, read.size());
+            FixRecord expected = TestTraces.lineFix(0);
+            FixRecord actual = read.get(0);
+            assertEquals(expected.timestamp, actual.timestamp);
+            assertEquals(expected.latitude, actual.latitude, 0);
+            assertEquals(expected.longitude, actual.longitude, 0);
+            assertEquals(expected.accuracy, actual.accuracy, 0);
+            assertEquals(expected.speed, actual.speed, 0);
+            assertTrue(Float.isNaN(read.get(1).speed));
+            assertTrue(Float.isNaN(actual.heading));
+            assertEquals(80, actual.batteryLevel);
+            assertEquals(3, actual.activity);
+            assertEquals(0.5f, actual.confidence, 0);
+        }
+    }
+
+    @Test
+    public void reopenRecoversIndexAndKeepsAppending() throws IOException {
+        int written;
+        try (LocationHistoryStore store = open()) {
+            written = appendBlocks(store, 0, 3) + 20;
+            append(store, written - 20, written);
+        }
+        try (LocationHistoryStore store = open()) {
+            assertEquals(written, store.size());
+            int end = appendBlocks(store, written, 1);
+            assertEquals("partial tail block was continued", 4, store.blockCount());
+            assertTrue(end - written > 1);
+            assertEquals(range(0, end), query(store, Long.MIN_VALUE, Long.MAX_VALUE, 0));
+        }
+    }
+
+    @Test
+    public void tornTailBlockIsDiscarded() throws IOException {
+        int second;
+        try (LocationHistoryStore store = open()) {
+            second = appendBlocks(store, 0, 2) - 1;
+            append(store, second + 1, second + 10);
+        }
+        File segment = dir.listFiles((d, name) -> name.endsWith(".hist"))[0];
+        try (RandomAccessFile raf = new RandomAccessFile(segment, "rw")) {
+            long position = LocationHistoryStore.BLOCK_SIZE + LocationHistoryStore.BLOCK_HEADER_SIZE + 5;
+            raf.seek(position);
+            raf.write(raf.read() ^ 0xFF);
+        }
+        try (LocationHistoryStore store = open()) {
+            assertEquals(second, store.size());
+            append(store, second, second + 3);
+            assertEquals(range(0, second + 3), query(store, Long.MIN_VALUE, Long.MAX_VALUE, 0));
+        }
+    }
+
+    @Test
+    public void steadyTraceIsCompressed() throws IOException {
+        try (LocationHistoryStore store = open()) {
+            int perBlock = appendBlocks(store, 0, 2) - 1;
+            // 101 fixes of 40 bytes fit a block uncompressed
+            assertTrue("only " + perBlock + " fixes per block", perBlock > 400);
+        }
+    }
+
+    @Test
+    public void olderFixesAreNotStored() throws IOException {
+        try (LocationHistoryStore store = open()) {
+            store.append(TestTraces.lineFix(5));
+            assertFalse(store.append(TestTraces.lineFix(4)));
+            assertTrue("same timestamp is fine", store.append(TestTraces.lineFix(5)));
+            assertEquals(1, store.outOfOrderCount());
+            assertEquals(2, store.size());
+        }
+    }
+
+    @Test
+    public void downsamplesToMaxPointsKeepingEnds() throws IOException {
+        try (LocationHistoryStore store = open()) {
+            append(store, 0, 1000);
+            List<Integer> sampled = query(store, Long.MIN_VALUE, Long.MAX_VALUE, 50);
+            assertEquals(50, sampled.size());
+            assertEquals(Integer.valueOf(0), sampled.get(0));
+            assertEquals(Integer.valueOf(999), sampled.get(sampled.size() - 1));
+            for (int i = 1; i < sampled.size(); i++) {
+                assertTrue(sampled.get(i) > sampled.get(i - 1));
+            }
+
+            assertEquals("fewer fixes than points", range(10, 20),
+                query(store, TestTraces.lineFix(10).timestamp, TestTraces.lineFix(19).timestamp, 50));
+        }
+    }
+
+    @Test
+    public void retentionDropsExpiredSegments() throws IOException {
+        long day = 24 * 3600_000L;
+        try (LocationHistoryStore store = open(2, day, LocationHistoryStore.DEFAULT_MAX_BYTES)) {
+            int nextSegment = appendBlocks(store, 0, 3) - 1;
+            now = TestTraces.lineFix(nextSegment - 1).timestamp + day + 1;
+            // Block 5 rolls over to a third segment and the first one is past retention
+            int end = appendBlocks(store, nextSegment + 1, 2);
+            assertEquals(range(nextSegment, end), query(store, Long.MIN_VALUE, Long.MAX_VALUE, 0));
+            assertEquals(TestTraces.lineFix(nextSegment).timestamp, store.oldestTimestamp());
+        }
+    }
+
+    @Test
+    public void storageBudgetDropsOldestSegments() throws IOException {
+        long budget = 3L * 2 * LocationHistoryStore.BLOCK_SIZE;
+        try (LocationHistoryStore store = open(2, LocationHistoryStore.DEFAULT_RETENTION_MS, budget)) {
+            int nextSegment = appendBlocks(store, 0, 3) - 1;
+            appendBlocks(store, nextSegment + 1, 5);
+            assertEquals(6, store.blockCount());
+            assertTrue(store.bytesOnDisk() <= budget);
+            assertEquals(TestTraces.lineFix(nextSegment).timestamp, store.oldestTimestamp());
+        }
+        assertEquals(3, dir.listFiles((d, name) -> name.endsWith(".hist")).length);
+    }
+}
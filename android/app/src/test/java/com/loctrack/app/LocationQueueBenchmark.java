@@ -0,0 +1,55 @@
+package com.loctrack.app;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * Append latency benchmark for LocationQueue.
+ *
+ * Run from the IDE (plain main, no device needed). Reports per-fix append
+ * latency percentiles with the default fsync batching and with an fsync on
+ * every record, for comparison.
+ */
+public class LocationQueueBenchmark {
+    private static final int WARMUP = 20_000;
+    private static final int FIXES = 50_000;
+
+    public static void main(String[] args) throws Exception {
+        run("batched fsync (16 rec / 2 s)", LocationQueue.DEFAULT_SYNC_EVERY_RECORDS);
+        run("fsync per record", 1);
+    }
+
+    private static void run(String label, int syncEvery) throws Exception {
+        File dir = Files.createTempDirectory("queue-bench").toFile();
+        long[] samples = new long[FIXES];
+        FixRecord record = new FixRecord();
+        record.accuracy = 4f;
+        record.speed = 13f;
+        record.heading = 90f;
+        record.batteryLevel = 70;
+
+        try (LocationQueue queue = new LocationQueue(dir, LocationQueue.DEFAULT_SEGMENT_RECORDS, syncEvery,
+                LocationQueue.DEFAULT_SYNC_INTERVAL_MS, 64)) {
+            for (int i = 0; i < WARMUP + FIXES; i++) {
+                record.timestamp = 1_700_000_000_000L + i * 2000L;
+                record.latitude = 19.07 + i * 1e-5;
+                record.longitude = 72.87 + i * 1e-5;
+                long start = System.nanoTime();
+                queue.append(record);
+                long elapsed = System.nanoTime() - start;
+                if (i >= WARMUP) samples[i - WARMUP] = elapsed;
+                if (i % 5000 == 4999) queue.acknowledge(record.seq - 100);
+            }
+        } finally {
+            File[] files = dir.listFiles();
+            if (files != null) for (File f : files) f.delete();
+            dir.delete();
+        }
+
+        Arrays.sort(samples);
+        System.out.printf("%-30s p50=%6.1fus p99=%7.1fus p99.9=%8.1fus max=%8.1fus%n", label,
+            samples[FIXES / 2] / 1e3, samples[FIXES * 99 / 100] / 1e3,
+            samples[FIXES * 999 / 1000] / 1e3, samples[FIXES - 1] / 1e3);
+    }
+}
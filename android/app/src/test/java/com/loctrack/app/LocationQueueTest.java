@@ -0,0 +1,148 @@
+package com.loctrack.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+public class LocationQueueTest {
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("location-queue").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) f.delete();
+        }
+        dir.delete();
+    }
+
+    private static List<Long> readAll(LocationQueue queue) throws IOException {
+        List<Long> seqs = new ArrayList<>();
+        queue.read(queue.firstPendingSeq(), Integer.MAX_VALUE, r -> seqs.add(r.seq));
+        return seqs;
+    }
+
+    @Test
+    public void appendReadAcknowledge() throws IOException {
+        try (LocationQueue queue = new LocationQueue(dir)) {
+            for (int i = 0; i < 10; i++) {
+                assertEquals(i + 1, queue.append(TestTraces.lineFix(i)));
+            }
+            List<FixRecord> read = new ArrayList<>();
+            queue.read(1, 3, r -> {
+                FixRecord copy = new FixRecord();
+                copy.copyFrom(r);
+                read.add(copy);
+            });
+            assertEquals(3, read.size());
+            assertEquals(TestTraces.lineFix(2).latitude, read.get(2).latitude, 0);
+            assertTrue(read.get(0).hasSpeed());
+            assertFalse(read.get(1).hasSpeed());
+
+            queue.acknowledge(3);
+            assertEquals(4, queue.firstPendingSeq());
+            assertEquals(7, queue.pendingCount());
+        }
+    }
+
+    @Test
+    public void survivesReopenWithAckCursor() throws IOException {
+        try (LocationQueue queue = new LocationQueue(dir)) {
+            for (int i = 0; i < 20; i++) queue.append(TestTraces.lineFix(i));
+            queue.acknowledge(15);
+        }
+        try (LocationQueue queue = new LocationQueue(dir)) {
+            assertEquals(16, queue.firstPendingSeq());
+            assertEquals(5, queue.pendingCount());
+            assertEquals(21, queue.append(TestTraces.lineFix(20)));
+        }
+    }
+
+    @Test
+    public void truncatesTornTail() throws IOException {
+        try (LocationQueue queue = new LocationQueue(dir)) {
+            for (int i = 0; i < 5; i++) queue.append(TestTraces.lineFix(i));
+        }
+        // Simulate a crash mid-write: half a record plus a corrupted last record
+        File segment = dir.listFiles((d, n) -> n.endsWith(".seg"))[0];
+        try (RandomAccessFile raf = new RandomAccessFile(segment, "rw")) {
+            long lastRecord = LocationQueue.HEADER_SIZE + 4L * LocationQueue.RECORD_SIZE;
+            raf.seek(lastRecord + 20);
+            raf.writeByte(0x7F);
+            raf.seek(raf.length());
+            raf.write(new byte[LocationQueue.RECORD_SIZE / 2]);
+        }
+        try (LocationQueue queue = new LocationQueue(dir)) {
+            assertEquals(4, queue.pendingCount());
+            assertEquals(5, queue.append(TestTraces.lineFix(4)));
+            assertEquals(5, readAll(queue).size());
+        }
+    }
+
+    @Test
+    public void rollsOverAndCompactsAcknowledgedSegments() throws IOException {
+        try (LocationQueue queue = new LocationQueue(dir, 4, 1, 0, 8)) {
+            for (int i = 0; i < 10; i++) queue.append(TestTraces.lineFix(i));
+            assertEquals(3, dir.listFiles((d, n) -> n.endsWith(".seg")).length);
+
+            queue.acknowledge(8);
+            assertEquals(1, dir.listFiles((d, n) -> n.endsWith(".seg")).length);
+            List<Long> seqs = readAll(queue);
+            assertEquals(2, seqs.size());
+            assertEquals(9L, (long) seqs.get(0));
+        }
+    }
+
+    @Test
+    public void storageBudgetDropsOldestSegments() throws IOException {
+        try (LocationQueue queue = new LocationQueue(dir, 4, 1, 0, 2)) {
+            for (int i = 0; i < 12; i++) queue.append(TestTraces.lineFix(i));
+            // Third segment pushes the first (seq 1-4) out of the budget
+            assertEquals(4, queue.droppedCount());
+            assertEquals(5, queue.firstPendingSeq());
+            assertEquals(8, readAll(queue).size());
+        }
+    }
+
+    @Test
+    public void appendAllMatchesSingleAppendsAcrossRollover() throws IOException {
+        try (LocationQueue queue = new LocationQueue(dir, 4, 16, 0, 8)) {
+            queue.append(TestTraces.lineFix(0));
+            FixRecord[] batch = new FixRecord[12];
+            for (int i = 0; i < batch.length; i++) batch[i] = TestTraces.lineFix(i + 1);
+            // Only the first 9 are part of the batch
+            assertEquals(10, queue.appendAll(batch, 9));
+            assertEquals(10, batch[8].seq);
+            assertEquals(3, dir.listFiles((d, n) -> n.endsWith(".seg")).length);
+            assertEquals(11, queue.append(TestTraces.lineFix(10)));
+        }
+        try (LocationQueue queue = new LocationQueue(dir, 4, 16, 0, 8)) {
+            List<FixRecord> read = new ArrayList<>();
+            queue.read(1, Integer.MAX_VALUE, r -> {
+                FixRecord copy = new FixRecord();
+                copy.copyFrom(r);
+                read.add(copy);
+            });
+            assertEquals(11, read.size());
+            for (int i = 0; i < read.size(); i++) {
+                assertEquals(i + 1, read.get(i).seq);
+                assertEquals(TestTraces.lineFix(i).latitude, read.get(i).latitude, 0);
+                assertEquals(TestTraces.lineFix(i).timestamp, read.get(i).timestamp);
+            }
+        }
+    }
+}
@@ -0,0 +1,478 @@
+package com.loctrack.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives LocationUploader against a stand-in server that injects timeouts,
+ * partial commits and errors, and checks every fix lands exactly once and
+ * in order.
+ */
+public class LocationUploaderTest {
+    private File dir;
+    private StandInServer server;
+    private LocationQueue queue;
+    private FixRingBuffer ring;
+    private final long[] now = {0};
+    private SyncRetryPolicy retryPolicy;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("location-uploader").toFile();
+        server = new StandInServer();
+        queue = new LocationQueue(dir);
+        ring = new FixRingBuffer(1024, FixRingBuffer.OverflowPolicy.DROP_OLDEST);
+        retryPolicy = new SyncRetryPolicy(1000, 60_000, 100, 0, () -> now[0], new Random(1));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+        queue.close();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) f.delete();
+        }
+        dir.delete();
+    }
+
+    private LocationUploader uploader(int timeoutMs) {
+        return new LocationUploader(queue, ring, new UplinkClient(timeoutMs, 1024), retryPolicy);
+    }
+
+    private void enqueue(int count) throws IOException {
+        enqueue(count, null);
+    }
+
+    private void enqueue(int count, LocationUploader uploader) throws IOException {
+        for (FixRecord f : TestTraces.drive(count, 12, count)) {
+            queue.append(f);
+            ring.offer(f);
+            if (uploader != null) {
+                uploader.offerLatest(f);
+            }
+        }
+    }
+
+    /** Syncs until nothing is pending, skipping past any backoff. */
+    private int drain(LocationUploader uploader, int maxBatch) throws IOException {
+        int rounds = 0;
+        while (queue.pendingCount() > 0) {
+            assertTrue("did not drain", ++rounds < 100);
+            uploader.sync(server.url(), "token", maxBatch);
+            now[0] += retryPolicy.delayUntilNextAttemptMs();
+        }
+        return rounds;
+    }
+
+    private static List<Long> range(long from, long to) {
+        List<Long> seqs = new ArrayList<>();
+        for (long s = from; s <= to; s++) seqs.add(s);
+        return seqs;
+    }
+
+    @Test
+    public void uploadsInOrderAndSwitchesToBinary() throws IOException {
+        enqueue(250);
+        LocationUploader uploader = uploader(2000);
+        assertEquals(3, drain(uploader, 100));
+
+        assertEquals(range(1, 250), server.stored());
+        assertEquals(0, server.duplicatesSkipped());
+        assertTrue(uploader.isBinaryUploadSupported());
+        assertEquals("first batch JSON, then binary", 2, server.binaryRequests());
+        assertEquals(250, queue.ackedSeq());
+        assertEquals(0, ring.size());
+    }
+
+    @Test
+    public void timeoutAfterCommitIsNotDuplicated() throws IOException {
+        enqueue(120);
+        server.script(StandInServer.Fault.timeoutAfterCommit(800));
+        LocationUploader uploader = uploader(300);
+
+        assertEquals(LocationUploader.Result.FAILED, uploader.sync(server.url(), "token", 50));
+        assertEquals("nothing acknowledged on timeout", 0, queue.ackedSeq());
+        assertEquals(1, retryPolicy.consecutiveFailures());
+
+        now[0] += retryPolicy.delayUntilNextAttemptMs();
+        drain(uploader, 50);
+
+        assertEquals(range(1, 120), server.stored());
+        assertEquals("resend of the committed batch was skipped", 50, server.duplicatesSkipped());
+        assertEquals(0, server.orderViolations());
+    }
+
+    @Test
+    public void partialCommitAcknowledgesOnlyCommittedPrefix() throws IOException {
+        enqueue(100);
+        server.script(StandInServer.Fault.partial(30));
+        LocationUploader uploader = uploader(2000);
+
+        assertEquals(LocationUploader.Result.SYNCED, uploader.sync(server.url(), "token", 100));
+        assertEquals(30, queue.ackedSeq());
+        assertEquals(31, queue.firstPendingSeq());
+        assertEquals(70, ring.size());
+
+        drain(uploader, 100);
+        assertEquals(range(1, 100), server.stored());
+        assertEquals(0, server.duplicatesSkipped());
+    }
+
+    @Test
+    public void errorWithCursorStillTrims() throws IOException {
+        enqueue(40);
+        StandInServer.Fault fault = StandInServer.Fault.partial(10);
+        fault.status = 500;
+        server.script(fault);
+        LocationUploader uploader = uploader(2000);
+
+        assertEquals(LocationUploader.Result.FAILED, uploader.sync(server.url(), "token", 40));
+        assertEquals(10, queue.ackedSeq());
+        assertEquals(1, retryPolicy.consecutiveFailures());
+
+        drain(uploader, 40);
+        assertEquals(range(1, 40), server.stored());
+    }
+
+    @Test
+    public void retryAfterDelaysNextAttempt() throws IOException {
+        enqueue(20);
+        server.script(StandInServer.Fault.error(503, "30"));
+        LocationUploader uploader = uploader(2000);
+
+        assertEquals(LocationUploader.Result.FAILED, uploader.sync(server.url(), "token", 20));
+        assertTrue(retryPolicy.delayUntilNextAttemptMs() >= 30_000);
+        assertEquals(LocationUploader.Result.DEFERRED, uploader.sync(server.url(), "token", 20));
+        assertEquals(1, server.requests());
+
+        now[0] += retryPolicy.delayUntilNextAttemptMs();
+        assertEquals(LocationUploader.Result.SYNCED, uploader.sync(server.url(), "token", 20));
+        assertEquals(range(1, 20), server.stored());
+    }
+
+    @Test
+    public void survivesRestartWithStreamAndCursor() throws IOException {
+        enqueue(60);
+        String stream = queue.streamId();
+        server.script(StandInServer.Fault.timeoutAfterCommit(800));
+        uploader(300).sync(server.url(), "token", 60);
+        assertEquals(0, queue.ackedSeq());
+
+        // Process killed before the ack - the reopened queue resends under the same stream
+        queue.close();
+        queue = new LocationQueue(dir);
+        ring.clear();
+        assertEquals(stream, queue.streamId());
+        now[0] += retryPolicy.delayUntilNextAttemptMs();
+        drain(uploader(2000), 60);
+
+        assertEquals(range(1, 60), server.stored());
+        assertEquals(60, server.duplicatesSkipped());
+    }
+
+    @Test
+    public void concurrentSyncsStayOrdered() throws Exception {
+        enqueue(400);
+        LocationUploader uploader = uploader(2000);
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        for (int i = 0; i < 40; i++) {
+            pool.execute(() -> {
+                try {
+                    uploader.sync(server.url(), "token", 25);
+                } catch (IOException e) {
+                    throw new AssertionError(e);
+                }
+            });
+        }
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(30, TimeUnit.SECONDS));
+
+        assertEquals(range(1, 400), server.stored());
+        assertEquals(0, server.orderViolations());
+        assertEquals(0, server.duplicatesSkipped());
+    }
+
+    @Test
+    public void latestPositionGoesAheadOfBacklog() throws IOException {
+        LocationUploader uploader = uploader(2000);
+        enqueue(300, uploader);
+
+        assertTrue(uploader.hasUnsentLatest());
+        assertEquals(LocationUploader.Result.SYNCED, uploader.syncLatest(server.latestUrl(), "token"));
+        assertEquals(List.of(300L), server.latest());
+        assertEquals("history untouched", 0, queue.ackedSeq());
+        assertFalse(uploader.hasUnsentLatest());
+        assertEquals(LocationUploader.Result.IDLE, uploader.syncLatest(server.latestUrl(), "token"));
+
+        while (queue.pendingCount() > 0) {
+            uploader.syncHistory(server.url(), "token");
+        }
+        assertEquals(range(1, 300), server.stored());
+        assertEquals(0, server.orderViolations());
+        assertEquals(1, uploader.latestStats().requests());
+        assertEquals(300, uploader.historyStats().fixes());
+    }
+
+    @Test
+    public void historyDeliveryMarksLatestSent() throws IOException {
+        LocationUploader uploader = uploader(2000);
+        enqueue(50, uploader);
+        uploader.syncHistory(server.url(), "token");
+        assertFalse("the newest fix already went out with the history", uploader.hasUnsentLatest());
+    }
+
+    @Test
+    public void historyChunkGrowsAndBacksOff() throws IOException {
+        LocationUploader uploader = uploader(2000);
+        enqueue(1000);
+        assertEquals(BatchSizeController.INITIAL_CHUNK, uploader.batchSizer().chunkSize());
+        uploader.syncHistory(server.url(), "token");
+        uploader.syncHistory(server.url(), "token");
+        assertEquals(400, uploader.batchSizer().chunkSize());
+
+        server.script(StandInServer.Fault.error(500, null));
+        assertEquals(LocationUploader.Result.FAILED, uploader.syncHistory(server.url(), "token"));
+        assertEquals(200, uploader.batchSizer().chunkSize());
+        assertEquals(1, uploader.historyStats().failures());
+        assertEquals(300, queue.ackedSeq());
+    }
+
+    @Test
+    public void serverWithoutLatestEndpointDisablesLane() throws IOException {
+        server.latestSupported = false;
+        LocationUploader uploader = uploader(2000);
+        enqueue(10, uploader);
+
+        assertEquals(LocationUploader.Result.FAILED, uploader.syncLatest(server.latestUrl(), "token"));
+        assertFalse(uploader.isLatestLaneSupported());
+        assertFalse(uploader.hasUnsentLatest());
+        assertEquals("no backoff for a missing endpoint", 0, retryPolicy.consecutiveFailures());
+        assertEquals(LocationUploader.Result.SYNCED, uploader.syncHistory(server.url(), "token"));
+    }
+
+    @Test
+    public void missingLatestEndpointLeavesOpenBreakerAlone() throws IOException {
+        retryPolicy = new SyncRetryPolicy(1000, 60_000, 1, 5_000, () -> now[0], new Random(1));
+        server.latestSupported = false;
+        LocationUploader uploader = uploader(2000);
+        enqueue(10, uploader);
+
+        server.script(StandInServer.Fault.error(500, null));
+        assertEquals(LocationUploader.Result.FAILED, uploader.syncHistory(server.url(), "token"));
+        assertEquals(SyncRetryPolicy.State.OPEN, retryPolicy.state());
+        now[0] += retryPolicy.delayUntilNextAttemptMs();
+
+        assertEquals(LocationUploader.Result.FAILED, uploader.syncLatest(server.latestUrl(), "token"));
+        assertFalse(uploader.isLatestLaneSupported());
+        assertNotEquals("the 404 did not close the breaker", SyncRetryPolicy.State.CLOSED, retryPolicy.state());
+        assertEquals(1, retryPolicy.consecutiveFailures());
+        assertEquals("the history lane still gets its probe",
+            LocationUploader.Result.SYNCED, uploader.syncHistory(server.url(), "token"));
+    }
+
+    private static StayTripSegmenter.Segment stay(long start, long end) {
+        List<StayTripSegmenter.Segment> out = new ArrayList<>();
+        StayTripSegmenter segmenter = new StayTripSegmenter(out::add, () -> 0, 100f, 60_000, 60_000);
+        FixRecord f = new FixRecord();
+        f.latitude = 19.07;
+        f.longitude = 72.87;
+        for (long t = start; t <= end; t += 30_000) {
+            f.timestamp = t;
+            segmenter.onFix(f);
+        }
+        return out.get(0);
+    }
+
+    @Test
+    public void segmentsGoOutAndLeaveThePendingList() throws IOException {
+        LocationUploader uploader = uploader(2000);
+        assertEquals(LocationUploader.Result.IDLE, uploader.syncSegments(server.segmentsUrl(), "token"));
+        uploader.offerSegment(stay(0, 120_000));
+
+        server.segmentsStatus = 503;
+        assertEquals(LocationUploader.Result.FAILED, uploader.syncSegments(server.segmentsUrl(), "token"));
+        assertTrue("kept for the next sync", uploader.hasUnsentSegments());
+        now[0] += retryPolicy.delayUntilNextAttemptMs();
+        server.segmentsStatus = 200;
+
+        assertEquals(LocationUploader.Result.SYNCED, uploader.syncSegments(server.segmentsUrl(), "token"));
+        assertEquals(List.of("stay open"), server.segments());
+        assertFalse(uploader.hasUnsentSegments());
+        assertEquals(1, uploader.segmentStats().fixes());
+    }
+
+    @Test
+    public void serverWithoutSegmentsEndpointDisablesLane() throws IOException {
+        server.segmentsStatus = 404;
+        LocationUploader uploader = uploader(2000);
+        uploader.offerSegment(stay(0, 120_000));
+
+        assertEquals(LocationUploader.Result.FAILED, uploader.syncSegments(server.segmentsUrl(), "token"));
+        assertFalse(uploader.isSegmentLaneSupported());
+        assertFalse(uploader.hasUnsentSegments());
+        assertEquals(0, retryPolicy.consecutiveFailures());
+    }
+
+    /** Drains through the history lane, skipping past any backoff. */
+    private int drainHistory(LocationUploader uploader) throws IOException {
+        int rounds = 0;
+        while (queue.pendingCount() > 0) {
+            assertTrue("did not drain", ++rounds < 500);
+            uploader.syncHistory(server.url(), "token");
+            now[0] += retryPolicy.delayUntilNextAttemptMs();
+        }
+        return rounds;
+    }
+
+    @Test
+    public void chunkConvergesOnThrottledLink() throws IOException {
+        // ~200 B per JSON fix at 200 KB/s: about 500 fixes fit the 500 ms target
+        server.advertiseBinary = false;
+        server.throttleBytesPerSecond = 200_000;
+        BatchSizeController sizer = new BatchSizeController(500, 300, 5_000, 2_000);
+        LocationUploader uploader = new LocationUploader(queue, ring,
+            new UplinkClient(2_000, Integer.MAX_VALUE), retryPolicy, sizer);
+        enqueue(2000);
+
+        int rounds = drainHistory(uploader);
+
+        assertEquals(range(1, 2000), server.stored());
+        assertEquals(0, server.orderViolations());
+        assertTrue("rounds " + rounds, rounds < 20);
+        assertTrue(sizer.summary(), sizer.chunkSize() >= 100 && sizer.chunkSize() <= 1000);
+        assertTrue(sizer.summary(), sizer.increases() > 0 && sizer.decreases() > 0);
+    }
+
+    @Test
+    public void timedOutChunkIsSplit() throws IOException {
+        // 100 fixes take ~1 s at 20 KB/s, past the 400 ms first timeout
+        server.advertiseBinary = false;
+        server.throttleBytesPerSecond = 20_000;
+        retryPolicy = new SyncRetryPolicy(1000, 60_000, 100, 0, () -> now[0], new Random(1));
+        BatchSizeController sizer = new BatchSizeController(400, 300, 5_000, 400);
+        LocationUploader uploader = new LocationUploader(queue, ring,
+            new UplinkClient(2_000, Integer.MAX_VALUE), retryPolicy, sizer);
+        enqueue(150);
+
+        assertEquals(LocationUploader.Result.FAILED, uploader.syncHistory(server.url(), "token"));
+        assertEquals(50, sizer.chunkSize());
+        now[0] += retryPolicy.delayUntilNextAttemptMs();
+        drainHistory(uploader);
+
+        assertEquals(range(1, 150), server.stored());
+        assertEquals(0, server.orderViolations());
+        assertTrue(sizer.summary(), sizer.failures() >= 1);
+    }
+
+    private static List<Long> sorted(List<Long> seqs) {
+        List<Long> copy = new ArrayList<>(seqs);
+        copy.sort(null);
+        return copy;
+    }
+
+    @Test
+    public void backlogDrainsWithChunksInFlight() throws IOException {
+        server.throttleBytesPerSecond = 1_000_000;
+        LocationUploader uploader = uploader(5_000);
+        enqueue(5000);
+
+        int rounds = 0;
+        while (queue.pendingCount() > 0) {
+            assertTrue("did not drain", ++rounds < 100);
+            uploader.syncBacklog(server.url(), "token", 4);
+        }
+
+        assertEquals(range(1, 5000), sorted(server.stored()));
+        assertEquals(0, server.duplicatesSkipped());
+        assertEquals(5000, queue.ackedSeq());
+        assertTrue(uploader.parallelRounds() > 0);
+        assertTrue("max in flight " + server.maxInFlight(), server.maxInFlight() > 1);
+    }
+
+    @Test
+    public void failedChunkHoldsBackAcknowledgement() throws IOException {
+        LocationUploader uploader = uploader(2_000);
+        enqueue(700);
+        // First sequential upload learns out-of-order support; chunk grows to 200
+        assertEquals(LocationUploader.Result.SYNCED, uploader.syncBacklog(server.url(), "token", 3));
+        assertEquals(100, queue.ackedSeq());
+
+        server.failChunkStartingAt(301);
+        assertEquals(LocationUploader.Result.FAILED, uploader.syncBacklog(server.url(), "token", 3));
+        assertEquals("only the contiguous prefix is trimmed", 300, queue.ackedSeq());
+        assertEquals(range(501, 700), sorted(server.stored()).subList(300, 500));
+
+        now[0] += retryPolicy.delayUntilNextAttemptMs();
+        while (queue.pendingCount() > 0) {
+            uploader.syncBacklog(server.url(), "token", 3);
+            now[0] += retryPolicy.delayUntilNextAttemptMs();
+        }
+        assertEquals(range(1, 700), sorted(server.stored()));
+        assertTrue("the landed chunk was not stored twice", server.duplicatesSkipped() > 0);
+    }
+
+    @Test
+    public void failedAcknowledgeEndsHalfOpenProbe() throws IOException {
+        retryPolicy = new SyncRetryPolicy(1000, 60_000, 1, 5_000, () -> now[0], new Random(1));
+        LocationUploader uploader = uploader(2_000);
+        enqueue(1000);
+        assertEquals(LocationUploader.Result.SYNCED, uploader.syncBacklog(server.url(), "token", 3));
+
+        retryPolicy.onFailure(-1, -1);
+        assertEquals(SyncRetryPolicy.State.OPEN, retryPolicy.state());
+        now[0] += retryPolicy.delayUntilNextAttemptMs();
+
+        // A directory in the way of the ack file makes acknowledge() throw
+        File blocker = new File(dir, "ack.tmp");
+        assertTrue(blocker.mkdir());
+        assertEquals(LocationUploader.Result.FAILED, uploader.syncBacklog(server.url(), "token", 3));
+        assertEquals("the probe failed and re-opened the circuit", SyncRetryPolicy.State.OPEN, retryPolicy.state());
+        assertTrue(blocker.delete());
+
+        now[0] += retryPolicy.delayUntilNextAttemptMs();
+        while (queue.pendingCount() > 0) {
+            assertNotEquals(LocationUploader.Result.DEFERRED, uploader.syncBacklog(server.url(), "token", 3));
+        }
+        assertEquals(range(1, 1000), sorted(server.stored()));
+        assertEquals(SyncRetryPolicy.State.CLOSED, retryPolicy.state());
+    }
+
+    @Test
+    public void serverWithoutRangeCommitsStaysSequential() throws IOException {
+        server.advertiseOutOfOrder = false;
+        LocationUploader uploader = uploader(2_000);
+        enqueue(1000);
+        while (queue.pendingCount() > 0) {
+            uploader.syncBacklog(server.url(), "token", 4);
+        }
+        assertEquals(range(1, 1000), server.stored());
+        assertEquals(0, uploader.parallelRounds());
+        assertEquals(1, server.maxInFlight());
+        assertEquals(0, server.orderViolations());
+    }
+
+    @Test
+    public void metricsSummaryRidesOnOneHistoryUpload() throws IOException {
+        LocationUploader uploader = uploader(2_000);
+        enqueue(150);
+        uploader.attachMetrics("{\"uploaded\":3}");
+        drain(uploader, 50);
+
+        assertEquals(List.of("{\"uploaded\":3}"), server.metricsHeaders());
+        assertEquals(3, server.requests());
+    }
+}
@@ -0,0 +1,85 @@
+package com.loctrack.app;
+
+import static org.junit.Assert.*;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class MetricsRegistryTest {
+    private final MetricsRegistry metrics = new MetricsRegistry();
+
+    @Test
+    public void countersSumAcrossThreads() throws InterruptedException {
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 12; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    metrics.increment(MetricsRegistry.Counter.FIXES_RECEIVED);
+                }
+                metrics.add(MetricsRegistry.Counter.BATCHED, 5);
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(120_000, metrics.count(MetricsRegistry.Counter.FIXES_RECEIVED));
+        assertEquals(60, metrics.count(MetricsRegistry.Counter.BATCHED));
+        assertEquals(0, metrics.count(MetricsRegistry.Counter.DROPPED));
+    }
+
+    @Test
+    public void histogramBucketsByInclusiveUpperBound() {
+        MetricsRegistry.Histogram latency = MetricsRegistry.Histogram.SYNC_LATENCY_MS;
+        metrics.record(latency, 50);
+        metrics.record(latency, 51);
+        metrics.record(latency, 70_000);
+
+        assertEquals(1, metrics.bucketCount(latency, 0));
+        assertEquals(1, metrics.bucketCount(latency, 1));
+        assertEquals(1, metrics.bucketCount(latency, latency.bucketCount() - 1));
+        assertEquals(Long.MAX_VALUE, latency.upperBound(latency.bucketCount() - 1));
+        assertEquals(3, metrics.count(latency));
+        assertEquals(70_101, metrics.sum(latency));
+        assertEquals(70_000, metrics.max(latency));
+    }
+
+    @Test
+    public void quantilesAreBucketBoundsCappedAtMax() {
+        MetricsRegistry.Histogram bytes = MetricsRegistry.Histogram.PAYLOAD_BYTES;
+        assertEquals(0, metrics.quantile(bytes, 0.5));
+
+        for (int i = 0; i < 90; i++) {
+            metrics.record(bytes, 200);
+        }
+        for (int i = 0; i < 10; i++) {
+            metrics.record(bytes, 3_000);
+        }
+
+        assertEquals(256, metrics.quantile(bytes, 0.5));
+        assertEquals(256, metrics.quantile(bytes, 0.9));
+        assertEquals("capped at the largest value seen", 3_000, metrics.quantile(bytes, 0.99));
+    }
+
+    @Test
+    public void compactSummaryIsJson() {
+        metrics.add(MetricsRegistry.Counter.UPLOADED, 42);
+        metrics.record(MetricsRegistry.Histogram.QUEUE_DEPTH, 7);
+
+        JSONObject summary = new JSONObject(metrics.compactSummary());
+        assertEquals(42, summary.getLong("uploaded"));
+        assertEquals(0, summary.getLong("dropped"));
+        JSONArray depth = summary.getJSONArray("queueDepth");
+        assertEquals(1, depth.getLong(0));
+        assertEquals("p50", 7, depth.getLong(1));
+        assertEquals("max", 7, depth.getLong(3));
+        assertEquals(MetricsRegistry.Counter.values().length + MetricsRegistry.Histogram.values().length,
+            summary.length());
+    }
+}
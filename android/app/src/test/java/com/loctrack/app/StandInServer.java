@@ -0,0 +1,353 @@
+package com.loctrack.app;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * In-process stand-in for POST /api/location/update, following the server's
+ * idempotency contract (per-stream committed cursor, duplicates skipped,
+ * committedSeq in the response) including out-of-order range commits:
+ * a chunk naming its range start commits that range, and the cursor only
+ * advances over contiguous ranges. Faults can be scripted per request.
+ * Also answers /api/location/latest, recording the positions it was sent,
+ * and /api/location/segments, recording the stay / trip types.
+ * Request bodies can be read at a throttled rate to mimic a slow link.
+ * Client metrics headers are recorded as they arrive.
+ */
+final class StandInServer implements AutoCloseable {
+
+    /** One-shot behaviour for the next request. */
+    static final class Fault {
+        int commitLimit = Integer.MAX_VALUE;
+        long delayAfterCommitMs;
+        int status = 200;
+        String retryAfter;
+        boolean reportCursor = true;
+
+        static Fault partial(int commitLimit) {
+            Fault f = new Fault();
+            f.commitLimit = commitLimit;
+            return f;
+        }
+
+        /** Commits, then stalls past the client's read timeout. */
+        static Fault timeoutAfterCommit(long delayMs) {
+            Fault f = new Fault();
+            f.delayAfterCommitMs = delayMs;
+            return f;
+        }
+
+        /** Fails without committing anything. */
+        static Fault error(int status, String retryAfter) {
+            Fault f = new Fault();
+            f.commitLimit = 0;
+            f.status = status;
+            f.retryAfter = retryAfter;
+            f.reportCursor = false;
+            return f;
+        }
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+    private final Deque<Fault> faults = new ArrayDeque<>();
+    private final Map<String, Long> cursors = new HashMap<>();
+    // Committed ranges above each stream's cursor, from -> to
+    private final Map<String, TreeMap<Long, Long>> ranges = new HashMap<>();
+    private int inFlight;
+    private int maxInFlight;
+    private final List<Long> stored = new ArrayList<>();
+    private int requests;
+    private int duplicatesSkipped;
+    private int orderViolations;
+    private int binaryRequests;
+    private final List<Long> latest = new ArrayList<>();
+    private final List<String> segments = new ArrayList<>();
+    private final List<String> metricsHeaders = new ArrayList<>();
+    volatile boolean advertiseBinary = true;
+    volatile boolean latestSupported = true;
+    // 404 mimics a server without the endpoint
+    volatile int segmentsStatus = 200;
+    volatile boolean advertiseOutOfOrder = true;
+    // The chunk starting at this sequence fails once with a 500, -1 for none
+    private long failRangeStart = -1;
+    // 0 reads at full speed
+    volatile int throttleBytesPerSecond;
+
+    StandInServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/location/update", this::handle);
+        server.createContext("/location/latest", this::handleLatest);
+        server.createContext("/location/segments", this::handleSegments);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    URL url() throws MalformedURLException {
+        return new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/location/update");
+    }
+
+    URL latestUrl() throws MalformedURLException {
+        return new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/location/latest");
+    }
+
+    URL segmentsUrl() throws MalformedURLException {
+        return new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/location/segments");
+    }
+
+    synchronized void failChunkStartingAt(long seq) {
+        failRangeStart = seq;
+    }
+
+    synchronized void script(Fault... next) {
+        for (Fault f : next) faults.add(f);
+    }
+
+    synchronized List<Long> stored() {
+        return new ArrayList<>(stored);
+    }
+
+    synchronized int requests() {
+        return requests;
+    }
+
+    synchronized int duplicatesSkipped() {
+        return duplicatesSkipped;
+    }
+
+    /** Batches whose first new fix did not directly follow the cursor. */
+    synchronized int orderViolations() {
+        return orderViolations;
+    }
+
+    synchronized int binaryRequests() {
+        return binaryRequests;
+    }
+
+    /** Most requests that were being handled at the same time. */
+    synchronized int maxInFlight() {
+        return maxInFlight;
+    }
+
+    synchronized long cursor(String stream) {
+        return cursors.containsKey(stream) ? cursors.get(stream) : 0;
+    }
+
+    /** Sequence numbers received on the latest-position endpoint, in arrival order. */
+    synchronized List<Long> latest() {
+        return new ArrayList<>(latest);
+    }
+
+    /** Types of the segments received ("stay", "stay open", "trip"), in arrival order. */
+    synchronized List<String> segments() {
+        return new ArrayList<>(segments);
+    }
+
+    /** X-Client-Metrics values received on the update endpoint, in arrival order. */
+    synchronized List<String> metricsHeaders() {
+        return new ArrayList<>(metricsHeaders);
+    }
+
+    private void handleLatest(HttpExchange exchange) throws IOException {
+        byte[] body = readAll(exchange.getRequestBody());
+        int status = 404;
+        if (latestSupported) {
+            JSONArray locations = new JSONObject(new String(body, StandardCharsets.UTF_8)).getJSONArray("locations");
+            synchronized (this) {
+                latest.add(locations.getJSONObject(locations.length() - 1).getLong("seq"));
+            }
+            status = 200;
+        }
+        byte[] out = "{}".getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, out.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(out);
+        }
+    }
+
+    private void handleSegments(HttpExchange exchange) throws IOException {
+        byte[] body = readAll(exchange.getRequestBody());
+        int status = segmentsStatus;
+        if (status == 200) {
+            JSONArray received = new JSONObject(new String(body, StandardCharsets.UTF_8)).getJSONArray("segments");
+            synchronized (this) {
+                for (int i = 0; i < received.length(); i++) {
+                    JSONObject segment = received.getJSONObject(i);
+                    segments.add(segment.getString("type") + (segment.isNull("endTime") ? " open" : ""));
+                }
+            }
+        }
+        byte[] out = "{}".getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, out.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(out);
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        synchronized (this) {
+            maxInFlight = Math.max(maxInFlight, ++inFlight);
+        }
+        try {
+            commit(exchange);
+        } finally {
+            synchronized (this) {
+                inFlight--;
+            }
+        }
+    }
+
+    private static boolean inRange(TreeMap<Long, Long> committedRanges, long seq) {
+        Map.Entry<Long, Long> range = committedRanges.floorEntry(seq);
+        return range != null && seq <= range.getValue();
+    }
+
+    private void commit(HttpExchange exchange) throws IOException {
+        String rangeStart = exchange.getRequestHeaders().getFirst(LocationUploader.RANGE_START_HEADER);
+        String stream = exchange.getRequestHeaders().getFirst(LocationUploader.STREAM_HEADER);
+        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        InputStream in = exchange.getRequestBody();
+        if ("gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+            in = new GZIPInputStream(in);
+        }
+        byte[] body = throttleBytesPerSecond > 0 ? readThrottled(in, throttleBytesPerSecond) : readAll(in);
+        List<Long> seqs = new ArrayList<>();
+        if (FixBatchCodec.CONTENT_TYPE.equals(contentType)) {
+            FixBatchCodec.decode(body, 0, body.length, r -> seqs.add(r.seq));
+        } else {
+            JSONArray locations = new JSONObject(new String(body, StandardCharsets.UTF_8)).getJSONArray("locations");
+            for (int i = 0; i < locations.length(); i++) {
+                seqs.add(locations.getJSONObject(i).getLong("seq"));
+            }
+        }
+
+        Fault fault;
+        long committed;
+        synchronized (this) {
+            requests++;
+            String metrics = exchange.getRequestHeaders().getFirst(LocationUploader.METRICS_HEADER);
+            if (metrics != null) metricsHeaders.add(metrics);
+            if (FixBatchCodec.CONTENT_TYPE.equals(contentType)) binaryRequests++;
+            fault = faults.isEmpty() ? new Fault() : faults.poll();
+            if (rangeStart != null && Long.parseLong(rangeStart) == failRangeStart) {
+                failRangeStart = -1;
+                fault = Fault.error(500, null);
+            }
+            committed = cursors.containsKey(stream) ? cursors.get(stream) : 0;
+            TreeMap<Long, Long> committedRanges = ranges.computeIfAbsent(stream, k -> new TreeMap<>());
+            long start = rangeStart != null ? Long.parseLong(rangeStart) : committed + 1;
+            long end = start - 1;
+            int taken = 0;
+            boolean first = true;
+            for (long seq : seqs) {
+                if (seq <= committed || inRange(committedRanges, seq)) {
+                    duplicatesSkipped++;
+                    end = Math.max(end, seq);
+                    continue;
+                }
+                if (taken >= fault.commitLimit) break;
+                if (first && seq != committed + 1) orderViolations++;
+                first = false;
+                stored.add(seq);
+                end = seq;
+                taken++;
+            }
+            if (end >= start) {
+                committedRanges.merge(start, end, Math::max);
+            }
+            // The cursor advances over ranges that touch it
+            while (!committedRanges.isEmpty() && committedRanges.firstKey() <= committed + 1) {
+                committed = Math.max(committed, committedRanges.pollFirstEntry().getValue());
+            }
+            cursors.put(stream, committed);
+        }
+
+        if (fault.delayAfterCommitMs > 0) {
+            try {
+                Thread.sleep(fault.delayAfterCommitMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        String reply = fault.reportCursor
+            ? "{\"success\":" + (fault.status == 200) + ",\"committedSeq\":" + committed + "}"
+            : "{\"error\":\"injected\"}";
+        byte[] out = reply.getBytes(StandardCharsets.UTF_8);
+        if (advertiseBinary) {
+            exchange.getResponseHeaders().add("Accept-Post", FixBatchCodec.CONTENT_TYPE + ", application/json");
+        }
+        if (advertiseOutOfOrder) {
+            exchange.getResponseHeaders().add(LocationUploader.OUT_OF_ORDER_HEADER, "1");
+        }
+        if (fault.retryAfter != null) {
+            exchange.getResponseHeaders().add("Retry-After", fault.retryAfter);
+        }
+        try {
+            exchange.sendResponseHeaders(fault.status, out.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(out);
+            }
+        } catch (IOException e) {
+            // Client gave up (timeout) - expected for injected stalls
+        }
+    }
+
+    private static byte[] readThrottled(InputStream in, int bytesPerSecond) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[1024];
+        long start = System.nanoTime();
+        int n;
+        while ((n = in.read(buf)) != -1) {
+            out.write(buf, 0, n);
+            long dueMs = out.size() * 1000L / bytesPerSecond;
+            long elapsedMs = (System.nanoTime() - start) / 1_000_000L;
+            if (dueMs > elapsedMs) {
+                try {
+                    Thread.sleep(dueMs - elapsedMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        int n;
+        while ((n = in.read(buf)) != -1) out.write(buf, 0, n);
+        return out.toByteArray();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
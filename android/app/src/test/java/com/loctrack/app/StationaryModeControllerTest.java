@@ -0,0 +1,203 @@
+package com.loctrack.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class StationaryModeControllerTest {
+    private static final long THRESHOLD_MS = 5 * 60_000;
+    private static final long BASELINE_INTERVAL_MS = 30_000;
+    private static final long GPS_PER_FIX_MS = 2_000;
+    private static final long WAKE_PER_FIX_MS = 250;
+
+    private final List<String> calls = new ArrayList<>();
+    private long now = 1_000_000;
+    private StationaryModeController controller;
+
+    @Before
+    public void setUp() {
+        controller = new StationaryModeController(new StationaryModeController.Actions() {
+            @Override
+            public void armExitGeofence(double latitude, double longitude, float radiusMeters) {
+                calls.add("arm " + latitude + "," + longitude + " r=" + (int) radiusMeters);
+            }
+
+            @Override
+            public void disarmExitGeofence() {
+                calls.add("disarm");
+            }
+
+            @Override
+            public void stopLocationUpdates() {
+                calls.add("stop");
+            }
+
+            @Override
+            public void startLocationUpdates() {
+                calls.add("start");
+            }
+        }, () -> now, THRESHOLD_MS, 150f, BASELINE_INTERVAL_MS, GPS_PER_FIX_MS, WAKE_PER_FIX_MS);
+    }
+
+    /** Still at one spot, one fix every 30 s for {@code ms}. */
+    private void stayFor(long ms) {
+        for (long t = 0; t < ms; t += BASELINE_INTERVAL_MS) {
+            now += BASELINE_INTERVAL_MS;
+            controller.onFix(52.5, 13.4, 20f, false);
+        }
+    }
+
+    private void park() {
+        controller.onActivityChanged(true);
+        controller.onFix(52.5, 13.4, 20f, true);
+        stayFor(THRESHOLD_MS);
+        assertEquals(StationaryModeController.State.ARMING, controller.state());
+        controller.onGeofenceArmed(true);
+        assertTrue(controller.isParked());
+    }
+
+    @Test
+    public void armsOnlyAfterThresholdWhileStill() {
+        controller.onActivityChanged(true);
+        controller.onFix(52.5, 13.4, 20f, true);
+        stayFor(THRESHOLD_MS - BASELINE_INTERVAL_MS);
+        assertEquals(StationaryModeController.State.TRACKING, controller.state());
+        assertTrue(calls.isEmpty());
+
+        stayFor(BASELINE_INTERVAL_MS);
+        assertEquals(StationaryModeController.State.ARMING, controller.state());
+        assertEquals(List.of("arm 52.5,13.4 r=150"), calls);
+    }
+
+    @Test
+    public void armsOnScheduleWhenFixesStop() {
+        assertEquals(-1, controller.nextEvaluationDelayMs());
+        controller.onActivityChanged(true);
+        assertEquals("no anchor to arm around yet", -1, controller.nextEvaluationDelayMs());
+        controller.onFix(52.5, 13.4, 20f, true);
+        assertEquals(THRESHOLD_MS, controller.nextEvaluationDelayMs());
+
+        // The distance filter holds every further fix back
+        now += THRESHOLD_MS - 1;
+        controller.evaluate();
+        assertEquals(StationaryModeController.State.TRACKING, controller.state());
+        assertEquals(1, controller.nextEvaluationDelayMs());
+        now += 1;
+        controller.evaluate();
+        assertEquals(StationaryModeController.State.ARMING, controller.state());
+        assertEquals(List.of("arm 52.5,13.4 r=150"), calls);
+        assertEquals(-1, controller.nextEvaluationDelayMs());
+
+        controller.onActivityChanged(false);
+        assertEquals(-1, controller.nextEvaluationDelayMs());
+    }
+
+    @Test
+    public void doesNotArmWithoutStillActivity() {
+        controller.onFix(52.5, 13.4, 20f, true);
+        stayFor(2 * THRESHOLD_MS);
+        assertEquals(StationaryModeController.State.TRACKING, controller.state());
+        assertTrue(calls.isEmpty());
+    }
+
+    @Test
+    public void movementRestartsStationaryTimer() {
+        controller.onActivityChanged(true);
+        controller.onFix(52.5, 13.4, 20f, true);
+        stayFor(THRESHOLD_MS - BASELINE_INTERVAL_MS);
+        controller.onFix(52.501, 13.4, 20f, true);
+        stayFor(THRESHOLD_MS - BASELINE_INTERVAL_MS);
+        assertEquals(StationaryModeController.State.TRACKING, controller.state());
+    }
+
+    @Test
+    public void radiusGrowsWithPoorAccuracy() {
+        controller.onActivityChanged(true);
+        controller.onFix(52.5, 13.4, 120f, true);
+        for (long t = 0; t < THRESHOLD_MS; t += BASELINE_INTERVAL_MS) {
+            now += BASELINE_INTERVAL_MS;
+            controller.onFix(52.5, 13.4, 120f, false);
+        }
+        assertEquals(List.of("arm 52.5,13.4 r=240"), calls);
+    }
+
+    @Test
+    public void parkingStopsUpdatesAndExitResumes() {
+        park();
+        assertEquals("stop", calls.get(calls.size() - 1));
+
+        calls.clear();
+        controller.onGeofenceExit();
+        assertEquals(StationaryModeController.State.TRACKING, controller.state());
+        assertEquals(List.of("disarm", "start"), calls);
+    }
+
+    @Test
+    public void movingActivityResumesWhileParked() {
+        park();
+        calls.clear();
+        controller.onActivityChanged(false);
+        assertEquals(StationaryModeController.State.TRACKING, controller.state());
+        assertEquals(List.of("disarm", "start"), calls);
+
+        // Further events while tracking do nothing
+        controller.onGeofenceExit();
+        controller.onActivityChanged(false);
+        assertEquals(List.of("disarm", "start"), calls);
+    }
+
+    @Test
+    public void resumeWhileArmingDropsLateResult() {
+        controller.onActivityChanged(true);
+        controller.onFix(52.5, 13.4, 20f, true);
+        stayFor(THRESHOLD_MS);
+        calls.clear();
+
+        controller.onActivityChanged(false);
+        // Updates were never stopped, so only the pending geofence is removed
+        assertEquals(List.of("disarm"), calls);
+        controller.onGeofenceArmed(true);
+        assertEquals(StationaryModeController.State.TRACKING, controller.state());
+        assertEquals(List.of("disarm"), calls);
+    }
+
+    @Test
+    public void failedGeofenceWaitsAnotherThreshold() {
+        controller.onActivityChanged(true);
+        controller.onFix(52.5, 13.4, 20f, true);
+        stayFor(THRESHOLD_MS);
+        controller.onGeofenceArmed(false);
+        assertEquals(StationaryModeController.State.TRACKING, controller.state());
+        assertEquals(1, controller.armFailures());
+
+        calls.clear();
+        stayFor(THRESHOLD_MS - BASELINE_INTERVAL_MS);
+        assertTrue(calls.isEmpty());
+        stayFor(BASELINE_INTERVAL_MS);
+        assertEquals(StationaryModeController.State.ARMING, controller.state());
+    }
+
+    @Test
+    public void estimatesSavingsPerState() {
+        park();
+        long trackingMs = controller.timeInStateMs(StationaryModeController.State.TRACKING);
+        assertEquals(THRESHOLD_MS, trackingMs);
+
+        now += 60 * 60_000; // an hour at the customer site
+        assertEquals(60 * 60_000, controller.timeInStateMs(StationaryModeController.State.PARKED));
+        assertEquals(120, controller.estimatedSavedFixes());
+        assertEquals(120 * GPS_PER_FIX_MS, controller.estimatedGpsOnSavedMs());
+        assertEquals(120 * WAKE_PER_FIX_MS, controller.estimatedWakeSavedMs());
+
+        controller.onGeofenceExit();
+        now += 10 * 60_000;
+        // Parked time is frozen once tracking again, tracking time keeps counting
+        assertEquals(120, controller.estimatedSavedFixes());
+        assertEquals(trackingMs + 10 * 60_000, controller.timeInStateMs(StationaryModeController.State.TRACKING));
+        assertEquals(1, controller.parkCount());
+    }
+}
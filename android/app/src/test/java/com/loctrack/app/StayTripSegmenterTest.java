@@ -0,0 +1,164 @@
+package com.loctrack.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class StayTripSegmenterTest {
+    private static final long T0 = 1_700_000_000_000L;
+    private static final double SITE_A_LAT = 19.0760;
+    private static final double SITE_A_LON = 72.8777;
+    private static final double METRES_PER_DEG_LAT = 111_320.0;
+    private static final byte IN_VEHICLE = 0;
+    private static final byte STILL = 3;
+
+    private final List<StayTripSegmenter.Segment> segments = new ArrayList<>();
+    private long now = T0;
+    private final StayTripSegmenter segmenter = new StayTripSegmenter(segments::add, () -> now);
+
+    private long time = T0;
+    private double latitude = SITE_A_LAT;
+
+    private void fix(double lat, float speed, byte activity) {
+        FixRecord f = new FixRecord();
+        f.timestamp = time;
+        f.latitude = lat;
+        f.longitude = SITE_A_LON;
+        f.accuracy = 10f;
+        f.speed = speed;
+        f.activity = activity;
+        now = time;
+        segmenter.onFix(f);
+    }
+
+    /** Fixes every 30 s within a few metres of the current position. */
+    private void dwell(long ms) {
+        for (long end = time + ms; time <= end; time += 30_000) {
+            fix(latitude + ((time / 30_000) % 3 - 1) * 2e-5, 0f, STILL);
+        }
+    }
+
+    /** Due north at {@code speed} m/s, a fix every 2 s. */
+    private void drive(double metres, float speed) {
+        int steps = (int) (metres / (speed * 2));
+        for (int i = 0; i < steps; i++) {
+            time += 2000;
+            latitude += speed * 2 / METRES_PER_DEG_LAT;
+            fix(latitude, speed, IN_VEHICLE);
+        }
+    }
+
+    private List<String> kinds() {
+        List<String> kinds = new ArrayList<>();
+        for (StayTripSegmenter.Segment s : segments) {
+            kinds.add(s.kind + (s.isOpen() ? " open" : ""));
+        }
+        return kinds;
+    }
+
+    // Fixes within the stay radius of a cluster's first fix still belong to it,
+    // so stays stretch a few drive steps into the trips either side
+    private static final double EDGE_MS = 6000;
+
+    @Test
+    public void stayTripStay() {
+        dwell(10 * 60_000);
+        long departure = time;
+        drive(3000, 15f);
+        long arrival = time;
+        time += 30_000;
+        dwell(10 * 60_000);
+
+        assertEquals(List.of("STAY open", "STAY", "TRIP", "STAY open"), kinds());
+        StayTripSegmenter.Segment stay = segments.get(1);
+        assertEquals(T0, stay.startTime);
+        assertEquals(departure, stay.endTime, EDGE_MS);
+        assertEquals(SITE_A_LAT, stay.latitude, 1e-4);
+
+        StayTripSegmenter.Segment trip = segments.get(2);
+        assertEquals(stay.endTime, trip.startTime);
+        assertEquals(arrival, trip.endTime, EDGE_MS);
+        assertEquals(3000, trip.distanceMeters, 150);
+        assertEquals(15f, trip.maxSpeed, 0);
+        assertEquals(IN_VEHICLE, trip.activity);
+        assertEquals(trip.endTime, segments.get(3).startTime);
+        assertEquals(2, segmenter.stayCount());
+        assertEquals(1, segmenter.tripCount());
+        assertTrue(segmenter.isStaying());
+    }
+
+    @Test
+    public void stayIsConfirmedAfterMinimumDuration() {
+        dwell(4 * 60_000);
+        assertTrue(segments.isEmpty());
+        dwell(60_000);
+        assertEquals(List.of("STAY open"), kinds());
+
+        // Still per activity recognition: two minutes are enough
+        segments.clear();
+        drive(2000, 15f);
+        time += 30_000;
+        segmenter.onActivityChanged(true);
+        dwell(2 * 60_000);
+        assertEquals(List.of("STAY", "TRIP", "STAY open"), kinds());
+    }
+
+    @Test
+    public void shortStopDoesNotSplitTheTrip() {
+        dwell(6 * 60_000);
+        drive(1500, 12f);
+        dwell(90_000);
+        drive(1500, 12f);
+        time += 30_000;
+        dwell(6 * 60_000);
+
+        assertEquals(List.of("STAY open", "STAY", "TRIP", "STAY open"), kinds());
+        assertEquals(3000, segments.get(2).distanceMeters, 150);
+    }
+
+    @Test
+    public void departureAfterParkedGpsUsesActivityChange() {
+        segmenter.onActivityChanged(true);
+        dwell(3 * 60_000);
+        long lastInside = time - 30_000;
+
+        // GPS parked for an hour; activity turns to driving, then fixes resume
+        // once the exit geofence fires, already away from the site
+        time += 3600_000;
+        now = time;
+        long movedAt = time;
+        segmenter.onActivityChanged(false);
+        time += 60_000;
+        latitude += 300 / METRES_PER_DEG_LAT;
+        drive(2000, 15f);
+
+        StayTripSegmenter.Segment stay = segments.get(1);
+        assertEquals(StayTripSegmenter.Kind.STAY, stay.kind);
+        assertTrue(movedAt > lastInside);
+        assertEquals(movedAt, stay.endTime);
+    }
+
+    @Test
+    public void jitterBeforeFirstStayIsNoTrip() {
+        dwell(6 * 60_000);
+        assertEquals(List.of("STAY open"), kinds());
+        assertEquals(0, segmenter.tripCount());
+    }
+
+    @Test
+    public void vagueFixesAreIgnored() {
+        dwell(4 * 60_000);
+        FixRecord far = new FixRecord();
+        far.timestamp = time;
+        far.latitude = SITE_A_LAT + 0.01;
+        far.longitude = SITE_A_LON;
+        far.accuracy = 500f;
+        segmenter.onFix(far);
+        time += 30_000;
+        dwell(60_000);
+        assertEquals("the vague fix did not break the cluster", List.of("STAY open"), kinds());
+    }
+}
@@ -0,0 +1,157 @@
+package com.loctrack.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class SyncCoordinatorTest {
+    private SyncCoordinator coordinator;
+
+    @After
+    public void tearDown() {
+        if (coordinator != null) coordinator.shutdown(1000);
+    }
+
+    /** Upload stand-in whose first run blocks until released. */
+    private static final class GatedUpload implements Runnable {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger runs = new AtomicInteger();
+        final AtomicInteger concurrent = new AtomicInteger();
+        volatile int maxConcurrent;
+        volatile Thread thread;
+
+        @Override
+        public void run() {
+            thread = Thread.currentThread();
+            maxConcurrent = Math.max(maxConcurrent, concurrent.incrementAndGet());
+            int run = runs.incrementAndGet();
+            started.countDown();
+            if (run == 1) {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            concurrent.decrementAndGet();
+        }
+    }
+
+    private static void awaitIdle(SyncCoordinator c) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (c.isRunning() && System.currentTimeMillis() < deadline) Thread.sleep(5);
+        assertFalse(c.isRunning());
+    }
+
+    @Test
+    public void triggersDuringFlightCoalesceIntoOneFollowUp() throws Exception {
+        GatedUpload upload = new GatedUpload();
+        coordinator = new SyncCoordinator(upload);
+
+        coordinator.requestSync("periodic");
+        assertTrue(upload.started.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 20; i++) coordinator.requestSync("batch full");
+        upload.release.countDown();
+        awaitIdle(coordinator);
+
+        assertEquals(2, upload.runs.get());
+        assertEquals(1, upload.maxConcurrent);
+        assertEquals(21, coordinator.requestCount());
+        assertEquals(19, coordinator.coalescedCount());
+    }
+
+    @Test
+    public void neverRunsOnCallerThread() throws Exception {
+        GatedUpload upload = new GatedUpload();
+        upload.release.countDown();
+        coordinator = new SyncCoordinator(upload);
+
+        assertTrue(coordinator.requestUrgentSync("shutdown", 5000));
+        assertNotNull(upload.thread);
+        assertNotSame(Thread.currentThread(), upload.thread);
+        assertEquals("location-sync", upload.thread.getName());
+    }
+
+    @Test
+    public void urgentWaitsForRunStartedAfterIt() throws Exception {
+        GatedUpload upload = new GatedUpload();
+        coordinator = new SyncCoordinator(upload);
+        coordinator.requestSync("periodic");
+        assertTrue(upload.started.await(5, TimeUnit.SECONDS));
+
+        AtomicReference<Boolean> result = new AtomicReference<>();
+        Thread waiter = new Thread(() -> result.set(coordinator.requestUrgentSync("shutdown", 5000)));
+        waiter.start();
+        Thread.sleep(50);
+        assertNull("must not be satisfied by the run already in flight", result.get());
+
+        upload.release.countDown();
+        waiter.join(5000);
+        assertEquals(Boolean.TRUE, result.get());
+        assertEquals(2, upload.runs.get());
+    }
+
+    @Test
+    public void urgentGivesUpAtDeadline() throws Exception {
+        GatedUpload upload = new GatedUpload();
+        coordinator = new SyncCoordinator(upload);
+
+        long start = System.nanoTime();
+        assertFalse(coordinator.requestUrgentSync("shutdown", 100));
+        long waitedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(waitedMs >= 90 && waitedMs < 2000);
+        upload.release.countDown();
+    }
+
+    @Test
+    public void shutdownRejectsNewRequests() throws Exception {
+        GatedUpload upload = new GatedUpload();
+        upload.release.countDown();
+        coordinator = new SyncCoordinator(upload);
+        coordinator.shutdown(1000);
+
+        coordinator.requestSync("late");
+        assertFalse(coordinator.requestUrgentSync("late", 100));
+        assertEquals(0, upload.runs.get());
+    }
+
+    @Test
+    public void teardownWaitsForUploadEvenPastTheDeadline() throws Exception {
+        GatedUpload upload = new GatedUpload();
+        coordinator = new SyncCoordinator(upload);
+        coordinator.requestSync("periodic");
+        assertTrue(upload.started.await(5, TimeUnit.SECONDS));
+
+        CountDownLatch closed = new CountDownLatch(1);
+        AtomicInteger uploadsRunningAtClose = new AtomicInteger(-1);
+        assertFalse("upload still in flight", coordinator.shutdown(50, () -> {
+            uploadsRunningAtClose.set(upload.concurrent.get());
+            closed.countDown();
+        }));
+        assertEquals(1, closed.getCount());
+
+        upload.release.countDown();
+        assertTrue(closed.await(5, TimeUnit.SECONDS));
+        assertEquals(0, uploadsRunningAtClose.get());
+        assertEquals(1, upload.runs.get());
+    }
+
+    @Test
+    public void failingUploadDoesNotWedgeCoordinator() throws Exception {
+        AtomicInteger runs = new AtomicInteger();
+        coordinator = new SyncCoordinator(() -> {
+            runs.incrementAndGet();
+            throw new IllegalStateException("boom");
+        });
+        assertTrue(coordinator.requestUrgentSync("first", 5000));
+        assertTrue(coordinator.requestUrgentSync("second", 5000));
+        assertEquals(2, runs.get());
+    }
+}
@@ -0,0 +1,151 @@
+package com.loctrack.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+public class SyncRetryPolicyTest {
+
+    private final long[] now = {1_000_000};
+
+    private SyncRetryPolicy policy(long seed) {
+        return new SyncRetryPolicy(1000, 60_000, 4, 30_000, () -> now[0], new Random(seed));
+    }
+
+    @Test
+    public void backoffStaysWithinBoundsAndBlocksEarlyAttempts() {
+        SyncRetryPolicy p = policy(1);
+        assertTrue(p.tryAcquire());
+        p.onFailure(500, -1);
+        long delay = p.delayUntilNextAttemptMs();
+        assertTrue(delay >= 1000 && delay <= 3000);
+
+        now[0] += delay - 1;
+        assertFalse(p.tryAcquire());
+        now[0] += 1;
+        assertTrue(p.tryAcquire());
+        assertEquals(1, p.rejectedAttempts());
+    }
+
+    @Test
+    public void delaysNeverExceedCap() {
+        SyncRetryPolicy p = new SyncRetryPolicy(1000, 20_000, 1000, 0, () -> now[0], new Random(9));
+        for (int i = 0; i < 50; i++) {
+            assertTrue(p.tryAcquire());
+            p.onFailure(-1, -1);
+            long delay = p.delayUntilNextAttemptMs();
+            assertTrue(delay >= 1000 && delay <= 20_000);
+            now[0] += delay;
+        }
+        assertEquals(SyncRetryPolicy.State.CLOSED, p.state());
+    }
+
+    @Test
+    public void fleetRetriesAreSpreadOut() {
+        // 200 devices fail at the same instants - no 100 ms slot may see more than 25 of them retry
+        Random seeds = new Random(42);
+        for (int failures = 1; failures <= 3; failures++) {
+            int[] slots = new int[1000];
+            int busiest = 0;
+            for (int device = 0; device < 200; device++) {
+                SyncRetryPolicy p = policy(seeds.nextLong());
+                for (int i = 0; i < failures; i++) {
+                    p.tryAcquire();
+                    p.onFailure(503, -1);
+                }
+                busiest = Math.max(busiest, ++slots[(int) (p.delayUntilNextAttemptMs() / 100)]);
+            }
+            assertTrue(busiest + " devices retry together after " + failures + " failure(s)", busiest <= 25);
+        }
+    }
+
+    @Test
+    public void honoursRetryAfterOnlyForThrottlingCodes() {
+        SyncRetryPolicy p = policy(2);
+        p.tryAcquire();
+        p.onFailure(429, 45_000);
+        assertTrue(p.delayUntilNextAttemptMs() >= 45_000);
+
+        SyncRetryPolicy q = policy(2);
+        q.tryAcquire();
+        q.onFailure(503, 20_000);
+        assertTrue(q.delayUntilNextAttemptMs() >= 20_000);
+
+        SyncRetryPolicy r = policy(2);
+        r.tryAcquire();
+        r.onFailure(500, 45_000);
+        assertTrue(r.delayUntilNextAttemptMs() <= 3000);
+
+        // Retry-After beyond the cap is clamped
+        SyncRetryPolicy s = policy(2);
+        s.tryAcquire();
+        s.onFailure(503, 3_600_000);
+        assertEquals(60_000, s.delayUntilNextAttemptMs());
+    }
+
+    @Test
+    public void circuitOpensHalfOpensAndCloses() {
+        SyncRetryPolicy p = policy(3);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(p.tryAcquire());
+            p.onFailure(-1, -1);
+            if (i < 3) {
+                assertEquals(SyncRetryPolicy.State.CLOSED, p.state());
+                now[0] += p.delayUntilNextAttemptMs();
+            }
+        }
+        assertEquals(SyncRetryPolicy.State.OPEN, p.state());
+        assertEquals(1, p.circuitOpens());
+        long open = p.delayUntilNextAttemptMs();
+        assertTrue(open >= 30_000);
+
+        now[0] += open;
+        assertTrue("one probe after the open period", p.tryAcquire());
+        assertEquals(SyncRetryPolicy.State.HALF_OPEN, p.state());
+        assertFalse("only one probe at a time", p.tryAcquire());
+
+        // Failed probe re-opens for twice as long
+        p.onFailure(503, -1);
+        assertEquals(SyncRetryPolicy.State.OPEN, p.state());
+        assertTrue(p.delayUntilNextAttemptMs() >= 60_000);
+
+        now[0] += p.delayUntilNextAttemptMs();
+        assertTrue(p.tryAcquire());
+        p.onSuccess();
+        assertEquals(SyncRetryPolicy.State.CLOSED, p.state());
+        assertEquals(0, p.consecutiveFailures());
+        assertEquals(0, p.delayUntilNextAttemptMs());
+        assertTrue(p.tryAcquire());
+        assertTrue(p.tryAcquire());
+    }
+
+    @Test
+    public void abandonedProbeLeavesCircuitAsItWas() {
+        SyncRetryPolicy p = policy(5);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(p.tryAcquire());
+            p.onFailure(500, -1);
+            now[0] += p.delayUntilNextAttemptMs();
+        }
+        assertTrue(p.tryAcquire());
+        assertEquals(SyncRetryPolicy.State.HALF_OPEN, p.state());
+
+        p.onAbandoned();
+        assertEquals(SyncRetryPolicy.State.HALF_OPEN, p.state());
+        assertEquals(4, p.consecutiveFailures());
+        assertTrue("the probe slot is free again", p.tryAcquire());
+        assertFalse(p.tryAcquire());
+    }
+
+    @Test
+    public void parsesRetryAfter() {
+        assertEquals(120_000, SyncRetryPolicy.parseRetryAfter("120", 0));
+        assertEquals(-1, SyncRetryPolicy.parseRetryAfter(null, 0));
+        assertEquals(-1, SyncRetryPolicy.parseRetryAfter("soon", 0));
+        // Sun, 06 Nov 1994 08:49:37 GMT = 784111777000
+        assertEquals(30_000, SyncRetryPolicy.parseRetryAfter("Sun, 06 Nov 1994 08:49:37 GMT", 784111747000L));
+        assertEquals(0, SyncRetryPolicy.parseRetryAfter("Sun, 06 Nov 1994 08:49:37 GMT", 784111800000L));
+    }
+}
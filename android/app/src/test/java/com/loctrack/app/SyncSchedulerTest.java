@@ -0,0 +1,185 @@
+package com.loctrack.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class SyncSchedulerTest {
+    private long now = 1_000_000;
+    private SyncScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        scheduler = new SyncScheduler(() -> now);
+        scheduler.setNetwork(true, true);
+    }
+
+    @Test
+    public void nothingPendingIsIdle() {
+        SyncScheduler.Decision decision = scheduler.evaluate(0, 0);
+        assertFalse(decision.runsNow());
+        assertEquals(-1, decision.delayMs);
+    }
+
+    @Test
+    public void offlineWaitsForNetwork() {
+        scheduler.setNetwork(false, false);
+        scheduler.onFixQueued();
+        assertEquals(-1, scheduler.evaluate(10, 0).delayMs);
+
+        scheduler.setNetwork(true, false);
+        assertEquals(SyncScheduler.Lane.BULK, scheduler.evaluate(10, 0).lane);
+    }
+
+    @Test
+    public void meteredNetworkSendsLatestWithinDeadline() {
+        scheduler.onFixQueued();
+        scheduler.onLatestOffered();
+        SyncScheduler.Decision decision = scheduler.evaluate(1, 0);
+        assertFalse(decision.runsNow());
+        assertEquals(SyncScheduler.DEFAULT_LATEST_DEADLINE_MS, decision.delayMs);
+
+        // More fixes do not push the deadline out
+        now += 2_000;
+        scheduler.onLatestOffered();
+        assertEquals(SyncScheduler.DEFAULT_LATEST_DEADLINE_MS - 2_000, scheduler.evaluate(2, 0).delayMs);
+
+        now += SyncScheduler.DEFAULT_LATEST_DEADLINE_MS - 2_000;
+        assertEquals(SyncScheduler.Lane.LATEST, scheduler.evaluate(3, 0).lane);
+        scheduler.onSyncCompleted(SyncScheduler.Lane.LATEST, true, 0);
+        assertEquals(1, scheduler.latestRuns());
+        assertEquals(0, scheduler.bulkRuns());
+    }
+
+    @Test
+    public void queuedFixOnlyJoinsTheBacklog() {
+        scheduler.onFixQueued();
+        assertEquals(SyncScheduler.DEFAULT_BULK_MAX_DEFER_MS, scheduler.evaluate(1, 0).delayMs);
+
+        now += 10_000;
+        scheduler.onLatestOffered();
+        assertEquals(SyncScheduler.DEFAULT_LATEST_DEADLINE_MS, scheduler.evaluate(2, 0).delayMs);
+    }
+
+    @Test
+    public void latestGoesOutWithNothingQueued() {
+        // The simplifier is still holding the fix back - the live position goes anyway
+        scheduler.onLatestOffered();
+        now += SyncScheduler.DEFAULT_LATEST_DEADLINE_MS;
+        assertEquals(SyncScheduler.Lane.LATEST, scheduler.evaluate(0, 0).lane);
+        scheduler.onSyncCompleted(SyncScheduler.Lane.LATEST, true, 0);
+        assertFalse(scheduler.evaluate(0, 0).runsNow());
+    }
+
+    @Test
+    public void latestOfferedDuringFlightSurvivesSuccess() {
+        scheduler.onLatestOffered();
+        now += SyncScheduler.DEFAULT_LATEST_DEADLINE_MS;
+        assertEquals(SyncScheduler.Lane.LATEST, scheduler.evaluate(0, 0).lane);
+
+        // A newer fix arrives while the run is still on the wire
+        now += 1_000;
+        scheduler.onLatestOffered();
+        scheduler.onSyncCompleted(SyncScheduler.Lane.LATEST, true, 0);
+
+        SyncScheduler.Decision decision = scheduler.evaluate(0, 0);
+        assertFalse(decision.runsNow());
+        assertEquals(SyncScheduler.DEFAULT_MIN_SPACING_MS, decision.delayMs);
+        now += SyncScheduler.DEFAULT_MIN_SPACING_MS;
+        assertEquals(SyncScheduler.Lane.LATEST, scheduler.evaluate(0, 0).lane);
+    }
+
+    @Test
+    public void unmeteredOrChargingDrainsAtOnce() {
+        scheduler.onFixQueued();
+        scheduler.setCharging(true);
+        assertEquals(SyncScheduler.Lane.BULK, scheduler.evaluate(1, 0).lane);
+        scheduler.onSyncCompleted(SyncScheduler.Lane.BULK, true, 0);
+
+        scheduler.setCharging(false);
+        scheduler.setNetwork(true, false);
+        now += SyncScheduler.DEFAULT_MIN_SPACING_MS;
+        scheduler.onFixQueued();
+        assertEquals(SyncScheduler.Lane.BULK, scheduler.evaluate(1, 0).lane);
+    }
+
+    @Test
+    public void piggybacksOnActiveRadio() {
+        scheduler.onFixQueued();
+        now += 5_000;
+        scheduler.onRadioActive();
+        assertEquals(SyncScheduler.Lane.BULK, scheduler.evaluate(1, 0).lane);
+        assertEquals(1, scheduler.piggybackRuns());
+        scheduler.onSyncCompleted(SyncScheduler.Lane.BULK, true, 0);
+
+        // The window closes shortly after the radio went active
+        now += SyncScheduler.DEFAULT_MIN_SPACING_MS;
+        scheduler.onFixQueued();
+        assertFalse(scheduler.evaluate(1, 0).runsNow());
+    }
+
+    @Test
+    public void backlogIsForcedAfterMaxDeferOrWhenLarge() {
+        SyncScheduler small = new SyncScheduler(() -> now, 60_000, 10 * 60_000, 15_000, 10_000, 500);
+        small.setNetwork(true, true);
+        small.onFixQueued();
+        small.onLatestOffered();
+        long start = now;
+        // Latest-position runs succeed but leave history behind
+        for (int i = 0; i < 9; i++) {
+            now += small.evaluate(100, 0).delayMs;
+            assertEquals(SyncScheduler.Lane.LATEST, small.evaluate(100, 0).lane);
+            small.onSyncCompleted(SyncScheduler.Lane.LATEST, true, 100);
+            small.onFixQueued();
+            small.onLatestOffered();
+        }
+        SyncScheduler.Decision decision = small.evaluate(100, 0);
+        assertEquals(start + 10 * 60_000, now + decision.delayMs);
+        now += decision.delayMs;
+        assertEquals(SyncScheduler.Lane.BULK, small.evaluate(100, 0).lane);
+        small.onSyncCompleted(SyncScheduler.Lane.BULK, true, 0);
+
+        now += 15_000;
+        small.onFixQueued();
+        assertEquals(SyncScheduler.Lane.BULK, small.evaluate(500, 0).lane);
+    }
+
+    @Test
+    public void oneRunInFlightAndSpacedApart() {
+        scheduler.setNetwork(true, false);
+        scheduler.onFixQueued();
+        assertTrue(scheduler.evaluate(1, 0).runsNow());
+        scheduler.onFixQueued();
+        assertEquals(-1, scheduler.evaluate(2, 0).delayMs);
+
+        scheduler.onSyncCompleted(SyncScheduler.Lane.BULK, true, 1);
+        // Drained everything it was given but more arrived meanwhile - keeps going
+        assertTrue(scheduler.evaluate(1, 0).runsNow());
+        scheduler.onSyncCompleted(SyncScheduler.Lane.BULK, true, 0);
+
+        scheduler.onFixQueued();
+        assertEquals(SyncScheduler.DEFAULT_MIN_SPACING_MS, scheduler.evaluate(1, 0).delayMs);
+    }
+
+    @Test
+    public void staleInFlightStopsBlocking() {
+        scheduler.setNetwork(true, false);
+        scheduler.onFixQueued();
+        assertTrue(scheduler.evaluate(1, 0).runsNow());
+        now += SyncScheduler.IN_FLIGHT_TIMEOUT_MS;
+        assertTrue(scheduler.evaluate(1, 0).runsNow());
+    }
+
+    @Test
+    public void failureRespectsRetryBackoff() {
+        scheduler.setNetwork(true, false);
+        scheduler.onFixQueued();
+        assertTrue(scheduler.evaluate(1, 0).runsNow());
+        scheduler.onSyncCompleted(SyncScheduler.Lane.BULK, false, 1);
+
+        assertEquals(40_000, scheduler.evaluate(1, 40_000).delayMs);
+        now += 40_000;
+        assertTrue(scheduler.evaluate(1, 0).runsNow());
+    }
+}
@@ -0,0 +1,140 @@
+package com.loctrack.app;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Deterministic synthetic traces shaped like a technician's shift: a
+ * stop-and-go city drive, a straight highway run, a walk around a site
+ * and a long parked stay, sampled every 2 s with GPS-like noise.
+ */
+final class TestTraces {
+    static final double ORIGIN_LAT = 19.0760;
+    static final double ORIGIN_LON = 72.8777;
+    static final long START_TIME = 1_700_000_000_000L;
+    private static final double METRES_PER_DEG_LAT = 111_320.0;
+
+    private TestTraces() {}
+
+    /** Noisy fixes plus the true position (lat, lon) behind each one. */
+    static final class Trace {
+        final List<FixRecord> fixes = new ArrayList<>();
+        final List<double[]> truth = new ArrayList<>();
+    }
+
+    /** Full shift (~6 h of 2-second fixes). */
+    static List<FixRecord> shift(long seed) {
+        return shiftTrace(seed).fixes;
+    }
+
+    static Trace shiftTrace(long seed) {
+        Random random = new Random(seed);
+        Trace out = new Trace();
+        State s = new State();
+        drive(out, s, random, 1800, 9, true);     // city: 1 h, stop-and-go
+        drive(out, s, random, 1200, 25, false);   // highway: 40 min
+        park(out, s, random, 3600);               // at a customer site: 2 h
+        walk(out, s, random, 900);                // walking around the site
+        drive(out, s, random, 3000, 12, true);    // back through town
+        return out;
+    }
+
+    static List<FixRecord> drive(int samples, double speed, long seed) {
+        Trace out = new Trace();
+        drive(out, new State(), new Random(seed), samples, speed, false);
+        return out.fixes;
+    }
+
+    /**
+     * Fix {@code i} of a plain diagonal line from the origin, one every 2 s
+     * from {@link #START_TIME}, with speed on even fixes only - for storage
+     * tests that need exact, predictable values rather than a realistic trace.
+     */
+    static FixRecord lineFix(int i) {
+        FixRecord r = new FixRecord();
+        r.timestamp = START_TIME + i * 2000L;
+        r.latitude = ORIGIN_LAT + i * 1e-5;
+        r.longitude = ORIGIN_LON - i * 1e-5;
+        r.accuracy = 5f;
+        r.speed = i % 2 == 0 ? 12.5f : Float.NaN;
+        r.batteryLevel = 80;
+        r.activity = 3;
+        r.confidence = 0.5f;
+        r.networkStatus = FixRecord.NETWORK_ONLINE;
+        return r;
+    }
+
+    private static final class State {
+        double north;
+        double east;
+        double heading = 45;
+        long time = START_TIME;
+        long seq = 1;
+    }
+
+    private static void drive(Trace out, State s, Random r, int samples, double cruise, boolean stopAndGo) {
+        double speed = cruise;
+        for (int i = 0; i < samples; i++) {
+            if (stopAndGo && i % 150 == 0) speed = r.nextDouble() < 0.3 ? 0 : cruise * (0.5 + r.nextDouble());
+            if (i % 90 == 0) s.heading = (s.heading + (r.nextDouble() < 0.5 ? 90 : -90) * (stopAndGo ? 1 : 0.1)) % 360;
+            s.heading += r.nextGaussian() * (stopAndGo ? 2 : 0.3);
+            step(s, speed, 2);
+            // Urban-canyon multipath: occasional fixes with poor, honest accuracy
+            float accuracy = stopAndGo && r.nextDouble() < 0.02 ? 30 + r.nextFloat() * 50 : 4 + r.nextFloat() * 6;
+            fix(out, s, r, accuracy, (float) speed, (byte) 0);
+        }
+    }
+
+    private static void walk(Trace out, State s, Random r, int samples) {
+        for (int i = 0; i < samples; i++) {
+            if (i % 20 == 0) s.heading = r.nextDouble() * 360;
+            step(s, 1.3, 2);
+            fix(out, s, r, 6 + r.nextFloat() * 10, 1.3f, (byte) 7);
+        }
+    }
+
+    private static void park(Trace out, State s, Random r, int samples) {
+        for (int i = 0; i < samples; i++) {
+            s.time += 2000;
+            fix(out, s, r, 8 + r.nextFloat() * 20, 0f, (byte) 3).heading = Float.NaN;
+        }
+    }
+
+    private static void step(State s, double speed, double dt) {
+        double rad = Math.toRadians(s.heading);
+        s.north += Math.cos(rad) * speed * dt;
+        s.east += Math.sin(rad) * speed * dt;
+        s.time += (long) (dt * 1000);
+    }
+
+    private static FixRecord fix(Trace out, State s, Random r, float accuracy, float speed, byte activity) {
+        double noise = accuracy / 3.0;
+        double north = s.north + r.nextGaussian() * noise;
+        double east = s.east + r.nextGaussian() * noise;
+        FixRecord f = new FixRecord();
+        f.seq = s.seq++;
+        f.timestamp = s.time + r.nextInt(40);
+        f.latitude = ORIGIN_LAT + north / METRES_PER_DEG_LAT;
+        f.longitude = ORIGIN_LON + east / (METRES_PER_DEG_LAT * Math.cos(Math.toRadians(ORIGIN_LAT)));
+        f.accuracy = accuracy;
+        f.speed = speed;
+        f.heading = (float) ((s.heading % 360 + 360) % 360);
+        f.batteryLevel = (byte) (90 - s.seq / 500);
+        f.activity = activity;
+        f.networkStatus = FixRecord.NETWORK_ONLINE;
+        out.fixes.add(f);
+        out.truth.add(new double[] {
+            ORIGIN_LAT + s.north / METRES_PER_DEG_LAT,
+            ORIGIN_LON + s.east / (METRES_PER_DEG_LAT * Math.cos(Math.toRadians(ORIGIN_LAT)))
+        });
+        return f;
+    }
+
+    /** Ground-truth distance in metres between two fixes (equirectangular, fine at trace scale). */
+    static double distance(double lat1, double lon1, double lat2, double lon2) {
+        double dNorth = (lat2 - lat1) * METRES_PER_DEG_LAT;
+        double dEast = (lon2 - lon1) * METRES_PER_DEG_LAT * Math.cos(Math.toRadians((lat1 + lat2) / 2));
+        return Math.sqrt(dNorth * dNorth + dEast * dEast);
+    }
+}
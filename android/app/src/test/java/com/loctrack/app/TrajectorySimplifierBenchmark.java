@@ -0,0 +1,71 @@
+package com.loctrack.app;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compression ratio and error of TrajectorySimplifierStage on replayed
+ * shift traces (Kalman-smoothed first, as in the service). Reports the
+ * max/mean synchronized distance between every smoothed fix and the
+ * uploaded polyline, plus the RMS error against ground truth before and
+ * after simplification. Plain main, run from the IDE.
+ */
+public class TrajectorySimplifierBenchmark {
+
+    public static void main(String[] args) {
+        for (double tolerance : new double[] {5, 10, 20}) {
+            long in = 0, out = 0;
+            double maxSed = 0, truthSqBefore = 0, truthSqAfter = 0;
+            long nanos = 0;
+            for (long seed = 1; seed <= 5; seed++) {
+                TestTraces.Trace trace = TestTraces.shiftTrace(seed);
+                List<FixRecord> smoothed = smooth(trace.fixes);
+                TrajectorySimplifierStage stage = new TrajectorySimplifierStage(tolerance,
+                    TrajectorySimplifierStage.DEFAULT_MAX_WINDOW_POINTS, TrajectorySimplifierStage.DEFAULT_MAX_WINDOW_MS);
+                long start = System.nanoTime();
+                List<FixRecord> kept = TrajectorySimplifierStageTest.simplify(stage, smoothed);
+                nanos += System.nanoTime() - start;
+
+                in += smoothed.size();
+                out += kept.size();
+                maxSed = Math.max(maxSed, TrajectorySimplifierStageTest.maxSedError(smoothed, kept));
+                truthSqBefore += truthError(trace, smoothed, smoothed);
+                truthSqAfter += truthError(trace, smoothed, kept);
+            }
+            System.out.printf("tolerance %4.0f m: %6d -> %5d fixes (%.1fx), max SED %.2f m, "
+                    + "RMS vs truth %.2f m -> %.2f m, %.0f ns/fix%n",
+                tolerance, in, out, in / (double) out, maxSed,
+                Math.sqrt(truthSqBefore / in), Math.sqrt(truthSqAfter / in), nanos / (double) in);
+        }
+    }
+
+    private static List<FixRecord> smooth(List<FixRecord> raw) {
+        KalmanFilterStage filter = new KalmanFilterStage();
+        List<FixRecord> out = new ArrayList<>(raw.size());
+        for (FixRecord f : raw) {
+            FixRecord c = new FixRecord();
+            c.copyFrom(f);
+            filter.process(c);
+            out.add(c);
+        }
+        return out;
+    }
+
+    /** Sum of squared distances between truth and the polyline through {@code kept}, sampled at each input time. */
+    private static double truthError(TestTraces.Trace trace, List<FixRecord> input, List<FixRecord> kept) {
+        double sum = 0;
+        int k = 0;
+        for (int i = 0; i < input.size(); i++) {
+            long t = input.get(i).timestamp;
+            while (k < kept.size() - 2 && kept.get(k + 1).timestamp <= t) k++;
+            FixRecord a = kept.get(k);
+            FixRecord b = kept.get(Math.min(k + 1, kept.size() - 1));
+            double ratio = b.timestamp == a.timestamp ? 0 : (t - a.timestamp) / (double) (b.timestamp - a.timestamp);
+            double[] truth = trace.truth.get(i);
+            double e = TestTraces.distance(truth[0], truth[1],
+                a.latitude + (b.latitude - a.latitude) * ratio, a.longitude + (b.longitude - a.longitude) * ratio);
+            sum += e * e;
+        }
+        return sum;
+    }
+}
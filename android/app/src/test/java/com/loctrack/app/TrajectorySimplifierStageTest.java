@@ -0,0 +1,108 @@
+package com.loctrack.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class TrajectorySimplifierStageTest {
+
+    /** Runs the trace through the stage (plus final flush) and returns the kept fixes. */
+    static List<FixRecord> simplify(TrajectorySimplifierStage stage, List<FixRecord> input) {
+        List<FixRecord> kept = new ArrayList<>();
+        FixRecord fix = new FixRecord();
+        for (FixRecord f : input) {
+            fix.copyFrom(f);
+            if (stage.process(fix)) kept.add(copy(fix));
+        }
+        while (stage.flush(fix)) kept.add(copy(fix));
+        return kept;
+    }
+
+    /** Largest distance between an input fix and the kept polyline interpolated at its timestamp. */
+    static double maxSedError(List<FixRecord> input, List<FixRecord> kept) {
+        double max = 0;
+        int k = 0;
+        for (FixRecord f : input) {
+            while (k < kept.size() - 2 && kept.get(k + 1).timestamp <= f.timestamp) k++;
+            FixRecord a = kept.get(k);
+            FixRecord b = kept.get(Math.min(k + 1, kept.size() - 1));
+            double ratio = b.timestamp == a.timestamp ? 0 : (f.timestamp - a.timestamp) / (double) (b.timestamp - a.timestamp);
+            double lat = a.latitude + (b.latitude - a.latitude) * ratio;
+            double lon = a.longitude + (b.longitude - a.longitude) * ratio;
+            max = Math.max(max, TestTraces.distance(lat, lon, f.latitude, f.longitude));
+        }
+        return max;
+    }
+
+    private static FixRecord copy(FixRecord f) {
+        FixRecord c = new FixRecord();
+        c.copyFrom(f);
+        return c;
+    }
+
+    @Test
+    public void straightConstantSpeedLineCollapsesToWindowEnds() {
+        List<FixRecord> line = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            FixRecord f = new FixRecord();
+            f.seq = i;
+            f.timestamp = i * 2000L;
+            f.latitude = 10 + i * 2e-4;
+            f.longitude = 20;
+            line.add(f);
+        }
+        List<FixRecord> kept = simplify(new TrajectorySimplifierStage(5, 64, 600_000), line);
+        assertEquals(2, kept.size());
+        assertEquals(0, kept.get(0).seq);
+        assertEquals(29, kept.get(1).seq);
+    }
+
+    @Test
+    public void errorStaysWithinToleranceOnShiftTrace() {
+        List<FixRecord> input = TestTraces.shift(21);
+        TrajectorySimplifierStage stage = new TrajectorySimplifierStage();
+        List<FixRecord> kept = simplify(stage, input);
+
+        assertTrue(maxSedError(input, kept) <= TrajectorySimplifierStage.DEFAULT_TOLERANCE_M + 1e-6);
+        assertTrue(stage.compressionRatio() > 1.5);
+        assertEquals(input.get(input.size() - 1).seq, kept.get(kept.size() - 1).seq);
+    }
+
+    @Test
+    public void stopIsPreservedInTime() {
+        // Drive 20 fixes, stand still for 20, drive again: both ends of the stop must be kept
+        List<FixRecord> input = new ArrayList<>();
+        double lat = 10;
+        for (int i = 0; i < 60; i++) {
+            if (i < 20 || i >= 40) lat += 2e-4;
+            FixRecord f = new FixRecord();
+            f.seq = i;
+            f.timestamp = i * 2000L;
+            f.latitude = lat;
+            f.longitude = 20;
+            input.add(f);
+        }
+        List<FixRecord> kept = simplify(new TrajectorySimplifierStage(5, 64, 600_000), input);
+        assertTrue(maxSedError(input, kept) <= 5 + 1e-6);
+        assertTrue(kept.size() >= 4);
+    }
+
+    @Test
+    public void windowIsBoundedInTime() {
+        List<FixRecord> line = TestTraces.drive(0, 10, 1);
+        for (int i = 0; i < 100; i++) {
+            FixRecord f = new FixRecord();
+            f.timestamp = i * 2000L;
+            f.latitude = 10;
+            f.longitude = 20;
+            line.add(f);
+        }
+        List<FixRecord> kept = simplify(new TrajectorySimplifierStage(5, 64, 30_000), line);
+        for (int i = 1; i < kept.size(); i++) {
+            assertTrue(kept.get(i).timestamp - kept.get(i - 1).timestamp <= 32_000);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package com.loctrack.app;
+
+import static org.junit.Assert.*;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Exercises the uplink against a local stand-in for the API server.
+ */
+public class UplinkClientTest {
+
+    /** What the stand-in server saw for one request. */
+    static final class Received {
+        int remotePort;
+        String contentType;
+        String contentEncoding;
+        byte[] body;
+    }
+
+    private HttpServer server;
+    private final List<Received> received = new CopyOnWriteArrayList<>();
+    private volatile int status = 200;
+    private volatile String reply = "{\"success\":true}";
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/location/update", this::handle);
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        Received r = new Received();
+        r.remotePort = exchange.getRemoteAddress().getPort();
+        r.contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        r.contentEncoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+        InputStream in = exchange.getRequestBody();
+        if ("gzip".equals(r.contentEncoding)) {
+            in = new GZIPInputStream(in);
+        }
+        r.body = readAll(in);
+        received.add(r);
+
+        byte[] out = reply.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Accept-Post", FixBatchCodec.CONTENT_TYPE);
+        exchange.sendResponseHeaders(status, out.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(out);
+        }
+    }
+
+    private URL url() throws IOException {
+        return new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/location/update");
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        int n;
+        while ((n = in.read(buf)) != -1) out.write(buf, 0, n);
+        return out.toByteArray();
+    }
+
+    private static FixBatchCodec encode(List<FixRecord> fixes) {
+        FixBatchCodec codec = new FixBatchCodec();
+        for (FixRecord f : fixes) codec.add(f);
+        return codec;
+    }
+
+    @Test
+    public void gzipsLargeBodiesAndServerSeesOriginalBytes() throws IOException {
+        FixBatchCodec codec = encode(TestTraces.shift(7));
+        assertTrue(codec.encodedSize() >= UplinkClient.DEFAULT_GZIP_MIN_BYTES);
+
+        UplinkClient.Response response = new UplinkClient().post(
+            url(), codec.contentType(), "token", codec.encodedSize(), codec::writeTo);
+
+        assertEquals(200, response.code);
+        assertEquals("{\"success\":true}", response.body);
+        assertEquals(FixBatchCodec.CONTENT_TYPE, response.header("accept-post"));
+        Received r = received.get(0);
+        assertEquals("gzip", r.contentEncoding);
+        assertEquals(FixBatchCodec.CONTENT_TYPE, r.contentType);
+        assertArrayEquals(codec.toByteArray(), r.body);
+        assertTrue(response.timings.gzipped);
+        assertEquals(codec.encodedSize(), response.timings.bodyBytes);
+        assertTrue(response.timings.wireBytes > 0);
+    }
+
+    @Test
+    public void sendsSmallBodiesUncompressed() throws IOException {
+        FixJsonEncoder json = new FixJsonEncoder();
+        json.add(TestTraces.shift(1).get(0));
+
+        UplinkClient.Response response = new UplinkClient().post(
+            url(), json.contentType(), "token", json.encodedSize(), json::writeTo);
+
+        assertEquals(200, response.code);
+        Received r = received.get(0);
+        assertNull(r.contentEncoding);
+        assertEquals(json.encodedSize(), r.body.length);
+        assertFalse(response.timings.gzipped);
+        assertEquals(json.encodedSize(), response.timings.wireBytes);
+    }
+
+    @Test
+    public void reusesTheConnectionAcrossUploads() throws IOException {
+        UplinkClient client = new UplinkClient();
+        FixBatchCodec codec = encode(TestTraces.shift(3));
+        for (int i = 0; i < 5; i++) {
+            UplinkClient.Response response = client.post(
+                url(), codec.contentType(), "token", codec.encodedSize(), codec::writeTo);
+            assertEquals(200, response.code);
+        }
+
+        assertEquals(5, received.size());
+        for (Received r : received) {
+            assertEquals("every upload should ride the first connection",
+                received.get(0).remotePort, r.remotePort);
+        }
+    }
+
+    @Test
+    public void drainsErrorBodyAndKeepsConnection() throws IOException {
+        UplinkClient client = new UplinkClient();
+        FixBatchCodec codec = encode(TestTraces.shift(5));
+
+        status = 500;
+        reply = "{\"error\":\"Failed to update location\"}";
+        UplinkClient.Response failed = client.post(
+            url(), codec.contentType(), "token", codec.encodedSize(), codec::writeTo);
+        assertEquals(500, failed.code);
+        assertFalse(failed.isSuccessful());
+        assertEquals(reply, failed.body);
+
+        status = 200;
+        reply = "{}";
+        UplinkClient.Response ok = client.post(
+            url(), codec.contentType(), "token", codec.encodedSize(), codec::writeTo);
+        assertTrue(ok.isSuccessful());
+        assertEquals(received.get(0).remotePort, received.get(1).remotePort);
+    }
+
+    @Test
+    public void jsonEncoderProducesValidDocument() throws Exception {
+        List<FixRecord> fixes = TestTraces.shift(11);
+        FixJsonEncoder json = new FixJsonEncoder();
+        for (FixRecord f : fixes) json.add(f);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        json.writeTo(out);
+        assertEquals(json.encodedSize(), out.size());
+
+        org.json.JSONArray locations = new org.json.JSONObject(out.toString("UTF-8")).getJSONArray("locations");
+        assertEquals(fixes.size(), locations.length());
+        for (int i = 0; i < fixes.size(); i++) {
+            org.json.JSONObject o = locations.getJSONObject(i);
+            FixRecord f = fixes.get(i);
+            assertEquals(f.latitude, o.getDouble("latitude"), 0);
+            assertEquals(f.longitude, o.getDouble("longitude"), 0);
+            assertEquals(f.timestamp, o.getLong("timestamp"));
+            assertEquals(f.hasHeading(), !o.isNull("heading"));
+            assertEquals(FixRecord.networkName(f.networkStatus), o.getString("networkStatus"));
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.loctrack.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class WakeLockManagerTest {
+    private long now = 5_000;
+    private final List<String> calls = new ArrayList<>();
+    private WakeLockManager manager;
+
+    @Before
+    public void setUp() {
+        manager = new WakeLockManager(new WakeLockManager.Lock() {
+            @Override
+            public void acquire(long timeoutMs) {
+                calls.add("acquire " + timeoutMs);
+            }
+
+            @Override
+            public void release() {
+                calls.add("release");
+            }
+        }, () -> now);
+    }
+
+    @Test
+    public void holdsAreReferenceCounted() {
+        WakeLockManager.Hold delivery = manager.acquire(WakeLockManager.Reason.DELIVERY);
+        now += 100;
+        WakeLockManager.Hold flush = manager.acquire(WakeLockManager.Reason.QUEUE_FLUSH);
+        now += 100;
+        delivery.close();
+        assertTrue(manager.isHeld());
+        assertEquals(1, manager.activeHolds());
+        now += 100;
+        flush.close();
+        flush.close();
+
+        assertFalse(manager.isHeld());
+        assertEquals(List.of("acquire 10000", "release"), calls);
+        assertEquals(300, manager.lockHeldMs());
+        assertEquals(200, manager.heldMs(WakeLockManager.Reason.DELIVERY));
+        assertEquals(200, manager.heldMs(WakeLockManager.Reason.QUEUE_FLUSH));
+        assertEquals(1, manager.lockAcquisitions());
+    }
+
+    @Test
+    public void longerHoldExtendsTimeout() {
+        try (WakeLockManager.Hold flush = manager.acquire(WakeLockManager.Reason.QUEUE_FLUSH)) {
+            now += 1_000;
+            try (WakeLockManager.Hold upload = manager.acquire(WakeLockManager.Reason.UPLOAD)) {
+                now += 2_000;
+            }
+        }
+        assertEquals(List.of("acquire 5000", "acquire " + WakeLockManager.Reason.UPLOAD.timeoutMs, "release"), calls);
+    }
+
+    @Test
+    public void leakedHoldIsBoundedByTimeout() {
+        WakeLockManager.Hold leaked = manager.acquire(WakeLockManager.Reason.DELIVERY);
+        now += 60_000;
+        assertFalse("the OS has dropped the lock", manager.isHeld());
+        assertEquals(10_000, manager.lockHeldMs());
+
+        // New work re-acquires even though the leaked hold is still open
+        try (WakeLockManager.Hold upload = manager.acquire(WakeLockManager.Reason.UPLOAD)) {
+            now += 500;
+        }
+        leaked.close();
+
+        assertEquals(List.of("acquire 10000", "acquire " + WakeLockManager.Reason.UPLOAD.timeoutMs, "release"), calls);
+        assertEquals(10_500, manager.lockHeldMs());
+        assertEquals(1, manager.overruns(WakeLockManager.Reason.DELIVERY));
+        assertEquals(10_000, manager.maxHoldMs(WakeLockManager.Reason.DELIVERY));
+        assertEquals(2, manager.lockAcquisitions());
+    }
+
+    @Test
+    public void dutyCycleAccountsForIdleTime() {
+        // One fix (50 ms of work) every 30 s for an hour
+        for (int i = 0; i < 120; i++) {
+            try (WakeLockManager.Hold hold = manager.acquire(WakeLockManager.Reason.DELIVERY)) {
+                now += 50;
+            }
+            now += 29_950;
+        }
+        assertEquals(3_600_000, manager.sinceCreatedMs());
+        assertEquals(6_000, manager.lockHeldMs());
+        assertEquals(120, manager.holdCount(WakeLockManager.Reason.DELIVERY));
+        assertEquals(0, manager.activeHolds());
+    }
+}
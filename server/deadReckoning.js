@@ -0,0 +1,49 @@
+/**
+ * Dead-reckoned position between the fixes a device sends on its
+ * latest-position lane when it transmits on deviation only. Mirrors
+ * DeadReckoningGate.predict() in the Android service line for line: the
+ * device holds a fix back while this prediction stays within its tolerance,
+ * so the live map can show the prediction instead of a stale fix.
+ *
+ * Straight-line motion from the last sent fix along its heading at its
+ * speed, quantized to cm/s and tenths of a degree (speed and heading are
+ * floats on the device - REAL columns here), for at most horizonMs. No
+ * speed or heading means standing still.
+ */
+
+const METRES_PER_DEG_LAT = 111320.0;
+const DEG_TO_RAD = Math.PI / 180.0;
+
+// Header on latest-lane requests: "toleranceMeters,maxSilenceMs"
+export const DEAD_RECKONING_HEADER = 'X-Dead-Reckoning';
+
+export function parseDeadReckoningHeader(value) {
+    if (typeof value !== 'string') return null;
+    const [tolerance, horizon] = value.split(',').map(Number);
+    if (!(tolerance > 0) || !(horizon > 0) || !Number.isFinite(tolerance) || !Number.isFinite(horizon)) {
+        return null;
+    }
+    return { toleranceMeters: tolerance, horizonMs: Math.round(horizon) };
+}
+
+/**
+ * ref: { latitude, longitude, speed, heading, timestamp (ms) }.
+ * Returns { latitude, longitude } at atMs.
+ */
+export function predictPosition(ref, atMs, horizonMs) {
+    const out = { latitude: ref.latitude, longitude: ref.longitude };
+    const speed = ref.speed == null ? NaN : Math.fround(ref.speed);
+    const heading = ref.heading == null ? NaN : Math.fround(ref.heading);
+    if (!(speed > 0) || Number.isNaN(heading)) {
+        return out;
+    }
+    // Float products, as on the device; both Math.round()s round half up
+    const metresPerSecond = Math.round(Math.fround(speed * 100)) / 100.0;
+    const bearing = Math.round(Math.fround(heading * 10)) / 10.0 * DEG_TO_RAD;
+    const seconds = Math.min(Math.max(atMs - ref.timestamp, 0), horizonMs) / 1000.0;
+    const metres = metresPerSecond * seconds;
+    out.latitude = ref.latitude + metres * Math.cos(bearing) / METRES_PER_DEG_LAT;
+    out.longitude = ref.longitude + metres * Math.sin(bearing)
+        / (METRES_PER_DEG_LAT * Math.cos(ref.latitude * DEG_TO_RAD));
+    return out;
+}
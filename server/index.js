@@ -36,11 +36,11 @@ const corsOptions = {
             : '*',  // In development, allow all
     credentials: true,
     methods: ['GET', 'POST', 'PUT', 'DELETE', 'OPTIONS'],
-    allowedHeaders: ['Content-Type', 'Authorization'],
+    allowedHeaders: ['Content-Type', 'Authorization', 'X-Location-Stream'],
 };
 app.use(cors(corsOptions));
 
-app.use(express.json());
+app.use(express.json({ limit: '5mb' }));
 app.use(morgan(process.env.NODE_ENV === 'production' ? 'combined' : 'dev'));
 
 // API Routes - these must come BEFORE static file serving
@@ -76,6 +76,14 @@ app.use((req, res) => {
     res.status(404).json({ error: 'Not Found', path: req.path });
 });
 
-app.listen(PORT, () => {
+const server = app.listen(PORT, () => {
     console.log(`Server running on port ${PORT}`);
 });
+
+// Devices reuse one keep-alive connection for their uploads. While a device is
+// moving they come at most every 15s (the client's minimum spacing), so idle
+// sockets stay open well past that (Node's default is 5s); quieter devices -
+// up to 2 min of dead-reckoning silence, or a deferred backlog - reconnect.
+// Keep headersTimeout above keepAliveTimeout as Node requires.
+server.keepAliveTimeout = 65000;
+server.headersTimeout = 66000;
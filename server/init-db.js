@@ -56,6 +56,73 @@ CREATE TABLE IF NOT EXISTS tracking_sessions (
     created_at TIMESTAMP WITH TIME ZONE DEFAULT CURRENT_TIMESTAMP,
     updated_at TIMESTAMP WITH TIME ZONE DEFAULT CURRENT_TIMESTAMP
 );
+
+-- Highest committed upload sequence per device stream (idempotent /location/update)
+CREATE TABLE IF NOT EXISTS location_upload_cursors (
+    user_id VARCHAR(255) NOT NULL,
+    stream_id VARCHAR(64) NOT NULL,
+    committed_seq BIGINT NOT NULL DEFAULT 0,
+    updated_at TIMESTAMP WITH TIME ZONE DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (user_id, stream_id)
+);
+
+-- Ranges committed out of order above the cursor (parallel backlog chunks)
+CREATE TABLE IF NOT EXISTS location_upload_ranges (
+    user_id VARCHAR(255) NOT NULL,
+    stream_id VARCHAR(64) NOT NULL,
+    from_seq BIGINT NOT NULL,
+    to_seq BIGINT NOT NULL,
+    PRIMARY KEY (user_id, stream_id, from_seq)
+);
+
+-- Newest known position per user, from the devices' latest-position lane.
+-- dr_* is set while the device only sends on deviation: the live map
+-- dead-reckons from the row for up to dr_horizon_ms
+CREATE TABLE IF NOT EXISTS location_latest (
+    user_id VARCHAR(255) PRIMARY KEY,
+    latitude DOUBLE PRECISION NOT NULL,
+    longitude DOUBLE PRECISION NOT NULL,
+    accuracy REAL,
+    speed REAL,
+    heading REAL,
+    battery_level INTEGER,
+    timestamp TIMESTAMP WITH TIME ZONE NOT NULL,
+    updated_at TIMESTAMP WITH TIME ZONE DEFAULT CURRENT_TIMESTAMP,
+    dr_tolerance_m REAL,
+    dr_horizon_ms INTEGER
+);
+
+-- Tables created before dead reckoning get its columns added
+ALTER TABLE location_latest
+    ADD COLUMN IF NOT EXISTS dr_tolerance_m REAL,
+    ADD COLUMN IF NOT EXISTS dr_horizon_ms INTEGER;
+
+-- Latest client metrics summary per device stream, for fleet monitoring
+CREATE TABLE IF NOT EXISTS client_metrics (
+    user_id VARCHAR(255) NOT NULL,
+    stream_id VARCHAR(64) NOT NULL,
+    metrics JSONB NOT NULL,
+    reported_at TIMESTAMP WITH TIME ZONE DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (user_id, stream_id)
+);
+
+-- Stays at sites and trips between them, detected on the device
+CREATE TABLE IF NOT EXISTS location_segments (
+    user_id VARCHAR(255) NOT NULL,
+    type VARCHAR(8) NOT NULL,
+    start_time TIMESTAMP WITH TIME ZONE NOT NULL,
+    end_time TIMESTAMP WITH TIME ZONE,
+    latitude DOUBLE PRECISION NOT NULL,
+    longitude DOUBLE PRECISION NOT NULL,
+    end_latitude DOUBLE PRECISION,
+    end_longitude DOUBLE PRECISION,
+    distance REAL,
+    max_speed REAL,
+    activity VARCHAR(16),
+    fixes INTEGER,
+    updated_at TIMESTAMP WITH TIME ZONE DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (user_id, type, start_time)
+);
 `;
 
 const seed = async () => {
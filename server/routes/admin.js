@@ -1,6 +1,7 @@
 import express from 'express';
 import pool from '../db.js';
 import { authenticateToken } from '../middleware/auth.js';
+import { predictPosition } from '../deadReckoning.js';
 
 const router = express.Router();
 
@@ -483,6 +484,38 @@ router.get('/live-map', authenticateToken, async (req, res) => {
 
         const result = await pool.query(query, params);
 
+        // Devices send their current position ahead of the history backlog -
+        // prefer it whenever it is newer than the last logged fix
+        const latest = await pool.query(
+            `SELECT user_id, latitude, longitude, accuracy, speed, heading, battery_level, timestamp,
+                    dr_horizon_ms
+             FROM location_latest
+             WHERE user_id = ANY($1::varchar[])`,
+            [result.rows.map(row => row.user_id)]
+        );
+        const latestByUser = new Map(latest.rows.map(row => [row.user_id, row]));
+        for (const row of result.rows) {
+            const newer = latestByUser.get(row.user_id);
+            if (newer && (!row.last_seen || new Date(newer.timestamp) > new Date(row.last_seen))) {
+                const seenAt = new Date(newer.timestamp).getTime();
+                const ageMs = Date.now() - seenAt;
+                // The device stays quiet while this prediction holds, within its tolerance
+                const position = newer.dr_horizon_ms > 0
+                    ? predictPosition({ ...newer, timestamp: seenAt }, Date.now(), newer.dr_horizon_ms)
+                    : newer;
+                Object.assign(row, {
+                    latitude: position.latitude,
+                    longitude: position.longitude,
+                    predicted: position !== newer,
+                    accuracy: newer.accuracy,
+                    speed: newer.speed,
+                    battery_level: newer.battery_level ?? row.battery_level,
+                    last_seen: newer.timestamp,
+                    status: ageMs < 5 * 60000 ? 'online' : ageMs < 30 * 60000 ? 'idle' : 'offline'
+                });
+            }
+        }
+
         const technicians = result.rows
             .filter(row => row.latitude && row.longitude)
             .map(row => ({
@@ -497,7 +530,8 @@ router.get('/live-map', authenticateToken, async (req, res) => {
                 accuracy: row.accuracy ? Math.round(parseFloat(row.accuracy)) : null,
                 address: null,
                 lastSeen: row.last_seen || new Date().toISOString(),
-                status: row.last_seen ? row.status : 'offline'
+                status: row.last_seen ? row.status : 'offline',
+                predicted: row.predicted === true
             }));
 
         res.json(technicians);
@@ -507,6 +541,32 @@ router.get('/live-map', authenticateToken, async (req, res) => {
     }
 });
 
+/**
+ * GET /api/admin/fleet-metrics
+ * Latest client metrics summary per device, as piggybacked on uploads
+ */
+router.get('/fleet-metrics', authenticateToken, async (req, res) => {
+    try {
+        const result = await pool.query(`
+            SELECT m.user_id, u.name, m.stream_id, m.metrics, m.reported_at
+            FROM client_metrics m
+            LEFT JOIN users u ON u.id = m.user_id
+            ORDER BY m.reported_at DESC
+        `);
+
+        res.json(result.rows.map(row => ({
+            userId: row.user_id,
+            name: row.name || 'Unknown',
+            streamId: row.stream_id,
+            metrics: row.metrics,
+            reportedAt: row.reported_at
+        })));
+    } catch (error) {
+        console.error('Admin Fleet Metrics Error:', error.message);
+        res.status(500).json({ error: 'Failed to fetch fleet metrics' });
+    }
+});
+
 /**
  * GET /api/admin/technician/:id/history
  * Get location history for a specific technician
@@ -1,9 +1,22 @@
 import express from 'express';
 import pool from '../db.js';
 import { authenticateToken } from '../middleware/auth.js';
+import { BATCH_CONTENT_TYPE, decodeLocationBatch } from '../fixBatchCodec.js';
+import { DEAD_RECKONING_HEADER, parseDeadReckoningHeader } from '../deadReckoning.js';
 
 const router = express.Router();
 
+// Devices name their upload stream (one per on-device queue) in this header;
+// fixes carry a per-stream sequence number
+const STREAM_HEADER = 'X-Location-Stream';
+// Chunks uploaded in parallel name the first sequence they cover (gap
+// before their first fix included), so they can commit out of order
+const RANGE_START_HEADER = 'X-Location-Range-Start';
+const OUT_OF_ORDER_HEADER = 'X-Location-Out-Of-Order';
+// Compact JSON counters / histogram summaries, sent now and then on an upload
+const METRICS_HEADER = 'X-Client-Metrics';
+const METRICS_HEADER_MAX_LENGTH = 4096;
+
 /**
  * POST /api/location/start
  * Start a new tracking session for the authenticated technician
@@ -38,13 +51,66 @@ router.post('/start', authenticateToken, async (req, res) => {
     }
 });
 
+// Best effort - a bad or unstorable summary never fails the upload it rode on
+const storeClientMetrics = async (employeeId, streamId, header) => {
+    if (!header || header.length > METRICS_HEADER_MAX_LENGTH) {
+        return;
+    }
+    try {
+        const metrics = JSON.parse(header);
+        if (!metrics || typeof metrics !== 'object' || Array.isArray(metrics)) {
+            return;
+        }
+        await pool.query(
+            `INSERT INTO client_metrics (user_id, stream_id, metrics, reported_at)
+             VALUES ($1, $2, $3, CURRENT_TIMESTAMP)
+             ON CONFLICT (user_id, stream_id)
+             DO UPDATE SET metrics = EXCLUDED.metrics, reported_at = EXCLUDED.reported_at`,
+            [employeeId, streamId || '', metrics]
+        );
+    } catch (error) {
+        console.error('Client metrics error:', error.message);
+    }
+};
+
 /**
  * POST /api/location/update
  * Bulk update location logs for the authenticated technician
+ * Accepts JSON ({ locations: [...] }) or the compact binary batch format
+ *
+ * With an X-Location-Stream header, fixes whose seq is at or below the
+ * stream's committed cursor are skipped as duplicates, and the response
+ * carries the new cursor as committedSeq. Clients trim their queue by it.
+ *
+ * A request with X-Location-Range-Start commits the range from that
+ * sequence through its last fix, even ahead of the cursor; fixes inside
+ * committed ranges are skipped as duplicates too. The cursor only advances
+ * over contiguous ranges, so chunks of a backlog can be uploaded in
+ * parallel and arrive in any order.
+ *
+ * An X-Client-Metrics header (compact JSON) replaces the device's stored
+ * metrics summary.
  */
-router.post('/update', authenticateToken, async (req, res) => {
-    const { locations } = req.body;
+router.post('/update', authenticateToken, express.raw({ type: BATCH_CONTENT_TYPE, limit: '5mb' }), async (req, res) => {
     const { employeeId } = req.user;
+    let locations;
+
+    if (req.is(BATCH_CONTENT_TYPE)) {
+        try {
+            locations = decodeLocationBatch(req.body);
+        } catch (error) {
+            return res.status(400).json({ error: `Invalid location batch: ${error.message}` });
+        }
+    } else if (req.is('application/json')) {
+        ({ locations } = req.body || {});
+    } else {
+        return res.status(415).json({ error: 'Unsupported Content-Type' });
+    }
+
+    // Advertise the binary format so clients can upgrade from JSON, and
+    // out-of-order range commits so they can upload chunks in parallel
+    res.set('Accept-Post', `${BATCH_CONTENT_TYPE}, application/json`);
+    res.set(OUT_OF_ORDER_HEADER, '1');
 
     if (!locations || !Array.isArray(locations) || locations.length === 0) {
         return res.status(400).json({ error: 'No locations provided' });
@@ -57,11 +123,57 @@ router.post('/update', authenticateToken, async (req, res) => {
         }
     }
 
-    const client = await pool.connect();
+    const streamId = req.get(STREAM_HEADER);
+    const sequenced = Boolean(streamId) && streamId.length <= 64
+        && locations.every((loc) => Number.isSafeInteger(loc.seq) && loc.seq > 0);
+    const requestEnd = sequenced ? Math.max(...locations.map((loc) => loc.seq)) : 0;
+    let rangeStart = req.get(RANGE_START_HEADER) !== undefined ? Number(req.get(RANGE_START_HEADER)) : null;
+    if (rangeStart !== null && !(Number.isSafeInteger(rangeStart) && rangeStart > 0
+        && rangeStart <= Math.min(...locations.map((loc) => loc.seq)))) {
+        return res.status(400).json({ error: `Invalid ${RANGE_START_HEADER}` });
+    }
+
+    let client;
+    try {
+        client = await pool.connect();
+    } catch (error) {
+        console.error('Location update error:', error.message);
+        return res.status(503).set('Retry-After', '30').json({ error: 'Database unavailable' });
+    }
 
     try {
         await client.query('BEGIN');
 
+        let committedSeq = null;
+        if (sequenced) {
+            // Lock this stream's cursor so concurrent resends serialise
+            await client.query(
+                `INSERT INTO location_upload_cursors (user_id, stream_id)
+                 VALUES ($1, $2) ON CONFLICT DO NOTHING`,
+                [employeeId, streamId]
+            );
+            const cursor = await client.query(
+                `SELECT committed_seq FROM location_upload_cursors
+                 WHERE user_id = $1 AND stream_id = $2 FOR UPDATE`,
+                [employeeId, streamId]
+            );
+            committedSeq = Number(cursor.rows[0].committed_seq);
+            const ranges = await client.query(
+                `SELECT from_seq, to_seq FROM location_upload_ranges
+                 WHERE user_id = $1 AND stream_id = $2`,
+                [employeeId, streamId]
+            );
+            const committedRanges = ranges.rows.map((row) => [Number(row.from_seq), Number(row.to_seq)]);
+            const inRange = (seq) => committedRanges.some(([from, to]) => seq >= from && seq <= to);
+            const fresh = locations
+                .filter((loc) => loc.seq > committedSeq && !inRange(loc.seq))
+                .sort((a, b) => a.seq - b.seq);
+            if (fresh.length < locations.length) {
+                console.log(`Skipping ${locations.length - fresh.length} already committed location(s) for stream ${streamId}`);
+            }
+            locations = fresh;
+        }
+
         const queryText = `
             INSERT INTO location_logs 
             (user_id, latitude, longitude, accuracy, speed, heading, timestamp, battery_level, network_status)
@@ -85,19 +197,64 @@ router.post('/update', authenticateToken, async (req, res) => {
         }
 
         // Update session stats
-        await client.query(
-            `UPDATE tracking_sessions 
-             SET total_locations = total_locations + $2, updated_at = CURRENT_TIMESTAMP
-             WHERE user_id = $1 AND status = 'active'`,
-            [employeeId, locations.length]
-        );
+        if (locations.length > 0) {
+            await client.query(
+                `UPDATE tracking_sessions 
+                 SET total_locations = total_locations + $2, updated_at = CURRENT_TIMESTAMP
+                 WHERE user_id = $1 AND status = 'active'`,
+                [employeeId, locations.length]
+            );
+        }
+
+        if (sequenced) {
+            // This request's range is committed; then advance the cursor over
+            // every range that now touches it
+            const start = rangeStart ?? committedSeq + 1;
+            if (requestEnd >= start) {
+                await client.query(
+                    `INSERT INTO location_upload_ranges (user_id, stream_id, from_seq, to_seq)
+                     VALUES ($1, $2, $3, $4)
+                     ON CONFLICT (user_id, stream_id, from_seq)
+                     DO UPDATE SET to_seq = GREATEST(location_upload_ranges.to_seq, EXCLUDED.to_seq)`,
+                    [employeeId, streamId, start, requestEnd]
+                );
+            }
+            const pending = await client.query(
+                `SELECT from_seq, to_seq FROM location_upload_ranges
+                 WHERE user_id = $1 AND stream_id = $2
+                 ORDER BY from_seq`,
+                [employeeId, streamId]
+            );
+            const previousSeq = committedSeq;
+            for (const row of pending.rows) {
+                if (Number(row.from_seq) > committedSeq + 1) {
+                    break;
+                }
+                committedSeq = Math.max(committedSeq, Number(row.to_seq));
+            }
+            if (committedSeq > previousSeq) {
+                await client.query(
+                    `DELETE FROM location_upload_ranges
+                     WHERE user_id = $1 AND stream_id = $2 AND to_seq <= $3`,
+                    [employeeId, streamId, committedSeq]
+                );
+                await client.query(
+                    `UPDATE location_upload_cursors
+                     SET committed_seq = $3, updated_at = CURRENT_TIMESTAMP
+                     WHERE user_id = $1 AND stream_id = $2`,
+                    [employeeId, streamId, committedSeq]
+                );
+            }
+        }
 
         await client.query('COMMIT');
 
         res.json({ 
             success: true, 
-            count: locations.length 
+            count: locations.length,
+            ...(sequenced && { committedSeq })
         });
+        storeClientMetrics(employeeId, streamId, req.get(METRICS_HEADER));
     } catch (error) {
         await client.query('ROLLBACK');
         console.error('Location update error:', error.message);
@@ -107,6 +264,163 @@ router.post('/update', authenticateToken, async (req, res) => {
     }
 });
 
+/**
+ * POST /api/location/latest
+ * Record the technician's current position ({ locations: [fix] }, the newest
+ * smoothed fix taken). Only moves the position forward in time, and does not
+ * touch the history - /update carries that, simplified, in order. With an
+ * X-Dead-Reckoning header the device holds fixes back while they stay within
+ * its tolerance of predictPosition() from this one.
+ */
+router.post('/latest', authenticateToken, async (req, res) => {
+    const { employeeId } = req.user;
+    const { locations } = req.body || {};
+    const loc = Array.isArray(locations) ? locations[locations.length - 1] : null;
+
+    if (!loc || typeof loc.latitude !== 'number' || typeof loc.longitude !== 'number') {
+        return res.status(400).json({ error: 'Invalid location data' });
+    }
+    const timestamp = loc.timestamp ? new Date(loc.timestamp) : new Date();
+    const deadReckoning = parseDeadReckoningHeader(req.get(DEAD_RECKONING_HEADER));
+
+    try {
+        await pool.query(
+            `INSERT INTO location_latest
+             (user_id, latitude, longitude, accuracy, speed, heading, battery_level, timestamp,
+              dr_tolerance_m, dr_horizon_ms)
+             VALUES ($1, $2, $3, $4, $5, $6, $7, $8, $9, $10)
+             ON CONFLICT (user_id) DO UPDATE SET
+                latitude = EXCLUDED.latitude,
+                longitude = EXCLUDED.longitude,
+                accuracy = EXCLUDED.accuracy,
+                speed = EXCLUDED.speed,
+                heading = EXCLUDED.heading,
+                battery_level = EXCLUDED.battery_level,
+                timestamp = EXCLUDED.timestamp,
+                updated_at = CURRENT_TIMESTAMP,
+                dr_tolerance_m = EXCLUDED.dr_tolerance_m,
+                dr_horizon_ms = EXCLUDED.dr_horizon_ms
+             WHERE location_latest.timestamp < EXCLUDED.timestamp`,
+            [
+                employeeId,
+                loc.latitude,
+                loc.longitude,
+                loc.accuracy ?? null,
+                loc.speed ?? null,
+                loc.heading ?? null,
+                loc.batteryLevel >= 0 ? loc.batteryLevel : null,
+                timestamp,
+                deadReckoning ? deadReckoning.toleranceMeters : null,
+                deadReckoning ? deadReckoning.horizonMs : null
+            ]
+        );
+        res.json({ success: true });
+    } catch (error) {
+        console.error('Latest location error:', error.message);
+        res.status(503).set('Retry-After', '30').json({ error: 'Failed to record latest location' });
+    }
+});
+
+const MAX_SEGMENTS_PER_REQUEST = 256;
+
+const isSegment = (s) => s && (s.type === 'stay' || s.type === 'trip')
+    && Number.isFinite(s.startTime) && typeof s.latitude === 'number' && typeof s.longitude === 'number'
+    && (s.endTime == null || (Number.isFinite(s.endTime) && s.endTime >= s.startTime));
+
+/**
+ * POST /api/location/segments
+ * Record stays and trips detected on the device ({ segments: [...] }).
+ * A stay arrives open (endTime null) once confirmed and again, closed, when
+ * the technician leaves; resends just overwrite.
+ */
+router.post('/segments', authenticateToken, async (req, res) => {
+    const { employeeId } = req.user;
+    const { segments } = req.body || {};
+
+    if (!Array.isArray(segments) || segments.length > MAX_SEGMENTS_PER_REQUEST || !segments.every(isSegment)) {
+        return res.status(400).json({ error: 'Invalid segments' });
+    }
+
+    let client;
+    try {
+        client = await pool.connect();
+        await client.query('BEGIN');
+        for (const s of segments) {
+            await client.query(
+                `INSERT INTO location_segments
+                 (user_id, type, start_time, end_time, latitude, longitude, end_latitude, end_longitude,
+                  distance, max_speed, activity, fixes)
+                 VALUES ($1, $2, $3, $4, $5, $6, $7, $8, $9, $10, $11, $12)
+                 ON CONFLICT (user_id, type, start_time) DO UPDATE SET
+                    end_time = COALESCE(EXCLUDED.end_time, location_segments.end_time),
+                    latitude = EXCLUDED.latitude,
+                    longitude = EXCLUDED.longitude,
+                    end_latitude = EXCLUDED.end_latitude,
+                    end_longitude = EXCLUDED.end_longitude,
+                    distance = EXCLUDED.distance,
+                    max_speed = EXCLUDED.max_speed,
+                    activity = EXCLUDED.activity,
+                    fixes = GREATEST(EXCLUDED.fixes, location_segments.fixes),
+                    updated_at = CURRENT_TIMESTAMP`,
+                [
+                    employeeId,
+                    s.type,
+                    new Date(s.startTime),
+                    s.endTime != null ? new Date(s.endTime) : null,
+                    s.latitude,
+                    s.longitude,
+                    s.endLatitude ?? null,
+                    s.endLongitude ?? null,
+                    s.distance ?? null,
+                    s.maxSpeed ?? null,
+                    typeof s.activity === 'string' ? s.activity.slice(0, 16) : null,
+                    Number.isInteger(s.fixes) ? s.fixes : null
+                ]
+            );
+        }
+        await client.query('COMMIT');
+        res.json({ success: true, stored: segments.length });
+    } catch (error) {
+        if (client) {
+            // A failed rollback must not keep the device from hearing back
+            await client.query('ROLLBACK').catch(() => {});
+        }
+        console.error('Segments error:', error.message);
+        res.status(503).set('Retry-After', '30').json({ error: 'Failed to record segments' });
+    } finally {
+        if (client) {
+            client.release();
+        }
+    }
+});
+
+/**
+ * GET /api/location/segments?from=&to=
+ * Stays and trips of the authenticated technician overlapping the range
+ * (epoch ms; default the last 24 hours), oldest first
+ */
+router.get('/segments', authenticateToken, async (req, res) => {
+    const { employeeId } = req.user;
+    const to = Number.parseInt(req.query.to, 10) || Date.now();
+    const from = Number.parseInt(req.query.from, 10) || to - 24 * 3600 * 1000;
+
+    try {
+        const result = await pool.query(
+            `SELECT type, start_time, end_time, latitude, longitude, end_latitude, end_longitude,
+                    distance, max_speed, activity, fixes
+             FROM location_segments
+             WHERE user_id = $1 AND start_time <= $3 AND (end_time IS NULL OR end_time >= $2)
+             ORDER BY start_time
+             LIMIT 500`,
+            [employeeId, new Date(from), new Date(to)]
+        );
+        res.json(result.rows);
+    } catch (error) {
+        console.error('Segments history error:', error.message);
+        res.status(500).json({ error: 'Failed to fetch segments' });
+    }
+});
+
 /**
  * POST /api/location/stop
  * Stop the active tracking session
@@ -1,4 +1,5 @@
 import { registerPlugin } from '@capacitor/core';
+import type { PluginListenerHandle } from '@capacitor/core';
 
 export interface BackgroundLocationPermissions {
     location: 'granted' | 'denied' | 'prompt';
@@ -16,12 +17,185 @@ export interface TrackingFeatures {
     bootRestart: boolean;
 }
 
+/**
+ * Tracking profile
+ * - realtime: every fix is processed and queued as it arrives
+ * - deferred: the GNSS chipset buffers fixes and delivers them in batches
+ *   (near-real-time dashboards; far fewer CPU wakeups)
+ */
+export type TrackingMode = 'realtime' | 'deferred';
+
 export interface StartTrackingResult {
     success: boolean;
     message: string;
+    mode?: TrackingMode;
     features?: TrackingFeatures;
 }
 
+export interface WakeLockReasonStats {
+    holds: number;
+    /** Cumulative hold time, each hold capped at its timeout */
+    heldMs: number;
+    maxHoldMs: number;
+    /** Holds still open past their timeout */
+    overruns: number;
+}
+
+export interface WakeLockDiagnostics {
+    /** Time the CPU wakelock was actually held */
+    heldMs: number;
+    /** Time since tracking first started in this process */
+    sinceMs: number;
+    acquisitions: number;
+    activeHolds: number;
+    reasons: {
+        delivery: WakeLockReasonStats;
+        upload: WakeLockReasonStats;
+        syncHandoff: WakeLockReasonStats;
+        queueFlush: WakeLockReasonStats;
+    };
+}
+
+export interface UplinkLaneStats {
+    requests: number;
+    failures: number;
+    fixes: number;
+    bytes: number;
+    /** Epoch ms of the last successful upload, 0 if none */
+    lastSuccessAt: number;
+    /** Age of the newest fix in the last successful upload when it landed, -1 if none */
+    lastFixAgeMs: number;
+}
+
+export interface UplinkDiagnostics {
+    /** The newest fix alone, sent ahead of any backlog */
+    latest: UplinkLaneStats & {
+        /** False once the server turned out not to support the latest-position endpoint */
+        enabled: boolean;
+        /** Present while the lane only sends fixes the server could not predict */
+        deadReckoning?: {
+            toleranceMeters: number;
+            maxSilenceMs: number;
+            /** Fixes sent */
+            passed: number;
+            /** Fixes held back because the server-side prediction was close enough */
+            suppressed: number;
+        };
+    };
+    /** The backlog, in order */
+    history: UplinkLaneStats & {
+        /** Fixes per request, adapted to the link (AIMD) */
+        chunkSize: number;
+        /** Read timeout for the next request */
+        timeoutMs: number;
+        /** Smoothed request duration, -1 before the first upload */
+        rttMs: number;
+        /** Smoothed delivery rate, -1 before the first upload */
+        fixesPerSecond: number;
+        /** Backlog rounds uploaded with several chunks in flight */
+        parallelRounds: number;
+        /** Whether the server accepts chunks committed out of order (required for parallel drain) */
+        outOfOrderSupported: boolean;
+    };
+    /** Stays and trips detected on the device (fixes = segments sent) */
+    segments: UplinkLaneStats & {
+        /** False once the server turned out not to support the segments endpoint */
+        enabled: boolean;
+    };
+}
+
+export interface HistogramBucket {
+    /** Inclusive upper bound, -1 for the overflow bucket */
+    le: number;
+    count: number;
+}
+
+export interface HistogramStats {
+    count: number;
+    sum: number;
+    max: number;
+    /** Quantiles are bucket upper bounds, capped at max */
+    p50: number;
+    p90: number;
+    p99: number;
+    buckets: HistogramBucket[];
+}
+
+export interface MetricsDiagnostics {
+    /** Totals since the app process started */
+    counters: {
+        fixesReceived: number;
+        filteredAccuracy: number;
+        filteredDisplacement: number;
+        heldBySimplifier: number;
+        batched: number;
+        uploaded: number;
+        dropped: number;
+        intervalReregistrations: number;
+    };
+    histograms: {
+        syncLatencyMs: HistogramStats;
+        payloadBytes: HistogramStats;
+        /** Fixes waiting when an upload started */
+        queueDepth: HistogramStats;
+        wakeLockHoldMs: HistogramStats;
+    };
+}
+
+export interface Diagnostics {
+    isTracking: boolean;
+    /** Absent until the tracking service has run in this app process */
+    wakeLocks?: WakeLockDiagnostics;
+    /** Absent until the tracking service has run in this app process */
+    uplink?: UplinkDiagnostics;
+    metrics: MetricsDiagnostics;
+}
+
+export type ActivityKey = 'driving' | 'cycling' | 'running' | 'walking' | 'still' | 'unknown';
+
+export interface LivePosition {
+    /** Epoch ms */
+    timestamp: number;
+    latitude: number;
+    longitude: number;
+    accuracy: number;
+    /** m/s, absent when the provider did not report it */
+    speed?: number;
+    /** Degrees, absent when the provider did not report it */
+    heading?: number;
+    /** 0..1 from the smoothing filter */
+    confidence: number;
+    activity: ActivityKey;
+}
+
+/**
+ * Everything since the previous event, delivered at most a few times a
+ * second (every 5 s while the app is in the background)
+ */
+export interface TrackingUpdateEvent {
+    /** Processed fixes, oldest first; only the newest while backgrounded */
+    positions: LivePosition[];
+    /** Positions coalesced away since the previous event */
+    droppedPositions: number;
+    /** Present when the activity changed */
+    activity?: ActivityKey;
+    /** Present when a sync finished */
+    sync?: {
+        success: boolean;
+        /** Fixes still queued on the device */
+        pending: number;
+        /** Epoch ms */
+        at: number;
+    };
+}
+
+export interface HistoryResult {
+    /** Oldest first */
+    positions: LivePosition[];
+    /** Epoch ms of the oldest fix kept on the device, -1 if none */
+    oldestAvailable: number;
+}
+
 export interface BackgroundLocationPlugin {
     /**
      * Start production-grade background location tracking
@@ -36,6 +210,18 @@ export interface BackgroundLocationPlugin {
     startTracking(options: {
         authToken: string;
         apiUrl?: string;
+        /** Defaults to 'realtime' */
+        mode?: TrackingMode;
+        /** Deferred mode only: how long fixes may be held back (default 120000 ms) */
+        maxUpdateDelayMs?: number;
+        /**
+         * Only send the live position when it strays this far (meters) from
+         * where the server dead-reckons it; history uploads are unaffected.
+         * Defaults to 0 (every fix)
+         */
+        positionToleranceMeters?: number;
+        /** Send the live position at least this often while gated (default 120000 ms) */
+        maxSilenceMs?: number;
     }): Promise<StartTrackingResult>;
 
     /**
@@ -84,6 +270,38 @@ export interface BackgroundLocationPlugin {
      * This persists even after app restart
      */
     isTrackingActive(): Promise<{ isActive: boolean }>;
+
+    /**
+     * Native tracking diagnostics
+     * Wakelock hold time per unit of work, to verify battery impact,
+     * and per-lane upload stats
+     */
+    getDiagnostics(): Promise<Diagnostics>;
+
+    /**
+     * Fixes recorded on this device, read locally (no network)
+     * Kept for 7 days, within a storage budget; with maxPoints the range is
+     * binned in time and thinned to about that many points for display
+     */
+    getHistory(options: {
+        /** Epoch ms, inclusive */
+        from: number;
+        /** Epoch ms, inclusive; defaults to now */
+        to?: number;
+        /** 0 or absent returns every fix */
+        maxPoints?: number;
+    }): Promise<HistoryResult>;
+
+    /**
+     * Live fixes, activity changes and sync status from the tracking service
+     * Nothing is buffered natively while no listener is registered
+     */
+    addListener(
+        eventName: 'trackingUpdate',
+        listenerFunc: (event: TrackingUpdateEvent) => void,
+    ): Promise<PluginListenerHandle>;
+
+    removeAllListeners(): Promise<void>;
 }
 
 const BackgroundLocation = registerPlugin<BackgroundLocationPlugin>('BackgroundLocation');